@@ -1,18 +1,43 @@
 package BatterySwapStation.config;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.List;
+
 @Configuration
 @EnableCaching
 public class CacheConfig {
 
+    public static final String SYSTEM_PRICES = "systemPrices";
+    public static final String SUBSCRIPTION_PLANS = "subscriptionPlans";
+    public static final String ACTIVE_SUBSCRIPTIONS = "activeSubscriptions";
+    public static final String USER_VEHICLES = "userVehicles";
+
     @Bean
     public CacheManager cacheManager() {
-        // Dùng ConcurrentMapCache (nhẹ, không phụ thuộc lib ngoài)
-        return new ConcurrentMapCacheManager("stations");
+        // Caffeine: mỗi cache có giới hạn số phần tử + TTL riêng, recordStats → actuator tự expose cache.gets / cache.evictions
+        CaffeineCacheManager manager = new CaffeineCacheManager();
+        manager.setCacheNames(List.of()); // tắt tạo cache động: tên cache sai sẽ báo lỗi ngay
+
+        manager.registerCustomCache(SYSTEM_PRICES, build(64, Duration.ofHours(1)));
+        manager.registerCustomCache(SUBSCRIPTION_PLANS, build(8, Duration.ofMinutes(30)));
+        manager.registerCustomCache(ACTIVE_SUBSCRIPTIONS, build(10_000, Duration.ofMinutes(5)));
+        manager.registerCustomCache(USER_VEHICLES, build(10_000, Duration.ofMinutes(10)));
+        return manager;
+    }
+
+    private static Cache<Object, Object> build(long maxSize, Duration ttl) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
     }
 }
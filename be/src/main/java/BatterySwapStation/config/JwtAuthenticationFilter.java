@@ -2,13 +2,17 @@ package BatterySwapStation.config;
 
 import BatterySwapStation.entity.User;
 import BatterySwapStation.repository.UserRepository;
+import BatterySwapStation.service.AuthPrincipalCache;
 import BatterySwapStation.service.JwtService;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.NonNull;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
@@ -17,6 +21,8 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
 
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
@@ -24,15 +30,18 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     private final JwtService jwtService;
     private final UserDetailsService userDetailsService;
     private final UserRepository userRepository;
+    private final AuthPrincipalCache authPrincipalCache;
 
     public JwtAuthenticationFilter(
             JwtService jwtService,
             UserDetailsService userDetailsService,
-            UserRepository userRepository
+            UserRepository userRepository,
+            AuthPrincipalCache authPrincipalCache
     ) {
         this.jwtService = jwtService;
         this.userDetailsService = userDetailsService;
         this.userRepository = userRepository;
+        this.authPrincipalCache = authPrincipalCache;
     }
 
     @Override
@@ -56,46 +65,73 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         }
 
         String jwt = authHeader.substring(7);
-        String userId;
 
+        if (SecurityContextHolder.getContext().getAuthentication() != null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        // ⚡ Fast path: token đã xác thực trước đó → không parse lại, không query DB
+        AuthPrincipalCache.Entry cached = authPrincipalCache.get(jwt);
+        if (cached != null) {
+            authenticate(request, cached.user(), cached.authorities());
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        Claims claims;
         try {
-            userId = jwtService.extractUserId(jwt);
+            claims = jwtService.parseClaims(jwt);
         } catch (Exception e) {
             filterChain.doFilter(request, response);
             return;
         }
 
-        if (userId != null && SecurityContextHolder.getContext().getAuthentication() == null) {
+        String userId = claims.getSubject();
+        if (userId != null) {
 
             User userEntity = userRepository.findById(userId).orElse(null);
 
             if (userEntity != null) {
-                UsernamePasswordAuthenticationToken authToken =
-                        new UsernamePasswordAuthenticationToken(
-                                userEntity,
-                                null,
-                                null // bạn đang ko dùng Authorities -> để null OK
-                        );
-                authToken.setDetails(
-                        new WebAuthenticationDetailsSource().buildDetails(request)
-                );
-                SecurityContextHolder.getContext().setAuthentication(authToken);
+                String role = claims.get("role", String.class);
+                // Token cũ của tài khoản đã khóa / đã đổi role → không tin claims nữa
+                if (!userEntity.isActive() || !roleMatches(role, userEntity)) {
+                    filterChain.doFilter(request, response);
+                    return;
+                }
+
+                // ID + role lấy từ token: principal cache giữ tối đa 60s rồi kiểm lại active / role ở DB
+                List<SimpleGrantedAuthority> authorities = role != null
+                        ? List.of(new SimpleGrantedAuthority("ROLE_" + role.toUpperCase()))
+                        : List.of();
+                if (claims.getExpiration() != null) {
+                    authPrincipalCache.put(jwt, userEntity, authorities, claims.getExpiration().getTime());
+                }
+                authenticate(request, userEntity, authorities);
             } else {
-                // fallback theo cách cũ nếu cần (UserDetails)
+                // fallback theo cách cũ nếu cần (UserDetails) — claims đã kiểm chữ ký + hạn dùng ở trên
                 UserDetails userDetails = userDetailsService.loadUserByUsername(userId);
-                if (jwtService.isTokenValid(jwt, userDetails)) {
-                    UsernamePasswordAuthenticationToken authToken =
-                            new UsernamePasswordAuthenticationToken(
-                                    userDetails, null, userDetails.getAuthorities()
-                            );
-                    authToken.setDetails(
-                            new WebAuthenticationDetailsSource().buildDetails(request)
-                    );
-                    SecurityContextHolder.getContext().setAuthentication(authToken);
+                if (userId.equals(userDetails.getUsername())) {
+                    authenticate(request, userDetails, userDetails.getAuthorities());
                 }
             }
         }
 
         filterChain.doFilter(request, response);
     }
+
+    private static void authenticate(HttpServletRequest request, Object principal,
+                                     Collection<? extends GrantedAuthority> authorities) {
+        UsernamePasswordAuthenticationToken authToken =
+                new UsernamePasswordAuthenticationToken(principal, null, authorities);
+        authToken.setDetails(
+                new WebAuthenticationDetailsSource().buildDetails(request)
+        );
+        SecurityContextHolder.getContext().setAuthentication(authToken);
+    }
+
+    private static boolean roleMatches(String tokenRole, User user) {
+        if (tokenRole == null || user.getRole() == null || user.getRole().getRoleName() == null) return true;
+        return tokenRole.equalsIgnoreCase(user.getRole().getRoleName());
+    }
 }
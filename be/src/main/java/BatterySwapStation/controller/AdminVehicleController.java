@@ -1,15 +1,25 @@
 package BatterySwapStation.controller;
 
+import BatterySwapStation.dto.VehicleImportErrorDTO;
+import BatterySwapStation.dto.VehicleImportJobResponse;
 import BatterySwapStation.dto.VehicleImportResultDTO;
+import BatterySwapStation.service.VehicleImportJobService;
 import BatterySwapStation.service.VehicleImportService;
 import BatterySwapStation.service.VehicleService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -20,6 +30,10 @@ public class AdminVehicleController {
 
     private final VehicleImportService vehicleImportService;
     private final VehicleService vehicleService;
+    private final VehicleImportJobService vehicleImportJobService;
+    private final ObjectMapper objectMapper;
+
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
 
     @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<Map<String, Object>> importVehicles(
@@ -43,6 +57,134 @@ public class AdminVehicleController {
         }
     }
 
+    /**
+     * Import streaming: trả NDJSON, mỗi dòng lỗi 1 object {"type":"error",...} ghi ra ngay khi lô xử lý xong,
+     * dòng cuối là {"type":"summary",...}. Client không phải chờ cả file mới thấy lỗi.
+     */
+    @PostMapping(value = "/import/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public void importVehiclesStream(@RequestPart("file") MultipartFile file,
+                                     HttpServletResponse response) throws IOException {
+        try {
+            vehicleImportService.validateUpload(file);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            objectMapper.writeValue(response.getOutputStream(), Map.of("success", false, "error", e.getMessage()));
+            return;
+        }
+
+        response.setContentType(NDJSON_CONTENT_TYPE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("type", "summary");
+        try (InputStream in = file.getInputStream()) {
+            VehicleImportResultDTO result = vehicleImportService.importVehicles(in, errors -> {
+                for (VehicleImportErrorDTO error : errors) {
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    line.put("type", "error");
+                    line.put("row", error.getRow());
+                    line.put("VIN", error.getVIN());
+                    line.put("licensePlate", error.getLicensePlate());
+                    line.put("errors", error.getErrors());
+                    writeLine(writer, line);
+                }
+                // Đẩy lỗi của lô xuống client ngay, không đợi BufferedWriter đầy
+                flush(writer);
+            });
+            summary.put("success", true);
+            summary.put("totalRows", result.getTotalRows());
+            summary.put("successCount", result.getSuccessCount());
+            summary.put("failureCount", result.getFailureCount());
+        } catch (Exception e) {
+            // Response có thể đã commit (status 200) từ lần flush trước → báo lỗi bằng dòng summary cuối
+            summary.put("success", false);
+            summary.put("error", e.getMessage());
+        }
+        writeLine(writer, summary);
+        writer.flush();
+    }
+
+    /**
+     * Import chạy nền: spool file rồi trả jobId ngay (202). Theo dõi qua GET /import/jobs/{jobId}
+     * hoặc STOMP /topic/vehicle-import-jobs/{jobId}. Tải lại cùng file → trả job cũ / chạy tiếp job lỗi.
+     */
+    @PostMapping(value = "/import/jobs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<Map<String, Object>> submitImportJob(
+            @RequestPart("file") MultipartFile file,
+            @AuthenticationPrincipal UserDetails userDetails) {
+
+        String requestedBy = userDetails != null ? userDetails.getUsername() : "system";
+        try {
+            VehicleImportJobResponse job = vehicleImportJobService.submit(file, requestedBy);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of(
+                "success", true,
+                "deduplicated", job.isDeduplicated(),
+                "job", job
+            ));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of(
+                "success", false,
+                "error", String.valueOf(e.getMessage())
+            ));
+        }
+    }
+
+    @GetMapping("/import/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getImportJob(@PathVariable String jobId) {
+        return vehicleImportJobService.findJob(jobId)
+                .map(job -> ResponseEntity.ok(Map.<String, Object>of("success", true, "job", job)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
+                    "success", false,
+                    "error", "Không tìm thấy import job: " + jobId
+                )));
+    }
+
+    /**
+     * Lỗi từng dòng của job, 500 dòng / trang; trang sau gửi afterRow = nextAfterRow.
+     */
+    @GetMapping("/import/jobs/{jobId}/errors")
+    public ResponseEntity<Map<String, Object>> getImportJobErrors(
+            @PathVariable String jobId,
+            @RequestParam(defaultValue = "0") int afterRow) {
+
+        if (vehicleImportJobService.findJob(jobId).isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
+                "success", false,
+                "error", "Không tìm thấy import job: " + jobId
+            ));
+        }
+        List<VehicleImportErrorDTO> errors = vehicleImportJobService.findErrors(jobId, afterRow);
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("success", true);
+        body.put("errors", errors);
+        body.put("nextAfterRow", errors.isEmpty() ? null : errors.get(errors.size() - 1).getRow());
+        return ResponseEntity.ok(body);
+    }
+
+    private static void flush(Writer writer) {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeLine(Writer writer, Map<String, Object> line) {
+        try {
+            writer.write(objectMapper.writeValueAsString(line));
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     @GetMapping
     public ResponseEntity<Map<String, Object>> getAllVehicles() {
         List<?> list = vehicleService.getAllVehiclesAdminUnpaged();
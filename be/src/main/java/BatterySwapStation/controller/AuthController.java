@@ -91,7 +91,8 @@ public class AuthController {
         User user = null;
 
         if (principal instanceof User u) {
-            user = u;
+            // Principal có thể lấy từ cache xác thực → đọc lại để số dư ví / thông tin luôn mới
+            user = userService.findById(u.getUserId());
         } else if (principal instanceof org.springframework.security.core.userdetails.User ud) {
             user = userService.findById(ud.getUsername());
         }
@@ -59,10 +59,11 @@ public class BatteryController {
         return ResponseEntity.ok(batteryService.getBatteryDetail(batteryId));
     }
 
-    @Operation(summary = "[TEST]Thống kê pin trong hệ thống")
+    @Operation(summary = "Thống kê pin trong hệ thống",
+            description = "Theo loại / trạm / trạng thái / SoH / số chu kỳ. Mặc định đọc bản chụp cache; fresh=true để tính lại ngay")
     @GetMapping("/analytics")
-    public ResponseEntity<?> getBatteryAnalytics() {
-        return ResponseEntity.ok(batteryService.getBatteryStatistics());
+    public ResponseEntity<?> getBatteryAnalytics(@RequestParam(defaultValue = "false") boolean fresh) {
+        return ResponseEntity.ok(batteryService.getBatteryStatistics(fresh));
     }
 
     @Operation(summary = "Liệt kê toàn bộ pin rời theo từng trạm (không nằm trong DockSlot)")
@@ -1,5 +1,7 @@
 package BatterySwapStation.controller;
 
+import BatterySwapStation.dto.CursorPage;
+import BatterySwapStation.dto.RebalanceListItemDTO;
 import BatterySwapStation.dto.RebalanceRequest;
 import BatterySwapStation.dto.RebalanceSuggestion;
 import BatterySwapStation.entity.Battery;
@@ -11,9 +13,12 @@ import BatterySwapStation.service.BatteryRebalanceService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
+
 @RestController
 @RequestMapping("/api/rebalances")
 @RequiredArgsConstructor
@@ -30,6 +35,19 @@ public class BatteryRebalanceController {
         return ResponseEntity.ok(rebalanceService.getAllOrders());
     }
 
+    @Operation(summary = "Admin lấy danh sách lệnh điều phối theo trang",
+            description = "Phân trang keyset theo id giảm dần; stationId khớp trạm đi hoặc trạm đến")
+    @GetMapping("/page")
+    public ResponseEntity<CursorPage<RebalanceListItemDTO>> getOrdersPage(
+            @RequestParam(required = false) BatteryRebalance.RebalanceStatus status,
+            @RequestParam(required = false) Integer stationId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(rebalanceService.getOrdersPage(status, stationId, from, to, cursor, limit));
+    }
+
     @Operation(summary = "Tạo lệnh điều phối mới (staff và admin gửi yêu cầu thủ công)")
     @PostMapping
     public ResponseEntity<?> createOrder(@RequestBody RebalanceRequest dto) {
@@ -7,7 +7,6 @@ import BatterySwapStation.service.InvoiceService;
 import BatterySwapStation.service.SystemPriceService;
 import BatterySwapStation.entity.Booking;
 import BatterySwapStation.entity.Battery;
-import BatterySwapStation.repository.BookingRepository;
 import BatterySwapStation.dto.BookingRequest;
 import BatterySwapStation.utils.QrTokenUtil;
 import io.swagger.v3.oas.annotations.Operation;
@@ -16,6 +15,7 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
@@ -41,7 +41,6 @@ public class BookingController {
 
     private final BookingService bookingService;
     private final InvoiceService invoiceService;
-    private final BookingRepository bookingRepository;
     private final SystemPriceService systemPriceService; // Thêm SystemPriceService
 
     @PostMapping
@@ -194,7 +193,7 @@ public class BookingController {
     }
 
     @GetMapping
-    @Operation(summary = "Lấy tất cả booking", description = "Lấy danh sách tất cả booking (dành cho admin)")
+    @Operation(summary = "Lấy tất cả booking", description = "Lấy danh sách tất cả booking (dành cho admin). Danh sách lớn dùng /api/bookings/page")
     public ResponseEntity<ApiResponse> getAllBookings() {
         try {
             List<BookingResponse> bookings = bookingService.getAllBookings();
@@ -205,6 +204,20 @@ public class BookingController {
         }
     }
 
+    @GetMapping("/page")
+    @Operation(summary = "Danh sách booking theo trang (admin)",
+            description = "Phân trang keyset theo bookingId giảm dần. Truyền nextCursor của trang trước vào cursor để lấy trang sau.")
+    public ResponseEntity<ApiResponse> getBookingsPage(
+            @RequestParam(required = false) Booking.BookingStatus status,
+            @RequestParam(required = false) Integer stationId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        CursorPage<BookingListItemDTO> page = bookingService.getBookingsPage(status, stationId, from, to, cursor, limit);
+        return ResponseEntity.ok(new ApiResponse(true, "Lấy danh sách booking thành công!", page));
+    }
+
     @PostMapping("/createinvoice")
     @Operation(summary = "Tạo invoice và bookings từ danh sách xe", description = "Tạo invoice và bookings cho từng xe được chọn, tự động lấy userId từ xe")
     public ResponseEntity<Map<String, Object>> createInvoiceFromVehicles(
@@ -273,16 +286,9 @@ public class BookingController {
             @RequestParam @Parameter(description = "Ngày sử dụng (yyyy-MM-dd)") String date,
             @RequestParam @Parameter(description = "Giờ sử dụng (HH:mm)") String time) {
         try {
-            // Lấy booking
-            Booking booking = bookingRepository.findById(bookingId)
-                    .orElseThrow(() -> new RuntimeException("Không tìm thấy booking với ID: " + bookingId));
-
-            // Cập nhật ngày giờ
-            booking.setBookingDate(java.time.LocalDate.parse(date));
-            booking.setTimeSlot(java.time.LocalTime.parse(time));
-
-            // Lưu booking
-            Booking savedBooking = bookingRepository.save(booking);
+            // Cập nhật ngày giờ (kèm giữ chỗ khung giờ mới / trả chỗ khung giờ cũ)
+            Booking savedBooking = bookingService.rescheduleBooking(bookingId,
+                    java.time.LocalDate.parse(date), java.time.LocalTime.parse(time));
 
             return ResponseEntity.ok(Map.of(
                     "success", true,
@@ -314,13 +320,8 @@ public class BookingController {
                 String time = (String) schedule.get("time");
 
                 try {
-                    Booking booking = bookingRepository.findById(bookingId)
-                            .orElseThrow(() -> new RuntimeException("Không tìm thấy booking: " + bookingId));
-
-                    booking.setBookingDate(java.time.LocalDate.parse(date));
-                    booking.setTimeSlot(java.time.LocalTime.parse(time));
-
-                    Booking savedBooking = bookingRepository.save(booking);
+                    Booking savedBooking = bookingService.rescheduleBooking(bookingId,
+                            java.time.LocalDate.parse(date), java.time.LocalTime.parse(time));
 
                     results.add(Map.of(
                             "bookingId", savedBooking.getBookingId(),
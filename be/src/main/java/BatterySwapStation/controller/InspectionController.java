@@ -1,5 +1,7 @@
 package BatterySwapStation.controller;
 
+import BatterySwapStation.dto.CursorPage;
+import BatterySwapStation.dto.InspectionListItemDTO;
 import BatterySwapStation.dto.InspectionRequest;
 import BatterySwapStation.dto.InspectionResponse;
 import BatterySwapStation.dto.InspectionUpdateRequest;
@@ -9,9 +11,11 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -56,6 +60,21 @@ public class InspectionController {
         return ResponseEntity.ok(inss);
     }
 
+    // --- GET: DANH SÁCH INSPECTION THEO TRANG ---
+    @GetMapping("/page")
+    @Operation(summary = "Danh sách Inspection theo trang",
+            description = "Phân trang keyset theo id giảm dần, lọc theo trạng thái / trạm / staff / ngày kiểm tra.")
+    public ResponseEntity<CursorPage<InspectionListItemDTO>> getInspectionsPage(
+            @RequestParam(required = false) BatteryInspection.InspectionStatus status,
+            @RequestParam(required = false) Integer stationId,
+            @RequestParam(required = false) String staffId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(inspectionService.getInspectionsPage(status, stationId, staffId, from, to, cursor, limit));
+    }
+
     // --- PUT: CẬP NHẬT INSPECTION ---
     @PutMapping("/{inspectionId}")
     @Operation(summary = "Cập nhật Inspection",
@@ -1,6 +1,8 @@
 package BatterySwapStation.controller;
 
 import BatterySwapStation.dto.ApiResponse;
+import BatterySwapStation.dto.CursorPage;
+import BatterySwapStation.dto.InvoiceListItemDTO;
 import BatterySwapStation.dto.InvoiceSimpleResponseDTO;
 import BatterySwapStation.entity.SystemPrice;
 import BatterySwapStation.repository.InvoiceRepository;
@@ -17,9 +19,11 @@ import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -66,7 +70,7 @@ public class InvoiceController {
     }
 
     @GetMapping
-    @Operation(summary = "Lấy danh sách tất cả invoice", description = "Trả về danh sách invoice đơn giản")
+    @Operation(summary = "Lấy danh sách tất cả invoice", description = "Trả về danh sách invoice đơn giản. Danh sách lớn dùng /api/invoices/page")
     public ResponseEntity<Map<String, Object>> getAllInvoicesSimple() {
         try {
             List<Invoice> invoices = invoiceService.getAllInvoices();
@@ -97,6 +101,28 @@ public class InvoiceController {
         }
     }
 
+    @GetMapping("/page")
+    @Operation(summary = "Danh sách invoice theo trang (admin)",
+            description = "Phân trang keyset theo invoiceId giảm dần, lọc theo trạng thái / loại / user / ngày tạo")
+    public ResponseEntity<Map<String, Object>> getInvoicesPage(
+            @RequestParam(required = false) Invoice.InvoiceStatus status,
+            @RequestParam(required = false) Invoice.InvoiceType type,
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
+        CursorPage<InvoiceListItemDTO> page = invoiceService.getInvoicesPage(status, type, userId, from, to, cursor, limit);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("invoices", page.getItems());
+        response.put("nextCursor", page.getNextCursor());
+        response.put("hasMore", page.isHasMore());
+        response.put("limit", page.getLimit());
+        return ResponseEntity.ok(response);
+    }
+
     @GetMapping("/user/{userId}")
     @Operation(summary = "Lấy invoice của user", description = "Trả về danh sách invoice của một user cụ thể")
     public ResponseEntity<Map<String, Object>> getUserInvoices(
@@ -1,13 +1,16 @@
 package BatterySwapStation.controller;
 
+import BatterySwapStation.dto.CursorPage;
 import BatterySwapStation.dto.VnPayCreatePaymentRequest;
 import BatterySwapStation.dto.VnPayCreatePaymentResponse;
 import BatterySwapStation.dto.PaymentResponse;
 import BatterySwapStation.dto.WalletTopupRequest;
 import BatterySwapStation.entity.Invoice;
 import BatterySwapStation.entity.Payment;
+import BatterySwapStation.entity.WalletLedgerEntry;
 import BatterySwapStation.repository.PaymentRepository;
 import BatterySwapStation.service.PaymentService;
+import BatterySwapStation.service.WalletService;
 import io.swagger.v3.oas.annotations.Operation;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -36,6 +39,7 @@ public class PaymentController {
 
     private final PaymentService paymentService;
     private final PaymentRepository paymentRepository;
+    private final WalletService walletService;
 
     /**
      * 🔹 API duy nhất: FE truyền invoiceId, BE tự tính totalAmount → tạo link thanh toán VNPAY
@@ -191,6 +195,16 @@ public class PaymentController {
         }
     }
 
+    @GetMapping("/wallet/ledger")
+    @Operation(summary = "Lịch sử biến động ví", description = "Sổ cái ví của user đang đăng nhập, mới nhất trước, phân trang bằng cursor")
+    public ResponseEntity<CursorPage<WalletLedgerEntry>> getWalletLedger(
+            @AuthenticationPrincipal UserDetails userDetails,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit
+    ) {
+        return ResponseEntity.ok(walletService.getLedger(userDetails.getUsername(), cursor, limit));
+    }
+
 //
 //    @PostMapping("/vnpay/subscription")
 //    public ResponseEntity<Map<String, Object>> createSubscriptionPayment(
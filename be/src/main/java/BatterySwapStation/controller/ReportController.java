@@ -1,23 +1,33 @@
 package BatterySwapStation.controller;
 
 import BatterySwapStation.dto.ApiResponse;
+import BatterySwapStation.dto.ReportJobResponse;
+import BatterySwapStation.entity.ReportJob;
 import BatterySwapStation.service.ReportExportService;
+import BatterySwapStation.service.ReportJobService;
 import BatterySwapStation.service.ReportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.Hidden;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -38,6 +48,9 @@ public class ReportController {
 
     private final ReportService reportService;
     private final ReportExportService reportExportService;
+    private final ReportJobService reportJobService;
+
+    private static final String XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
 
     @Operation (summary = "Báo cáo hiệu suất trạm trong ngày hôm nay")
     @GetMapping("/station/performance")
@@ -93,6 +106,69 @@ public class ReportController {
                 reportService.getSummary()));
     }
 
+    // ==================== REPORT JOB (chạy nền) ====================
+
+    @Operation(summary = "Tạo job báo cáo chạy nền (REVENUE_HOURLY/REVENUE_DAILY/SWAP_HOURLY/SWAP_DAILY cần startDate, endDate; STATION_RANGE cần stationId, days; ALL_STATIONS cần days)")
+    @PostMapping("/jobs")
+    public ResponseEntity<ApiResponse> submitReportJob(
+            @RequestParam ReportJob.JobType type,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            @RequestParam(required = false) Integer stationId,
+            @RequestParam(required = false) Integer days,
+            @AuthenticationPrincipal UserDetails userDetails
+    ) {
+        String requestedBy = userDetails != null ? userDetails.getUsername() : "system";
+        try {
+            ReportJobResponse job = reportJobService.submit(type, startDate, endDate, stationId, days, requestedBy);
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .body(new ApiResponse(true, job.isDeduplicated() ? "Báo cáo giống hệt đang được tạo" : "Đã nhận yêu cầu", job));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(new ApiResponse(false, e.getMessage()));
+        }
+    }
+
+    @Operation(summary = "Trạng thái / tiến độ job báo cáo (hoặc subscribe STOMP /topic/report-jobs/{jobId})")
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<ApiResponse> getReportJob(@PathVariable String jobId) {
+        return reportJobService.findJob(jobId)
+                .map(job -> ResponseEntity.ok(new ApiResponse(true, "OK", job)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(new ApiResponse(false, "Không tìm thấy job: " + jobId)));
+    }
+
+    @Operation(summary = "Tải kết quả JSON của job báo cáo đã xong (gzip nếu client hỗ trợ)")
+    @GetMapping("/jobs/{jobId}/result")
+    public ResponseEntity<?> getReportJobResult(
+            @PathVariable String jobId,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            HttpServletResponse response
+    ) throws IOException {
+        var job = reportJobService.findJob(jobId).orElse(null);
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                    .body(new ApiResponse(false, "Không tìm thấy job: " + jobId));
+        }
+        if (job.getStatus() != ReportJob.JobStatus.SUCCEEDED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(new ApiResponse(false, "Báo cáo chưa sẵn sàng", job));
+        }
+
+        // Kết quả đã lưu dạng gzip → gửi nguyên nếu client nhận gzip, ngược lại giải nén khi ghi
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            if (job.getCompressedBytes() != null) response.setContentLengthLong(job.getCompressedBytes());
+        }
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        reportJobService.writeResult(jobId, response.getOutputStream(), gzip);
+        response.flushBuffer();
+        return null;
+    }
+
     // MARK: hide binary endpoints from OpenAPI to avoid Swagger UI trying to render binary responses
     // Some versions of springdoc/swagger-ui may still include endpoints annotated only with Operation(hidden=true),
     // so adding @Hidden ensures they are excluded from the generated OpenAPI document.
@@ -115,40 +191,24 @@ public class ReportController {
             } // don't rely solely on Operation.hidden here
     )
     @GetMapping(value = "/{id}/export", produces = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
-    public ResponseEntity<byte[]> exportReport(@PathVariable Long id) {
+    public void exportReport(@PathVariable Long id, HttpServletResponse response) throws IOException {
+        // Lưu file vào ổ D: (thư mục D:\\batteryswap-exports) nếu environment chỉ định
+        String filename = "report-" + id + ".xlsx";
         try {
-            byte[] excelBytes = reportExportService.exportReportToExcel(id);
-
-            // Lưu file vào ổ D: (thư mục D:\\batteryswap-exports) nếu environment chỉ định
-            String filename = "report-" + id + ".xlsx";
-            try {
-                String env = System.getenv("EXPORT_BASE_DIR");
-                if (env != null && !env.isBlank()) {
-                    Path dir = Paths.get(env);
-                    if (!Files.exists(dir)) Files.createDirectories(dir);
-                    Path filePath = dir.resolve(filename);
-                    Files.write(filePath, excelBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                    return ResponseEntity.ok()
-                            .header("Content-Disposition", "attachment; filename=" + filename)
-                            .header("X-Saved-Path", filePath.toAbsolutePath().toString())
-                            .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                            .body(excelBytes);
-                }
-            } catch (Exception ex) {
-                log.warn("Could not save single report to configured dir: {}", ex.getMessage());
+            String env = System.getenv("EXPORT_BASE_DIR");
+            if (env != null && !env.isBlank()) {
+                Path filePath = exportToFile(Paths.get(env), filename,
+                        out -> reportExportService.exportReportToExcel(id, out));
+                response.setHeader("X-Saved-Path", filePath.toAbsolutePath().toString());
+                streamExcel(response, filename, out -> Files.copy(filePath, out));
+                return;
             }
-
-            // fallback: stream trực tiếp
-            return ResponseEntity.ok()
-                    .header("Content-Disposition", "attachment; filename=report-" + id + ".xlsx")
-                    .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                    .body(excelBytes);
-
-        } catch (Exception e) {
-            log.error("Export report failed: {}", e.getMessage());
-            return ResponseEntity.status(500)
-                    .body(("Error exporting report: " + e.getMessage()).getBytes());
+        } catch (Exception ex) {
+            log.warn("Could not save single report to configured dir: {}", ex.getMessage());
         }
+
+        // fallback: stream trực tiếp
+        streamExcel(response, filename, out -> reportExportService.exportReportToExcel(id, out));
     }
 
     @Hidden
@@ -179,17 +239,15 @@ public class ReportController {
     public ResponseEntity<?> exportAllReportsUnified(
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
-            @RequestParam(required = false, defaultValue = "json") String mode
+            @RequestParam(required = false, defaultValue = "json") String mode,
+            HttpServletResponse response
     ) {
         try {
-            // mode=download -> trả về file nhị phân trực tiếp
+            // mode=download -> ghi file nhị phân thẳng vào response (không giữ byte[] trong heap)
             if ("download".equalsIgnoreCase(mode)) {
-                byte[] excelBytes = reportExportService.exportAllReportsToExcel(startDate, endDate);
                 String filename = String.format("reports_%s_to_%s.xlsx", startDate, endDate);
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                        .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                        .body(excelBytes);
+                streamExcel(response, filename, out -> reportExportService.exportAllReportsToExcel(startDate, endDate, out));
+                return null;
             }
 
             // mode=link -> trả về đường dẫn để client gọi /export/download
@@ -221,12 +279,9 @@ public class ReportController {
                 try {
                     String env = System.getenv("EXPORT_BASE_DIR");
                     if (env != null && !env.isBlank()) {
-                        byte[] excelBytes = reportExportService.exportAllReportsToExcel(startDate, endDate);
-                        Path dir = Paths.get(env);
-                        if (!Files.exists(dir)) Files.createDirectories(dir);
                         String filename = String.format("reports_%s_to_%s.xlsx", startDate, endDate);
-                        Path filePath = dir.resolve(filename);
-                        Files.write(filePath, excelBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                        Path filePath = exportToFile(Paths.get(env), filename,
+                                out -> reportExportService.exportAllReportsToExcel(startDate, endDate, out));
                         payload.put("savedPath", filePath.toAbsolutePath().toString());
                     }
                 } catch (Exception ex) {
@@ -241,12 +296,9 @@ public class ReportController {
             try {
                 String env = System.getenv("EXPORT_BASE_DIR");
                 if (env != null && !env.isBlank()) {
-                    byte[] excelBytes = reportExportService.exportAllReportsToExcel(startDate, endDate);
-                    Path dir = Paths.get(env);
-                    if (!Files.exists(dir)) Files.createDirectories(dir);
                     String filename = String.format("reports_%s_to_%s.xlsx", startDate, endDate);
-                    Path filePath = dir.resolve(filename);
-                    Files.write(filePath, excelBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                    Path filePath = exportToFile(Paths.get(env), filename,
+                            out -> reportExportService.exportAllReportsToExcel(startDate, endDate, out));
                     savedPath = filePath.toAbsolutePath().toString();
                 }
             } catch (Exception ex) {
@@ -275,21 +327,13 @@ public class ReportController {
     @Hidden
     @Operation(summary = "(Internal) Stream combined reports as an XLSX file")
     @GetMapping(value = "/export/download", produces = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
-    public ResponseEntity<byte[]> exportAllReportsDownload(
+    public void exportAllReportsDownload(
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDate,
-            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate
-    ) {
-        try {
-            byte[] excelBytes = reportExportService.exportAllReportsToExcel(startDate, endDate);
-            String filename = String.format("reports_%s_to_%s.xlsx", startDate, endDate);
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                    .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
-                    .body(excelBytes);
-        } catch (Exception e) {
-            log.error("Export all reports (download) failed: {}", e.getMessage(), e);
-            return ResponseEntity.status(500).body(("Error exporting reports: " + e.getMessage()).getBytes());
-        }
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate endDate,
+            HttpServletResponse response
+    ) throws IOException {
+        String filename = String.format("reports_%s_to_%s.xlsx", startDate, endDate);
+        streamExcel(response, filename, out -> reportExportService.exportAllReportsToExcel(startDate, endDate, out));
     }
 
     /**
@@ -349,6 +393,43 @@ public class ReportController {
         return Paths.get(System.getProperty("java.io.tmpdir"));
     }
 
+    /**
+     * Ghi Excel thẳng vào OutputStream của response.
+     * Lỗi khi chưa gửi byte nào → trả 500 dạng text; đã gửi một phần thì chỉ log (không đổi được status nữa).
+     */
+    private void streamExcel(HttpServletResponse response, String filename, ExcelWriter writer) throws IOException {
+        response.setContentType(XLSX_CONTENT_TYPE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        try {
+            writer.write(response.getOutputStream());
+            response.flushBuffer();
+        } catch (Exception e) {
+            log.error("Export {} failed: {}", filename, e.getMessage(), e);
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(500);
+                response.setContentType("text/plain;charset=UTF-8");
+                response.getWriter().write("Error exporting reports: " + e.getMessage());
+            }
+        }
+    }
+
+    // Ghi Excel ra file (qua buffer), không dựng byte[] trung gian
+    private Path exportToFile(Path dir, String filename, ExcelWriter writer) throws IOException {
+        if (!Files.exists(dir)) Files.createDirectories(dir);
+        Path filePath = dir.resolve(filename);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(filePath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            writer.write(out);
+        }
+        return filePath;
+    }
+
+    @FunctionalInterface
+    private interface ExcelWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
     private Path saveBytesToFile(byte[] bytes, String filename) throws Exception {
         Path base = chooseBaseDir();
         if (!Files.exists(base)) {
@@ -35,8 +35,10 @@ public class StationController {
     public List<StationResponseDTO> getNearbyStations(
             @RequestParam double lat,
             @RequestParam double lng,
-            @RequestParam(required = false, defaultValue = "50") double radiusKm) {
-        return stationService.getNearbyStations(lat, lng, radiusKm);
+            @RequestParam(required = false, defaultValue = "50") double radiusKm,
+            @RequestParam(required = false) String batteryType,
+            @RequestParam(required = false) Integer limit) {
+        return stationService.getNearbyStations(lat, lng, radiusKm, batteryType, limit);
     }
 
 
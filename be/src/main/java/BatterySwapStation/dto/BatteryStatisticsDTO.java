@@ -0,0 +1,30 @@
+package BatterySwapStation.dto;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Thống kê pin toàn hệ thống (tổng hợp bằng GROUP BY trong DB, không nạp entity).
+ * Giữ nguyên các key cũ: totalBatteries, byType, byStation, unassigned.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatteryStatisticsDTO {
+
+    private long totalBatteries;
+    private long unassigned;
+    private Double averageStateOfHealth;
+
+    private Map<String, Long> byType;
+    private Map<Integer, Long> byStation;
+    private Map<String, Long> byStatus;
+    private Map<String, Long> bySohBucket;
+    private Map<String, Long> byCycleBucket;
+
+    private LocalDateTime computedAt;
+}
@@ -0,0 +1,34 @@
+package BatterySwapStation.dto;
+
+import BatterySwapStation.entity.Booking;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Dòng danh sách booking cho admin (projection, không nạp entity + quan hệ lazy).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookingListItemDTO {
+    private Long bookingId;
+    private String userId;
+    private String userName;
+    private Integer stationId;
+    private String stationName;
+    private Integer vehicleId;
+    private String licensePlate;
+    private LocalDate bookingDate;
+    private LocalTime timeSlot;
+    private Booking.BookingStatus bookingStatus;
+    private Double amount;
+    private Double totalPrice;
+    private Integer batteryCount;
+    private String batteryType;
+    private Long invoiceId;
+    private LocalDate completedTime;
+}
@@ -0,0 +1,18 @@
+package BatterySwapStation.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 1 trang dữ liệu phân trang kiểu keyset. Trang sau: gửi lại nextCursor qua tham số cursor.
+ */
+@Getter
+@AllArgsConstructor
+public class CursorPage<T> {
+    private final List<T> items;
+    private final String nextCursor;   // null = đã hết dữ liệu
+    private final boolean hasMore;
+    private final int limit;
+}
@@ -0,0 +1,28 @@
+package BatterySwapStation.dto;
+
+import BatterySwapStation.entity.BatteryInspection;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Dòng danh sách biên bản kiểm tra pin (projection).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InspectionListItemDTO {
+    private Long id;
+    private LocalDateTime inspectionTime;
+    private Double stateOfHealth;
+    private String physicalNotes;
+    private boolean damaged;
+    private BatteryInspection.InspectionStatus status;
+    private String batteryId;
+    private Long bookingId;
+    private Integer stationId;
+    private String staffId;
+    private String staffName;
+}
@@ -0,0 +1,24 @@
+package BatterySwapStation.dto;
+
+import BatterySwapStation.entity.Invoice;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Dòng danh sách invoice cho admin (projection).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvoiceListItemDTO {
+    private Long invoiceId;
+    private String userId;
+    private LocalDateTime createdDate;
+    private Double totalAmount;
+    private Integer numberOfSwaps;
+    private Invoice.InvoiceStatus invoiceStatus;
+    private Invoice.InvoiceType invoiceType;
+}
@@ -0,0 +1,29 @@
+package BatterySwapStation.dto;
+
+import BatterySwapStation.entity.Battery;
+import BatterySwapStation.entity.BatteryRebalance;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Dòng danh sách lệnh điều phối pin (projection).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RebalanceListItemDTO {
+    private Long id;
+    private Integer fromStationId;
+    private String fromStationName;
+    private Integer toStationId;
+    private String toStationName;
+    private Battery.BatteryType batteryType;
+    private int quantity;
+    private String note;
+    private BatteryRebalance.RebalanceStatus status;
+    private LocalDateTime createdAt;
+    private LocalDateTime scheduledTime;
+}
@@ -0,0 +1,25 @@
+package BatterySwapStation.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Bộ gợi ý điều phối + thông tin lần giải (phương pháp, thời gian, gap).
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder(toBuilder = true)
+public class RebalancePlanResponse {
+    private List<RebalanceSuggestion> suggestions;
+    private String method;         // LP, LP_TIME_LIMIT, GREEDY, NONE
+    private long solveTimeMs;      // thời gian giải của lần tính (không đổi khi trả từ cache)
+    private double gap;            // (objective - cận dưới) / objective, 0 = tối ưu
+    private double objective;      // tổng km vận chuyển + phạt pin thiếu
+    private int stationCount;
+    private int edgeCount;         // số cạnh sau khi tỉa kNN
+    private boolean cached;
+    private String fingerprint;    // băm tồn kho + target + tọa độ các trạm
+    private String generatedAt;
+}
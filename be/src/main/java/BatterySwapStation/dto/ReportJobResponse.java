@@ -0,0 +1,33 @@
+package BatterySwapStation.dto;
+
+import BatterySwapStation.entity.ReportJob;
+import lombok.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReportJobResponse {
+    private String jobId;
+    private ReportJob.JobType type;
+    private ReportJob.JobStatus status;
+    private int progress;            // 0..100
+    private String message;
+    private Integer stationId;
+    private LocalDate startDate;
+    private LocalDate endDate;
+    private Integer days;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private Long rawBytes;
+    private Long compressedBytes;
+    private Integer chunkCount;
+    private String error;
+    private boolean deduplicated;    // true = trả về job giống hệt đang chạy thay vì tạo job mới
+    private String resultUrl;
+}
@@ -0,0 +1,20 @@
+package BatterySwapStation.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Gói nhiều BatteryRealtimeEvent của cùng 1 trạm vào 1 frame STOMP duy nhất.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class StationBatteryBatchEvent {
+    private Integer stationId;
+    private String action;         // CHARGING_TICK, BATCH
+    private Long version;          // version của StationSlotView sau khi áp dụng các event này (null nếu trạm chưa nạp)
+    private List<BatteryRealtimeEvent> events;
+    private String timestamp;
+}
@@ -8,7 +8,7 @@ import java.util.List;
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 public class StationResponseDTO {
 
     private Integer stationId;
@@ -27,6 +27,9 @@ public class StationResponseDTO {
     // Chi tiết từng loại pin
     private List<BatteryTypeRow> batteries;
 
+    // Khoảng cách tới vị trí người dùng (chỉ có ở API /nearby)
+    private Double distanceKm;
+
     @Getter
     @Setter
     @NoArgsConstructor
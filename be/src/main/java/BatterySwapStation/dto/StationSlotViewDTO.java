@@ -0,0 +1,32 @@
+package BatterySwapStation.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Trả về cho client khi joinStation:
+ * - SNAPSHOT: toàn bộ dock/slot của trạm tại {@code version}
+ * - DELTA: chỉ các slot thay đổi từ {@code fromVersion} đến {@code version}
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class StationSlotViewDTO {
+    private Integer stationId;
+    private String type;           // SNAPSHOT, DELTA
+    private long fromVersion;
+    private long version;
+    private List<DockBatteryGroupDTO> docks;
+    private List<SlotChange> changes;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class SlotChange {
+        private long version;
+        private String dockName;
+        private SlotBatteryDTO slot;
+    }
+}
@@ -0,0 +1,30 @@
+package BatterySwapStation.dto;
+
+import BatterySwapStation.entity.VehicleImportJob;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class VehicleImportJobResponse {
+    private String jobId;
+    private String fileName;
+    private long fileSize;
+    private VehicleImportJob.JobStatus status;
+    private int progress;            // 0..100
+    private String message;
+    private int checkpointLine;      // dòng cuối đã commit
+    private int totalRows;
+    private int successCount;
+    private int failureCount;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private String error;
+    private boolean deduplicated;    // true = file này đã được tải lên trước đó, trả về job cũ
+    private String errorsUrl;
+}
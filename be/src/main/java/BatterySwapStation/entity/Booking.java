@@ -9,7 +9,10 @@ import java.time.LocalTime;
 import java.util.List;
 
 @Entity
-@Table(name = "Booking")
+@Table(name = "Booking", indexes = {
+        @Index(name = "idx_booking_date_slot", columnList = "bookingdate, timeslot")
+})
+@EntityListeners(StationStatsEntityListener.class)
 @Getter
 @Setter
 @NoArgsConstructor
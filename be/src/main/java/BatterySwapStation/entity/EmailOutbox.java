@@ -0,0 +1,69 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Hàng đợi email (transactional outbox): ghi cùng transaction với nghiệp vụ, dispatcher chạy nền gửi sau.
+ * - (Recipient, DedupKey) duy nhất: cùng 1 sự kiện không gửi 2 lần cho 1 người
+ * - Thời gian ghi / so sánh bằng now() của DB (giống SchedulerLease)
+ */
+@Entity
+@Table(name = "EmailOutbox", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_emailoutbox_dedup", columnNames = {"Recipient", "DedupKey"})
+}, indexes = {
+        @Index(name = "idx_emailoutbox_due", columnList = "Status, NextAttemptAt")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class EmailOutbox {
+
+    public enum EmailStatus {
+        PENDING,
+        SENT,
+        FAILED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "EmailId")
+    private Long emailId;
+
+    @Column(name = "Recipient", nullable = false, length = 320)
+    private String recipient;
+
+    @Column(name = "Subject", nullable = false, length = 255)
+    private String subject;
+
+    @Column(name = "Body", nullable = false, columnDefinition = "TEXT")
+    private String body;
+
+    // null = không chống trùng (VD: gửi lại mail xác minh)
+    @Column(name = "DedupKey", length = 150)
+    private String dedupKey;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "Status", nullable = false, length = 20)
+    private EmailStatus status;
+
+    @Column(name = "Attempts", nullable = false)
+    private int attempts;
+
+    // Lần gửi kế tiếp; khi đang gửi = hạn giữ của dispatcher (quá hạn → instance khác gửi lại)
+    @Column(name = "NextAttemptAt", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Column(name = "LastError", length = 1000)
+    private String lastError;
+
+    @Column(name = "CreatedAt", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "SentAt")
+    private LocalDateTime sentAt;
+}
@@ -9,7 +9,10 @@ import java.util.List;
 
 @Data
 @Entity
-@Table(name = "Invoice")
+@Table(name = "Invoice", indexes = {
+        @Index(name = "idx_invoice_createddate", columnList = "createddate")
+})
+@EntityListeners(StationStatsEntityListener.class)
 public class Invoice {
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "invoice_seq")
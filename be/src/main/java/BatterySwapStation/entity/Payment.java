@@ -5,7 +5,10 @@ import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "Payment")
+@Table(name = "Payment", indexes = {
+        @Index(name = "idx_payment_invoice", columnList = "InvoiceId")
+})
+@EntityListeners(StationStatsEntityListener.class)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -0,0 +1,54 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Nhật ký IPN VNPay đã xử lý. TxnRef duy nhất → IPN lặp lại (VNPay retry, gửi song song)
+ * chỉ tốn 1 lần tra index và không chạm vào Payment / Invoice / User.
+ */
+@Entity
+@Table(name = "PaymentIpnJournal", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_paymentipnjournal_txnref", columnNames = {"TxnRef"})
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PaymentIpnJournal {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "JournalId")
+    private Long journalId;
+
+    @Column(name = "TxnRef", nullable = false, length = 100)
+    private String txnRef;
+
+    @Column(name = "PaymentId", nullable = false)
+    private Long paymentId;
+
+    @Column(name = "VnpTransactionNo", length = 100)
+    private String vnpTransactionNo;
+
+    @Column(name = "ResponseCode", length = 10)
+    private String responseCode;
+
+    @Column(name = "TransactionStatus", length = 10)
+    private String transactionStatus;
+
+    // vnp_Amount (VNĐ x 100)
+    @Column(name = "Amount", nullable = false)
+    private long amount;
+
+    // Trạng thái Payment sau khi xử lý: SUCCESS / FAILED
+    @Enumerated(EnumType.STRING)
+    @Column(name = "Outcome", nullable = false, length = 20)
+    private Payment.PaymentStatus outcome;
+
+    @Column(name = "ReceivedAt", nullable = false)
+    private LocalDateTime receivedAt;
+}
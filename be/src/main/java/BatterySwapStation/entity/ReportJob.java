@@ -0,0 +1,98 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Job tạo báo cáo chạy nền. Kết quả (JSON đã gzip) nằm ở ReportJobChunk theo từng khúc.
+ */
+@Entity
+@Table(name = "ReportJob", indexes = {
+        @Index(name = "idx_reportjob_dedup", columnList = "DedupKey, Status")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ReportJob {
+
+    public enum JobType {
+        REVENUE_HOURLY,
+        REVENUE_DAILY,
+        SWAP_HOURLY,
+        SWAP_DAILY,
+        STATION_RANGE,
+        ALL_STATIONS
+    }
+
+    public enum JobStatus {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    @Id
+    @Column(name = "JobId", length = 36)
+    private String jobId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "JobType", nullable = false, length = 30)
+    private JobType jobType;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "Status", nullable = false, length = 20)
+    private JobStatus status;
+
+    // (type, trạm, khoảng ngày) → các request giống nhau đang chạy dùng chung 1 job
+    @Column(name = "DedupKey", nullable = false, length = 200)
+    private String dedupKey;
+
+    @Column(name = "StationId")
+    private Integer stationId;
+
+    @Column(name = "StartDate")
+    private LocalDate startDate;
+
+    @Column(name = "EndDate")
+    private LocalDate endDate;
+
+    @Column(name = "Days")
+    private Integer days;
+
+    // 0..100
+    @Column(name = "Progress", nullable = false)
+    private int progress;
+
+    @Column(name = "Message", length = 255)
+    private String message;
+
+    @Column(name = "RequestedBy", length = 100)
+    private String requestedBy;
+
+    @Column(name = "CreatedAt", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "StartedAt")
+    private LocalDateTime startedAt;
+
+    @Column(name = "FinishedAt")
+    private LocalDateTime finishedAt;
+
+    // Kích thước JSON trước / sau khi nén
+    @Column(name = "RawBytes")
+    private Long rawBytes;
+
+    @Column(name = "CompressedBytes")
+    private Long compressedBytes;
+
+    @Column(name = "ChunkCount")
+    private Integer chunkCount;
+
+    @Column(name = "Error", length = 1000)
+    private String error;
+}
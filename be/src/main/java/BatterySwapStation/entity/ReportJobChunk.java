@@ -0,0 +1,33 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * 1 khúc của kết quả ReportJob (luồng gzip cắt theo kích thước cố định, ghép lại theo ChunkIndex).
+ */
+@Entity
+@Table(name = "ReportJobChunk", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_reportjobchunk_job_index", columnNames = {"JobId", "ChunkIndex"})
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReportJobChunk {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "ChunkId")
+    private Long chunkId;
+
+    @Column(name = "JobId", nullable = false, length = 36)
+    private String jobId;
+
+    @Column(name = "ChunkIndex", nullable = false)
+    private int chunkIndex;
+
+    // bytea
+    @Column(name = "Data", nullable = false)
+    private byte[] data;
+}
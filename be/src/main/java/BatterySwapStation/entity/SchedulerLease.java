@@ -0,0 +1,37 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Lease của 1 job @Scheduled (hoặc 1 phân vùng của job) giữa các instance.
+ * Chỉ đọc / ghi qua SchedulerLeaseService bằng SQL nguyên tử; entity để Hibernate tạo bảng.
+ */
+@Entity
+@Table(name = "SchedulerLease")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class SchedulerLease {
+
+    @Id
+    @Column(name = "JobName", length = 200)
+    private String jobName;
+
+    @Column(name = "OwnerId", nullable = false, length = 150)
+    private String ownerId;
+
+    // Tăng mỗi lần lease đổi chủ: instance cũ (đã mất lease) ghi kèm token cũ sẽ bị từ chối
+    @Column(name = "FencingToken", nullable = false)
+    private Long fencingToken;
+
+    // Giờ DB (timestamptz) để không phụ thuộc đồng hồ của từng instance
+    @Column(name = "LeaseUntil", nullable = false)
+    private Instant leaseUntil;
+
+    @Column(name = "AcquiredAt", nullable = false)
+    private Instant acquiredAt;
+}
@@ -0,0 +1,59 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Bảng rollup theo (trạm, giờ): doanh thu, số giao dịch, số lượt đổi pin, booking FAILED / CANCELLED.
+ * Chỉ ghi qua StationStatsRollupService (SQL set-based); StationId = 0 cho invoice không gắn trạm (gói tháng, nạp ví...).
+ * BucketHour giữ nguyên đồng hồ của cột gốc (createddate / completedtime / bookingdate + timeslot), cắt theo giờ.
+ */
+@Entity
+@Table(name = "StationHourlyStats", indexes = {
+        @Index(name = "idx_stationhourlystats_bucket", columnList = "BucketHour")
+})
+@IdClass(StationHourlyStats.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StationHourlyStats {
+
+    @Id
+    @Column(name = "StationId")
+    private Integer stationId;
+
+    @Id
+    @Column(name = "BucketHour")
+    private LocalDateTime bucketHour;
+
+    // Tổng totalamount của invoice có payment SUCCESS
+    @Column(name = "Revenue", nullable = false)
+    private double revenue;
+
+    @Column(name = "Transactions", nullable = false)
+    private long transactions;
+
+    @Column(name = "Swaps", nullable = false)
+    private long swaps;
+
+    @Column(name = "FailedBookings", nullable = false)
+    private long failedBookings;
+
+    @Column(name = "CancelledBookings", nullable = false)
+    private long cancelledBookings;
+
+    @Column(name = "UpdatedAt", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Integer stationId;
+        private LocalDateTime bucketHour;
+    }
+}
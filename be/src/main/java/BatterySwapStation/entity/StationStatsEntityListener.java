@@ -0,0 +1,31 @@
+package BatterySwapStation.entity;
+
+import BatterySwapStation.service.StationStatsRollupService;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+/**
+ * JPA listener: mọi thay đổi Invoice / Payment / Swap / Booking đánh dấu id cho StationStatsRollupService.
+ * Chỉ đọc id (không chạm quan hệ lazy) vì chạy trong lúc Hibernate flush.
+ */
+public class StationStatsEntityListener {
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void onChange(Object entity) {
+        if (entity instanceof Invoice invoice) {
+            StationStatsRollupService.markInvoiceDirty(invoice.getInvoiceId());
+        } else if (entity instanceof Payment payment) {
+            // Payment SUCCESS / FAILED đổi doanh thu của invoice
+            if (payment.getInvoice() != null) {
+                StationStatsRollupService.markInvoiceDirty(payment.getInvoice().getInvoiceId());
+            }
+        } else if (entity instanceof Swap swap) {
+            StationStatsRollupService.markSwapDirty(swap.getSwapId());
+        } else if (entity instanceof Booking booking) {
+            StationStatsRollupService.markBookingDirty(booking.getBookingId());
+        }
+    }
+}
@@ -6,7 +6,10 @@ import java.time.LocalDateTime;
 
 @Data
 @Entity
-@Table(name = "Swap")
+@Table(name = "Swap", indexes = {
+        @Index(name = "idx_swap_completedtime", columnList = "CompletedTime")
+})
+@EntityListeners(StationStatsEntityListener.class)
 @Getter @Setter
 @NoArgsConstructor @AllArgsConstructor @Builder
 public class Swap {
@@ -62,7 +62,8 @@ public class User implements UserDetails {
         this.updateAt = LocalDateTime.now();
     }
 
-    @Column(name = "WalletBalance", nullable = false)
+    // Chỉ WalletService được đổi số dư (UPDATE có điều kiện + sổ cái); save(User) không ghi đè cột này
+    @Column(name = "WalletBalance", nullable = false, updatable = false)
     private Double walletBalance = 0.0;
 
 
@@ -47,7 +47,8 @@ public class UserSubscription {
     /**
      * ✅ [THÊM MỚI] Số lượt đổi pin đã sử dụng trong chu kỳ này.
      * Sẽ được reset về 0 khi gia hạn (bằng Scheduler).
+     * Chỉ ghi qua SubscriptionQuotaService (UPDATE có điều kiện), entity không bao giờ ghi đè cột này.
      */
-    @Column(name = "UsedSwaps", nullable = false)
+    @Column(name = "UsedSwaps", nullable = false, updatable = false)
     private Integer usedSwaps = 0;
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Job import xe từ CSV chạy nền. 1 file (theo SHA-256) = 1 job: tải lại cùng file trả về job cũ,
+ * job FAILED thì chạy tiếp từ CheckpointLine.
+ */
+@Entity
+@Table(name = "VehicleImportJob", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_vehicleimportjob_hash", columnNames = {"FileHash"})
+}, indexes = {
+        @Index(name = "idx_vehicleimportjob_status", columnList = "Status, UpdatedAt")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class VehicleImportJob {
+
+    public enum JobStatus {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    @Id
+    @Column(name = "JobId", length = 36)
+    private String jobId;
+
+    // SHA-256 hex của nội dung file
+    @Column(name = "FileHash", nullable = false, length = 64)
+    private String fileHash;
+
+    @Column(name = "FileName", length = 255)
+    private String fileName;
+
+    @Column(name = "FileSize", nullable = false)
+    private long fileSize;
+
+    // File đã spool trên đĩa của instance nhận upload; null khi đã xong / đã dọn
+    @Column(name = "SpoolPath", length = 500)
+    private String spoolPath;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "Status", nullable = false, length = 20)
+    private JobStatus status;
+
+    // 0..100
+    @Column(name = "Progress", nullable = false)
+    private int progress;
+
+    @Column(name = "Message", length = 255)
+    private String message;
+
+    // Dòng cuối của lô đã commit gần nhất → chạy tiếp từ dòng sau
+    @Column(name = "CheckpointLine", nullable = false)
+    private int checkpointLine;
+
+    @Column(name = "ChunksDone", nullable = false)
+    private int chunksDone;
+
+    @Column(name = "TotalRows", nullable = false)
+    private int totalRows;
+
+    @Column(name = "SuccessCount", nullable = false)
+    private int successCount;
+
+    @Column(name = "FailureCount", nullable = false)
+    private int failureCount;
+
+    @Column(name = "RequestedBy", length = 100)
+    private String requestedBy;
+
+    @Column(name = "CreatedAt", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "StartedAt")
+    private LocalDateTime startedAt;
+
+    // Lần cập nhật tiến độ gần nhất (phát hiện job bị bỏ dở)
+    @Column(name = "UpdatedAt", nullable = false)
+    private LocalDateTime updatedAt;
+
+    @Column(name = "FinishedAt")
+    private LocalDateTime finishedAt;
+
+    @Column(name = "Error", length = 1000)
+    private String error;
+}
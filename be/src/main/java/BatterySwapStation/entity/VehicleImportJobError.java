@@ -0,0 +1,40 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * 1 dòng lỗi của VehicleImportJob (ghi cùng transaction với lô chứa nó).
+ */
+@Entity
+@Table(name = "VehicleImportJobError", indexes = {
+        @Index(name = "idx_vehicleimportjoberror_job_row", columnList = "JobId, RowNumber")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class VehicleImportJobError {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "ErrorId")
+    private Long errorId;
+
+    @Column(name = "JobId", nullable = false, length = 36)
+    private String jobId;
+
+    @Column(name = "RowNumber", nullable = false)
+    private int rowNumber;
+
+    @Column(name = "VIN", length = 100)
+    private String vin;
+
+    @Column(name = "LicensePlate", length = 100)
+    private String licensePlate;
+
+    // Các lỗi của dòng, nối bằng "; "
+    @Column(name = "Errors", nullable = false, length = 2000)
+    private String errors;
+}
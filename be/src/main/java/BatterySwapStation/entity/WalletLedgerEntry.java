@@ -0,0 +1,62 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Sổ cái ví (chỉ thêm, không sửa / xóa). Mỗi lần ví thay đổi = 1 dòng, ghi cùng câu lệnh với
+ * việc cập nhật Users.WalletBalance nên BalanceAfter luôn khớp số dư ngay sau giao dịch.
+ */
+@Entity
+@Table(name = "WalletLedger", indexes = {
+        @Index(name = "idx_walletledger_user", columnList = "UserId, EntryId")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class WalletLedgerEntry {
+
+    public enum EntryType {
+        TOPUP,
+        BOOKING_PAYMENT,
+        SUBSCRIPTION_PAYMENT,
+        PENALTY_PAYMENT,
+        REFUND
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "EntryId")
+    private Long entryId;
+
+    @Column(name = "UserId", nullable = false, length = 20)
+    private String userId;
+
+    // Dương = cộng ví, âm = trừ ví
+    @Column(name = "Amount", nullable = false)
+    private double amount;
+
+    @Column(name = "BalanceAfter", nullable = false)
+    private double balanceAfter;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "EntryType", nullable = false, length = 30)
+    private EntryType entryType;
+
+    // Chứng từ liên quan (VD: INVOICE / 123)
+    @Column(name = "RefType", length = 30)
+    private String refType;
+
+    @Column(name = "RefId", length = 50)
+    private String refId;
+
+    @Column(name = "Note", length = 255)
+    private String note;
+
+    @Column(name = "CreatedAt", nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,34 @@
+package BatterySwapStation.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Điểm chốt số dư ví theo user (do job gom sổ cái cập nhật định kỳ).
+ * Số dư tại thời điểm bất kỳ = Balance + tổng Amount các dòng sổ cái có EntryId > LastEntryId,
+ * nên đối soát chỉ cần đọc phần đuôi sổ cái thay vì toàn bộ lịch sử.
+ */
+@Entity
+@Table(name = "WalletSnapshot")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class WalletSnapshot {
+
+    @Id
+    @Column(name = "UserId", length = 20)
+    private String userId;
+
+    @Column(name = "Balance", nullable = false)
+    private double balance;
+
+    @Column(name = "LastEntryId", nullable = false)
+    private long lastEntryId;
+
+    @Column(name = "SnapshotAt", nullable = false)
+    private LocalDateTime snapshotAt;
+}
@@ -1,8 +1,13 @@
 package BatterySwapStation.repository;
 
+import BatterySwapStation.dto.InspectionListItemDTO;
 import BatterySwapStation.entity.BatteryInspection;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface BatteryInspectionRepository extends JpaRepository<BatteryInspection, Long> {
@@ -10,4 +15,31 @@ public interface BatteryInspectionRepository extends JpaRepository<BatteryInspec
 
     // Tìm tất cả các BatteryInspection theo Staff ID
     List<BatteryInspection> findByStaffUserId(String staffId);
+
+    // Danh sách: keyset theo id giảm dần; trạm lấy từ booking của biên bản
+    @Query("""
+        SELECT new BatterySwapStation.dto.InspectionListItemDTO(
+            i.id, i.inspectionTime, i.stateOfHealth, i.physicalNotes, i.isDamaged, i.status,
+            b.batteryId, bk.bookingId, s.stationId, st.userId, st.fullName
+        )
+        FROM BatteryInspection i
+        LEFT JOIN i.battery b
+        LEFT JOIN i.booking bk
+        LEFT JOIN bk.station s
+        LEFT JOIN i.staff st
+        WHERE (:afterId IS NULL OR i.id < :afterId)
+          AND (:status IS NULL OR i.status = :status)
+          AND (:stationId IS NULL OR s.stationId = :stationId)
+          AND (:staffId IS NULL OR st.userId = :staffId)
+          AND (:fromTime IS NULL OR i.inspectionTime >= :fromTime)
+          AND (:toTime IS NULL OR i.inspectionTime < :toTime)
+        ORDER BY i.id DESC
+        """)
+    List<InspectionListItemDTO> findPage(@Param("afterId") Long afterId,
+                                         @Param("status") BatteryInspection.InspectionStatus status,
+                                         @Param("stationId") Integer stationId,
+                                         @Param("staffId") String staffId,
+                                         @Param("fromTime") LocalDateTime fromTime,
+                                         @Param("toTime") LocalDateTime toTime,
+                                         Pageable pageable);
 }
@@ -1,9 +1,14 @@
 package BatterySwapStation.repository;
 
+import BatterySwapStation.dto.RebalanceListItemDTO;
 import BatterySwapStation.entity.BatteryRebalance;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
@@ -11,4 +16,27 @@ public interface BatteryRebalanceRepository extends JpaRepository<BatteryRebalan
 
     // Lấy danh sách lệnh điều phối theo trạng thái
     List<BatteryRebalance> findByStatus(BatteryRebalance.RebalanceStatus status);
+
+    // Danh sách admin: keyset theo id giảm dần; stationId khớp trạm gửi hoặc trạm nhận
+    @Query("""
+        SELECT new BatterySwapStation.dto.RebalanceListItemDTO(
+            r.id, fs.stationId, fs.stationName, ts.stationId, ts.stationName,
+            r.batteryType, r.quantity, r.note, r.status, r.createdAt, r.scheduledTime
+        )
+        FROM BatteryRebalance r
+        JOIN r.fromStation fs
+        JOIN r.toStation ts
+        WHERE (:afterId IS NULL OR r.id < :afterId)
+          AND (:status IS NULL OR r.status = :status)
+          AND (:stationId IS NULL OR fs.stationId = :stationId OR ts.stationId = :stationId)
+          AND (:fromTime IS NULL OR r.createdAt >= :fromTime)
+          AND (:toTime IS NULL OR r.createdAt < :toTime)
+        ORDER BY r.id DESC
+        """)
+    List<RebalanceListItemDTO> findAdminPage(@Param("afterId") Long afterId,
+                                             @Param("status") BatteryRebalance.RebalanceStatus status,
+                                             @Param("stationId") Integer stationId,
+                                             @Param("fromTime") LocalDateTime fromTime,
+                                             @Param("toTime") LocalDateTime toTime,
+                                             Pageable pageable);
 }
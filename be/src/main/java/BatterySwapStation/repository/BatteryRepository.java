@@ -9,6 +9,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import org.springframework.data.domain.Pageable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -81,6 +82,53 @@ public interface BatteryRepository extends JpaRepository<Battery, String> {
             """)
     List<Object[]> countBatteriesForAllStations();
 
+    // Số pin active theo StationId (dùng cho gợi ý điều phối, không load entity)
+    @Query("""
+                SELECT b.stationId, COUNT(b)
+                FROM Battery b
+                WHERE b.isActive = true AND b.stationId IS NOT NULL
+                GROUP BY b.stationId
+            """)
+    List<Object[]> countActiveBatteriesGroupByStation();
+
+    // Thống kê pin: 1 lượt quét bảng Battery, mỗi GROUPING SET là 1 chiều thống kê
+    // → [dimension (TYPE/STATION/STATUS/SOH/CYCLE/TOTAL), bucket, count, avg SoH]
+    @Query(value = """
+    SELECT CASE
+             WHEN GROUPING(b.BatteryType) = 0 THEN 'TYPE'
+             WHEN GROUPING(b.StationId) = 0 THEN 'STATION'
+             WHEN GROUPING(b.BatteryStatus) = 0 THEN 'STATUS'
+             WHEN GROUPING(b.SohBucket) = 0 THEN 'SOH'
+             WHEN GROUPING(b.CycleBucket) = 0 THEN 'CYCLE'
+             ELSE 'TOTAL'
+           END AS Dimension,
+           COALESCE(b.BatteryType, CAST(b.StationId AS VARCHAR), b.BatteryStatus, b.SohBucket, b.CycleBucket) AS Bucket,
+           COUNT(*) AS Total,
+           AVG(b.StateOfHealth) AS AvgSoh
+    FROM (
+        SELECT BatteryType, StationId, BatteryStatus, StateOfHealth,
+               CASE
+                 WHEN StateOfHealth IS NULL THEN 'UNKNOWN'
+                 WHEN StateOfHealth < 60 THEN '<60'
+                 WHEN StateOfHealth < 70 THEN '60-69'
+                 WHEN StateOfHealth < 80 THEN '70-79'
+                 WHEN StateOfHealth < 90 THEN '80-89'
+                 ELSE '>=90'
+               END AS SohBucket,
+               CASE
+                 WHEN CycleCount IS NULL THEN 'UNKNOWN'
+                 WHEN CycleCount < 200 THEN '0-199'
+                 WHEN CycleCount < 500 THEN '200-499'
+                 WHEN CycleCount < 1000 THEN '500-999'
+                 ELSE '>=1000'
+               END AS CycleBucket
+        FROM Battery
+    ) b
+    GROUP BY GROUPING SETS ((b.BatteryType), (b.StationId), (b.BatteryStatus),
+                            (b.SohBucket), (b.CycleBucket), ())
+""", nativeQuery = true)
+    List<Object[]> aggregateStatistics();
+
     @Query("""
                 SELECT b.batteryType
                 FROM Battery b
@@ -124,4 +172,8 @@ public interface BatteryRepository extends JpaRepository<Battery, String> {
 """)
     List<Battery> findBatteriesByVehicleId(@Param("vehicleId") Integer vehicleId);
 
+    // Import CSV: id pin nào trong lô đã tồn tại
+    @Query("SELECT b.batteryId FROM Battery b WHERE b.batteryId IN :ids")
+    List<String> findExistingIds(@Param("ids") Collection<String> ids);
+
 }
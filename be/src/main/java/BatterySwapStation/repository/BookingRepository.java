@@ -1,14 +1,17 @@
 package BatterySwapStation.repository;
 
+import BatterySwapStation.dto.BookingListItemDTO;
 import BatterySwapStation.dto.BookingSimpleDto;
 import BatterySwapStation.entity.Booking;
 import BatterySwapStation.entity.Invoice;
 import BatterySwapStation.entity.User;
 import BatterySwapStation.entity.Station;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -174,6 +177,30 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
                                             @Param("date") LocalDate date,
                                             @Param("timeSlot") LocalTime timeSlot);
 
+    /**
+     * Giống getBookedBatteryCountAtTimeSlot nhưng nhận stationId (không cần load Station)
+     */
+    @Query("SELECT SUM(b.batteryCount) FROM Booking b " +
+            "WHERE b.station.stationId = :stationId " +
+            "AND b.bookingDate = :date " +
+            "AND b.timeSlot = :timeSlot " +
+            "AND b.bookingStatus IN (BatterySwapStation.entity.Booking.BookingStatus.PENDINGPAYMENT, " +
+            "BatterySwapStation.entity.Booking.BookingStatus.PENDINGSWAPPING)")
+    Integer getBookedBatteryCountAtTimeSlotByStationId(@Param("stationId") Integer stationId,
+                                                       @Param("date") LocalDate date,
+                                                       @Param("timeSlot") LocalTime timeSlot);
+
+    /**
+     * Tổng số pin đang giữ chỗ theo (trạm, ngày, khung giờ) từ ngày fromDate trở đi.
+     * Dùng để nạp SlotCapacityLedger trong 1 query.
+     */
+    @Query("SELECT b.station.stationId, b.bookingDate, b.timeSlot, SUM(b.batteryCount) FROM Booking b " +
+            "WHERE b.bookingDate >= :fromDate " +
+            "AND b.bookingStatus IN (BatterySwapStation.entity.Booking.BookingStatus.PENDINGPAYMENT, " +
+            "BatterySwapStation.entity.Booking.BookingStatus.PENDINGSWAPPING) " +
+            "GROUP BY b.station.stationId, b.bookingDate, b.timeSlot")
+    List<Object[]> sumActiveBatteryCountGroupBySlotFrom(@Param("fromDate") LocalDate fromDate);
+
     @Query("SELECT COUNT(b) FROM Booking b WHERE b.bookingStatus = :status")
     Long countByStatus(@Param("status") BatterySwapStation.entity.Booking.BookingStatus status);
 
@@ -191,4 +218,75 @@ public interface BookingRepository extends JpaRepository<Booking, Long> {
 
     // ---------- NEW: count bookings by station and status ----------
     Long countByStation_StationIdAndBookingStatus(Integer stationId, BatterySwapStation.entity.Booking.BookingStatus bookingStatus);
+
+    // ========== SWEEP HẾT HẠN (SET-BASED) ==========
+    /**
+     * Chuyển 1 lô booking {@code fromStatus} có (ngày, giờ đặt) trước mốc cutoff sang {@code toStatus}.
+     * SKIP LOCKED: bỏ qua booking đang bị luồng khác giữ (đang thanh toán / đổi pin) → lần quét sau xử lý.
+     * Trả về [BookingId, StationId, bookingdate, timeslot, batterycount] để trả lại công suất slot.
+     */
+    @Transactional
+    @Query(value = """
+        UPDATE Booking b
+        SET bookingstatus = :toStatus, CancellationReason = :reason
+        FROM (
+            SELECT BookingId FROM Booking
+            WHERE bookingstatus = :fromStatus
+              AND (bookingdate, timeslot) < (:cutoffDate, :cutoffTime)
+            ORDER BY BookingId
+            LIMIT :batchSize
+            FOR UPDATE SKIP LOCKED
+        ) t
+        WHERE b.BookingId = t.BookingId
+        RETURNING b.BookingId, b.StationId, b.bookingdate, b.timeslot, b.batterycount
+        """, nativeQuery = true)
+    List<Object[]> expireBookingsBatch(@Param("fromStatus") String fromStatus,
+                                       @Param("toStatus") String toStatus,
+                                       @Param("reason") String reason,
+                                       @Param("cutoffDate") LocalDate cutoffDate,
+                                       @Param("cutoffTime") LocalTime cutoffTime,
+                                       @Param("batchSize") int batchSize);
+
+    // Danh sách admin: keyset theo bookingId giảm dần + lọc tùy chọn (null = bỏ qua)
+    @Query("""
+    SELECT new BatterySwapStation.dto.BookingListItemDTO(
+        b.bookingId,
+        u.userId,
+        u.fullName,
+        s.stationId,
+        s.stationName,
+        v.vehicleId,
+        v.licensePlate,
+        b.bookingDate,
+        b.timeSlot,
+        b.bookingStatus,
+        b.amount,
+        b.totalPrice,
+        b.batteryCount,
+        b.batteryType,
+        i.invoiceId,
+        b.completedTime
+    )
+    FROM Booking b
+    JOIN b.user u
+    LEFT JOIN b.station s
+    LEFT JOIN b.vehicle v
+    LEFT JOIN b.invoice i
+    WHERE (:afterId IS NULL OR b.bookingId < :afterId)
+      AND (:status IS NULL OR b.bookingStatus = :status)
+      AND (:stationId IS NULL OR s.stationId = :stationId)
+      AND (:fromDate IS NULL OR b.bookingDate >= :fromDate)
+      AND (:toDate IS NULL OR b.bookingDate <= :toDate)
+    ORDER BY b.bookingId DESC
+""")
+    List<BookingListItemDTO> findAdminPage(@Param("afterId") Long afterId,
+                                           @Param("status") Booking.BookingStatus status,
+                                           @Param("stationId") Integer stationId,
+                                           @Param("fromDate") LocalDate fromDate,
+                                           @Param("toDate") LocalDate toDate,
+                                           Pageable pageable);
+
+    // Khóa dòng booking tới hết transaction (2 lần commit swap song song cho cùng booking chạy tuần tự)
+    @Query(value = "SELECT BookingId FROM Booking WHERE BookingId = :bookingId FOR UPDATE", nativeQuery = true)
+    Optional<Long> lockById(@Param("bookingId") Long bookingId);
 }
@@ -4,8 +4,11 @@ import BatterySwapStation.entity.Battery;
 import BatterySwapStation.entity.DockSlot;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -33,13 +36,34 @@ public interface DockSlotRepository extends JpaRepository<DockSlot, Integer> {
             DockSlot.SlotStatus slotStatus
     );
 
-    //  5️⃣ Lấy TẤT CẢ các slot có pin đầy khả dụng (cho handleSingleSwap)
-    List<DockSlot> findAllByDock_Station_StationIdAndBattery_BatteryTypeAndBattery_BatteryStatusAndSlotStatusOrderByDock_DockNameAscSlotNumberAsc(
-            Integer stationId,
-            Battery.BatteryType batteryType,
-            Battery.BatteryStatus batteryStatus,
-            DockSlot.SlotStatus slotStatus
-    );
+    //  5️⃣ Khóa N slot đang giữ pin đầy khả dụng cùng model (cho commitSwap)
+    // Khóa theo thứ tự dock/slot; SKIP LOCKED: slot đang bị swap khác giữ thì bỏ qua, không chờ
+    @Query(value = """
+        SELECT ds.DockSlotId
+        FROM DockSlot ds
+        JOIN Dock d ON d.DockId = ds.DockId
+        JOIN Battery b ON b.BatteryId = ds.BatteryId
+        WHERE d.StationId = :stationId
+          AND ds.SlotStatus = 'OCCUPIED'
+          AND b.BatteryStatus = 'AVAILABLE'
+          AND b.BatteryType = :batteryType
+        ORDER BY d.DockName, ds.SlotNumber
+        LIMIT :limit
+        FOR UPDATE OF ds, b SKIP LOCKED
+        """, nativeQuery = true)
+    List<Integer> lockAvailableSlotIds(@Param("stationId") Integer stationId,
+                                       @Param("batteryType") String batteryType,
+                                       @Param("limit") int limit);
+
+    // Nạp các slot đã khóa kèm dock, station, battery trong 1 query
+    @Query("""
+        SELECT ds FROM DockSlot ds
+        JOIN FETCH ds.dock d
+        JOIN FETCH d.station
+        JOIN FETCH ds.battery
+        WHERE ds.dockSlotId IN :ids
+        """)
+    List<DockSlot> findAllWithBatteryByIdIn(@Param("ids") Collection<Integer> ids);
 
     //  6️⃣ Đếm số pin có trạng thái AVAILABLE tại 1 trạm
     long countByDock_Station_StationIdAndBattery_BatteryStatus(Integer stationId, Battery.BatteryStatus status);
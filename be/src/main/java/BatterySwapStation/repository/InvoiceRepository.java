@@ -1,11 +1,14 @@
 package BatterySwapStation.repository;
 
+import BatterySwapStation.dto.InvoiceListItemDTO;
 import BatterySwapStation.entity.Invoice;
 import BatterySwapStation.entity.SubscriptionPlan;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -171,5 +174,73 @@ WHERE i.invoiceId = :invoiceId
 """)
     Optional<Invoice> fetchPaymentsForInvoice(@Param("invoiceId") Long invoiceId);
 
-
-}
\ No newline at end of file
+    /**
+     * ⏱ Hết hạn 1 lô invoice PENDING trong 1 câu lệnh:
+     * invoice → PAYMENTFAILED, payment PENDING → FAILED, booking của invoice → FAILED.
+     * Mỗi dòng trả về: [số invoice, số payment, BookingId, trạng thái cũ, StationId, bookingdate, timeslot, batterycount]
+     * (luôn có ít nhất 1 dòng; các cột booking null nếu lô không có booking).
+     */
+    @Transactional
+    @Query(value = """
+        WITH inv AS (
+            UPDATE Invoice i
+            SET invoicestatus = 'PAYMENTFAILED'
+            FROM (
+                SELECT invoiceid FROM Invoice
+                WHERE invoicestatus = 'PENDING' AND createddate < :timeoutDate
+                ORDER BY invoiceid
+                LIMIT :batchSize
+                FOR UPDATE SKIP LOCKED
+            ) t
+            WHERE i.invoiceid = t.invoiceid
+            RETURNING i.invoiceid
+        ),
+        pay AS (
+            UPDATE Payment p
+            SET PaymentStatus = 'FAILED'
+            FROM inv
+            WHERE p.InvoiceId = inv.invoiceid AND p.PaymentStatus = 'PENDING'
+            RETURNING p.PaymentId
+        ),
+        old AS (
+            SELECT b.BookingId, b.bookingstatus AS oldstatus
+            FROM Booking b JOIN inv ON b.InvoiceId = inv.invoiceid
+            FOR UPDATE OF b
+        ),
+        bk AS (
+            UPDATE Booking b
+            SET bookingstatus = 'FAILED'
+            FROM old
+            WHERE b.BookingId = old.BookingId
+            RETURNING b.BookingId, old.oldstatus, b.StationId, b.bookingdate, b.timeslot, b.batterycount
+        )
+        SELECT (SELECT COUNT(*) FROM inv), (SELECT COUNT(*) FROM pay),
+               bk.BookingId, bk.oldstatus, bk.StationId, bk.bookingdate, bk.timeslot, bk.batterycount
+        FROM (SELECT 1) one
+        LEFT JOIN bk ON TRUE
+        """, nativeQuery = true)
+    List<Object[]> expirePendingInvoicesBatch(@Param("timeoutDate") LocalDateTime timeoutDate,
+                                              @Param("batchSize") int batchSize);
+
+    // Danh sách admin: keyset theo invoiceId giảm dần, khoảng ngày [from, to) trên createdDate
+    @Query("""
+        SELECT new BatterySwapStation.dto.InvoiceListItemDTO(
+            i.invoiceId, i.userId, i.createdDate, i.totalAmount, i.numberOfSwaps, i.invoiceStatus, i.invoiceType
+        )
+        FROM Invoice i
+        WHERE (:afterId IS NULL OR i.invoiceId < :afterId)
+          AND (:status IS NULL OR i.invoiceStatus = :status)
+          AND (:type IS NULL OR i.invoiceType = :type)
+          AND (:userId IS NULL OR i.userId = :userId)
+          AND (:fromTime IS NULL OR i.createdDate >= :fromTime)
+          AND (:toTime IS NULL OR i.createdDate < :toTime)
+        ORDER BY i.invoiceId DESC
+        """)
+    List<InvoiceListItemDTO> findAdminPage(@Param("afterId") Long afterId,
+                                           @Param("status") Invoice.InvoiceStatus status,
+                                           @Param("type") Invoice.InvoiceType type,
+                                           @Param("userId") String userId,
+                                           @Param("fromTime") LocalDateTime fromTime,
+                                           @Param("toTime") LocalDateTime toTime,
+                                           Pageable pageable);
+}
@@ -0,0 +1,9 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.PaymentIpnJournal;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface PaymentIpnJournalRepository extends JpaRepository<PaymentIpnJournal, Long> {
+
+    boolean existsByTxnRef(String txnRef);
+}
@@ -0,0 +1,15 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.ReportJobChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ReportJobChunkRepository extends JpaRepository<ReportJobChunk, Long> {
+
+    // Chỉ lấy dữ liệu 1 khúc → đọc kết quả lớn mà không nạp mọi khúc vào heap
+    @Query("SELECT c.data FROM ReportJobChunk c WHERE c.jobId = :jobId AND c.chunkIndex = :chunkIndex")
+    byte[] findData(@Param("jobId") String jobId, @Param("chunkIndex") int chunkIndex);
+}
@@ -0,0 +1,24 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.ReportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface ReportJobRepository extends JpaRepository<ReportJob, String> {
+
+    // Job giống hệt đang chờ / đang chạy (bỏ qua job quá cũ: instance chạy nó có thể đã dừng)
+    Optional<ReportJob> findFirstByDedupKeyAndStatusInAndCreatedAtAfterOrderByCreatedAtDesc(
+            String dedupKey, Collection<ReportJob.JobStatus> statuses, LocalDateTime createdAfter);
+
+    // Job QUEUED / RUNNING bị bỏ dở (instance dừng giữa chừng)
+    List<ReportJob> findTop200ByStatusInAndCreatedAtBefore(Collection<ReportJob.JobStatus> statuses, LocalDateTime before);
+
+    // Job đã xong quá thời gian giữ kết quả
+    List<ReportJob> findTop200ByFinishedAtBeforeOrderByFinishedAtAsc(LocalDateTime before);
+}
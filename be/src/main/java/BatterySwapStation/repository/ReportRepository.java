@@ -1,31 +1,38 @@
 package BatterySwapStation.repository;
 
 import BatterySwapStation.entity.Report;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 @Repository
 public interface ReportRepository extends JpaRepository<Report, Long> {
 
+    // Các báo cáo doanh thu / đổi pin đọc từ rollup StationHourlyStats (O(giờ) thay vì O(giao dịch)).
+    // Khoảng ngày [startDate, endDate] tính trọn cả ngày endDate.
+    // Doanh thu = invoice có payment SUCCESS (mỗi invoice tính 1 lần).
+
     // ✅ Doanh thu theo giờ
     @Query(value = """
         SELECT 
-            DATE(i.createddate) AS "date",
-            EXTRACT(HOUR FROM i.createddate) AS "hour",
-            COALESCE(SUM(i.totalamount), 0) AS "totalRevenue",
-            COUNT(i.invoiceid) AS "transactions"
-        FROM invoice i
-        JOIN payment p ON p.invoiceid = i.invoiceid
-        WHERE p.paymentstatus = 'SUCCESS'
-          AND i.createddate BETWEEN :startDate AND :endDate
-        GROUP BY DATE(i.createddate), EXTRACT(HOUR FROM i.createddate)
-        ORDER BY DATE(i.createddate), "hour"
+            DATE(h.buckethour) AS "date",
+            EXTRACT(HOUR FROM h.buckethour) AS "hour",
+            COALESCE(SUM(h.revenue), 0) AS "totalRevenue",
+            CAST(SUM(h.transactions) AS bigint) AS "transactions"
+        FROM stationhourlystats h
+        WHERE h.buckethour >= :startDate
+          AND h.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY DATE(h.buckethour), EXTRACT(HOUR FROM h.buckethour)
+        HAVING SUM(h.transactions) > 0
+        ORDER BY DATE(h.buckethour), "hour"
     """, nativeQuery = true)
     List<Map<String, Object>> fetchHourlyRevenue(@Param("startDate") LocalDate startDate,
                                                  @Param("endDate") LocalDate endDate);
@@ -33,15 +40,15 @@ public interface ReportRepository extends JpaRepository<Report, Long> {
     // ✅ Doanh thu theo ngày
     @Query(value = """
         SELECT 
-            DATE(i.createddate) AS "date",
-            COALESCE(SUM(i.totalamount), 0) AS "totalRevenue",
-            COUNT(i.invoiceid) AS "transactions"
-        FROM invoice i
-        JOIN payment p ON p.invoiceid = i.invoiceid
-        WHERE p.paymentstatus = 'SUCCESS'
-          AND i.createddate BETWEEN :startDate AND :endDate
-        GROUP BY DATE(i.createddate)
-        ORDER BY DATE(i.createddate)
+            DATE(h.buckethour) AS "date",
+            COALESCE(SUM(h.revenue), 0) AS "totalRevenue",
+            CAST(SUM(h.transactions) AS bigint) AS "transactions"
+        FROM stationhourlystats h
+        WHERE h.buckethour >= :startDate
+          AND h.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY DATE(h.buckethour)
+        HAVING SUM(h.transactions) > 0
+        ORDER BY DATE(h.buckethour)
     """, nativeQuery = true)
     List<Map<String, Object>> fetchDailyRevenue(@Param("startDate") LocalDate startDate,
                                                 @Param("endDate") LocalDate endDate);
@@ -49,13 +56,15 @@ public interface ReportRepository extends JpaRepository<Report, Long> {
     // ✅ Lượt swap theo giờ
     @Query(value = """
         SELECT 
-            DATE(sw.completedtime) AS "date",
-            EXTRACT(HOUR FROM sw.completedtime) AS "hour",
-            COUNT(sw.swapid) AS "swapCount"
-        FROM swap sw
-        WHERE sw.completedtime BETWEEN :startDate AND :endDate
-        GROUP BY DATE(sw.completedtime), EXTRACT(HOUR FROM sw.completedtime)
-        ORDER BY DATE(sw.completedtime), "hour"
+            DATE(h.buckethour) AS "date",
+            EXTRACT(HOUR FROM h.buckethour) AS "hour",
+            CAST(SUM(h.swaps) AS bigint) AS "swapCount"
+        FROM stationhourlystats h
+        WHERE h.buckethour >= :startDate
+          AND h.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY DATE(h.buckethour), EXTRACT(HOUR FROM h.buckethour)
+        HAVING SUM(h.swaps) > 0
+        ORDER BY DATE(h.buckethour), "hour"
     """, nativeQuery = true)
     List<Map<String, Object>> fetchHourlySwap(@Param("startDate") LocalDate startDate,
                                               @Param("endDate") LocalDate endDate);
@@ -63,16 +72,83 @@ public interface ReportRepository extends JpaRepository<Report, Long> {
     // ✅ Lượt swap theo ngày
     @Query(value = """
         SELECT 
-            DATE(sw.completedtime) AS "date",
-            COUNT(sw.swapid) AS "swapCount"
-        FROM swap sw
-        WHERE sw.completedtime BETWEEN :startDate AND :endDate
-        GROUP BY DATE(sw.completedtime)
-        ORDER BY DATE(sw.completedtime)
+            DATE(h.buckethour) AS "date",
+            CAST(SUM(h.swaps) AS bigint) AS "swapCount"
+        FROM stationhourlystats h
+        WHERE h.buckethour >= :startDate
+          AND h.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY DATE(h.buckethour)
+        HAVING SUM(h.swaps) > 0
+        ORDER BY DATE(h.buckethour)
     """, nativeQuery = true)
     List<Map<String, Object>> fetchDailySwap(@Param("startDate") LocalDate startDate,
                                              @Param("endDate") LocalDate endDate);
 
+    // ========== STREAMING CHO EXPORT EXCEL ==========
+    // Cùng dữ liệu với các hàm fetch* ở trên nhưng trả về Stream<Object[]> (cột theo thứ tự SELECT):
+    // Postgres chỉ dùng cursor khi đang trong transaction + có fetchSize → phải gọi trong @Transactional(readOnly = true)
+    // và đóng stream sau khi dùng.
+
+    String FETCH_SIZE_HINT = "org.hibernate.fetchSize";
+    String EXPORT_FETCH_SIZE = "500";
+
+    // [date, hour, totalRevenue, transactions]
+    @QueryHints(@QueryHint(name = FETCH_SIZE_HINT, value = EXPORT_FETCH_SIZE))
+    @Query(value = """
+        SELECT DATE(h.buckethour), EXTRACT(HOUR FROM h.buckethour),
+               COALESCE(SUM(h.revenue), 0), CAST(SUM(h.transactions) AS bigint)
+        FROM stationhourlystats h
+        WHERE h.buckethour >= :startDate
+          AND h.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY 1, 2
+        HAVING SUM(h.transactions) > 0
+        ORDER BY 1, 2
+    """, nativeQuery = true)
+    Stream<Object[]> streamHourlyRevenue(@Param("startDate") LocalDate startDate,
+                                         @Param("endDate") LocalDate endDate);
+
+    // [date, totalRevenue, transactions]
+    @QueryHints(@QueryHint(name = FETCH_SIZE_HINT, value = EXPORT_FETCH_SIZE))
+    @Query(value = """
+        SELECT DATE(h.buckethour), COALESCE(SUM(h.revenue), 0), CAST(SUM(h.transactions) AS bigint)
+        FROM stationhourlystats h
+        WHERE h.buckethour >= :startDate
+          AND h.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY 1
+        HAVING SUM(h.transactions) > 0
+        ORDER BY 1
+    """, nativeQuery = true)
+    Stream<Object[]> streamDailyRevenue(@Param("startDate") LocalDate startDate,
+                                        @Param("endDate") LocalDate endDate);
+
+    // [date, hour, swapCount]
+    @QueryHints(@QueryHint(name = FETCH_SIZE_HINT, value = EXPORT_FETCH_SIZE))
+    @Query(value = """
+        SELECT DATE(h.buckethour), EXTRACT(HOUR FROM h.buckethour), CAST(SUM(h.swaps) AS bigint)
+        FROM stationhourlystats h
+        WHERE h.buckethour >= :startDate
+          AND h.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY 1, 2
+        HAVING SUM(h.swaps) > 0
+        ORDER BY 1, 2
+    """, nativeQuery = true)
+    Stream<Object[]> streamHourlySwap(@Param("startDate") LocalDate startDate,
+                                      @Param("endDate") LocalDate endDate);
+
+    // [date, swapCount]
+    @QueryHints(@QueryHint(name = FETCH_SIZE_HINT, value = EXPORT_FETCH_SIZE))
+    @Query(value = """
+        SELECT DATE(h.buckethour), CAST(SUM(h.swaps) AS bigint)
+        FROM stationhourlystats h
+        WHERE h.buckethour >= :startDate
+          AND h.buckethour < CAST(:endDate AS date) + 1
+        GROUP BY 1
+        HAVING SUM(h.swaps) > 0
+        ORDER BY 1
+    """, nativeQuery = true)
+    Stream<Object[]> streamDailySwap(@Param("startDate") LocalDate startDate,
+                                     @Param("endDate") LocalDate endDate);
+
     // Optimized station performance: use pre-aggregated subqueries to avoid large intermediate joins
     @Query(value = """
         SELECT
@@ -80,24 +156,20 @@ public interface ReportRepository extends JpaRepository<Report, Long> {
             s.stationname AS "stationName",
             s.address AS "address",
             COALESCE(ir.totalrevenue, 0) AS "totalRevenue",
-            COALESCE(sw.total_transactions, 0) AS "totalTransactions",
+            CAST(COALESCE(ir.total_transactions, 0) AS bigint) AS "totalTransactions",
             COALESCE(bc.managed_batteries, 0) AS "managedBatteries",
             CASE WHEN COALESCE(sl.total_slots, 0) = 0 THEN 0
                  ELSE ROUND( (sl.occupied_slots::numeric * 100.0) / sl.total_slots, 2)
             END AS "efficiencyRate"
         FROM station s
         LEFT JOIN (
-            SELECT b.stationid, SUM(i.totalamount) AS totalrevenue
-            FROM invoice i
-            JOIN booking b ON b.invoiceid = i.invoiceid
-            GROUP BY b.stationid
+            -- doanh thu + lượt đổi pin từ rollup theo giờ
+            SELECT h.stationid,
+                   SUM(h.revenue) AS totalrevenue,
+                   SUM(h.swaps) AS total_transactions
+            FROM stationhourlystats h
+            GROUP BY h.stationid
         ) ir ON ir.stationid = s.stationid
-        LEFT JOIN (
-            SELECT d.stationid, COUNT(sw.swapid) AS total_transactions
-            FROM swap sw
-            JOIN dock d ON sw.dockid = d.dockid
-            GROUP BY d.stationid
-        ) sw ON sw.stationid = s.stationid
         LEFT JOIN (
             SELECT stationid, COUNT(batteryid) AS managed_batteries
             FROM battery
@@ -0,0 +1,54 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.StationHourlyStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+public interface StationHourlyStatsRepository extends JpaRepository<StationHourlyStats, StationHourlyStats.Key> {
+
+    // ✅ Tổng 1 ngày, mọi trạm (tối đa 24 × số trạm dòng)
+    @Query(value = """
+        SELECT COALESCE(SUM(h.revenue), 0) AS "totalRevenue",
+               CAST(COALESCE(SUM(h.transactions), 0) AS bigint) AS "transactions",
+               CAST(COALESCE(SUM(h.swaps), 0) AS bigint) AS "swapCount"
+        FROM stationhourlystats h
+        WHERE h.buckethour >= :date
+          AND h.buckethour < CAST(:date AS date) + 1
+    """, nativeQuery = true)
+    Map<String, Object> sumForDay(@Param("date") LocalDate date);
+
+    // ✅ Tổng 1 ngày của 1 trạm (tối đa 24 dòng)
+    @Query(value = """
+        SELECT COALESCE(SUM(h.revenue), 0) AS "totalRevenue",
+               CAST(COALESCE(SUM(h.transactions), 0) AS bigint) AS "transactions",
+               CAST(COALESCE(SUM(h.swaps), 0) AS bigint) AS "swapCount"
+        FROM stationhourlystats h
+        WHERE h.stationid = :stationId
+          AND h.buckethour >= :date
+          AND h.buckethour < CAST(:date AS date) + 1
+    """, nativeQuery = true)
+    Map<String, Object> sumForStationDay(@Param("stationId") Integer stationId,
+                                         @Param("date") LocalDate date);
+
+    // ✅ [stationId, date, revenue, swapCount] theo ngày của mọi trạm, 1 lần quét cho cả doanh thu lẫn lượt đổi pin
+    @Query(value = """
+        SELECT h.stationid,
+               DATE(h.buckethour),
+               COALESCE(SUM(h.revenue), 0),
+               CAST(SUM(h.swaps) AS bigint)
+        FROM stationhourlystats h
+        WHERE h.stationid <> 0
+          AND h.buckethour >= :start
+          AND h.buckethour < CAST(:end AS date) + 1
+        GROUP BY h.stationid, DATE(h.buckethour)
+    """, nativeQuery = true)
+    List<Object[]> fetchDailyByStation(@Param("start") LocalDate start,
+                                       @Param("end") LocalDate end);
+}
@@ -13,6 +13,10 @@ import java.util.Optional;
 public interface StationRepository extends JpaRepository<Station, Integer> {
     Optional<Station> findByStationName(String stationName);
 
+    // [stationId, stationName, address] - chỉ các cột cần cho báo cáo, không nạp entity
+    @Query("SELECT s.stationId, s.stationName, s.address FROM Station s ORDER BY s.stationId")
+    List<Object[]> findStationHeaders();
+
     // Tổng hợp pin đầy / sạc / tổng cho từng trạm
     @Query("""
         SELECT s.stationId,
@@ -47,6 +51,26 @@ public interface StationRepository extends JpaRepository<Station, Integer> {
         """)
     List<Object[]> getStationBatteryTypes();
 
+    // Thông tin cơ bản của trạm đang hoạt động (không aggregate)
+    @Query("""
+        SELECT s.stationId, s.stationName, s.address, s.latitude, s.longitude, s.isActive
+        FROM Station s
+        WHERE s.isActive = TRUE
+        """)
+    List<Object[]> findActiveStationInfo();
+
+    // Trạng thái từng slot đang hoạt động: trạm, slot, loại pin, trạng thái pin (null nếu slot trống)
+    @Query("""
+        SELECT d.station.stationId, ds.dockSlotId, b.batteryType, b.batteryStatus
+        FROM DockSlot ds
+        JOIN ds.dock d
+        LEFT JOIN ds.battery b
+        WHERE d.isActive = TRUE
+          AND ds.isActive = TRUE
+          AND d.station.isActive = TRUE
+        """)
+    List<Object[]> findActiveSlotBatteryStates();
+
     // Load trạm kèm docks (tránh Lazy exception)
     @Query("""
         SELECT s
@@ -64,6 +88,13 @@ public interface StationRepository extends JpaRepository<Station, Integer> {
     """)
     long countBatteriesAtStation(Integer stationId);
 
+    // Số dock của từng trạm (công suất đặt lịch)
+    @Query("SELECT d.station.stationId, COUNT(d) FROM Dock d GROUP BY d.station.stationId")
+    List<Object[]> countDocksGroupByStation();
+
+    @Query("SELECT COUNT(d) FROM Dock d WHERE d.station.stationId = :stationId")
+    long countDocksByStationId(@Param("stationId") Integer stationId);
+
     @Query("SELECT COUNT(s) FROM Station s")
     int countAllStations();
 }
@@ -0,0 +1,14 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.VehicleImportJobError;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface VehicleImportJobErrorRepository extends JpaRepository<VehicleImportJobError, Long> {
+
+    // Đọc lỗi theo trang kiểu keyset: client gửi lại RowNumber cuối đã nhận
+    List<VehicleImportJobError> findTop500ByJobIdAndRowNumberGreaterThanOrderByRowNumberAsc(String jobId, int afterRow);
+}
@@ -0,0 +1,24 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.VehicleImportJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface VehicleImportJobRepository extends JpaRepository<VehicleImportJob, String> {
+
+    Optional<VehicleImportJob> findByFileHash(String fileHash);
+
+    // Job QUEUED / RUNNING lâu không có tiến độ (instance chạy nó đã dừng)
+    List<VehicleImportJob> findTop50ByStatusInAndUpdatedAtBefore(Collection<VehicleImportJob.JobStatus> statuses,
+                                                                 LocalDateTime before);
+
+    // Job FAILED còn giữ file spool quá lâu
+    List<VehicleImportJob> findTop200ByStatusAndSpoolPathIsNotNullAndUpdatedAtBefore(VehicleImportJob.JobStatus status,
+                                                                                    LocalDateTime before);
+}
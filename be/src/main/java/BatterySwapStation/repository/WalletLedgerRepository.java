@@ -0,0 +1,23 @@
+package BatterySwapStation.repository;
+
+import BatterySwapStation.entity.WalletLedgerEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface WalletLedgerRepository extends JpaRepository<WalletLedgerEntry, Long> {
+
+    // Lịch sử ví của 1 user, keyset theo EntryId giảm dần (đi trên index UserId, EntryId)
+    @Query("""
+            SELECT e FROM WalletLedgerEntry e
+            WHERE e.userId = :userId
+              AND (:afterId IS NULL OR e.entryId < :afterId)
+            ORDER BY e.entryId DESC
+            """)
+    List<WalletLedgerEntry> findPage(@Param("userId") String userId,
+                                     @Param("afterId") Long afterId,
+                                     Pageable pageable);
+}
@@ -0,0 +1,93 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.entity.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 🔑 Cache principal đã xác thực theo băm SHA-256 của JWT.
+ * - Token đã có trong cache = đã kiểm chữ ký lần trước → request sau không parse lại, không query DB
+ * - TTL mỗi entry = min(thời gian sống còn lại của token, MAX_TTL)
+ * - Xóa theo userId khi khóa tài khoản / đổi role / đổi mật khẩu (qua CacheEvictionService) chỉ có hiệu lực
+ *   trên instance hiện tại → MAX_TTL ngắn để instance khác cũng đọc lại user từ DB sau tối đa 60s
+ */
+@Service
+@Slf4j
+public class AuthPrincipalCache {
+
+    private static final long MAX_ENTRIES = 50_000;
+    private static final long MAX_TTL_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private final Cache<String, Entry> cache;
+
+    public AuthPrincipalCache(MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(MAX_ENTRIES)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry value, long currentTime) {
+                        return remainingNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry value, long currentTime, long currentDuration) {
+                        return remainingNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "authPrincipals");
+    }
+
+    public Entry get(String token) {
+        return cache.getIfPresent(hash(token));
+    }
+
+    public void put(String token, User user, List<? extends GrantedAuthority> authorities, long expiresAtMillis) {
+        if (expiresAtMillis <= System.currentTimeMillis()) return;
+        cache.put(hash(token), new Entry(user.getUserId(), user, List.copyOf(authorities), expiresAtMillis));
+    }
+
+    /**
+     * Xóa mọi token đang cache của 1 user (hiếm khi gọi → duyệt toàn bộ map là chấp nhận được).
+     */
+    public void invalidateUser(String userId) {
+        if (userId == null) return;
+        boolean removed = cache.asMap().values().removeIf(e -> userId.equals(e.userId()));
+        if (removed) log.debug("Đã xóa principal cache của user {}", userId);
+    }
+
+    private static long remainingNanos(Entry entry) {
+        long millis = Math.min(entry.expiresAtMillis() - System.currentTimeMillis(), MAX_TTL_MILLIS);
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+    }
+
+    public record Entry(String userId, User user, List<GrantedAuthority> authorities, long expiresAtMillis) {}
+}
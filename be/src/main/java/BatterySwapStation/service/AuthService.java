@@ -26,6 +26,7 @@ public class AuthService {
     private final StaffAssignRepository staffAssignRepository;
     private final UserSubscriptionRepository userSubscriptionRepository;
     private final SwapRepository swapRepository;
+    private final CacheEvictionService cacheEvictionService;
 
 
     public Map<String, Object> login(LoginRequest req) {
@@ -65,6 +66,7 @@ public class AuthService {
 
         user.setRole(role);
         userRepository.save(user);
+        cacheEvictionService.evictAuthPrincipals(userId);
         return true;
     }
 
@@ -3,6 +3,7 @@ package BatterySwapStation.service;
 import BatterySwapStation.dto.ApiResponse;
 import BatterySwapStation.dto.BatteryDetail;
 import BatterySwapStation.dto.BatteryRealtimeEvent;
+import BatterySwapStation.dto.BatteryStatisticsDTO;
 import BatterySwapStation.dto.BatteryStatusUpdateRequest;
 import BatterySwapStation.entity.Battery;
 import BatterySwapStation.entity.DockSlot;
@@ -11,8 +12,7 @@ import BatterySwapStation.repository.BatteryRepository;
 import BatterySwapStation.repository.DockSlotRepository;
 import BatterySwapStation.repository.SwapRepository;
 import BatterySwapStation.repository.VehicleRepository;
-import BatterySwapStation.websocket.BatterySocketController;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import BatterySwapStation.websocket.StationEventBroadcaster;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
@@ -20,9 +20,9 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -30,55 +30,16 @@ public class BatteryService {
 
     private final BatteryRepository batteryRepository;
     private final DockSlotRepository dockSlotRepository;
-    private final BatterySocketController batterySocketController;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StationEventBroadcaster stationEventBroadcaster;
     private final SwapRepository swapRepository;
     private final VehicleRepository vehicleRepository;
-    // ==================== TỰ ĐỘNG SẠC ====================
-    @Scheduled(fixedRate = 6000) // mỗi 6 giây
-    @Transactional
-    public void autoChargeBatteries() {
-        List<Battery> chargingBatteries = batteryRepository.findByBatteryStatus(Battery.BatteryStatus.CHARGING);
-        if (chargingBatteries.isEmpty()) return;
-
-        List<Battery> updated = new ArrayList<>();
-
-        for (Battery battery : chargingBatteries) {
-            double current = Optional.ofNullable(battery.getCurrentCapacity()).orElse(0.0);
-            current += 10.0;
-            if (current > 100.0) current = 100.0;
-
-            boolean fullyCharged = current >= 100.0;
-
-            // Cập nhật capacity
-            battery.setCurrentCapacity(current);
-
-          // Tăng chu kỳ sạc nếu vừa đầy
-            if (fullyCharged && battery.getBatteryStatus() == Battery.BatteryStatus.CHARGING) {
-                Integer oldCycle = battery.getCycleCount();
-                if (oldCycle == null) oldCycle = 0;
-                battery.setCycleCount(oldCycle + 1);
-            }
-
-            // Nếu đầy thì chuyển sang AVAILABLE
-            if (fullyCharged) {
-                battery.setBatteryStatus(Battery.BatteryStatus.AVAILABLE);
-            }
-
-            updated.add(battery);
-
-
-            if (battery.getDockSlot() != null) {
-                DockSlot slot = battery.getDockSlot();
+    private final SchedulerLeaseService schedulerLeaseService;
+    private final BatteryStatisticsService batteryStatisticsService;
 
-                String action = fullyCharged ? "CHARGING_COMPLETE" : "CHARGING_PROGRESS";
+    private static final String DRAIN_LEASE_JOB = "battery.auto-drain";
 
-                sendRealtimeUpdate(slot, action, battery.getBatteryStatus().name(), battery);
-            }
-        }
-
-        batteryRepository.saveAll(updated);
-    }
+    // ==================== TỰ ĐỘNG SẠC ====================
+    // ⚡ Đã chuyển sang ChargingEngine (bulk UPDATE + 1 event gộp / trạm / tick)
 
 
     // ==================== RÚT PIN ====================
@@ -185,8 +146,7 @@ public class BatteryService {
                     .timestamp(LocalDateTime.now().toString())
                     .build();
 
-            String json = objectMapper.writeValueAsString(event);
-            batterySocketController.broadcastToStation(event.getStationId(), json);
+            stationEventBroadcaster.publish(event);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -278,35 +238,9 @@ public class BatteryService {
                 .swapCount(swapCount)
                 .build();
     }
-    @Transactional
-    public Map<String, Object> getBatteryStatistics() {
-        List<Battery> all = batteryRepository.findAll();
-
-        long total = all.size();
-
-        // ✅ Thống kê theo loại pin
-        Map<String, Long> byType = all.stream()
-                .collect(Collectors.groupingBy(
-                        b -> b.getBatteryType().name(),
-                        Collectors.counting()
-                ));
-
-        // ✅ Thống kê theo station
-        Map<Integer, Long> byStation = all.stream()
-                .filter(b -> b.getStationId() != null)
-                .collect(Collectors.groupingBy(Battery::getStationId, Collectors.counting()));
-
-        // ✅ Pin không thuộc trạm nào
-        long unassigned = all.stream()
-                .filter(b -> b.getStationId() == null)
-                .count();
-
-        return Map.of(
-                "totalBatteries", total,
-                "byType", byType,
-                "byStation", byStation,
-                "unassigned", unassigned
-        );
+    // 📊 Thống kê tổng hợp trong DB (GROUP BY), fresh = true bỏ qua bản chụp trong bộ nhớ
+    public BatteryStatisticsDTO getBatteryStatistics(boolean fresh) {
+        return fresh ? batteryStatisticsService.compute() : batteryStatisticsService.getCached();
     }
 
     @Transactional()
@@ -364,6 +298,9 @@ public class BatteryService {
     @Scheduled(cron = "0 0 0/12 * * *") // mỗi 12 tiếng: 00:00 và 12:00
      @Transactional
     public void autoDrainInUseBatteries() {
+        // Chỉ 1 instance tiêu hao pin mỗi lượt (lease giữ 1 tiếng, các instance khác cùng cron sẽ bỏ qua)
+        Long fencingToken = schedulerLeaseService.tryAcquire(DRAIN_LEASE_JOB, Duration.ofHours(1));
+        if (fencingToken == null) return;
 
         List<Battery> inUseBatteries = batteryRepository.findByBatteryStatus(Battery.BatteryStatus.IN_USE);
         if (inUseBatteries.isEmpty()) return;
@@ -385,6 +322,8 @@ public class BatteryService {
             }
         }
 
+        // Fencing: khóa dòng lease tới khi commit, mất lease thì rollback toàn bộ
+        schedulerLeaseService.assertHeld(DRAIN_LEASE_JOB, fencingToken);
         batteryRepository.saveAll(inUseBatteries);
         System.out.println("Đã tiêu hao 10% cho toàn bộ pin IN_USE");
     }
@@ -0,0 +1,139 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.BatteryStatisticsDTO;
+import BatterySwapStation.repository.BatteryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 📊 Thống kê pin toàn hệ thống.
+ * - compute(): 1 query GROUP BY GROUPING SETS trên bảng Battery, không nạp entity / quan hệ
+ * - getCached(): bản chụp trong bộ nhớ, đánh dấu cũ khi pin đổi trạng thái (event realtime, sạc, import)
+ *   và tính lại khi có request kế tiếp, tối đa 1 lần / MIN_REFRESH_INTERVAL
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BatteryStatisticsService {
+
+    // Pin đổi trạng thái liên tục (sạc mỗi 6s) → gom nhiều thay đổi vào 1 lần tính lại
+    private static final Duration MIN_REFRESH_INTERVAL = Duration.ofSeconds(10);
+    // Lưới an toàn cho các luồng ghi không báo thay đổi
+    private static final Duration MAX_AGE = Duration.ofMinutes(5);
+
+    private final BatteryRepository batteryRepository;
+
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    private final Object refreshLock = new Object();
+    private volatile Snapshot snapshot;
+
+    public BatteryStatisticsDTO compute() {
+        long start = System.nanoTime();
+
+        Map<String, Long> byType = new TreeMap<>();
+        Map<Integer, Long> byStation = new TreeMap<>();
+        Map<String, Long> byStatus = new TreeMap<>();
+        Map<String, Long> bySohBucket = new LinkedHashMap<>();
+        Map<String, Long> byCycleBucket = new LinkedHashMap<>();
+        long total = 0;
+        long unassigned = 0;
+        Double averageSoh = null;
+
+        List<Object[]> rows = batteryRepository.aggregateStatistics();
+        for (Object[] r : rows) {
+            String dimension = (String) r[0];
+            String bucket = (String) r[1];
+            long count = ((Number) r[2]).longValue();
+
+            switch (dimension) {
+                case "TYPE" -> byType.put(bucket, count);
+                case "STATION" -> {
+                    // Nhóm StationId NULL = pin không thuộc trạm nào
+                    if (bucket == null) unassigned = count;
+                    else byStation.put(Integer.valueOf(bucket), count);
+                }
+                case "STATUS" -> byStatus.put(bucket, count);
+                case "SOH" -> bySohBucket.put(bucket, count);
+                case "CYCLE" -> byCycleBucket.put(bucket, count);
+                default -> {
+                    total = count;
+                    averageSoh = r[3] != null ? ((Number) r[3]).doubleValue() : null;
+                }
+            }
+        }
+
+        log.debug("📊 Thống kê pin: {} pin, {} nhóm trong {} ms",
+                total, rows.size(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+
+        return BatteryStatisticsDTO.builder()
+                .totalBatteries(total)
+                .unassigned(unassigned)
+                .averageStateOfHealth(averageSoh)
+                .byType(byType)
+                .byStation(byStation)
+                .byStatus(byStatus)
+                .bySohBucket(sortBuckets(bySohBucket, "<60", "60-69", "70-79", "80-89", ">=90"))
+                .byCycleBucket(sortBuckets(byCycleBucket, "0-199", "200-499", "500-999", ">=1000"))
+                .computedAt(LocalDateTime.now())
+                .build();
+    }
+
+    public BatteryStatisticsDTO getCached() {
+        Snapshot current = snapshot;
+        if (current != null && !isStale(current)) return current.value;
+
+        synchronized (refreshLock) {
+            current = snapshot;
+            if (current != null && !isStale(current)) return current.value;
+
+            // Xóa cờ TRƯỚC khi query: thay đổi xảy ra trong lúc tính sẽ đánh dấu lại
+            dirty.set(false);
+            try {
+                BatteryStatisticsDTO value = compute();
+                snapshot = new Snapshot(value, System.nanoTime());
+                return value;
+            } catch (RuntimeException e) {
+                dirty.set(true);
+                if (current == null) throw e;
+                log.warn("⚠️ Không tính lại được thống kê pin, dùng bản cũ: {}", e.getMessage());
+                return current.value;
+            }
+        }
+    }
+
+    /**
+     * Gọi sau khi thay đổi trạng thái pin đã commit. Rẻ, gọi bao nhiêu lần cũng được.
+     */
+    public void markDirty() {
+        dirty.set(true);
+    }
+
+    private boolean isStale(Snapshot s) {
+        long age = System.nanoTime() - s.computedAtNanos;
+        if (age >= MAX_AGE.toNanos()) return true;
+        return dirty.get() && age >= MIN_REFRESH_INTERVAL.toNanos();
+    }
+
+    // Bucket theo thứ tự tăng dần, UNKNOWN (nếu có) ở cuối
+    private static Map<String, Long> sortBuckets(Map<String, Long> counts, String... order) {
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        for (String bucket : order) {
+            Long count = counts.remove(bucket);
+            if (count != null) sorted.put(bucket, count);
+        }
+        sorted.putAll(counts);
+        return sorted;
+    }
+
+    private record Snapshot(BatteryStatisticsDTO value, long computedAtNanos) {
+    }
+}
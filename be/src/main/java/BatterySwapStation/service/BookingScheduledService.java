@@ -6,8 +6,8 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -16,58 +16,37 @@ import java.util.List;
 @Slf4j
 public class BookingScheduledService {
 
+    // Số booking tối đa mỗi câu UPDATE (mỗi lô 1 transaction ngắn)
+    private static final int BATCH_SIZE = 500;
+
     private final BookingRepository bookingRepository;
+    private final SlotCapacityLedger slotCapacityLedger;
+    private final SchedulerLeaseService schedulerLeaseService;
 
     /**
      * Tự động hủy các booking PENDINGPAYMENT đã quá hạn 30 phút
      * Chạy mỗi 10 phút
      */
     @Scheduled(fixedDelay = 600000) // 10 phút = 600,000 ms
-    @Transactional
     public void autoCancelExpiredPendingPaymentBookings() {
-        log.info("🔍 Bắt đầu kiểm tra và hủy booking PENDINGPAYMENT quá hạn...");
+        schedulerLeaseService.runExclusive("booking.expire-pending-payment", Duration.ofMinutes(15),
+                this::cancelExpiredPendingPaymentBookings);
+    }
 
+    private void cancelExpiredPendingPaymentBookings(long fencingToken) {
+        // Quá hạn khi now > giờ đặt - 30 phút  ⇔  giờ đặt < now + 30 phút
+        LocalDateTime cutoff = LocalDateTime.now().plusMinutes(30);
         try {
-            // Lấy tất cả booking PENDINGPAYMENT
-            List<Booking> pendingBookings = bookingRepository.findByBookingStatus(Booking.BookingStatus.PENDINGPAYMENT);
-
-            if (pendingBookings.isEmpty()) {
-                log.info("Không có booking PENDINGPAYMENT nào cần kiểm tra.");
-                return;
-            }
-
-            LocalDateTime now = LocalDateTime.now();
-            int cancelledCount = 0;
-
-            for (Booking booking : pendingBookings) {
-                // Tính thời gian đã tạo booking (giả sử booking được tạo vào ngày bookingDate)
-                // Nếu có field createdAt thì dùng createdAt, không thì dùng bookingDate + timeSlot
-                LocalDateTime bookingDateTime = LocalDateTime.of(booking.getBookingDate(), booking.getTimeSlot());
-
-                // Nếu booking được tạo cách đây hơn 30 phút và vẫn chưa thanh toán -> Hủy
-                // Hoặc nếu booking đã qua thời gian đặt -> Hủy
-                LocalDateTime expiryTime = bookingDateTime.minusMinutes(30);
-
-                if (now.isAfter(bookingDateTime) || now.isAfter(expiryTime)) {
-                    booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
-                    booking.setCancellationReason("Tự động hủy: Không thanh toán trong thời gian quy định");
-                    bookingRepository.save(booking);
-                    cancelledCount++;
+            SweepResult result = sweep("booking.expire-pending-payment", fencingToken,
+                    Booking.BookingStatus.PENDINGPAYMENT, Booking.BookingStatus.CANCELLED,
+                    "Tự động hủy: Không thanh toán trong thời gian quy định", cutoff);
 
-                    log.info("Đã hủy booking #{} - User: {} - Ngày: {} - Giờ: {}",
-                            booking.getBookingId(),
-                            booking.getUser().getUserId(),
-                            booking.getBookingDate(),
-                            booking.getTimeSlot());
-                }
-            }
-
-            if (cancelledCount > 0) {
-                log.info("Đã hủy {} booking PENDINGPAYMENT quá hạn.", cancelledCount);
+            if (result.rows() > 0) {
+                log.info("Đã hủy {} booking PENDINGPAYMENT quá hạn ({} lô, {} ms).",
+                        result.rows(), result.batches(), result.elapsedMs());
             } else {
-                log.info("Không có booking PENDINGPAYMENT nào quá hạn.");
+                log.info("Không có booking PENDINGPAYMENT nào quá hạn ({} ms).", result.elapsedMs());
             }
-
         } catch (Exception e) {
             log.error("Lỗi khi tự động hủy booking: {}", e.getMessage(), e);
         }
@@ -78,48 +57,62 @@ public class BookingScheduledService {
      * Chạy mỗi 30 phút
      */
     @Scheduled(fixedDelay = 1800000) // 30 phút = 1,800,000 ms
-    @Transactional
     public void autoMarkExpiredSwappingBookingsAsFailed() {
-        log.info("🔍 Bắt đầu kiểm tra booking PENDINGSWAPPING quá hạn...");
+        schedulerLeaseService.runExclusive("booking.expire-pending-swapping", Duration.ofMinutes(45),
+                this::markExpiredSwappingBookingsAsFailed);
+    }
 
+    private void markExpiredSwappingBookingsAsFailed(long fencingToken) {
+        // Quá hạn khi now > giờ đặt + 2 tiếng  ⇔  giờ đặt < now - 2 tiếng
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(2);
         try {
-            List<Booking> swappingBookings = bookingRepository.findByBookingStatus(Booking.BookingStatus.PENDINGSWAPPING);
-
-            if (swappingBookings.isEmpty()) {
-                log.info("Không có booking PENDINGSWAPPING nào cần kiểm tra.");
-                return;
-            }
-
-            LocalDateTime now = LocalDateTime.now();
-            int failedCount = 0;
+            SweepResult result = sweep("booking.expire-pending-swapping", fencingToken,
+                    Booking.BookingStatus.PENDINGSWAPPING, Booking.BookingStatus.FAILED,
+                    "Tự động đánh dấu thất bại: Không đến đổi pin trong thời gian quy định", cutoff);
 
-            for (Booking booking : swappingBookings) {
-                LocalDateTime bookingDateTime = LocalDateTime.of(booking.getBookingDate(), booking.getTimeSlot());
-                LocalDateTime expiryTime = bookingDateTime.plusHours(2); // Quá 2 tiếng sau giờ đặt
-
-                if (now.isAfter(expiryTime)) {
-                    booking.setBookingStatus(Booking.BookingStatus.FAILED);
-                    booking.setCancellationReason("Tự động đánh dấu thất bại: Không đến đổi pin trong thời gian quy định");
-                    bookingRepository.save(booking);
-                    failedCount++;
-
-                    log.warn("Đã đánh dấu FAILED cho booking #{} - User: {} - Ngày: {} - Giờ: {}",
-                            booking.getBookingId(),
-                            booking.getUser().getUserId(),
-                            booking.getBookingDate(),
-                            booking.getTimeSlot());
-                }
-            }
-
-            if (failedCount > 0) {
-                log.info("Đã đánh dấu FAILED cho {} booking PENDINGSWAPPING quá hạn.", failedCount);
+            if (result.rows() > 0) {
+                log.warn("Đã đánh dấu FAILED cho {} booking PENDINGSWAPPING quá hạn ({} lô, {} ms).",
+                        result.rows(), result.batches(), result.elapsedMs());
             } else {
-                log.info("Không có booking PENDINGSWAPPING nào quá hạn.");
+                log.info("Không có booking PENDINGSWAPPING nào quá hạn ({} ms).", result.elapsedMs());
             }
-
         } catch (Exception e) {
             log.error("Lỗi khi tự động đánh dấu booking FAILED: {}", e.getMessage(), e);
         }
     }
-}
 
+    /**
+     * Cập nhật theo lô bằng UPDATE ... RETURNING cho tới khi 1 lô trả về ít hơn BATCH_SIZE.
+     * Mỗi lô commit riêng → trả lại công suất slot ngay sau lô đó.
+     * Dừng giữa chừng nếu mất lease (instance khác đã nhận job).
+     */
+    private SweepResult sweep(String leaseJob, long fencingToken, Booking.BookingStatus from,
+                              Booking.BookingStatus to, String reason, LocalDateTime cutoff) {
+        long start = System.nanoTime();
+        int total = 0;
+        int batches = 0;
+        List<Object[]> rows;
+        do {
+            if (batches > 0 && !schedulerLeaseService.isHeld(leaseJob, fencingToken)) {
+                log.warn("⚠️ Mất lease {} sau {} lô, dừng quét", leaseJob, batches);
+                break;
+            }
+            rows = bookingRepository.expireBookingsBatch(from.name(), to.name(), reason,
+                    cutoff.toLocalDate(), cutoff.toLocalTime(), BATCH_SIZE);
+            batches++;
+            total += rows.size();
+            for (Object[] row : rows) {
+                // [BookingId, StationId, bookingdate, timeslot, batterycount]
+                slotCapacityLedger.releaseRow(row[1], row[2], row[3], row[4]);
+                // UPDATE native không qua JPA listener → tự đánh dấu cho rollup
+                StationStatsRollupService.markBookingDirty(((Number) row[0]).longValue());
+            }
+            if (!rows.isEmpty()) {
+                log.debug("Lô {}: {} booking {} → {}", batches, rows.size(), from, to);
+            }
+        } while (rows.size() == BATCH_SIZE);
+        return new SweepResult(total, batches, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private record SweepResult(int rows, int batches, long elapsedMs) {}
+}
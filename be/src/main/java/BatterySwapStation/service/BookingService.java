@@ -3,6 +3,7 @@ package BatterySwapStation.service;
 import BatterySwapStation.dto.*;
 import BatterySwapStation.entity.*;
 import BatterySwapStation.repository.*;
+import BatterySwapStation.utils.KeysetPaging;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.Getter;
@@ -48,6 +49,10 @@ public class BookingService {
     private final UserSubscriptionRepository userSubscriptionRepository;
     private final PaymentService paymentService;
     private final PaymentRepository paymentRepository;
+    private final SlotCapacityLedger slotCapacityLedger;
+    private final CacheEvictionService cacheEvictionService;
+    private final WalletService walletService;
+    private final SubscriptionQuotaService subscriptionQuotaService;
 
     /**
      * Tạo đặt chỗ mới (giới hạn tối đa 1 xe, chỉ 1 trạm, ngày trong 2 ngày, khung giờ hợp lệ)
@@ -109,10 +114,7 @@ public class BookingService {
 
         LocalTime timeSlot = LocalTime.parse(request.getTimeSlot(), DateTimeFormatter.ofPattern("HH:mm"));
 
-        // ================== KIỂM TRA TRÙNG BOOKING ==================
-        if (bookingRepository.existsDuplicateBooking(user, vehicle, station, request.getBookingDate(), timeSlot)) {
-            throw new IllegalStateException("Bạn không thể đặt cùng một xe tại cùng một trạm và khung giờ.");
-        }
+        // (Trùng booking cùng xe / trạm / khung giờ đã bị chặn bởi kiểm tra booking chưa hoàn thành ở trên)
 
         // ================== XÁC ĐỊNH SỐ PIN MUỐN ĐỔI ==================
         Integer requestedBatteryCount = request.getBatteryCount();
@@ -134,14 +136,13 @@ public class BookingService {
         }
 
         // ================== KIỂM TRA CÔNG SUẤT TRẠM ==================
-        Integer alreadyBookedCount = bookingRepository.getBookedBatteryCountAtTimeSlot(station, request.getBookingDate(), timeSlot);
-        if (alreadyBookedCount == null) alreadyBookedCount = 0;
-
-        Integer stationCapacity = station.getDocks().size();
-        if ((alreadyBookedCount + requestedBatteryCount) > stationCapacity) {
+        // 🚀 Giữ chỗ trong sổ cái bộ nhớ (1 thao tác CAS, tự trả lại nếu transaction rollback)
+        SlotCapacityLedger.Reservation reservation = slotCapacityLedger.tryReserve(
+                station.getStationId(), request.getBookingDate(), timeSlot, requestedBatteryCount);
+        if (!reservation.accepted()) {
             throw new IllegalStateException(String.format(
                     "Trạm không đủ pin cho khung giờ này. Đã có %d pin được đặt, yêu cầu %d pin, vượt quá công suất (%d).",
-                    alreadyBookedCount, requestedBatteryCount, stationCapacity
+                    reservation.bookedBefore(), requestedBatteryCount, reservation.capacity()
             ));
         }
 
@@ -158,10 +159,12 @@ public class BookingService {
         if (activeSub.isPresent()) {
             UserSubscription sub = activeSub.get();
             SubscriptionPlan plan = sub.getPlan();
-            int limit = (plan.getSwapLimit() == null || plan.getSwapLimit() < 0) ? -1 : plan.getSwapLimit();
-            int used = sub.getUsedSwaps();
+            // Trừ lượt ngay khi kiểm tra (UPDATE có điều kiện); lỗi phía sau → transaction rollback trả lại lượt
+            int usedAfter = subscriptionQuotaService.tryConsume(sub, requestedBatteryCount);
 
-            if (limit == -1 || used + requestedBatteryCount <= limit) {
+            if (usedAfter >= 0) {
+                sub.setUsedSwaps(usedAfter);
+                cacheEvictionService.evictActiveSubscription(user.getUserId());
                 log.info("User {} áp dụng gói cước miễn phí: {}", user.getUserId(), plan.getPlanName());
                 finalBookingPrice = 0.0;
                 isFreeSwap = true;
@@ -177,6 +180,7 @@ public class BookingService {
         Payment.PaymentMethod paymentMethodEnum = null;
         Payment.PaymentStatus paymentStatusEnum = null;
         boolean createPaymentRecord = false;
+        boolean payByWallet = false;
         String paymentMethodRequest = request.getPaymentMethod();
 
         if (isFreeSwap) {
@@ -196,16 +200,7 @@ public class BookingService {
 
             if (paymentMethodRequest.equalsIgnoreCase("WALLET")) {
                 log.info("Booking trả bằng ví.");
-                Double userWallet = user.getWalletBalance();
-                if (userWallet < finalBookingPrice) {
-                    throw new IllegalStateException(String.format(
-                            "Số dư ví không đủ. Cần %.0f, hiện có %.0f",
-                            finalBookingPrice, userWallet
-                    ));
-                }
-                user.setWalletBalance(userWallet - finalBookingPrice);
-                userRepository.save(user);
-
+                payByWallet = true; // trừ ví sau khi lưu invoice để sổ cái tham chiếu InvoiceId
                 initialBookingStatus = Booking.BookingStatus.PENDINGSWAPPING;
                 initialInvoiceStatus = Invoice.InvoiceStatus.PAID;
                 paymentMethodEnum = Payment.PaymentMethod.WALLET;
@@ -236,6 +231,13 @@ public class BookingService {
         invoice.setInvoiceType(Invoice.InvoiceType.BOOKING);
         Invoice savedInvoice = invoiceRepository.save(invoice);
 
+        if (payByWallet) {
+            // Trừ ví có điều kiện (WalletBalance >= giá) + ghi sổ cái, không đủ tiền → rollback cả invoice
+            user.setWalletBalance(walletService.debit(user.getUserId(), finalBookingPrice,
+                    WalletLedgerEntry.EntryType.BOOKING_PAYMENT, "INVOICE", savedInvoice.getInvoiceId(),
+                    "Đặt lịch đổi pin " + request.getBookingDate() + " " + timeSlot));
+        }
+
         // ================== TẠO BOOKING ==================
         Booking booking = Booking.builder()
                 .user(user)
@@ -282,13 +284,6 @@ public class BookingService {
             paymentRepository.save(payment);
         }
 
-        // ================== TRỪ LƯỢT SUBSCRIPTION ==================
-        if (isFreeSwap && activeSub.isPresent()) {
-            UserSubscription sub = activeSub.get();
-            sub.setUsedSwaps(sub.getUsedSwaps() + requestedBatteryCount);
-            userSubscriptionRepository.save(sub);
-        }
-
         // ================== TẠO RESPONSE ==================
         BookingResponse response = isFreeSwap && activeSub.isPresent()
                 ? convertToResponse(savedBooking, activeSub.get())
@@ -525,6 +520,7 @@ public class BookingService {
         }
 
         // 🔸 Cập nhật trạng thái booking
+        slotCapacityLedger.release(booking);
         booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
         booking.setCancellationReason(request.getCancelReason());
         bookingRepository.save(booking);
@@ -572,15 +568,13 @@ public class BookingService {
                 paymentRepository.save(refund);
 
                 // ✅ 4. Cộng lại tiền ví
-                try {
-                    user.setWalletBalance(user.getWalletBalance() + refundAmount);
-                    userRepository.save(user);
-                } catch (Exception ex) {
-                    if (ex.getMessage() != null && ex.getMessage().contains("chk_wallet_balance_limit")) {
-                        throw new IllegalStateException("Ví đã đạt giới hạn, không thể hoàn tiền. Vui lòng xài bớt tiền.");
-                    }
-                    throw ex;
+                OptionalDouble balance = walletService.tryCredit(user.getUserId(), refundAmount,
+                        WalletLedgerEntry.EntryType.REFUND, "INVOICE", refundInvoice.getInvoiceId(),
+                        "Hoàn tiền hủy booking #" + booking.getBookingId());
+                if (balance.isEmpty()) {
+                    throw new IllegalStateException("Ví đã đạt giới hạn, không thể hoàn tiền. Vui lòng xài bớt tiền.");
                 }
+                user.setWalletBalance(balance.getAsDouble());
             }
         }
 
@@ -624,6 +618,7 @@ public class BookingService {
         }
 
         // 4. Hủy booking
+        slotCapacityLedger.release(booking);
         booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
         // cancellationReason sẽ chỉ chứa tag staff + lý do. Ghi chú (notes) lưu riêng vào cột Notes.
         String staffDisplay = staff.getFullName() != null ? staff.getFullName() : request.getStaffUserId();
@@ -667,19 +662,17 @@ public class BookingService {
                 paymentRepository.save(refund);
 
                 // Cộng tiền vào ví user
-                try {
-                    user.setWalletBalance(user.getWalletBalance() + refundAmount);
-                    userRepository.save(user);
-                    log.info("Staff {} đã hoàn {} VNĐ cho user {} (booking #{})",
-                            request.getStaffUserId(), refundAmount, user.getUserId(), bookingId);
-                } catch (Exception ex) {
-                    if (ex.getMessage() != null && ex.getMessage().contains("chk_wallet_balance_limit")) {
-                        throw new IllegalStateException(
-                                "Ví user đã đạt giới hạn, không thể hoàn tiền. Vui lòng liên hệ admin."
-                        );
-                    }
-                    throw ex;
+                OptionalDouble balance = walletService.tryCredit(user.getUserId(), refundAmount,
+                        WalletLedgerEntry.EntryType.REFUND, "BOOKING", booking.getBookingId(),
+                        "Staff " + request.getStaffUserId() + " hoàn tiền booking #" + booking.getBookingId());
+                if (balance.isEmpty()) {
+                    throw new IllegalStateException(
+                            "Ví user đã đạt giới hạn, không thể hoàn tiền. Vui lòng liên hệ admin."
+                    );
                 }
+                user.setWalletBalance(balance.getAsDouble());
+                log.info("Staff {} đã hoàn {} VNĐ cho user {} (booking #{})",
+                        request.getStaffUserId(), refundAmount, user.getUserId(), bookingId);
             }
         }
 
@@ -693,10 +686,9 @@ public class BookingService {
         if (activeSub.isPresent() && booking.getBatteryCount() != null) {
             UserSubscription sub = activeSub.get();
             // Trả lại lượt đã dùng
-            int currentUsed = sub.getUsedSwaps();
             int batteryCount = booking.getBatteryCount();
-            sub.setUsedSwaps(Math.max(0, currentUsed - batteryCount));
-            userSubscriptionRepository.save(sub);
+            sub.setUsedSwaps(subscriptionQuotaService.release(sub, batteryCount));
+            cacheEvictionService.evictActiveSubscription(sub.getUser().getUserId());
             log.info("Staff {} đã hoàn {} lượt subscription cho user {} (booking #{})",
                     request.getStaffUserId(), batteryCount, user.getUserId(), bookingId);
         }
@@ -713,6 +705,32 @@ public class BookingService {
 
 
 
+    /**
+     * Đổi ngày / khung giờ của booking.
+     * Booking đang giữ chỗ: giữ chỗ ở khung giờ mới trước (rollback tự trả), trả chỗ khung giờ cũ sau commit.
+     */
+    public Booking rescheduleBooking(Long bookingId, LocalDate newDate, LocalTime newTimeSlot) {
+        Booking booking = bookingRepository.findById(bookingId)
+                .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy booking với ID: " + bookingId));
+
+        boolean sameSlot = newDate.equals(booking.getBookingDate()) && newTimeSlot.equals(booking.getTimeSlot());
+        boolean holdsSlot = booking.getBookingStatus() == Booking.BookingStatus.PENDINGPAYMENT
+                || booking.getBookingStatus() == Booking.BookingStatus.PENDINGSWAPPING;
+
+        if (!sameSlot && holdsSlot && booking.getStation() != null) {
+            int count = booking.getBatteryCount() != null ? booking.getBatteryCount() : 0;
+            if (!slotCapacityLedger.tryReserve(booking.getStation().getStationId(), newDate, newTimeSlot, count).accepted()) {
+                throw new IllegalStateException("Trạm " + booking.getStation().getStationName() + " đã hết chỗ vào " + newTimeSlot);
+            }
+            // Gọi trước khi đổi ngày giờ: ledger lấy khung giờ cũ từ booking
+            slotCapacityLedger.release(booking);
+        }
+
+        booking.setBookingDate(newDate);
+        booking.setTimeSlot(newTimeSlot);
+        return bookingRepository.save(booking);
+    }
+
     /**
      * Lấy danh sách đặt chỗ của trạm
      */
@@ -737,7 +755,9 @@ public class BookingService {
         // Chuyển đổi String sang enum
         try {
             Booking.BookingStatus status = Booking.BookingStatus.valueOf(newStatus.toUpperCase());
+            Booking.BookingStatus previousStatus = booking.getBookingStatus();
             booking.setBookingStatus(status);
+            slotCapacityLedger.onStatusChange(booking, previousStatus);
         } catch (IllegalArgumentException e) {
             throw new IllegalArgumentException("Trạng thái không hợp lệ: " + newStatus + ". Các trạng thái hợp lệ: PENDINGPAYMENT, PENDINGSWAPPING, CANCELLED, COMPLETED, FAILED");
         }
@@ -758,6 +778,20 @@ public class BookingService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Danh sách booking cho admin theo trang keyset (projection, 1 query / trang)
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<BookingListItemDTO> getBookingsPage(Booking.BookingStatus status, Integer stationId,
+                                                          LocalDate from, LocalDate to,
+                                                          String cursor, Integer limit) {
+        KeysetPaging.checkRange(from, to);
+        int size = KeysetPaging.clampLimit(limit);
+        List<BookingListItemDTO> rows = bookingRepository.findAdminPage(
+                KeysetPaging.decodeCursor(cursor), status, stationId, from, to, KeysetPaging.probe(size));
+        return KeysetPaging.toPage(rows, size, BookingListItemDTO::getBookingId);
+    }
+
     /**
      * Xác nhận thanh toán cho booking với thông báo
      */
@@ -791,6 +825,7 @@ public class BookingService {
                 .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy lượt đặt pin với mã: " + bookingId));
 
         // Cập nhật trạng thái booking thành COMPLETED
+        slotCapacityLedger.release(booking);
         booking.setBookingStatus(Booking.BookingStatus.COMPLETED);
         booking.setCompletedTime(LocalDate.now());
 
@@ -822,6 +857,7 @@ public class BookingService {
         }
 
         // Cập nhật trạng thái booking thành COMPLETED
+        slotCapacityLedger.release(booking);
         booking.setBookingStatus(Booking.BookingStatus.COMPLETED);
         booking.setCompletedTime(LocalDate.now());
 
@@ -883,6 +919,7 @@ public class BookingService {
         }
 
         // Set trạng thái FAILED
+        slotCapacityLedger.release(booking);
         booking.setBookingStatus(Booking.BookingStatus.FAILED);
 
         // Set lý do hủy
@@ -1190,6 +1227,7 @@ public class BookingService {
                     .build();
 
             Booking savedBooking = bookingRepository.save(booking);
+            slotCapacityLedger.track(savedBooking);
 
             // Tạo response
             BookingResponse response = convertToResponse(savedBooking);
@@ -1284,6 +1322,7 @@ public class BookingService {
      */
     public BookingResponse saveBookingDirectly(Booking booking) {
         Booking savedBooking = bookingRepository.save(booking);
+        slotCapacityLedger.track(savedBooking);
 
         // Tạo response với message thành công
         BookingResponse response = convertToResponse(savedBooking);
@@ -1560,9 +1599,7 @@ public class BookingService {
                 ));
             }
 
-            Integer alreadyBooked = bookingRepository.getBookedBatteryCountAtTimeSlot(station, req.getBookingDate(), timeSlot);
-            if (alreadyBooked == null) alreadyBooked = 0;
-            if ((alreadyBooked + reqCount) > station.getDocks().size()) {
+            if (!slotCapacityLedger.tryReserve(station.getStationId(), req.getBookingDate(), timeSlot, reqCount).accepted()) {
                 throw new IllegalStateException("Trạm " + station.getStationName() + " đã hết chỗ vào " + timeSlot);
             }
             boolean isFree = false;
@@ -1611,17 +1648,7 @@ public class BookingService {
             }
 
             if (paymentMethodRequest.equalsIgnoreCase("WALLET")) {
-                Double userWallet = user.getWalletBalance();
-                if (userWallet < totalCost) {
-                    throw new IllegalStateException(String.format(
-                            "Số dư ví không đủ. Cần %.0f, số dư: %.0f", totalCost, userWallet
-                    ));
-                }
-                user.setWalletBalance(userWallet - totalCost);
-
-                // ✅ [SỬA VẤN ĐỀ 3] - Dòng này BẮT BUỘC phải có
-                userRepository.save(user);
-
+                // Trừ ví sau khi lưu invoice chung (bước 3) để sổ cái tham chiếu InvoiceId
                 paymentMethodEnum = Payment.PaymentMethod.WALLET;
                 paymentStatusEnum = Payment.PaymentStatus.SUCCESS;
                 invoiceStatusEnum = Invoice.InvoiceStatus.PAID;
@@ -1640,8 +1667,13 @@ public class BookingService {
         // 2. Trừ lượt gói cước (1 LẦN DUY NHẤT)
         if (totalSwapsNeeded > 0 && activeSubOpt.isPresent()) {
             UserSubscription sub = activeSubOpt.get();
-            sub.setUsedSwaps(sub.getUsedSwaps() + totalSwapsNeeded);
-            userSubscriptionRepository.save(sub);
+            int usedAfter = subscriptionQuotaService.tryConsume(sub, totalSwapsNeeded);
+            if (usedAfter < 0) {
+                // Lượt đã bị booking song song dùng mất sau lúc kiểm tra → rollback toàn batch
+                throw new IllegalStateException("Gói cước không còn đủ lượt cho batch này. Vui lòng thử lại.");
+            }
+            sub.setUsedSwaps(usedAfter);
+            cacheEvictionService.evictActiveSubscription(sub.getUser().getUserId());
             log.info("Đã trừ {} lượt gói cước cho batch. Tổng lượt đã dùng: {}", totalSwapsNeeded, sub.getUsedSwaps());
         }
 
@@ -1660,6 +1692,13 @@ public class BookingService {
 
         Invoice savedMasterInvoice = invoiceRepository.save(masterInvoice);
 
+        if (paymentMethodEnum == Payment.PaymentMethod.WALLET) {
+            // Trừ ví có điều kiện + ghi sổ cái (thay cho đọc - trừ - save User), không đủ tiền → rollback cả batch
+            user.setWalletBalance(walletService.debit(user.getUserId(), totalCost,
+                    WalletLedgerEntry.EntryType.BOOKING_PAYMENT, "INVOICE", savedMasterInvoice.getInvoiceId(),
+                    "Đặt nhiều lịch đổi pin"));
+        }
+
         // 4. TẠO 1 PAYMENT CHUNG (kể cả khi là gói Subscription)
         if (totalCost > 0 && paymentMethodEnum != null) {
             // Có phí (WALLET hoặc VNPAY)
@@ -1774,6 +1813,7 @@ public class BookingService {
         // 3. Gỡ link booking khỏi invoice (trong bộ nhớ)
         // Cần làm điều này TRƯỚC KHI xóa
         for (Booking booking : bookingsToDelete) {
+            slotCapacityLedger.release(booking);
             if (booking.getInvoice() != null) {
                 // Gỡ link khỏi collection của Invoice
                 booking.getInvoice().getBookings().remove(booking);
@@ -1804,6 +1844,7 @@ public class BookingService {
         // 🔸 Nếu chưa thanh toán thì chỉ hủy booking
         if (booking.getInvoice() == null
                 || booking.getInvoice().getInvoiceStatus() != Invoice.InvoiceStatus.PAID) {
+            slotCapacityLedger.release(booking);
             booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
             booking.setCancellationReason("Hủy booking chưa thanh toán.");
             bookingRepository.save(booking);
@@ -1830,6 +1871,7 @@ public class BookingService {
         }
 
         // ✅ Booking chỉ set CANCELLED
+        slotCapacityLedger.release(booking);
         booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
         booking.setCancellationReason("Đã hủy và hoàn tiền VNPay.");
         bookingRepository.save(booking);
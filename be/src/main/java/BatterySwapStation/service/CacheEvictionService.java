@@ -0,0 +1,72 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.config.CacheConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * 🧹 Điểm gọi xóa cache tập trung cho các luồng ghi.
+ * Xóa ngay + xóa lần nữa sau khi commit: tránh request đọc xen giữa nạp lại giá trị cũ vào cache.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CacheEvictionService {
+
+    private final CacheManager cacheManager;
+    private final AuthPrincipalCache authPrincipalCache;
+
+    public void evictSystemPrices() {
+        clear(CacheConfig.SYSTEM_PRICES);
+        // Danh sách gói cước có kèm giá
+        clear(CacheConfig.SUBSCRIPTION_PLANS);
+    }
+
+    public void evictActiveSubscription(String userId) {
+        evict(CacheConfig.ACTIVE_SUBSCRIPTIONS, userId);
+    }
+
+    public void evictUserVehicles(String userId) {
+        evict(CacheConfig.USER_VEHICLES, userId);
+    }
+
+    /**
+     * Khóa / mở tài khoản, đổi role, đổi mật khẩu, đổi thông tin trong principal.
+     */
+    public void evictAuthPrincipals(String userId) {
+        if (userId == null) return;
+        authPrincipalCache.invalidateUser(userId);
+        afterCommit(() -> authPrincipalCache.invalidateUser(userId));
+    }
+
+    private void evict(String cacheName, Object key) {
+        if (key == null) return;
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache == null) return;
+        cache.evict(key);
+        afterCommit(() -> cache.evict(key));
+    }
+
+    private void clear(String cacheName) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache == null) return;
+        cache.clear();
+        afterCommit(cache::clear);
+        log.debug("Đã xóa cache {}", cacheName);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,247 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.BatteryRealtimeEvent;
+import BatterySwapStation.dto.StationBatteryBatchEvent;
+import BatterySwapStation.websocket.BatterySocketController;
+import BatterySwapStation.websocket.StationSlotView;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ⚡ Engine mô phỏng sạc pin (thay cho BatteryService.autoChargeBatteries).
+ * Mỗi tick:
+ *  0. Nhận / gia hạn lease các phân vùng trạm (nhiều instance chia nhau sạc, mỗi trạm chỉ 1 instance)
+ *  1. 1 câu UPDATE ... RETURNING / phân vùng cộng % cho pin CHARGING (không load entity, không saveAll)
+ *  2. Đổ các dòng thay đổi vào bảng mảng nguyên thủy dùng lại giữa các tick
+ *  3. Gửi 1 event gộp cho mỗi trạm thay vì 1 event / pin
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ChargingEngine {
+
+    private static final double CHARGE_STEP = 10.0;
+
+    // Phân vùng theo StationId % PARTITIONS, chia cho các instance qua SchedulerLease (pin ngoài slot → phân vùng 0)
+    private static final String LEASE_JOB = "charging";
+    private static final int PARTITIONS = 8;
+    private static final Duration LEASE_TTL = Duration.ofSeconds(30);
+
+    // Postgres tính mọi biểu thức SET trên giá trị CŨ của dòng → CycleCount/BatteryStatus dùng chung điều kiện đầy pin.
+    // Pin không nằm trong slot vẫn được sạc nhưng không cần gửi realtime → JOIN (không LEFT JOIN) ở phần SELECT.
+    // EXISTS trên SchedulerLease = fencing: instance đã mất lease phân vùng thì câu UPDATE không đụng dòng nào.
+    private static final String TICK_SQL = """
+            WITH charged AS (
+                UPDATE Battery b
+                SET CurrentCapacity = LEAST(100, COALESCE(b.CurrentCapacity, 0) + ?),
+                    CycleCount = CASE WHEN COALESCE(b.CurrentCapacity, 0) + ? >= 100
+                                      THEN COALESCE(b.CycleCount, 0) + 1 ELSE b.CycleCount END,
+                    BatteryStatus = CASE WHEN COALESCE(b.CurrentCapacity, 0) + ? >= 100
+                                         THEN 'AVAILABLE' ELSE b.BatteryStatus END
+                WHERE b.BatteryStatus = 'CHARGING'
+                  AND MOD(COALESCE((SELECT d0.StationId FROM DockSlot ds0 JOIN Dock d0 ON d0.DockId = ds0.DockId
+                                    WHERE ds0.BatteryId = b.BatteryId LIMIT 1), 0), ?) = ?
+                  AND EXISTS (SELECT 1 FROM SchedulerLease l
+                              WHERE l.JobName = ? AND l.FencingToken = ? AND l.LeaseUntil > now())
+                RETURNING b.BatteryId, b.BatteryType, b.BatteryStatus,
+                          b.StateOfHealth, b.CurrentCapacity, b.CycleCount
+            )
+            SELECT c.BatteryId, c.BatteryType, c.BatteryStatus,
+                   c.StateOfHealth, c.CurrentCapacity, c.CycleCount,
+                   d.StationId, ds.DockSlotId, d.DockName, ds.SlotNumber
+            FROM charged c
+            JOIN DockSlot ds ON ds.BatteryId = c.BatteryId
+            JOIN Dock d ON d.DockId = ds.DockId
+            ORDER BY d.StationId
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BatterySocketController batterySocketController;
+    private final StationSlotView stationSlotView;
+    private final StationSummaryReadModel stationSummaryReadModel;
+    private final BatteryStatisticsService batteryStatisticsService;
+    private final MeterRegistry meterRegistry;
+    private final SchedulerLeaseService schedulerLeaseService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Bảng trạng thái sạc dạng mảng nguyên thủy, chỉ tăng kích thước, không cấp phát lại mỗi tick
+    private final ChargingTable table = new ChargingTable();
+
+    private final AtomicInteger lastTickBatteries = new AtomicInteger();
+    private final AtomicInteger lastTickStations = new AtomicInteger();
+    private Timer tickTimer;
+
+    @PostConstruct
+    public void initMetrics() {
+        tickTimer = Timer.builder("battery.charging.tick")
+                .description("Thời gian xử lý 1 tick sạc pin")
+                .register(meterRegistry);
+        meterRegistry.gauge("battery.charging.tick.batteries", lastTickBatteries);
+        meterRegistry.gauge("battery.charging.tick.stations", lastTickStations);
+    }
+
+    // ==================== TỰ ĐỘNG SẠC ====================
+    @Scheduled(fixedRate = 6000) // mỗi 6 giây
+    public synchronized void tick() {
+        long start = System.nanoTime();
+        try {
+            table.clear();
+            Map<Integer, Long> partitions = schedulerLeaseService.acquirePartitions(LEASE_JOB, PARTITIONS, LEASE_TTL);
+            // Mỗi trạm chỉ thuộc 1 phân vùng → các dòng của 1 trạm vẫn liền nhau trong bảng
+            for (Map.Entry<Integer, Long> partition : partitions.entrySet()) {
+                jdbcTemplate.query(TICK_SQL, (RowCallbackHandler) table::add,
+                        CHARGE_STEP, CHARGE_STEP, CHARGE_STEP,
+                        PARTITIONS, partition.getKey(),
+                        SchedulerLeaseService.partitionKey(LEASE_JOB, partition.getKey()), partition.getValue());
+            }
+
+            // Câu UPDATE chạy auto-commit → dữ liệu đã commit trước khi gửi realtime
+            int stations = broadcastPerStation();
+            lastTickBatteries.set(table.size);
+            lastTickStations.set(stations);
+            if (table.size > 0) batteryStatisticsService.markDirty();
+
+            if (table.size > 0) {
+                log.debug("⚡ Charging tick: {} pin / {} trạm trong {} ms",
+                        table.size, stations, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        } catch (Exception e) {
+            log.error("❌ Lỗi khi chạy charging tick: {}", e.getMessage(), e);
+        } finally {
+            tickTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Các dòng đã ORDER BY StationId → 1 lượt duyệt tuyến tính, mỗi đoạn liên tiếp là 1 trạm
+    private int broadcastPerStation() {
+        int stations = 0;
+        String now = LocalDateTime.now().toString();
+        int from = 0;
+        while (from < table.size) {
+            int stationId = table.stationIds[from];
+            int to = from;
+            while (to < table.size && table.stationIds[to] == stationId) to++;
+
+            List<BatteryRealtimeEvent> events = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                BatteryRealtimeEvent event = table.toEvent(i, now);
+                stationSlotView.apply(event);
+                stationSummaryReadModel.apply(event);
+                events.add(event);
+            }
+            send(StationBatteryBatchEvent.builder()
+                    .stationId(stationId)
+                    .action("CHARGING_TICK")
+                    .version(stationSlotView.currentVersion(stationId))
+                    .events(events)
+                    .timestamp(now)
+                    .build());
+
+            stations++;
+            from = to;
+        }
+        return stations;
+    }
+
+    private void send(StationBatteryBatchEvent batch) {
+        try {
+            String json = objectMapper.writeValueAsString(batch);
+            batterySocketController.broadcastToStation(batch.getStationId(), json);
+        } catch (Exception e) {
+            log.warn("⚠️ Không gửi được charging event cho trạm {}: {}", batch.getStationId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Bảng cột (structure-of-arrays) cho các pin thay đổi trong 1 tick.
+     * Giá trị null của cột số được lưu bằng NaN / -1.
+     */
+    private static final class ChargingTable {
+        int size;
+        String[] batteryIds = new String[256];
+        String[] batteryTypes = new String[256];
+        String[] dockNames = new String[256];
+        double[] capacity = new double[256];
+        double[] stateOfHealth = new double[256];
+        int[] cycleCount = new int[256];
+        int[] stationIds = new int[256];
+        int[] dockSlotIds = new int[256];
+        int[] slotNumbers = new int[256];
+        boolean[] completed = new boolean[256];
+
+        void clear() {
+            // Giữ nguyên mảng, chỉ bỏ tham chiếu String để GC thu hồi
+            Arrays.fill(batteryIds, 0, size, null);
+            Arrays.fill(batteryTypes, 0, size, null);
+            Arrays.fill(dockNames, 0, size, null);
+            size = 0;
+        }
+
+        void add(ResultSet rs) throws SQLException {
+            if (size == batteryIds.length) grow();
+            int i = size++;
+            batteryIds[i] = rs.getString(1);
+            batteryTypes[i] = rs.getString(2);
+            completed[i] = "AVAILABLE".equals(rs.getString(3));
+            double soh = rs.getDouble(4);
+            stateOfHealth[i] = rs.wasNull() ? Double.NaN : soh;
+            capacity[i] = rs.getDouble(5);
+            int cycle = rs.getInt(6);
+            cycleCount[i] = rs.wasNull() ? -1 : cycle;
+            stationIds[i] = rs.getInt(7);
+            dockSlotIds[i] = rs.getInt(8);
+            dockNames[i] = rs.getString(9);
+            slotNumbers[i] = rs.getInt(10);
+        }
+
+        BatteryRealtimeEvent toEvent(int i, String timestamp) {
+            return BatteryRealtimeEvent.builder()
+                    .stationId(stationIds[i])
+                    .dockId(dockSlotIds[i])
+                    .dockName(dockNames[i])
+                    .slotNumber(slotNumbers[i])
+                    .batteryId(batteryIds[i])
+                    .batteryStatus(completed[i] ? "AVAILABLE" : "CHARGING")
+                    .batteryType(batteryTypes[i])
+                    .stateOfHealth(Double.isNaN(stateOfHealth[i]) ? null : stateOfHealth[i])
+                    .currentCapacity(capacity[i])
+                    .cycleCount(cycleCount[i] < 0 ? null : cycleCount[i])
+                    .action(completed[i] ? "CHARGING_COMPLETE" : "CHARGING_PROGRESS")
+                    .timestamp(timestamp)
+                    .build();
+        }
+
+        private void grow() {
+            int n = batteryIds.length * 2;
+            batteryIds = Arrays.copyOf(batteryIds, n);
+            batteryTypes = Arrays.copyOf(batteryTypes, n);
+            dockNames = Arrays.copyOf(dockNames, n);
+            capacity = Arrays.copyOf(capacity, n);
+            stateOfHealth = Arrays.copyOf(stateOfHealth, n);
+            cycleCount = Arrays.copyOf(cycleCount, n);
+            stationIds = Arrays.copyOf(stationIds, n);
+            dockSlotIds = Arrays.copyOf(dockSlotIds, n);
+            slotNumbers = Arrays.copyOf(slotNumbers, n);
+            completed = Arrays.copyOf(completed, n);
+        }
+    }
+}
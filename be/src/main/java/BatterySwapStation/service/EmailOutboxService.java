@@ -0,0 +1,243 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.service.mail.MailSendException;
+import BatterySwapStation.service.mail.MailTransport;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 📬 Outbox email.
+ * - enqueue(): INSERT vào EmailOutbox trong transaction hiện tại → rollback nghiệp vụ thì không có mail
+ * - Dispatcher nền: nhận 1 lô bằng FOR UPDATE SKIP LOCKED (nhiều instance không lấy trùng), gửi song song,
+ *   lỗi tạm thời thì lùi lịch theo cấp số nhân, hết lượt hoặc lỗi cố định thì FAILED
+ * - Giao hàng "ít nhất 1 lần": instance chết giữa chừng → hết hạn giữ, lô được gửi lại
+ */
+@Service
+@Slf4j
+public class EmailOutboxService {
+
+    private static final int BATCH_SIZE = 50;
+    private static final int SEND_PARALLELISM = 2;
+    static final int MAX_ATTEMPTS = 8;
+    private static final Duration CLAIM_TTL = Duration.ofMinutes(5);
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(30);
+    private static final Duration MAX_BACKOFF = Duration.ofHours(1);
+    private static final Duration RETENTION = Duration.ofDays(30);
+
+    private static final String CLEANUP_LEASE_JOB = "email-outbox.cleanup";
+
+    private static final String ENQUEUE_SQL = """
+            INSERT INTO EmailOutbox (Recipient, Subject, Body, DedupKey, Status, Attempts, NextAttemptAt, CreatedAt)
+            VALUES (?, ?, ?, ?, 'PENDING', 0, now(), now())
+            ON CONFLICT (Recipient, DedupKey) DO NOTHING
+            """;
+
+    // Nhận lô: đẩy NextAttemptAt ra sau CLAIM_TTL = giữ chỗ, các instance khác bỏ qua (package-private cho test SQL)
+    static final String CLAIM_SQL = """
+            UPDATE EmailOutbox o
+            SET Attempts = o.Attempts + 1,
+                NextAttemptAt = now() + ? * interval '1 millisecond'
+            FROM (
+                SELECT EmailId FROM EmailOutbox
+                WHERE Status = 'PENDING' AND NextAttemptAt <= now()
+                ORDER BY NextAttemptAt
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED
+            ) due
+            WHERE o.EmailId = due.EmailId
+            RETURNING o.EmailId, o.Recipient, o.Subject, o.Body, o.Attempts
+            """;
+
+    private static final String SENT_SQL = """
+            UPDATE EmailOutbox SET Status = 'SENT', SentAt = now(), LastError = NULL
+            WHERE EmailId = ?
+            """;
+
+    private static final String RETRY_SQL = """
+            UPDATE EmailOutbox SET NextAttemptAt = now() + ? * interval '1 millisecond', LastError = ?
+            WHERE EmailId = ?
+            """;
+
+    private static final String FAILED_SQL = """
+            UPDATE EmailOutbox SET Status = 'FAILED', LastError = ?
+            WHERE EmailId = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MailTransport mailTransport;
+    private final SchedulerLeaseService schedulerLeaseService;
+
+    // Scheduler mặc định chỉ 1 thread → việc gửi (HTTP) chạy trên thread riêng, tick chỉ kích hoạt
+    private final ExecutorService drainExecutor;
+    private final ExecutorService sendExecutor;
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    public EmailOutboxService(JdbcTemplate jdbcTemplate,
+                              MailTransport mailTransport,
+                              SchedulerLeaseService schedulerLeaseService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.mailTransport = mailTransport;
+        this.schedulerLeaseService = schedulerLeaseService;
+
+        this.drainExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "email-outbox");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger threadNo = new AtomicInteger();
+        this.sendExecutor = Executors.newFixedThreadPool(SEND_PARALLELISM, r -> {
+            Thread t = new Thread(r, "email-send-" + threadNo.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainExecutor.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+
+    // ==================== GHI OUTBOX ====================
+
+    /**
+     * Xếp email vào hàng đợi (tham gia transaction đang chạy nếu có).
+     *
+     * @param dedupKey khóa sự kiện (VD: "invoice-paid:123"); đã có mail cùng (người nhận, khóa) thì bỏ qua.
+     *                 null = không chống trùng
+     * @return false nếu bị bỏ qua vì trùng
+     */
+    public boolean enqueue(String to, String subject, String html, String dedupKey) {
+        if (to == null || to.isBlank()) {
+            throw new IllegalArgumentException("Email người nhận không được để trống");
+        }
+        int inserted = jdbcTemplate.update(ENQUEUE_SQL, to.trim(), subject, html, dedupKey);
+        if (inserted == 0) {
+            log.info("📭 Bỏ qua email trùng: {} ({})", to, dedupKey);
+        }
+        return inserted > 0;
+    }
+
+    // ==================== DISPATCHER ====================
+
+    @Scheduled(fixedDelay = 1000, initialDelay = 10000)
+    public void tick() {
+        if (!draining.compareAndSet(false, true)) return;
+        try {
+            drainExecutor.execute(() -> {
+                try {
+                    drain();
+                } finally {
+                    draining.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            draining.set(false);
+            log.warn("⚠️ Không khởi động được dispatcher email: {}", e.getMessage());
+        }
+    }
+
+    // Gửi liên tục tới khi hết mail đến hạn (lô cuối không đầy). Package-private để test gọi đồng bộ
+    void drain() {
+        try {
+            List<OutboxMail> batch;
+            do {
+                batch = claim();
+                if (batch.isEmpty()) return;
+                dispatch(batch);
+            } while (batch.size() == BATCH_SIZE && !Thread.currentThread().isInterrupted());
+        } catch (Exception e) {
+            log.error("❌ Lỗi dispatcher email: {}", e.getMessage(), e);
+        }
+    }
+
+    private List<OutboxMail> claim() {
+        return jdbcTemplate.query(CLAIM_SQL, (rs, i) -> new OutboxMail(
+                rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getInt(5)
+        ), CLAIM_TTL.toMillis(), BATCH_SIZE);
+    }
+
+    private void dispatch(List<OutboxMail> batch) {
+        List<CompletableFuture<Throwable>> futures = new ArrayList<>(batch.size());
+        for (OutboxMail mail : batch) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    mailTransport.send(mail.to, mail.subject, mail.html);
+                    return null;
+                } catch (Throwable e) {
+                    return e;
+                }
+            }, sendExecutor));
+        }
+
+        List<Object[]> sent = new ArrayList<>();
+        List<Object[]> retries = new ArrayList<>();
+        List<Object[]> failed = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            OutboxMail mail = batch.get(i);
+            Throwable error = futures.get(i).join();
+            if (error == null) {
+                sent.add(new Object[]{mail.id});
+                continue;
+            }
+
+            String message = truncate(error.getMessage());
+            boolean retryable = !(error instanceof MailSendException mse) || mse.isRetryable();
+            if (retryable && mail.attempts < MAX_ATTEMPTS) {
+                retries.add(new Object[]{backoff(mail.attempts).toMillis(), message, mail.id});
+                log.warn("⚠️ Gửi email #{} tới {} lỗi (lần {}), thử lại sau: {}", mail.id, mail.to, mail.attempts, message);
+            } else {
+                failed.add(new Object[]{message, mail.id});
+                log.error("❌ Email #{} tới {} thất bại sau {} lần: {}", mail.id, mail.to, mail.attempts, message);
+            }
+        }
+
+        if (!sent.isEmpty()) jdbcTemplate.batchUpdate(SENT_SQL, sent);
+        if (!retries.isEmpty()) jdbcTemplate.batchUpdate(RETRY_SQL, retries);
+        if (!failed.isEmpty()) jdbcTemplate.batchUpdate(FAILED_SQL, failed);
+
+        log.debug("📬 Outbox: {} gửi, {} chờ thử lại, {} thất bại", sent.size(), retries.size(), failed.size());
+    }
+
+    // 30s, 1m, 2m, 4m ... tối đa 1h
+    private static Duration backoff(int attempts) {
+        long factor = 1L << Math.min(attempts - 1, 20);
+        Duration delay = BASE_BACKOFF.multipliedBy(factor);
+        return delay.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : delay;
+    }
+
+    private static String truncate(String message) {
+        if (message == null) return "Lỗi không xác định";
+        return message.length() > 1000 ? message.substring(0, 1000) : message;
+    }
+
+    // ==================== DỌN DẸP ====================
+
+    // Xóa mail đã xong (SENT theo SentAt, FAILED không có SentAt → theo CreatedAt) quá RETENTION
+    @Scheduled(cron = "0 30 3 * * *") // 03:30 hằng ngày
+    public void purgeFinished() {
+        schedulerLeaseService.runExclusive(CLEANUP_LEASE_JOB, Duration.ofMinutes(10), token -> {
+            int deleted = jdbcTemplate.update("""
+                    DELETE FROM EmailOutbox
+                    WHERE (Status = 'SENT' AND SentAt < now() - ? * interval '1 millisecond')
+                       OR (Status = 'FAILED' AND CreatedAt < now() - ? * interval '1 millisecond')
+                    """, RETENTION.toMillis(), RETENTION.toMillis());
+            if (deleted > 0) log.info("🧹 Đã xóa {} email SENT / FAILED quá {} ngày", deleted, RETENTION.toDays());
+        });
+    }
+
+    private record OutboxMail(long id, String to, String subject, String html, int attempts) {
+    }
+}
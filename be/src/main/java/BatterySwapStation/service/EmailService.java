@@ -1,57 +1,23 @@
 package BatterySwapStation.service;
 
-import com.sendgrid.*;
-import com.sendgrid.helpers.mail.Mail;
-import com.sendgrid.helpers.mail.objects.Content;
-import com.sendgrid.helpers.mail.objects.Email;
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.text.StringEscapeUtils;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
-
+/**
+ * Dựng nội dung email và xếp vào outbox; việc gửi thật do EmailOutboxService chạy nền.
+ */
 @Service
 @RequiredArgsConstructor
 public class EmailService {
 
-    @Value("${SENDGRID_API_KEY}")
-    private String sendGridApiKey;
-
-    @Value("${SPRING_MAIL_FROM}")
-    private String fromEmail;
+    private final EmailOutboxService emailOutboxService;
 
 
     //
     public void sendVerificationEmail(String fullName, String email, String verifyUrl) {
         String htmlContent = getHtmlTemplate(fullName, verifyUrl);
-
-        Email from = new Email(fromEmail);
-        Email recipient = new Email(email);
-        Content content = new Content("text/html", htmlContent);
-        Mail mail = new Mail(from, "Xác minh tài khoản Battery Swap Station", recipient, content);
-
-        sendMail(mail);
-    }
-
-    // email qua SendGrid
-    private void sendMail(Mail mail) {
-        SendGrid sg = new SendGrid(sendGridApiKey);
-        Request request = new Request();
-        try {
-            request.setMethod(Method.POST);
-            request.setEndpoint("mail/send");
-            request.setBody(mail.build());
-            Response response = sg.api(request);
-
-            int statusCode = response.getStatusCode();
-            System.out.println("📧 SendGrid Response Code: " + statusCode);
-            System.out.println("📧 SendGrid Response Body: " + response.getBody());
-            System.out.println("📧 SendGrid Response Headers: " + response.getHeaders());
-
-        } catch (IOException e) {
-            throw new RuntimeException("Lỗi khi gửi email qua SendGrid: " + e.getMessage(), e);
-        }
+        emailOutboxService.enqueue(email, "Xác minh tài khoản Battery Swap Station", htmlContent, null);
     }
 
 
@@ -83,11 +49,14 @@ public class EmailService {
     }
 
     public void sendEmail(String to, String subject, String htmlContent) {
-        Email from = new Email(fromEmail);
-        Email recipient = new Email(to);
-        Content content = new Content("text/html", htmlContent);
-        Mail mail = new Mail(from, subject, recipient, content);
-        sendMail(mail);
+        emailOutboxService.enqueue(to, subject, htmlContent, null);
+    }
+
+    /**
+     * @param dedupKey khóa sự kiện: cùng người nhận + cùng khóa chỉ gửi 1 lần
+     */
+    public void sendEmail(String to, String subject, String htmlContent, String dedupKey) {
+        emailOutboxService.enqueue(to, subject, htmlContent, dedupKey);
     }
 
 }
@@ -20,6 +20,7 @@ public class ForgotPasswordService {
     private final UserRepository userRepo;
     private final PasswordEncoder passwordEncoder;
     private final EmailService emailService;
+    private final CacheEvictionService cacheEvictionService;
 
     private static final String RESET_URL = "http://localhost:5173/reset-password?token=";
 
@@ -113,6 +114,7 @@ public class ForgotPasswordService {
         User user = resetToken.getUser();
         user.setPassword(passwordEncoder.encode(newPassword));
         userRepo.save(user);
+        cacheEvictionService.evictAuthPrincipals(user.getUserId());
 
         // Đánh dấu token đã dùng
         resetToken.setUsed(true);
@@ -1,19 +1,22 @@
 package BatterySwapStation.service;
 
 import BatterySwapStation.dto.BatteryRealtimeEvent;
+import BatterySwapStation.dto.CursorPage;
+import BatterySwapStation.dto.InspectionListItemDTO;
 import BatterySwapStation.dto.InspectionRequest;
 import BatterySwapStation.dto.InspectionResponse;
 import BatterySwapStation.dto.InspectionUpdateRequest;
 import BatterySwapStation.entity.*;
 import BatterySwapStation.repository.*;
-import BatterySwapStation.websocket.BatterySocketController;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import BatterySwapStation.utils.KeysetPaging;
+import BatterySwapStation.websocket.StationEventBroadcaster;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -29,8 +32,7 @@ public class InspectionService { // ✅ Đổi tên lớp
     private final BatteryInspectionRepository inspectionRepository;
     private final UserRepository userRepository;
     private final DockSlotRepository dockSlotRepository;
-    private final BatterySocketController batterySocketController;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StationEventBroadcaster stationEventBroadcaster;
 
 
     // ----------------------------------------------------
@@ -92,6 +94,22 @@ public class InspectionService { // ✅ Đổi tên lớp
                 .toList();
     }
 
+    // -----------------------------------------------------
+    // --- 2b. DANH SÁCH INSPECTION THEO TRANG (GET /page) ---
+    // -----------------------------------------------------
+    @Transactional(readOnly = true)
+    public CursorPage<InspectionListItemDTO> getInspectionsPage(BatteryInspection.InspectionStatus status,
+                                                               Integer stationId, String staffId,
+                                                               LocalDate from, LocalDate to,
+                                                               String cursor, Integer limit) {
+        KeysetPaging.checkRange(from, to);
+        int size = KeysetPaging.clampLimit(limit);
+        List<InspectionListItemDTO> rows = inspectionRepository.findPage(
+                KeysetPaging.decodeCursor(cursor), status, stationId, staffId,
+                KeysetPaging.startOf(from), KeysetPaging.endExclusive(to), KeysetPaging.probe(size));
+        return KeysetPaging.toPage(rows, size, InspectionListItemDTO::getId);
+    }
+
     // -------------------------------------------------------
     // --- 3. CẬP NHẬT INSPECTION (PUT /{id}) ---
     // -------------------------------------------------------
@@ -249,8 +267,7 @@ public class InspectionService { // ✅ Đổi tên lớp
                     .timestamp(LocalDateTime.now().toString())
                     .build();
 
-            String json = objectMapper.writeValueAsString(event);
-            batterySocketController.broadcastToStation(event.getStationId(), json);
+            stationEventBroadcaster.publish(event);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -1,19 +1,15 @@
 package BatterySwapStation.service;
 
 import BatterySwapStation.entity.Booking;
-import BatterySwapStation.entity.Invoice;
-import BatterySwapStation.entity.Payment;
-import BatterySwapStation.repository.BookingRepository;
 import BatterySwapStation.repository.InvoiceRepository;
-import BatterySwapStation.repository.PaymentRepository;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -25,72 +21,81 @@ public class InvoiceSchedulerService {
     // Đặt thời gian timeout là 15 phút
     private static final int TIMEOUT_MINUTES = 15;
 
+    // Số invoice tối đa mỗi lô (mỗi lô 1 câu lệnh + 1 transaction ngắn)
+    private static final int BATCH_SIZE = 200;
+
+    // Tên lease trong SchedulerLease: chỉ 1 instance quét mỗi lượt
+    private static final String LEASE_JOB = "invoice.pending-timeout";
+
     @Autowired
     private InvoiceRepository invoiceRepository;
 
     @Autowired
-    private BookingRepository bookingRepository;
+    private SlotCapacityLedger slotCapacityLedger;
 
     @Autowired
-    private PaymentRepository paymentRepository;
+    private SchedulerLeaseService schedulerLeaseService;
 
     /**
      * Tự động chạy mỗi phút để kiểm tra các invoice quá hạn
      * (fixedRate = 60000 milliseconds)
+     * Invoice → PAYMENTFAILED, payment PENDING → FAILED, booking → FAILED trong cùng 1 câu lệnh / lô.
      */
     @Scheduled(fixedDelay = 60000)
-    @Transactional
     public void checkPendingInvoiceTimeouts() {
+        schedulerLeaseService.runExclusive(LEASE_JOB, Duration.ofMinutes(3), this::expirePendingInvoices);
+    }
 
-        // 1. Tính toán thời gian hết hạn (Giữ nguyên)
-        LocalDateTime timeoutTime = LocalDateTime.now().minusMinutes(TIMEOUT_MINUTES);
-
-        // 2. Tìm tất cả các invoice PENDING đã quá hạn (Giữ nguyên)
-        List<Invoice> expiredInvoices = invoiceRepository.findPendingInvoicesOlderThan(
-                Invoice.InvoiceStatus.PENDING,
-                timeoutTime
-        );
-
-        if (expiredInvoices.isEmpty()) {
-            return; // Không có gì để làm
-        }
-
-        logger.info("[Scheduler] Phát hiện {} invoice quá hạn. Đang xử lý...", expiredInvoices.size());
-
-        for (Invoice invoice : expiredInvoices) {
-
-            // 3. Cập nhật Invoice status (Giữ nguyên)
-            invoice.setInvoiceStatus(Invoice.InvoiceStatus.PAYMENTFAILED);
-
-            // 4. Cập nhật Booking status (Giữ nguyên)
-            List<Booking> bookings = bookingRepository.findAllByInvoice(invoice);
-            for (Booking booking : bookings) {
-                booking.setBookingStatus(Booking.BookingStatus.FAILED);
-            }
-
-            // ========== ✅ [BƯỚC 5 ĐÃ SỬA LỖI] ==========
+    private void expirePendingInvoices(long fencingToken) {
 
-            // 1. Dùng hàm mới (trả về List)
-            // (Bạn phải sửa tệp PaymentRepository.java để có hàm này)
-            List<Payment> payments = paymentRepository.findAllByInvoice(invoice);
+        // 1. Tính toán thời gian hết hạn
+        LocalDateTime timeoutTime = LocalDateTime.now().minusMinutes(TIMEOUT_MINUTES);
 
-            // 2. Lặp qua TẤT CẢ payment và cập nhật
-            if (payments != null && !payments.isEmpty()) {
-                for (Payment p : payments) {
-                    if (p.getPaymentStatus() == Payment.PaymentStatus.PENDING) {
-                        p.setPaymentStatus(Payment.PaymentStatus.FAILED);
+        long start = System.nanoTime();
+        int invoices = 0;
+        int payments = 0;
+        int bookings = 0;
+        int batches = 0;
+
+        try {
+            int invoicesInBatch;
+            do {
+                if (batches > 0 && !schedulerLeaseService.isHeld(LEASE_JOB, fencingToken)) {
+                    logger.warn("[Scheduler] Mất lease {} sau {} lô, dừng xử lý", LEASE_JOB, batches);
+                    break;
+                }
+                // 2. Hết hạn 1 lô invoice + payment + booking
+                List<Object[]> rows = invoiceRepository.expirePendingInvoicesBatch(timeoutTime, BATCH_SIZE);
+                if (rows.isEmpty()) break;
+
+                invoicesInBatch = ((Number) rows.get(0)[0]).intValue();
+                invoices += invoicesInBatch;
+                payments += ((Number) rows.get(0)[1]).intValue();
+                batches++;
+
+                // 3. Trả lại công suất slot cho booking đang giữ chỗ
+                for (Object[] row : rows) {
+                    // [số invoice, số payment, BookingId, trạng thái cũ, StationId, bookingdate, timeslot, batterycount]
+                    if (row[2] == null) continue;
+                    bookings++;
+                    StationStatsRollupService.markBookingDirty(((Number) row[2]).longValue());
+                    if (isHoldingSlot(row[3])) {
+                        slotCapacityLedger.releaseRow(row[4], row[5], row[6], row[7]);
                     }
                 }
-                paymentRepository.saveAll(payments); // 3. Lưu tất cả thay đổi
-            }
-            // =============================================
-
-
-            // 6. Lưu thay đổi (Giữ nguyên)
-            invoiceRepository.save(invoice);
-            bookingRepository.saveAll(bookings);
+            } while (invoicesInBatch == BATCH_SIZE);
+        } catch (Exception e) {
+            logger.error("[Scheduler] Lỗi khi xử lý invoice quá hạn: {}", e.getMessage(), e);
+        }
 
-            logger.info("[Scheduler] Đã cập nhật Invoice #{} sang PAYMENTFAILED.", invoice.getInvoiceId());
+        if (invoices > 0) {
+            logger.info("[Scheduler] Đã chuyển {} invoice sang PAYMENTFAILED ({} payment, {} booking FAILED) - {} lô, {} ms.",
+                    invoices, payments, bookings, batches, (System.nanoTime() - start) / 1_000_000);
         }
     }
-}
\ No newline at end of file
+
+    private static boolean isHoldingSlot(Object status) {
+        return Booking.BookingStatus.PENDINGPAYMENT.name().equals(status)
+                || Booking.BookingStatus.PENDINGSWAPPING.name().equals(status);
+    }
+}
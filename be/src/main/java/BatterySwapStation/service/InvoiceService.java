@@ -5,12 +5,15 @@ import BatterySwapStation.entity.Booking;
 import BatterySwapStation.dto.InvoiceResponseDTO;
 import BatterySwapStation.dto.BookingInfoDTO;
 import BatterySwapStation.dto.InvoiceSimpleResponseDTO;
+import BatterySwapStation.dto.InvoiceListItemDTO;
+import BatterySwapStation.dto.CursorPage;
 import BatterySwapStation.entity.Payment;
 import BatterySwapStation.entity.SystemPrice;
 import BatterySwapStation.entity.SubscriptionPlan;
 import BatterySwapStation.repository.InvoiceRepository;
 import BatterySwapStation.repository.BookingRepository;
 import BatterySwapStation.repository.PaymentRepository;
+import BatterySwapStation.utils.KeysetPaging;
 import jakarta.persistence.EntityNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -18,6 +21,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 
 import java.time.LocalDateTime;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -35,6 +39,9 @@ public class InvoiceService {
     @Autowired
     private PaymentRepository paymentRepository;
 
+    @Autowired
+    private SlotCapacityLedger slotCapacityLedger;
+
     /**
      * Lấy chi tiết invoice bao gồm thông tin các booking
      * ✅ [CẬP NHẬT] Thêm @Transactional và 2 trường mới
@@ -254,6 +261,21 @@ public class InvoiceService {
         return invoiceRepository.findAll();
     }
 
+    /**
+     * Danh sách invoice cho admin theo trang keyset (projection)
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<InvoiceListItemDTO> getInvoicesPage(Invoice.InvoiceStatus status, Invoice.InvoiceType type,
+                                                          String userId, LocalDate from, LocalDate to,
+                                                          String cursor, Integer limit) {
+        KeysetPaging.checkRange(from, to);
+        int size = KeysetPaging.clampLimit(limit);
+        List<InvoiceListItemDTO> rows = invoiceRepository.findAdminPage(
+                KeysetPaging.decodeCursor(cursor), status, type, userId,
+                KeysetPaging.startOf(from), KeysetPaging.endExclusive(to), KeysetPaging.probe(size));
+        return KeysetPaging.toPage(rows, size, InvoiceListItemDTO::getInvoiceId);
+    }
+
     // (Hàm getInvoiceById giữ nguyên)
     public Invoice getInvoiceById(Long id) {
         return invoiceRepository.findById(id)
@@ -399,6 +421,7 @@ public class InvoiceService {
         invoice.setInvoiceStatus(Invoice.InvoiceStatus.PAYMENTFAILED);
         List<Booking> bookings = bookingRepository.findAllByInvoice(invoice);
         for (Booking booking : bookings) {
+            slotCapacityLedger.release(booking);
             booking.setBookingStatus(Booking.BookingStatus.FAILED);
         }
         List<Payment> payments = paymentRepository.findAllByInvoice(invoice);
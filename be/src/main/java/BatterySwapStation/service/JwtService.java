@@ -1,5 +1,7 @@
 package BatterySwapStation.service;
 
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
@@ -20,6 +22,10 @@ public class JwtService {
     private final Key resendKey;
     private final long resendExpirationMillis;
 
+    // JwtParser bất biến, thread-safe → build 1 lần, dùng lại cho mọi request
+    private final JwtParser parser;
+    private final JwtParser resendParser;
+
     public JwtService(
             @Value("${jwt.secret}") String secret,
             @Value("${jwt.expiration}") long expirationMillis,
@@ -30,6 +36,8 @@ public class JwtService {
         this.expirationMillis = expirationMillis;
         this.resendKey = Keys.hmacShaKeyFor(resendSecret.getBytes(StandardCharsets.UTF_8));
         this.resendExpirationMillis = resendExpirationMillis;
+        this.parser = Jwts.parserBuilder().setSigningKey(key).build();
+        this.resendParser = Jwts.parserBuilder().setSigningKey(resendKey).build();
 
         System.out.println(" JWT Main : " + expirationMillis + " ms");
         System.out.println(" JWT Resend : " + resendExpirationMillis + " ms");
@@ -57,28 +65,23 @@ public class JwtService {
         return builder.signWith(key, SignatureAlgorithm.HS256).compact();
     }
 
-    public String extractUserId(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
+    /**
+     * Kiểm tra chữ ký + hạn dùng và trả về toàn bộ claims (1 lần parse).
+     * Token sai / hết hạn → ném JwtException.
+     */
+    public Claims parseClaims(String token) {
+        return parser.parseClaimsJws(token).getBody();
     }
 
-    public boolean isTokenValid(String jwt, UserDetails userDetails) {
-        final String userId = extractUserId(jwt);
-        return (userId.equals(userDetails.getUsername())) && !isTokenExpired(jwt);
+    public String extractUserId(String token) {
+        return parseClaims(token).getSubject();
     }
 
-    private boolean isTokenExpired(String jwt) {
-        final Date expiration = Jwts.parserBuilder()
-                .setSigningKey(key)
-                .build()
-                .parseClaimsJws(jwt)
-                .getBody()
-                .getExpiration();
-        return expiration.before(new Date());
+    public boolean isTokenValid(String jwt, UserDetails userDetails) {
+        // parseClaimsJws đã từ chối token hết hạn → chỉ cần parse 1 lần
+        final Claims claims = parseClaims(jwt);
+        return claims.getSubject().equals(userDetails.getUsername())
+                && (claims.getExpiration() == null || claims.getExpiration().after(new Date()));
     }
 
     // 🔄 TOKEN VERIFY EMAIL
@@ -94,9 +97,7 @@ public class JwtService {
 
     public String extractEmailAllowExpired(String token) {
         try {
-            return Jwts.parserBuilder()
-                    .setSigningKey(resendKey)
-                    .build()
+            return resendParser
                     .parseClaimsJws(token)
                     .getBody()
                     .getSubject();
@@ -109,9 +110,7 @@ public class JwtService {
 
     public String extractEmailStrict(String token) {
         try {
-            return Jwts.parserBuilder()
-                    .setSigningKey(resendKey)
-                    .build()
+            return resendParser
                     .parseClaimsJws(token)
                     .getBody()
                     .getSubject();
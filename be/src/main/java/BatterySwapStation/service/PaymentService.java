@@ -9,6 +9,7 @@ import org.springframework.context.ApplicationEventPublisher;
 import BatterySwapStation.websocket.TicketSocketController;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import BatterySwapStation.utils.DbTime;
 import BatterySwapStation.utils.VnPayUtils;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
@@ -16,6 +17,7 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
@@ -42,6 +44,26 @@ public class PaymentService {
     private final DisputeTicketRepository disputeTicketRepository;
     private final TicketSocketController ticketSocketController;
     private final ApplicationEventPublisher applicationEventPublisher;
+    private final SlotCapacityLedger slotCapacityLedger;
+    private final PaymentIpnJournalRepository ipnJournalRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final WalletService walletService;
+
+    // IPN trùng chạy song song: câu INSERT thứ 2 chờ ở unique index tới khi câu đầu commit rồi nhận 0 dòng
+    private static final String IPN_JOURNAL_SQL = """
+            INSERT INTO PaymentIpnJournal (TxnRef, PaymentId, VnpTransactionNo, ResponseCode,
+                                           TransactionStatus, Amount, Outcome, ReceivedAt)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (TxnRef) DO NOTHING
+            """;
+
+    // Chuyển trạng thái Payment 1 lần duy nhất: chỉ request đầu tiên thấy PENDING
+    private static final String IPN_TRANSITION_SQL = """
+            UPDATE Payment
+            SET PaymentStatus = ?, ChecksumOk = TRUE, VnpResponseCode = ?, VnpTransactionStatus = ?,
+                VnpTransactionNo = ?, VnpBankCode = ?, VnpPayDate = ?, Message = ?
+            WHERE PaymentId = ? AND PaymentStatus = 'PENDING'
+            """;
 
     /**
      * 1️⃣ Tạo URL thanh toán (FE gọi)
@@ -142,6 +164,12 @@ public class PaymentService {
 
             String txnRef = fields.get("vnp_TxnRef");
 
+            // ⏩ IPN lặp lại: 1 lần tra index unique của journal là đủ
+            if (txnRef != null && ipnJournalRepository.existsByTxnRef(txnRef)) {
+                log.info("⏩ [IPN DUP] TxnRef={} đã xử lý trước đó", txnRef);
+                return alreadyProcessed(response);
+            }
+
 // ⚙️ Tìm payment pending theo TxnRef hoặc invoice
             Payment payment = paymentRepository.findByVnpTxnRef(txnRef)
                     .orElse(null);
@@ -179,28 +207,30 @@ public class PaymentService {
 
             if (payment.getPaymentStatus() != Payment.PaymentStatus.PENDING) {
                 log.info("⏩ [IPN SKIP] PaymentID={} đã xử lý trước đó (status={})", payment.getPaymentId(), payment.getPaymentStatus());
-                response.put("RspCode", "02");
-                response.put("Message", "Đã xử lý trước đó");
-                return response;
+                return alreadyProcessed(response);
             }
 
             String respCode = fields.get("vnp_ResponseCode");
             String transStatus = fields.get("vnp_TransactionStatus");
             boolean success = "00".equals(respCode) && "00".equals(transStatus);
-
-// ✅ Update Payment
-            payment.setChecksumOk(true);
-            payment.setVnpResponseCode(respCode);
-            payment.setVnpTransactionStatus(transStatus);
-            payment.setVnpTransactionNo(fields.get("vnp_TransactionNo"));
-            payment.setVnpBankCode(fields.get("vnp_BankCode"));
-            payment.setVnpPayDate(fields.get("vnp_PayDate"));
-            payment.setMessage(VnPayUtils.getVnPayResponseMessage(respCode));
-            payment.setPaymentStatus(success ? Payment.PaymentStatus.SUCCESS : Payment.PaymentStatus.FAILED);
-            paymentRepository.save(payment);
+            Payment.PaymentStatus newStatus = success ? Payment.PaymentStatus.SUCCESS : Payment.PaymentStatus.FAILED;
+
+            // 🔒 Ghi journal + chuyển trạng thái có điều kiện: IPN trùng dừng ở đây, không cộng ví 2 lần
+            int journaled = jdbcTemplate.update(IPN_JOURNAL_SQL, DbTime.args(
+                    txnRef != null ? txnRef : payment.getVnpTxnRef(), payment.getPaymentId(),
+                    fields.get("vnp_TransactionNo"), respCode, transStatus, amountFromVnp, newStatus.name(),
+                    DbTime.now()));
+            int transitioned = journaled == 0 ? 0 : jdbcTemplate.update(IPN_TRANSITION_SQL,
+                    newStatus.name(), respCode, transStatus,
+                    fields.get("vnp_TransactionNo"), fields.get("vnp_BankCode"), fields.get("vnp_PayDate"),
+                    VnPayUtils.getVnPayResponseMessage(respCode), payment.getPaymentId());
+            if (transitioned == 0) {
+                log.info("⏩ [IPN DUP] PaymentID={} | TxnRef={} đã được request khác xử lý", payment.getPaymentId(), txnRef);
+                return alreadyProcessed(response);
+            }
 
             log.info("💾 [IPN UPDATE] PaymentID={} → {} | Bank={} | TxnNo={}",
-                    payment.getPaymentId(), payment.getPaymentStatus(), payment.getVnpBankCode(), payment.getVnpTransactionNo());
+                    payment.getPaymentId(), newStatus, fields.get("vnp_BankCode"), fields.get("vnp_TransactionNo"));
 
             // ✅ Update Invoice
             Invoice invoice = payment.getInvoice();
@@ -220,22 +250,16 @@ public class PaymentService {
                         }
                     }
                     else if (invoice.getInvoiceType() == Invoice.InvoiceType.WALLET_TOPUP) {
-                        User u = userRepository.findById(invoice.getUserId())
-                                .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy user: " + invoice.getUserId()));
-
-                        double current = Optional.ofNullable(u.getWalletBalance()).orElse(0.0);
-                        double newBalance = current + invoice.getTotalAmount();
-
-                        Double maxWalletLimit = 1_000_000_000.0;
-                        if (newBalance > maxWalletLimit) {
+                        // Cộng ví nguyên tử + ghi sổ cái, kèm giới hạn số dư
+                        OptionalDouble credited = walletService.tryCredit(invoice.getUserId(), invoice.getTotalAmount(),
+                                WalletLedgerEntry.EntryType.TOPUP, "INVOICE", invoice.getInvoiceId(),
+                                "Nạp ví qua VNPay (TxnRef " + txnRef + ")");
+                        if (credited.isEmpty()) {
                             invoice.setInvoiceStatus(Invoice.InvoiceStatus.PAID);
                             invoiceRepository.save(invoice);
 
                             throw new IllegalStateException("Ví vượt giới hạn, cần xử lý thủ công.");
                         }
-
-                        u.setWalletBalance(newBalance);
-                        userRepository.save(u);
                     }
 
                     // ✅ CASE: PENALTY PAYMENT SUCCESS
@@ -290,6 +314,7 @@ public class PaymentService {
 
                     if (invoice.getBookings() != null) {
                         for (Booking booking : invoice.getBookings()) {
+                            slotCapacityLedger.release(booking);
                             booking.setBookingStatus(Booking.BookingStatus.FAILED);
                             bookingRepository.save(booking);
                         }
@@ -309,6 +334,12 @@ public class PaymentService {
         }
     }
 
+    private static Map<String, String> alreadyProcessed(Map<String, String> response) {
+        response.put("RspCode", "02");
+        response.put("Message", "Đã xử lý trước đó");
+        return response;
+    }
+
     /**
      * 3️⃣ Return URL (VNPAY → BE → FE)
      */
@@ -351,6 +382,7 @@ public class PaymentService {
                         invoiceRepository.save(invoice);
                         if (invoice.getBookings() != null) {
                             for (Booking booking : invoice.getBookings()) {
+                                slotCapacityLedger.release(booking);
                                 booking.setBookingStatus(Booking.BookingStatus.FAILED);
                                 bookingRepository.save(booking);
                             }
@@ -529,6 +561,7 @@ public class PaymentService {
             payment.setMessage("Đã hoàn tiền VNPay cho booking #" + bookingId);
             paymentRepository.save(payment);
 
+            slotCapacityLedger.release(booking);
             booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
             booking.setCancellationReason("Đã hoàn tiền VNPay.");
             bookingRepository.save(booking);
@@ -659,7 +692,7 @@ public class PaymentService {
 
         // 🛡️ KIỂM TRA NGĂN CHẶN OVERFLOW
         Double currentBalance = Optional.ofNullable(user.getWalletBalance()).orElse(0.0);
-        Double maxWalletLimit = 1_000_000_000.0; // Giới hạn ví tối đa 1 tỉ VNĐ
+        Double maxWalletLimit = WalletService.MAX_BALANCE; // Giới hạn ví tối đa 1 tỉ VNĐ
 
         if (currentBalance + req.getAmount() > maxWalletLimit) {
             throw new IllegalArgumentException(String.format(
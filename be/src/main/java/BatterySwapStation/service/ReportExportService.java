@@ -7,15 +7,17 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -26,7 +28,20 @@ public class ReportExportService {
     private final ReportRepository reportRepository;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public byte[] exportReportToExcel(Long reportId) throws Exception {
+    // Số dòng SXSSF giữ trong heap cho mỗi sheet, phần còn lại xả ra file tạm
+    private static final int ROW_WINDOW = 200;
+    // Số dòng đầu dùng để ước lượng độ rộng cột
+    private static final int WIDTH_SAMPLE_ROWS = 200;
+    private static final int MIN_COLUMN_CHARS = 6;
+    // giới hạn width để tránh quá to
+    private static final int MAX_COLUMN_WIDTH = 100 * 256;
+
+    /**
+     * Xuất 1 report đã lưu ra Excel, ghi thẳng vào {@code out} (thường là OutputStream của response).
+     * SXSSF chỉ giữ ROW_WINDOW dòng trong heap, phần còn lại xả ra file tạm (nén).
+     */
+    @Transactional(readOnly = true)
+    public void exportReportToExcel(Long reportId, OutputStream out) throws IOException {
         Report report = reportRepository.findById(reportId)
                 .orElseThrow(() -> new IllegalArgumentException("Report not found: " + reportId));
 
@@ -40,9 +55,8 @@ public class ReportExportService {
         List<LinkedHashMap<String, Object>> rows =
                 (List<LinkedHashMap<String, Object>>) data.getOrDefault("rows", List.of());
 
-        try (Workbook wb = new XSSFWorkbook()) {
-            Sheet sheet = wb.createSheet("Report Data");
-
+        SXSSFWorkbook wb = newStreamingWorkbook();
+        try {
             // ====== Styles ======
             DataFormat df = wb.createDataFormat();
 
@@ -64,61 +78,49 @@ public class ReportExportService {
 
             // ====== Header theo loại report ======
             List<String> headers = headersFor(report.getReportType(), rows);
+            SheetWriter sheet = new SheetWriter(wb.createSheet("Report Data"), headers.size());
 
             // Thông tin meta trên 2 dòng đầu (tuỳ chọn)
-            int r = 0;
-            Row meta1 = sheet.createRow(r++);
-            meta1.createCell(0).setCellValue("Report Type");
-            meta1.createCell(1).setCellValue(String.valueOf(report.getReportType()));
-
-            Row meta2 = sheet.createRow(r++);
-            meta2.createCell(0).setCellValue("Generated At");
-            meta2.createCell(1).setCellValue(report.getGeneratedAt()
+            Row meta1 = sheet.nextRow();
+            sheet.text(meta1, 0, "Report Type");
+            sheet.text(meta1, 1, report.getReportType());
+
+            Row meta2 = sheet.nextRow();
+            sheet.text(meta2, 0, "Generated At");
+            sheet.text(meta2, 1, report.getGeneratedAt()
                     .format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
 
             if (report.getStartDate() != null || report.getEndDate() != null) {
-                Row meta3 = sheet.createRow(r++);
-                meta3.createCell(0).setCellValue("Range");
-                String range = String.format("%s ~ %s",
+                Row meta3 = sheet.nextRow();
+                sheet.text(meta3, 0, "Range");
+                sheet.text(meta3, 1, String.format("%s ~ %s",
                         report.getStartDate() == null ? "" : report.getStartDate(),
-                        report.getEndDate() == null ? "" : report.getEndDate());
-                meta3.createCell(1).setCellValue(range);
+                        report.getEndDate() == null ? "" : report.getEndDate()));
             }
 
             // Dòng trống
-            r++;
+            sheet.nextRow();
 
             // ====== Header row ======
-            Row headerRow = sheet.createRow(r++);
-            for (int c = 0; c < headers.size(); c++) {
-                Cell cell = headerRow.createCell(c);
-                cell.setCellValue(headers.get(c));
-                cell.setCellStyle(headerStyle);
-            }
+            sheet.header(headerStyle, headers.toArray(String[]::new));
 
             // ====== Data rows ======
             for (LinkedHashMap<String, Object> row : rows) {
-                Row xRow = sheet.createRow(r++);
+                Row xRow = sheet.nextRow();
                 for (int c = 0; c < headers.size(); c++) {
                     String key = headers.get(c);
                     Object v = row.get(key);
                     Cell cell = xRow.createCell(c);
                     setCellValue(cell, v, key, intStyle, moneyStyle, percentStyle);
+                    sheet.sample(c, v);
                 }
             }
 
-            // autosize
-            for (int c = 0; c < headers.size(); c++) {
-                sheet.autoSizeColumn(c);
-                // giới hạn width để tránh quá to
-                int max = 100 * 256;
-                if (sheet.getColumnWidth(c) > max) sheet.setColumnWidth(c, max);
-            }
-
-            try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-                wb.write(out);
-                return out.toByteArray();
-            }
+            sheet.applyColumnWidths();
+            wb.write(out);
+        } finally {
+            wb.dispose();
+            wb.close();
         }
     }
 
@@ -185,54 +187,58 @@ public class ReportExportService {
     }
 
 
-    public byte[] exportAllReportsToExcel(LocalDate startDate, LocalDate endDate) throws IOException {
-        Workbook workbook = new XSSFWorkbook();
+    /**
+     * Xuất toàn bộ báo cáo (7 sheet) theo khoảng ngày, ghi thẳng vào {@code out}.
+     * - 4 sheet theo giờ / ngày đọc bằng cursor (Stream từ ReportRepository) → heap không tăng theo khoảng ngày
+     * - Độ rộng cột ước lượng từ WIDTH_SAMPLE_ROWS dòng đầu thay cho autoSizeColumn (quét toàn bộ sheet)
+     * - Transaction read-only giữ cursor Postgres mở trong lúc ghi
+     */
+    @Transactional(readOnly = true)
+    public void exportAllReportsToExcel(LocalDate startDate, LocalDate endDate, OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        SXSSFWorkbook workbook = newStreamingWorkbook();
 
         try {
+            CellStyle headerStyle = createHeaderStyle(workbook);
+
             // Sheet 1: Báo cáo hiệu suất trạm hôm nay
-            createStationPerformanceSheet(workbook);
+            createStationPerformanceSheet(workbook, headerStyle);
 
             // Sheet 2: Báo cáo doanh thu hàng giờ
-            createRevenueHourlySheet(workbook, startDate, endDate);
+            createRevenueHourlySheet(workbook, headerStyle, startDate, endDate);
 
             // Sheet 3: Báo cáo doanh thu hàng ngày
-            createRevenueDailySheet(workbook, startDate, endDate);
+            createRevenueDailySheet(workbook, headerStyle, startDate, endDate);
 
             // Sheet 4: Báo cáo đổi pin hàng giờ
-            createSwapHourlySheet(workbook, startDate, endDate);
+            createSwapHourlySheet(workbook, headerStyle, startDate, endDate);
 
             // Sheet 5: Báo cáo đổi pin hàng ngày
-            createSwapDailySheet(workbook, startDate, endDate);
+            createSwapDailySheet(workbook, headerStyle, startDate, endDate);
 
             // Sheet 6: Báo cáo tổng hợp
-            createSummarySheet(workbook);
+            createSummarySheet(workbook, headerStyle);
 
             // Sheet 7: Báo cáo tất cả trạm
-            createAllStationsSheet(workbook, 7);
+            createAllStationsSheet(workbook, headerStyle, 7);
 
-            // Write to byte array
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            workbook.write(outputStream);
-            return outputStream.toByteArray();
+            workbook.write(out);
+            log.info("📤 Xuất Excel {} ~ {} xong trong {} ms", startDate, endDate,
+                    (System.nanoTime() - start) / 1_000_000);
 
         } finally {
+            workbook.dispose();
             workbook.close();
         }
     }
 
-    private void createStationPerformanceSheet(Workbook workbook) {
-        Sheet sheet = workbook.createSheet("Hiệu suất trạm hôm nay");
+    private void createStationPerformanceSheet(Workbook workbook, CellStyle headerStyle) {
+        SheetWriter sheet = new SheetWriter(workbook.createSheet("Hiệu suất trạm hôm nay"), 7);
         var data = reportService.getStationPerformanceReport();
 
         // Header
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("ID Trạm");
-        headerRow.createCell(1).setCellValue("Tên trạm");
-        headerRow.createCell(2).setCellValue("Địa chỉ");
-        headerRow.createCell(3).setCellValue("Số pin quản lý");
-        headerRow.createCell(4).setCellValue("Số giao dịch");
-        headerRow.createCell(5).setCellValue("Doanh thu");
-        headerRow.createCell(6).setCellValue("Tỷ lệ sử dụng (%)");
+        sheet.header(headerStyle, "ID Trạm", "Tên trạm", "Địa chỉ", "Số pin quản lý",
+                "Số giao dịch", "Doanh thu", "Tỷ lệ sử dụng (%)");
 
         // create percent style
         CellStyle percentStyle = workbook.createCellStyle();
@@ -242,16 +248,14 @@ public class ReportExportService {
         if (data instanceof List) {
             @SuppressWarnings("unchecked")
             List<Map<String, Object>> stations = (List<Map<String, Object>>) data;
-            int rowNum = 1;
             for (Map<String, Object> st : stations) {
-                Row row = sheet.createRow(rowNum++);
-                row.createCell(0).setCellValue(st.getOrDefault("stationId", "").toString());
-                row.createCell(1).setCellValue(st.getOrDefault("stationName", "").toString());
-                row.createCell(2).setCellValue(st.getOrDefault("address", "").toString());
-                row.createCell(3).setCellValue(((Number) st.getOrDefault("managedBatteries", 0)).longValue());
-                row.createCell(4).setCellValue(((Number) st.getOrDefault("totalTransactions", 0)).longValue());
-                Object rev = st.getOrDefault("totalRevenue", 0);
-                row.createCell(5).setCellValue(((Number) rev).doubleValue());
+                Row row = sheet.nextRow();
+                sheet.text(row, 0, st.getOrDefault("stationId", ""));
+                sheet.text(row, 1, st.getOrDefault("stationName", ""));
+                sheet.text(row, 2, st.getOrDefault("address", ""));
+                sheet.number(row, 3, ((Number) st.getOrDefault("managedBatteries", 0)).longValue());
+                sheet.number(row, 4, ((Number) st.getOrDefault("totalTransactions", 0)).longValue());
+                sheet.number(row, 5, ((Number) st.getOrDefault("totalRevenue", 0)).doubleValue());
 
                 // efficiencyRate is stored as 0..100 in DB/sql — convert to 0..1 for Excel percent format
                 Object effObj = st.getOrDefault("efficiencyRate", 0);
@@ -261,164 +265,148 @@ public class ReportExportService {
                 } catch (Exception ex) {
                     effVal = 0.0;
                 }
-                Cell effCell = row.createCell(6);
-                effCell.setCellValue(effVal / 100.0);
-                effCell.setCellStyle(percentStyle);
+                sheet.number(row, 6, effVal / 100.0).setCellStyle(percentStyle);
             }
         }
 
-        // Auto-size columns
-        for (int i = 0; i <= 6; i++) sheet.autoSizeColumn(i);
+        sheet.applyColumnWidths();
     }
 
-    private void createRevenueHourlySheet(Workbook workbook, LocalDate startDate, LocalDate endDate) {
-        Sheet sheet = workbook.createSheet("Doanh thu theo giờ");
-        var data = reportService.getRevenueReport(startDate, endDate, true);
-
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Ngày");
-        headerRow.createCell(1).setCellValue("Giờ");
-        headerRow.createCell(2).setCellValue("Doanh thu");
-        headerRow.createCell(3).setCellValue("Số giao dịch");
-
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> rows = (List<Map<String, Object>>) ((Map<String, Object>) data).getOrDefault("rows", List.of());
-        int r = 1;
-        for (Map<String, Object> rec : rows) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(rec.getOrDefault("date", "")));
-            row.createCell(1).setCellValue(String.valueOf(rec.getOrDefault("hour", "")));
-            Object rev = rec.getOrDefault("totalRevenue", 0);
-            row.createCell(2).setCellValue(((Number) rev).doubleValue());
-            row.createCell(3).setCellValue(((Number) rec.getOrDefault("transactions", 0)).longValue());
+    private void createRevenueHourlySheet(Workbook workbook, CellStyle headerStyle, LocalDate startDate, LocalDate endDate) {
+        SheetWriter sheet = new SheetWriter(workbook.createSheet("Doanh thu theo giờ"), 4);
+        sheet.header(headerStyle, "Ngày", "Giờ", "Doanh thu", "Số giao dịch");
+
+        // [date, hour, totalRevenue, transactions]
+        try (Stream<Object[]> rows = reportRepository.streamHourlyRevenue(startDate, endDate)) {
+            rows.forEach(rec -> {
+                Row row = sheet.nextRow();
+                sheet.text(row, 0, rec[0]);
+                sheet.text(row, 1, hourOf(rec[1]));
+                sheet.number(row, 2, toDouble(rec[2]));
+                sheet.number(row, 3, toLong(rec[3]));
+            });
         }
 
-        for (int i = 0; i < 4; i++) sheet.autoSizeColumn(i);
+        sheet.applyColumnWidths();
     }
 
-    private void createRevenueDailySheet(Workbook workbook, LocalDate startDate, LocalDate endDate) {
-        Sheet sheet = workbook.createSheet("Doanh thu theo ngày");
-        var data = reportService.getRevenueReport(startDate, endDate, false);
-
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Ngày");
-        headerRow.createCell(1).setCellValue("Doanh thu");
-        headerRow.createCell(2).setCellValue("Số giao dịch");
-
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> rows = (List<Map<String, Object>>) ((Map<String, Object>) data).getOrDefault("rows", List.of());
-        int r = 1;
-        for (Map<String, Object> rec : rows) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(rec.getOrDefault("date", "")));
-            Object rev = rec.getOrDefault("totalRevenue", 0);
-            row.createCell(1).setCellValue(((Number) rev).doubleValue());
-            row.createCell(2).setCellValue(((Number) rec.getOrDefault("transactions", 0)).longValue());
+    private void createRevenueDailySheet(Workbook workbook, CellStyle headerStyle, LocalDate startDate, LocalDate endDate) {
+        SheetWriter sheet = new SheetWriter(workbook.createSheet("Doanh thu theo ngày"), 3);
+        sheet.header(headerStyle, "Ngày", "Doanh thu", "Số giao dịch");
+
+        // [date, totalRevenue, transactions]
+        try (Stream<Object[]> rows = reportRepository.streamDailyRevenue(startDate, endDate)) {
+            rows.forEach(rec -> {
+                Row row = sheet.nextRow();
+                sheet.text(row, 0, rec[0]);
+                sheet.number(row, 1, toDouble(rec[1]));
+                sheet.number(row, 2, toLong(rec[2]));
+            });
         }
 
-        for (int i = 0; i < 3; i++) sheet.autoSizeColumn(i);
+        sheet.applyColumnWidths();
     }
 
-    private void createSwapHourlySheet(Workbook workbook, LocalDate startDate, LocalDate endDate) {
-        Sheet sheet = workbook.createSheet("Đổi pin theo giờ");
-        var data = reportService.getSwapReport(startDate, endDate, true);
-
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Ngày");
-        headerRow.createCell(1).setCellValue("Giờ");
-        headerRow.createCell(2).setCellValue("Số lần đổi pin");
-        headerRow.createCell(3).setCellValue("Trạm");
-
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> rows = (List<Map<String, Object>>) ((Map<String, Object>) data).getOrDefault("rows", List.of());
-        int r = 1;
-        for (Map<String, Object> rec : rows) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(rec.getOrDefault("date", "")));
-            row.createCell(1).setCellValue(String.valueOf(rec.getOrDefault("hour", "")));
-            row.createCell(2).setCellValue(((Number) rec.getOrDefault("swapCount", 0)).longValue());
-            row.createCell(3).setCellValue(String.valueOf(rec.getOrDefault("stationId", "")));
+    private void createSwapHourlySheet(Workbook workbook, CellStyle headerStyle, LocalDate startDate, LocalDate endDate) {
+        SheetWriter sheet = new SheetWriter(workbook.createSheet("Đổi pin theo giờ"), 4);
+        sheet.header(headerStyle, "Ngày", "Giờ", "Số lần đổi pin", "Trạm");
+
+        // [date, hour, swapCount] — truy vấn gộp mọi trạm nên cột "Trạm" để trống như trước
+        try (Stream<Object[]> rows = reportRepository.streamHourlySwap(startDate, endDate)) {
+            rows.forEach(rec -> {
+                Row row = sheet.nextRow();
+                sheet.text(row, 0, rec[0]);
+                sheet.text(row, 1, hourOf(rec[1]));
+                sheet.number(row, 2, toLong(rec[2]));
+                sheet.text(row, 3, "");
+            });
         }
 
-        for (int i = 0; i < 4; i++) sheet.autoSizeColumn(i);
+        sheet.applyColumnWidths();
     }
 
-    private void createSwapDailySheet(Workbook workbook, LocalDate startDate, LocalDate endDate) {
-        Sheet sheet = workbook.createSheet("Đổi pin theo ngày");
-        var data = reportService.getSwapReport(startDate, endDate, false);
-
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Ngày");
-        headerRow.createCell(1).setCellValue("Số lần đổi pin");
-        headerRow.createCell(2).setCellValue("Trạm");
-
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> rows = (List<Map<String, Object>>) ((Map<String, Object>) data).getOrDefault("rows", List.of());
-        int r = 1;
-        for (Map<String, Object> rec : rows) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(rec.getOrDefault("date", "")));
-            row.createCell(1).setCellValue(((Number) rec.getOrDefault("swapCount", 0)).longValue());
-            row.createCell(2).setCellValue(String.valueOf(rec.getOrDefault("stationId", "")));
+    private void createSwapDailySheet(Workbook workbook, CellStyle headerStyle, LocalDate startDate, LocalDate endDate) {
+        SheetWriter sheet = new SheetWriter(workbook.createSheet("Đổi pin theo ngày"), 3);
+        sheet.header(headerStyle, "Ngày", "Số lần đổi pin", "Trạm");
+
+        // [date, swapCount]
+        try (Stream<Object[]> rows = reportRepository.streamDailySwap(startDate, endDate)) {
+            rows.forEach(rec -> {
+                Row row = sheet.nextRow();
+                sheet.text(row, 0, rec[0]);
+                sheet.number(row, 1, toLong(rec[1]));
+                sheet.text(row, 2, "");
+            });
         }
 
-        for (int i = 0; i < 3; i++) sheet.autoSizeColumn(i);
+        sheet.applyColumnWidths();
     }
 
-    private void createSummarySheet(Workbook workbook) {
-        Sheet sheet = workbook.createSheet("Tổng hợp");
+    private void createSummarySheet(Workbook workbook, CellStyle headerStyle) {
+        SheetWriter sheet = new SheetWriter(workbook.createSheet("Tổng hợp"), 2);
         var data = reportService.getSummary();
 
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("Chỉ số");
-        headerRow.createCell(1).setCellValue("Giá trị");
+        sheet.header(headerStyle, "Chỉ số", "Giá trị");
 
-        int r = 1;
-        sheet.createRow(r++).createCell(0).setCellValue("totalReports");
-        sheet.getRow(r-1).createCell(1).setCellValue(((Number) data.getOrDefault("totalReports", 0)).longValue());
+        Row total = sheet.nextRow();
+        sheet.text(total, 0, "totalReports");
+        sheet.number(total, 1, ((Number) data.getOrDefault("totalReports", 0)).longValue());
 
-        sheet.createRow(r++).createCell(0).setCellValue("lastGenerated");
-        sheet.getRow(r-1).createCell(1).setCellValue(String.valueOf(data.getOrDefault("lastGenerated", "")));
+        Row last = sheet.nextRow();
+        sheet.text(last, 0, "lastGenerated");
+        sheet.text(last, 1, data.getOrDefault("lastGenerated", ""));
 
-        for (int i = 0; i < 2; i++) sheet.autoSizeColumn(i);
+        sheet.applyColumnWidths();
     }
 
-    private void createAllStationsSheet(Workbook workbook, int days) {
-        Sheet sheet = workbook.createSheet("Tất cả trạm");
+    private void createAllStationsSheet(Workbook workbook, CellStyle headerStyle, int days) {
+        SheetWriter sheet = new SheetWriter(workbook.createSheet("Tất cả trạm"), 6);
         Map<String, Object> data = reportService.getStationReport(days);
 
-        Row headerRow = sheet.createRow(0);
-        headerRow.createCell(0).setCellValue("ID Trạm");
-        headerRow.createCell(1).setCellValue("Tên trạm");
-        headerRow.createCell(2).setCellValue("Range Start");
-        headerRow.createCell(3).setCellValue("Range End");
-        headerRow.createCell(4).setCellValue("Số lần đổi pin");
-        headerRow.createCell(5).setCellValue("Doanh thu");
+        sheet.header(headerStyle, "ID Trạm", "Tên trạm", "Range Start", "Range End", "Số lần đổi pin", "Doanh thu");
 
         @SuppressWarnings("unchecked")
         List<Map<String, Object>> stations = (List<Map<String, Object>>) data.getOrDefault("stations", List.of());
-        int r = 1;
         for (Map<String, Object> st : stations) {
-            Row row = sheet.createRow(r++);
-            row.createCell(0).setCellValue(String.valueOf(st.getOrDefault("stationId", "")));
-            row.createCell(1).setCellValue(String.valueOf(st.getOrDefault("stationName", "")));
+            Row row = sheet.nextRow();
+            sheet.text(row, 0, st.getOrDefault("stationId", ""));
+            sheet.text(row, 1, st.getOrDefault("stationName", ""));
 
             Object range = st.getOrDefault("range", Map.of());
             if (range instanceof Map) {
                 @SuppressWarnings("unchecked")
                 Map<String, Object> rg = (Map<String, Object>) range;
-                row.createCell(2).setCellValue(String.valueOf(rg.getOrDefault("start", "")));
-                row.createCell(3).setCellValue(String.valueOf(rg.getOrDefault("end", "")));
+                sheet.text(row, 2, rg.getOrDefault("start", ""));
+                sheet.text(row, 3, rg.getOrDefault("end", ""));
             } else {
-                row.createCell(2).setCellValue("");
-                row.createCell(3).setCellValue("");
+                sheet.text(row, 2, "");
+                sheet.text(row, 3, "");
             }
 
-            row.createCell(4).setCellValue(((Number) st.getOrDefault("totalSwaps", 0)).longValue());
-            row.createCell(5).setCellValue(((Number) st.getOrDefault("totalRevenue", 0)).doubleValue());
+            sheet.number(row, 4, ((Number) st.getOrDefault("totalSwaps", 0)).longValue());
+            sheet.number(row, 5, ((Number) st.getOrDefault("totalRevenue", 0)).doubleValue());
         }
 
-        for (int i = 0; i <= 5; i++) sheet.autoSizeColumn(i);
+        sheet.applyColumnWidths();
+    }
+
+    private static SXSSFWorkbook newStreamingWorkbook() {
+        SXSSFWorkbook wb = new SXSSFWorkbook(ROW_WINDOW);
+        wb.setCompressTempFiles(true);
+        return wb;
+    }
+
+    // EXTRACT(HOUR ...) trả về numeric → "7" thay vì "7.0"
+    private static String hourOf(Object v) {
+        return v instanceof Number n ? String.valueOf(n.intValue()) : String.valueOf(v);
+    }
+
+    private static double toDouble(Object v) {
+        return v instanceof Number n ? n.doubleValue() : 0.0;
+    }
+
+    private static long toLong(Object v) {
+        return v instanceof Number n ? n.longValue() : 0L;
     }
 
     // Style helper method
@@ -432,4 +420,67 @@ public class ReportExportService {
         return style;
     }
 
+    /**
+     * Ghi tuần tự 1 sheet + ước lượng độ rộng cột theo số ký tự của WIDTH_SAMPLE_ROWS dòng đầu.
+     * SXSSF đã xả các dòng cũ ra đĩa nên không thể autoSizeColumn trên toàn bộ sheet.
+     */
+    private static final class SheetWriter {
+        private final Sheet sheet;
+        private final int[] maxChars;
+        private int rowNum;
+
+        SheetWriter(Sheet sheet, int columns) {
+            this.sheet = sheet;
+            this.maxChars = new int[columns];
+        }
+
+        Row nextRow() {
+            return sheet.createRow(rowNum++);
+        }
+
+        void header(CellStyle style, String... titles) {
+            Row row = nextRow();
+            for (int c = 0; c < titles.length; c++) {
+                Cell cell = row.createCell(c);
+                cell.setCellValue(titles[c]);
+                cell.setCellStyle(style);
+                sample(c, titles[c]);
+            }
+        }
+
+        Cell text(Row row, int col, Object value) {
+            String s = value == null ? "" : String.valueOf(value);
+            Cell cell = row.createCell(col);
+            cell.setCellValue(s);
+            sample(col, s);
+            return cell;
+        }
+
+        Cell number(Row row, int col, double value) {
+            Cell cell = row.createCell(col);
+            cell.setCellValue(value);
+            sample(col, value);
+            return cell;
+        }
+
+        void sample(int col, Object value) {
+            if (rowNum > WIDTH_SAMPLE_ROWS || col >= maxChars.length || value == null) return;
+            int len;
+            if (value instanceof Number n) {
+                // số hiển thị có dấu phân cách nghìn → cộng thêm 1/3 độ dài
+                String digits = String.valueOf(Math.round(n.doubleValue()));
+                len = digits.length() + digits.length() / 3;
+            } else {
+                len = String.valueOf(value).length();
+            }
+            maxChars[col] = Math.max(maxChars[col], len);
+        }
+
+        void applyColumnWidths() {
+            for (int c = 0; c < maxChars.length; c++) {
+                int width = (Math.max(maxChars[c], MIN_COLUMN_CHARS) + 2) * 256;
+                sheet.setColumnWidth(c, Math.min(width, MAX_COLUMN_WIDTH));
+            }
+        }
+    }
 }
@@ -0,0 +1,479 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.ReportJobResponse;
+import BatterySwapStation.entity.ReportJob;
+import BatterySwapStation.entity.ReportJobChunk;
+import BatterySwapStation.repository.ReportJobChunkRepository;
+import BatterySwapStation.repository.ReportJobRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 📊 Report job chạy nền:
+ * - Submit trả về jobId ngay, job chạy trên pool cố định (WORKERS luồng, hàng đợi QUEUE_CAPACITY) → không giữ luồng Tomcat
+ * - Tiến độ lưu ở ReportJob + đẩy qua STOMP /topic/report-jobs/{jobId}
+ * - Kết quả JSON nén gzip, cắt thành khúc CHUNK_SIZE byte (ReportJobChunk) → ghi / đọc không cần giữ cả kết quả trong heap
+ * - Request giống hệt (type, trạm, khoảng ngày) khi job trước còn đang chạy → trả về job cũ
+ */
+@Service
+@Slf4j
+public class ReportJobService {
+
+    private static final int WORKERS = 2;
+    private static final int QUEUE_CAPACITY = 20;
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    // Job tạo quá lâu mà chưa xong coi như bị bỏ dở (instance chạy nó đã dừng)
+    private static final Duration STALE_AFTER = Duration.ofHours(2);
+    // Thời gian giữ kết quả sau khi job kết thúc
+    private static final Duration RESULT_TTL = Duration.ofDays(7);
+    private static final int MAX_DAYS = 366;
+
+    private static final List<ReportJob.JobStatus> ACTIVE =
+            List.of(ReportJob.JobStatus.QUEUED, ReportJob.JobStatus.RUNNING);
+
+    private final ReportJobRepository reportJobRepository;
+    private final ReportJobChunkRepository reportJobChunkRepository;
+    private final ReportService reportService;
+    private final SchedulerLeaseService schedulerLeaseService;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    private final ThreadPoolExecutor executor;
+
+    // dedupKey → jobId của các job đang chờ / chạy trên instance này
+    private final Map<String, String> inFlight = new ConcurrentHashMap<>();
+    private final Object submitLock = new Object();
+
+    public ReportJobService(ReportJobRepository reportJobRepository,
+                            ReportJobChunkRepository reportJobChunkRepository,
+                            ReportService reportService,
+                            SchedulerLeaseService schedulerLeaseService,
+                            SimpMessagingTemplate messagingTemplate,
+                            JdbcTemplate jdbcTemplate,
+                            ObjectMapper objectMapper) {
+        this.reportJobRepository = reportJobRepository;
+        this.reportJobChunkRepository = reportJobChunkRepository;
+        this.reportService = reportService;
+        this.schedulerLeaseService = schedulerLeaseService;
+        this.messagingTemplate = messagingTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+
+        AtomicInteger threadNo = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+                r -> {
+                    Thread t = new Thread(r, "report-job-" + threadNo.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // ==================== SUBMIT ====================
+
+    /**
+     * Tạo job (hoặc trả về job giống hệt đang chạy).
+     * - REVENUE_* / SWAP_*: cần startDate, endDate
+     * - STATION_RANGE: cần stationId, days (tính tới hôm nay)
+     * - ALL_STATIONS: cần days (tính tới hôm nay)
+     */
+    public ReportJobResponse submit(ReportJob.JobType type, LocalDate startDate, LocalDate endDate,
+                                    Integer stationId, Integer days, String requestedBy) {
+        ReportJob job = newJob(type, startDate, endDate, stationId, days, requestedBy);
+
+        synchronized (submitLock) {
+            String localJobId = inFlight.get(job.getDedupKey());
+            Optional<ReportJob> existing = localJobId != null
+                    ? reportJobRepository.findById(localJobId)
+                    : reportJobRepository.findFirstByDedupKeyAndStatusInAndCreatedAtAfterOrderByCreatedAtDesc(
+                            job.getDedupKey(), ACTIVE, LocalDateTime.now().minus(STALE_AFTER));
+            if (existing.isPresent() && ACTIVE.contains(existing.get().getStatus())) {
+                log.info("📊 Report job {} trùng với job đang chạy {}", job.getDedupKey(), existing.get().getJobId());
+                return toResponse(existing.get(), true);
+            }
+
+            reportJobRepository.save(job);
+            inFlight.put(job.getDedupKey(), job.getJobId());
+        }
+
+        try {
+            executor.execute(() -> run(job.getJobId(), job.getDedupKey()));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(job.getDedupKey(), job.getJobId());
+            update(job.getJobId(), j -> {
+                j.setStatus(ReportJob.JobStatus.FAILED);
+                j.setError("Hàng đợi báo cáo đã đầy");
+                j.setFinishedAt(LocalDateTime.now());
+            });
+            throw new IllegalStateException("Hàng đợi báo cáo đang đầy, vui lòng thử lại sau");
+        }
+
+        log.info("📊 Đã nhận report job {} ({}) - hàng đợi {}/{}", job.getJobId(), job.getDedupKey(),
+                executor.getQueue().size(), QUEUE_CAPACITY);
+        return toResponse(job, false);
+    }
+
+    private ReportJob newJob(ReportJob.JobType type, LocalDate startDate, LocalDate endDate,
+                             Integer stationId, Integer days, String requestedBy) {
+        if (type == null) throw new IllegalArgumentException("Thiếu loại báo cáo");
+
+        switch (type) {
+            case REVENUE_HOURLY, REVENUE_DAILY, SWAP_HOURLY, SWAP_DAILY -> {
+                if (startDate == null || endDate == null) {
+                    throw new IllegalArgumentException("Cần startDate và endDate cho báo cáo " + type);
+                }
+                if (endDate.isBefore(startDate)) {
+                    throw new IllegalArgumentException("endDate phải sau startDate");
+                }
+                if (startDate.plusDays(MAX_DAYS).isBefore(endDate)) {
+                    throw new IllegalArgumentException("Khoảng ngày tối đa " + MAX_DAYS + " ngày");
+                }
+                stationId = null;
+                days = null;
+            }
+            case STATION_RANGE, ALL_STATIONS -> {
+                if (type == ReportJob.JobType.STATION_RANGE && stationId == null) {
+                    throw new IllegalArgumentException("Cần stationId cho báo cáo STATION_RANGE");
+                }
+                if (days == null || days < 1 || days > MAX_DAYS) {
+                    throw new IllegalArgumentException("days phải trong khoảng 1.." + MAX_DAYS);
+                }
+                if (type == ReportJob.JobType.ALL_STATIONS) stationId = null;
+                // Cùng công thức với ReportService (end = hôm nay)
+                endDate = LocalDate.now();
+                startDate = endDate.minusDays(days);
+            }
+        }
+
+        String dedupKey = String.join("|", type.name(),
+                stationId == null ? "-" : stationId.toString(), startDate.toString(), endDate.toString());
+
+        return ReportJob.builder()
+                .jobId(UUID.randomUUID().toString())
+                .jobType(type)
+                .status(ReportJob.JobStatus.QUEUED)
+                .dedupKey(dedupKey)
+                .stationId(stationId)
+                .startDate(startDate)
+                .endDate(endDate)
+                .days(days)
+                .progress(0)
+                .message("Đang chờ xử lý")
+                .requestedBy(requestedBy)
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+
+    // ==================== RUN ====================
+
+    private void run(String jobId, String dedupKey) {
+        long start = System.nanoTime();
+        try {
+            ReportJob job = update(jobId, j -> {
+                j.setStatus(ReportJob.JobStatus.RUNNING);
+                j.setStartedAt(LocalDateTime.now());
+                progress(j, 5, "Đang truy vấn dữ liệu");
+            });
+
+            Object data = compute(job);
+            update(jobId, j -> progress(j, 70, "Đang nén và lưu kết quả"));
+
+            ResultStats stats = store(jobId, data);
+            update(jobId, j -> {
+                j.setStatus(ReportJob.JobStatus.SUCCEEDED);
+                j.setRawBytes(stats.rawBytes());
+                j.setCompressedBytes(stats.compressedBytes());
+                j.setChunkCount(stats.chunks());
+                j.setFinishedAt(LocalDateTime.now());
+                progress(j, 100, "Hoàn tất");
+            });
+            log.info("✅ Report job {} xong: {} → {} byte, {} khúc, {} ms", jobId, stats.rawBytes(),
+                    stats.compressedBytes(), stats.chunks(), (System.nanoTime() - start) / 1_000_000);
+
+        } catch (Exception e) {
+            log.error("❌ Report job {} lỗi: {}", jobId, e.getMessage(), e);
+            try {
+                deleteChunks(jobId);
+                update(jobId, j -> {
+                    j.setStatus(ReportJob.JobStatus.FAILED);
+                    j.setError(truncate(e.getMessage(), 1000));
+                    j.setFinishedAt(LocalDateTime.now());
+                    j.setMessage("Thất bại");
+                });
+            } catch (Exception ex) {
+                log.warn("Không cập nhật được trạng thái FAILED cho report job {}: {}", jobId, ex.getMessage());
+            }
+        } finally {
+            inFlight.remove(dedupKey, jobId);
+        }
+    }
+
+    // Mỗi lời gọi ReportService là 1 transaction ngắn riêng, không giữ connection cho cả job
+    private Object compute(ReportJob job) {
+        LocalDate start = job.getStartDate();
+        LocalDate end = job.getEndDate();
+        return switch (job.getJobType()) {
+            case REVENUE_HOURLY -> reportService.buildRevenueReport(start, end, true);
+            case REVENUE_DAILY -> reportService.buildRevenueReport(start, end, false);
+            case SWAP_HOURLY -> reportService.buildSwapReport(start, end, true);
+            case SWAP_DAILY -> reportService.buildSwapReport(start, end, false);
+            case STATION_RANGE -> reportService.getStationReportInRange(job.getStationId(), job.getDays());
+            case ALL_STATIONS -> reportService.getStationReport(job.getDays());
+        };
+    }
+
+    private ResultStats store(String jobId, Object data) throws IOException {
+        ChunkOutputStream chunks = new ChunkOutputStream(jobId, reportJobChunkRepository);
+        CountingOutputStream raw = new CountingOutputStream(new GZIPOutputStream(chunks, 64 * 1024));
+        try (raw) {
+            objectMapper.writeValue(raw, data);
+        }
+        return new ResultStats(raw.count, chunks.bytes, chunks.index);
+    }
+
+    private ReportJob update(String jobId, Consumer<ReportJob> change) {
+        ReportJob job = reportJobRepository.findById(jobId)
+                .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy report job: " + jobId));
+        change.accept(job);
+        ReportJob saved = reportJobRepository.save(job);
+        publish(saved);
+        return saved;
+    }
+
+    private static void progress(ReportJob job, int percent, String message) {
+        job.setProgress(percent);
+        job.setMessage(message);
+    }
+
+    private void publish(ReportJob job) {
+        try {
+            messagingTemplate.convertAndSend("/topic/report-jobs/" + job.getJobId(), toResponse(job, false));
+        } catch (Exception e) {
+            log.debug("Không gửi được tiến độ report job {}: {}", job.getJobId(), e.getMessage());
+        }
+    }
+
+    // ==================== READ ====================
+
+    public Optional<ReportJobResponse> findJob(String jobId) {
+        return reportJobRepository.findById(jobId).map(j -> toResponse(j, false));
+    }
+
+    /**
+     * Ghi kết quả vào {@code out}, đọc từng khúc một.
+     * gzip = true → trả nguyên luồng gzip đã lưu (client tự giải nén qua Content-Encoding)
+     */
+    public void writeResult(String jobId, OutputStream out, boolean gzip) throws IOException {
+        ReportJob job = reportJobRepository.findById(jobId)
+                .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy report job: " + jobId));
+        if (job.getStatus() != ReportJob.JobStatus.SUCCEEDED) {
+            throw new IllegalStateException("Báo cáo chưa sẵn sàng: " + job.getStatus());
+        }
+
+        int chunkCount = job.getChunkCount() == null ? 0 : job.getChunkCount();
+        if (gzip) {
+            for (int i = 0; i < chunkCount; i++) {
+                out.write(loadChunk(jobId, i));
+            }
+            return;
+        }
+
+        Enumeration<InputStream> parts = new Enumeration<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < chunkCount;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return new ByteArrayInputStream(loadChunk(jobId, next++));
+            }
+        };
+        try (InputStream in = new GZIPInputStream(new SequenceInputStream(parts), 64 * 1024)) {
+            in.transferTo(out);
+        }
+    }
+
+    private byte[] loadChunk(String jobId, int index) {
+        byte[] data = reportJobChunkRepository.findData(jobId, index);
+        if (data == null) {
+            throw new IllegalStateException("Thiếu khúc " + index + " của report job " + jobId);
+        }
+        return data;
+    }
+
+    public ReportJobResponse toResponse(ReportJob job, boolean deduplicated) {
+        return ReportJobResponse.builder()
+                .jobId(job.getJobId())
+                .type(job.getJobType())
+                .status(job.getStatus())
+                .progress(job.getProgress())
+                .message(job.getMessage())
+                .stationId(job.getStationId())
+                .startDate(job.getStartDate())
+                .endDate(job.getEndDate())
+                .days(job.getDays())
+                .createdAt(job.getCreatedAt())
+                .startedAt(job.getStartedAt())
+                .finishedAt(job.getFinishedAt())
+                .rawBytes(job.getRawBytes())
+                .compressedBytes(job.getCompressedBytes())
+                .chunkCount(job.getChunkCount())
+                .error(job.getError())
+                .deduplicated(deduplicated)
+                .resultUrl(job.getStatus() == ReportJob.JobStatus.SUCCEEDED
+                        ? "/api/reports/jobs/" + job.getJobId() + "/result"
+                        : null)
+                .build();
+    }
+
+    // ==================== DỌN DẸP ====================
+
+    @Scheduled(fixedDelay = 3600000) // 1 giờ
+    public void cleanupJobs() {
+        schedulerLeaseService.runExclusive("report-job.cleanup", Duration.ofMinutes(10), token -> purge());
+    }
+
+    private void purge() {
+        LocalDateTime now = LocalDateTime.now();
+
+        // 1. Job bị bỏ dở → FAILED (để request sau tạo job mới)
+        List<ReportJob> stale = reportJobRepository.findTop200ByStatusInAndCreatedAtBefore(ACTIVE, now.minus(STALE_AFTER));
+        stale.removeIf(j -> j.getJobId().equals(inFlight.get(j.getDedupKey())));
+        for (ReportJob j : stale) {
+            j.setStatus(ReportJob.JobStatus.FAILED);
+            j.setError("Job bị gián đoạn (instance dừng hoặc quá thời gian)");
+            j.setFinishedAt(now);
+        }
+        reportJobRepository.saveAll(stale);
+
+        // 2. Xóa kết quả quá hạn
+        List<ReportJob> expired = reportJobRepository.findTop200ByFinishedAtBeforeOrderByFinishedAtAsc(now.minus(RESULT_TTL));
+        for (ReportJob j : expired) {
+            deleteChunks(j.getJobId());
+        }
+        reportJobRepository.deleteAll(expired);
+
+        if (!stale.isEmpty() || !expired.isEmpty()) {
+            log.info("🧹 Report job: {} job bỏ dở → FAILED, xóa {} job hết hạn", stale.size(), expired.size());
+        }
+    }
+
+    private void deleteChunks(String jobId) {
+        jdbcTemplate.update("DELETE FROM ReportJobChunk WHERE JobId = ?", jobId);
+    }
+
+    private static String truncate(String s, int max) {
+        if (s == null) return null;
+        return s.length() <= max ? s : s.substring(0, max);
+    }
+
+    private record ResultStats(long rawBytes, long compressedBytes, int chunks) {}
+
+    /** Cắt luồng byte thành các khúc CHUNK_SIZE, mỗi khúc đầy được lưu ngay (1 INSERT / khúc). */
+    private static final class ChunkOutputStream extends OutputStream {
+        private final String jobId;
+        private final ReportJobChunkRepository repository;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int position;
+        private int index;
+        private long bytes;
+
+        ChunkOutputStream(String jobId, ReportJobChunkRepository repository) {
+            this.jobId = jobId;
+            this.repository = repository;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer[position++] = (byte) b;
+            if (position == buffer.length) flushChunk();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - position);
+                System.arraycopy(b, off, buffer, position, n);
+                position += n;
+                off += n;
+                len -= n;
+                if (position == buffer.length) flushChunk();
+            }
+        }
+
+        @Override
+        public void close() {
+            flushChunk();
+        }
+
+        private void flushChunk() {
+            if (position == 0) return;
+            repository.save(new ReportJobChunk(null, jobId, index++, Arrays.copyOf(buffer, position)));
+            bytes += position;
+            position = 0;
+        }
+    }
+
+    /** Đếm số byte JSON trước khi nén. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
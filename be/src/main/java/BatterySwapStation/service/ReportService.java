@@ -6,6 +6,7 @@ import BatterySwapStation.entity.Report;
 import BatterySwapStation.entity.Swap;
 import BatterySwapStation.repository.InvoiceRepository;
 import BatterySwapStation.repository.ReportRepository;
+import BatterySwapStation.repository.StationHourlyStatsRepository;
 import BatterySwapStation.repository.StationRepository;
 import BatterySwapStation.repository.SwapRepository;
 import jakarta.persistence.EntityNotFoundException;
@@ -16,7 +17,10 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -32,6 +36,7 @@ public class ReportService {
     private final SwapRepository swapRepository;
     private final InvoiceRepository invoiceRepository;
     private final StationRepository stationRepository;
+    private final StationHourlyStatsRepository stationHourlyStatsRepository;
 
     public List<Map<String, Object>> getStationPerformanceReport() {
         var result = reportRepository.fetchStationPerformance();
@@ -40,6 +45,17 @@ public class ReportService {
     }
 
     public Map<String, Object> getRevenueReport(LocalDate start, LocalDate end, boolean hourly) {
+        Map<String, Object> data = buildRevenueReport(start, end, hourly);
+
+        reportWriteService.saveReport(hourly
+                ? Report.ReportType.HOURLY_REVENUE
+                : Report.ReportType.DAILY_REVENUE, start, end, data);
+
+        return data;
+    }
+
+    // Tính báo cáo doanh thu, không lưu vào bảng Report (dùng chung cho report job)
+    public Map<String, Object> buildRevenueReport(LocalDate start, LocalDate end, boolean hourly) {
         var rows = hourly
                 ? reportRepository.fetchHourlyRevenue(start, end)
                 : reportRepository.fetchDailyRevenue(start, end);
@@ -54,16 +70,21 @@ public class ReportService {
                 "range", Map.of("start", start, "end", end)
         );
 
-        Map<String, Object> data = Map.of("summary", summary, "rows", rows);
+        return Map.of("summary", summary, "rows", rows);
+    }
+
+    public Map<String, Object> getSwapReport(LocalDate start, LocalDate end, boolean hourly) {
+        Map<String, Object> data = buildSwapReport(start, end, hourly);
 
         reportWriteService.saveReport(hourly
-                ? Report.ReportType.HOURLY_REVENUE
-                : Report.ReportType.DAILY_REVENUE, start, end, data);
+                ? Report.ReportType.HOURLY_SWAP
+                : Report.ReportType.DAILY_SWAP, start, end, data);
 
         return data;
     }
 
-    public Map<String, Object> getSwapReport(LocalDate start, LocalDate end, boolean hourly) {
+    // Tính báo cáo đổi pin, không lưu vào bảng Report (dùng chung cho report job)
+    public Map<String, Object> buildSwapReport(LocalDate start, LocalDate end, boolean hourly) {
         var rows = hourly
                 ? reportRepository.fetchHourlySwap(start, end)
                 : reportRepository.fetchDailySwap(start, end);
@@ -78,13 +99,7 @@ public class ReportService {
                 "range", Map.of("start", start, "end", end)
         );
 
-        Map<String, Object> data = Map.of("summary", summary, "rows", rows);
-
-        reportWriteService.saveReport(hourly
-                ? Report.ReportType.HOURLY_SWAP
-                : Report.ReportType.DAILY_SWAP, start, end, data);
-
-        return data;
+        return Map.of("summary", summary, "rows", rows);
     }
 
     public Map<String, Object> getSummary() {
@@ -294,48 +309,65 @@ public class ReportService {
     }
 
     // 📊 Lấy báo cáo tất cả trạm
+    // 1 truy vấn rollup (trạm × ngày) + 1 lượt gom vào mảng theo ngày của từng trạm: O(trạm × ngày + số dòng)
     public Map<String, Object> getStationReport(int days) {
         LocalDate end = LocalDate.now();
         LocalDate start = end.minusDays(days);
+        int dayCount = (int) ChronoUnit.DAYS.between(start, end) + 1;
 
-        var stations = stationRepository.findAll();
-        var swapData = swapRepository.fetchDailySwapByAllStations(start, end);
-        var revenueData = invoiceRepository.fetchDailyRevenueByAllStations(start, end);
-
-        List<Map<String, Object>> result = new ArrayList<>();
-
-        for (var st : stations) {
-            int id = st.getStationId();
-
-            var revenueChart = revenueData.stream()
-                    .filter(r -> ((Integer) r.get("stationId")) == id)
-                    .toList();
+        List<Object[]> stations = stationRepository.findStationHeaders();
+        Map<Integer, Integer> indexOf = new HashMap<>(stations.size() * 2);
+        for (int i = 0; i < stations.size(); i++) {
+            indexOf.put((Integer) stations.get(i)[0], i);
+        }
 
-            var swapChart = swapData.stream()
-                    .filter(r -> ((Integer) r.get("stationId")) == id)
-                    .toList();
+        // Ngày không có dữ liệu giữ 0
+        double[][] revenueByDay = new double[stations.size()][dayCount];
+        long[][] swapsByDay = new long[stations.size()][dayCount];
+        double[] totalRevenue = new double[stations.size()];
+        long[] totalSwaps = new long[stations.size()];
+
+        // [stationId, date, revenue, swapCount]
+        for (Object[] row : stationHourlyStatsRepository.fetchDailyByStation(start, end)) {
+            Integer idx = indexOf.get(((Number) row[0]).intValue());
+            if (idx == null) continue;
+            int day = (int) ChronoUnit.DAYS.between(start, toLocalDate(row[1]));
+            if (day < 0 || day >= dayCount) continue;
+
+            double revenue = ((Number) row[2]).doubleValue();
+            long swaps = ((Number) row[3]).longValue();
+            revenueByDay[idx][day] = revenue;
+            swapsByDay[idx][day] = swaps;
+            totalRevenue[idx] += revenue;
+            totalSwaps[idx] += swaps;
+        }
 
-            double totalRevenue = revenueChart.stream()
-                    .mapToDouble(r -> ((Number) r.get("totalRevenue")).doubleValue())
-                    .sum();
+        Map<String, Object> range = Map.of("start", start, "end", end, "days", days);
+        List<Map<String, Object>> result = new ArrayList<>(stations.size());
+        for (int i = 0; i < stations.size(); i++) {
+            Object[] st = stations.get(i);
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("stationId", st[0]);
+            item.put("stationName", st[1]);
+            item.put("address", st[2]);
+            item.put("range", range);
+            item.put("totalRevenue", totalRevenue[i]);
+            item.put("totalSwaps", totalSwaps[i]);
+            item.put("revenueByDay", revenueByDay[i]);   // index k ↔ dates[k]
+            item.put("swapsByDay", swapsByDay[i]);
+            result.add(item);
+        }
 
-            int totalSwaps = swapChart.stream()
-                    .mapToInt(r -> ((Number) r.get("swapCount")).intValue())
-                    .sum();
+        List<LocalDate> dates = new ArrayList<>(dayCount);
+        for (int d = 0; d < dayCount; d++) dates.add(start.plusDays(d));
 
-            result.add(Map.of(
-                    "stationId", id,
-                    "stationName", st.getStationName(),
-                    "address", st.getAddress(),
-                    "range", Map.of("start", start, "end", end, "days", days),
-                    "totalRevenue", totalRevenue,
-                    "totalSwaps", totalSwaps,
-                    "revenueChart", revenueChart,
-                    "swapChart", swapChart
-            ));
-        }
+        return Map.of("stations", result, "dates", dates, "range", range);
+    }
 
-        return Map.of("stations", result);
+    private static LocalDate toLocalDate(Object value) {
+        if (value instanceof LocalDate date) return date;
+        if (value instanceof java.sql.Date date) return date.toLocalDate();
+        return LocalDate.parse(String.valueOf(value));
     }
 
 }
@@ -0,0 +1,210 @@
+package BatterySwapStation.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * 🔒 Lease trong DB cho các job @Scheduled khi chạy nhiều instance.
+ * - Mỗi lần tick, instance gọi tryAcquire: chỉ 1 instance giữ lease của 1 job tại 1 thời điểm
+ * - Người đang giữ tự gia hạn ở tick sau (token giữ nguyên); lease hết hạn → instance khác chiếm, token + 1
+ * - Fencing token: job ghi DB kèm điều kiện token còn hiệu lực → instance "treo" rồi chạy tiếp không ghi đè được
+ * - Mọi so sánh thời gian dùng now() của DB, không phụ thuộc đồng hồ từng máy
+ */
+@Service
+@Slf4j
+public class SchedulerLeaseService {
+
+    private static final String ACQUIRE_SQL = """
+            INSERT INTO SchedulerLease (JobName, OwnerId, FencingToken, LeaseUntil, AcquiredAt)
+            VALUES (?, ?, 1, now() + ? * interval '1 millisecond', now())
+            ON CONFLICT (JobName) DO UPDATE
+            SET FencingToken = CASE WHEN SchedulerLease.OwnerId = EXCLUDED.OwnerId AND SchedulerLease.LeaseUntil > now()
+                                    THEN SchedulerLease.FencingToken ELSE SchedulerLease.FencingToken + 1 END,
+                AcquiredAt = CASE WHEN SchedulerLease.OwnerId = EXCLUDED.OwnerId AND SchedulerLease.LeaseUntil > now()
+                                  THEN SchedulerLease.AcquiredAt ELSE now() END,
+                OwnerId = EXCLUDED.OwnerId,
+                LeaseUntil = EXCLUDED.LeaseUntil
+            WHERE SchedulerLease.OwnerId = EXCLUDED.OwnerId OR SchedulerLease.LeaseUntil <= now()
+            RETURNING FencingToken
+            """;
+
+    private static final String HELD_SQL = """
+            SELECT FencingToken FROM SchedulerLease
+            WHERE JobName = ? AND OwnerId = ? AND FencingToken = ? AND LeaseUntil > now()
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String ownerId;
+
+    // Lease instance này đang giữ (để nhả khi shutdown)
+    private final Map<String, Long> held = new ConcurrentHashMap<>();
+
+    public SchedulerLeaseService(JdbcTemplate jdbcTemplate,
+                                 @Value("${app.scheduler.instance-id:}") String instanceId) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ownerId = instanceId != null && !instanceId.isBlank() ? instanceId : defaultOwnerId();
+        log.info("🔒 SchedulerLease owner: {}", ownerId);
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Chiếm / gia hạn lease. Trả về fencing token nếu thành công, null nếu instance khác đang giữ.
+     * Chạy transaction riêng: không giữ khóa dòng lease theo transaction của job.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Long tryAcquire(String jobName, Duration ttl) {
+        List<Long> tokens = jdbcTemplate.queryForList(ACQUIRE_SQL, Long.class, jobName, ownerId, ttl.toMillis());
+        if (tokens.isEmpty()) {
+            held.remove(jobName);
+            return null;
+        }
+        Long token = tokens.get(0);
+        Long previous = held.put(jobName, token);
+        if (!token.equals(previous)) {
+            log.info("🔒 Đã nhận lease {} (token {})", jobName, token);
+        }
+        return token;
+    }
+
+    /**
+     * Chạy job nếu chiếm được lease. Trả về false nếu instance khác đang giữ.
+     * Gọi ngoài transaction (job tự mở transaction / lô của nó).
+     */
+    public boolean runExclusive(String jobName, Duration ttl, LongConsumer job) {
+        Long token = tryAcquire(jobName, ttl);
+        if (token == null) {
+            log.debug("⏭ Bỏ qua {}: instance khác đang giữ lease", jobName);
+            return false;
+        }
+        job.accept(token);
+        return true;
+    }
+
+    /**
+     * Lease còn thuộc instance này với đúng token (kiểm tra nhanh giữa các lô, không khóa).
+     */
+    public boolean isHeld(String jobName, long token) {
+        return !jdbcTemplate.queryForList(HELD_SQL, Long.class, jobName, ownerId, token).isEmpty();
+    }
+
+    /**
+     * Fencing trong transaction của job: khóa FOR SHARE dòng lease tới khi commit,
+     * instance khác không chiếm được lease giữa lúc kiểm tra và lúc commit.
+     */
+    public void assertHeld(String jobName, long token) {
+        List<Long> tokens = jdbcTemplate.queryForList(HELD_SQL + " FOR SHARE", Long.class, jobName, ownerId, token);
+        if (tokens.isEmpty()) {
+            held.remove(jobName);
+            throw new IllegalStateException("Mất lease " + jobName + " (token " + token + "), hủy thao tác ghi");
+        }
+    }
+
+    /**
+     * Chia {@code partitions} phân vùng của 1 job cho các instance đang sống.
+     * Mỗi instance gia hạn membership rồi giữ tối đa ceil(partitions / số instance) phân vùng,
+     * nhả phần dư → khi thêm / bớt instance, phân vùng tự cân bằng lại sau vài tick.
+     * Trả về phân vùng → fencing token của các phân vùng đang giữ.
+     */
+    public Map<Integer, Long> acquirePartitions(String jobName, int partitions, Duration ttl) {
+        tryAcquire(memberKey(jobName, ownerId), ttl);
+        int members = Math.max(1, countLiveMembers(jobName));
+        int fairShare = (partitions + members - 1) / members;
+
+        Map<Integer, Long> result = new LinkedHashMap<>();
+        // 1. Gia hạn phân vùng đang giữ (ưu tiên giữ ổn định)
+        List<Integer> candidates = new ArrayList<>();
+        Set<Integer> mine = new HashSet<>();
+        for (int p = 0; p < partitions; p++) {
+            if (held.containsKey(partitionKey(jobName, p))) mine.add(p);
+        }
+        for (int p = 0; p < partitions; p++) {
+            if (mine.contains(p)) candidates.add(p);
+        }
+        // 2. Sau đó thử phân vùng trống, bắt đầu từ vị trí lệch theo owner để các instance ít giành nhau
+        int offset = Math.floorMod(ownerId.hashCode(), partitions);
+        for (int i = 0; i < partitions; i++) {
+            int p = (offset + i) % partitions;
+            if (!mine.contains(p)) candidates.add(p);
+        }
+
+        for (int p : candidates) {
+            String key = partitionKey(jobName, p);
+            if (result.size() >= fairShare) {
+                if (mine.contains(p)) release(key); // nhả phần dư cho instance khác
+                continue;
+            }
+            Long token = tryAcquire(key, ttl);
+            if (token != null) result.put(p, token);
+        }
+        return result;
+    }
+
+    /**
+     * Nhả lease ngay (đặt hết hạn) để instance khác nhận ở tick kế tiếp.
+     */
+    public void release(String jobName) {
+        held.remove(jobName);
+        jdbcTemplate.update("UPDATE SchedulerLease SET LeaseUntil = now() WHERE JobName = ? AND OwnerId = ?",
+                jobName, ownerId);
+    }
+
+    @PreDestroy
+    public void releaseAll() {
+        try {
+            int released = jdbcTemplate.update(
+                    "UPDATE SchedulerLease SET LeaseUntil = now() WHERE OwnerId = ? AND LeaseUntil > now()", ownerId);
+            // Membership của instance này không còn ý nghĩa sau khi tắt
+            jdbcTemplate.update("DELETE FROM SchedulerLease WHERE OwnerId = ? AND JobName LIKE ?",
+                    ownerId, "%:member:" + ownerId);
+            held.clear();
+            if (released > 0) log.info("🔓 Đã nhả {} lease khi shutdown", released);
+        } catch (Exception e) {
+            log.warn("⚠️ Không nhả được lease khi shutdown: {}", e.getMessage());
+        }
+    }
+
+    public static String partitionKey(String jobName, int partition) {
+        return jobName + ":p" + partition;
+    }
+
+    private int countLiveMembers(String jobName) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM SchedulerLease WHERE JobName LIKE ? AND LeaseUntil > now()",
+                Integer.class, jobName + ":member:%");
+        return count != null ? count : 1;
+    }
+
+    private static String memberKey(String jobName, String ownerId) {
+        return jobName + ":member:" + ownerId;
+    }
+
+    private static String defaultOwnerId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,360 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.entity.Booking;
+import BatterySwapStation.repository.BookingRepository;
+import BatterySwapStation.repository.StationRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 🚀 Sổ cái công suất theo (trạm, ngày, khung giờ).
+ * - Bộ nhớ: mỗi khung giờ 1 bộ đếm → khung giờ đã đầy bị từ chối ngay bằng 1 vòng CAS, không chạm DB
+ * - DB là nguồn quyết định: giữ chỗ chỉ được nhận sau khi khóa khung giờ (pg_advisory_xact_lock, giữ tới hết
+ *   transaction) và kiểm SUM(batteryCount) → nhiều instance không đặt vượt công suất
+ * - Bộ đếm = số đã commit trong DB + phần đang giữ bởi transaction chưa kết thúc (in-flight);
+ *   job đối soát chỉ ghi đè phần đã commit, không xóa phần in-flight
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SlotCapacityLedger {
+
+    // Khóa theo khung giờ: (stationId, số phút kể từ epoch của ngày + giờ) → không trùng giữa các khung giờ
+    private static final String SLOT_LOCK_SQL = "SELECT pg_advisory_xact_lock(?, ?)";
+
+    private final BookingRepository bookingRepository;
+    private final StationRepository stationRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    // 🚀 Số pin đang được giữ chỗ (PENDINGPAYMENT + PENDINGSWAPPING) cho từng khung giờ
+    private final Map<SlotKey, SlotCounter> bookedCounters = new ConcurrentHashMap<>();
+
+    // Khóa resource gắn vào transaction: các khung giờ transaction hiện tại đã khóa + đã giữ
+    private final Object txResourceKey = new Object();
+
+    // 🚀 Công suất trạm = số dock (giống station.getDocks().size() trước đây)
+    private final Map<Integer, Integer> stationCapacity = new ConcurrentHashMap<>();
+
+    /**
+     * 🚀 Nạp sổ cái khi service start: 2 query gộp thay cho N query lẻ
+     */
+    @PostConstruct
+    public void warmUp() {
+        try {
+            reloadCapacity();
+            int slots = reloadCounters();
+            log.info("✅ SlotCapacityLedger khởi tạo: {} trạm, {} khung giờ đang có booking", stationCapacity.size(), slots);
+        } catch (Exception e) {
+            // Không chặn app khởi động; các khung giờ sẽ được nạp lười từ DB khi có booking
+            log.warn("⚠️ Không thể khởi tạo SlotCapacityLedger: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Giữ chỗ {@code count} pin cho khung giờ.
+     * 1. CAS trên bộ đếm bộ nhớ: đầy → từ chối ngay
+     * 2. Xác nhận trong DB dưới advisory lock của khung giờ (giữ tới hết transaction)
+     * Nếu transaction hiện tại rollback, phần giữ chỗ sẽ tự được trả lại.
+     */
+    public Reservation tryReserve(Integer stationId, LocalDate date, LocalTime timeSlot, int count) {
+        SlotKey key = new SlotKey(stationId, date, timeSlot);
+        int capacity = capacityOf(stationId);
+        SlotCounter counter = counterFor(key);
+        AtomicInteger booked = counter.booked();
+
+        int current;
+        while (true) {
+            current = booked.get();
+            if (current + count > capacity) {
+                return new Reservation(false, current, capacity);
+            }
+            if (booked.compareAndSet(current, current + count)) break;
+        }
+
+        int bookedInDb;
+        try {
+            bookedInDb = confirmInDb(key, count, capacity);
+        } catch (RuntimeException e) {
+            booked.addAndGet(-count);
+            throw e;
+        }
+        if (bookedInDb < 0) {
+            // Instance khác đã giữ chỗ mà bộ nhớ chưa biết → trả lại CAS
+            booked.addAndGet(-count);
+            return new Reservation(false, -bookedInDb - 1, capacity);
+        }
+
+        hold(counter, count);
+        return new Reservation(true, bookedInDb, capacity);
+    }
+
+    /**
+     * Ghi nhận booking đã được tạo ở luồng khác (không kiểm tra công suất), ví dụ booking tạo sau thanh toán.
+     */
+    public void track(Booking booking) {
+        SlotKey key = keyOf(booking);
+        if (key == null || !isActive(booking.getBookingStatus())) return;
+        // Chưa có trong bộ nhớ → lần nạp lười sau sẽ đọc DB (đã gồm booking này), không cộng trùng
+        SlotCounter counter = bookedCounters.get(key);
+        if (counter == null) return;
+        int count = batteryCountOf(booking);
+        counter.booked().addAndGet(count);
+        hold(counter, count);
+    }
+
+    /**
+     * Trả lại chỗ của booking. Gọi NGAY TRƯỚC khi đổi trạng thái sang CANCELLED / COMPLETED / FAILED.
+     * Chỉ trừ khi booking đang giữ chỗ, và chỉ trừ sau khi transaction commit.
+     */
+    public void release(Booking booking) {
+        if (booking == null || !isActive(booking.getBookingStatus())) return;
+        SlotKey key = keyOf(booking);
+        if (key == null) return;
+        decrementAfterCommit(key, batteryCountOf(booking));
+    }
+
+    /**
+     * Trả lại chỗ từ 1 dòng kết quả native query (UPDATE ... RETURNING) của booking vừa rời trạng thái giữ chỗ.
+     * Cột ngày / giờ có thể là java.sql.Date / Time tùy driver.
+     */
+    public void releaseRow(Object stationId, Object bookingDate, Object timeSlot, Object batteryCount) {
+        if (stationId == null || bookingDate == null || timeSlot == null) return;
+        LocalDate date = bookingDate instanceof java.sql.Date d ? d.toLocalDate() : (LocalDate) bookingDate;
+        LocalTime time = timeSlot instanceof java.sql.Time t ? t.toLocalTime() : (LocalTime) timeSlot;
+        int count = batteryCount != null ? ((Number) batteryCount).intValue() : 0;
+        decrementAfterCommit(new SlotKey(((Number) stationId).intValue(), date, time), count);
+    }
+
+    /**
+     * Gọi sau khi đổi trạng thái tùy ý (ví dụ admin cập nhật trạng thái bằng tay).
+     */
+    public void onStatusChange(Booking booking, Booking.BookingStatus previousStatus) {
+        boolean wasActive = isActive(previousStatus);
+        boolean nowActive = isActive(booking.getBookingStatus());
+        if (wasActive == nowActive) return;
+
+        SlotKey key = keyOf(booking);
+        if (key == null) return;
+        int delta = nowActive ? batteryCountOf(booking) : -batteryCountOf(booking);
+        runAfterCommit(() -> {
+            SlotCounter counter = bookedCounters.get(key);
+            if (counter != null) {
+                counter.booked().updateAndGet(v -> Math.max(0, v + delta));
+            }
+        });
+    }
+
+    /**
+     * Xóa cache công suất của trạm (khi thêm / bớt dock)
+     */
+    public void invalidateCapacity(Integer stationId) {
+        if (stationId != null) stationCapacity.remove(stationId);
+    }
+
+    /**
+     * 🔁 Đối soát với DB mỗi 5 phút: bộ đếm = số đã commit trong DB + phần in-flight của instance này.
+     * Phần giữ chỗ của instance khác / booking hủy ở instance khác chỉ được cập nhật ở đây.
+     */
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    public void reconcile() {
+        try {
+            reloadCapacity();
+            int slots = reloadCounters();
+            log.debug("SlotCapacityLedger đối soát xong: {} khung giờ", slots);
+        } catch (Exception e) {
+            log.warn("⚠️ Lỗi khi đối soát SlotCapacityLedger: {}", e.getMessage());
+        }
+    }
+
+    // ==================== HELPERS ====================
+
+    private int reloadCounters() {
+        LocalDate today = LocalDate.now();
+        Map<SlotKey, Integer> fresh = new HashMap<>();
+        for (Object[] row : bookingRepository.sumActiveBatteryCountGroupBySlotFrom(today)) {
+            SlotKey key = new SlotKey((Integer) row[0], (LocalDate) row[1], (LocalTime) row[2]);
+            fresh.put(key, row[3] != null ? ((Number) row[3]).intValue() : 0);
+        }
+
+        fresh.forEach((key, value) -> bookedCounters.computeIfAbsent(key, k -> new SlotCounter()).resync(value));
+        bookedCounters.forEach((key, counter) -> {
+            if (!fresh.containsKey(key)) counter.resync(0);
+        });
+
+        // Khung giờ đã qua, hoặc không còn booking nào và không có giữ chỗ đang dở → bỏ khỏi bộ nhớ
+        bookedCounters.entrySet().removeIf(e -> e.getKey().date().isBefore(today)
+                || (!fresh.containsKey(e.getKey()) && e.getValue().inFlight().get() == 0));
+        return fresh.size();
+    }
+
+    private void reloadCapacity() {
+        List<Object[]> rows = stationRepository.countDocksGroupByStation();
+        Map<Integer, Integer> fresh = new HashMap<>();
+        for (Object[] row : rows) {
+            fresh.put((Integer) row[0], ((Number) row[1]).intValue());
+        }
+        stationCapacity.keySet().retainAll(fresh.keySet());
+        stationCapacity.putAll(fresh);
+    }
+
+    private int capacityOf(Integer stationId) {
+        Integer cached = stationCapacity.get(stationId);
+        if (cached != null) return cached;
+        int capacity = (int) stationRepository.countDocksByStationId(stationId);
+        stationCapacity.put(stationId, capacity);
+        return capacity;
+    }
+
+    private SlotCounter counterFor(SlotKey key) {
+        SlotCounter counter = bookedCounters.get(key);
+        if (counter != null) return counter;
+
+        // Cache miss → đọc DB 1 lần (ngoài computeIfAbsent để không giữ lock bucket khi query)
+        SlotCounter loaded = new SlotCounter();
+        loaded.booked().set(bookedInDb(key));
+        SlotCounter existing = bookedCounters.putIfAbsent(key, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    /**
+     * Khóa khung giờ (lần đầu trong transaction) rồi kiểm công suất theo DB.
+     * Tổng trong DB chỉ đọc 1 lần mỗi transaction: các booking của chính transaction này được cộng từ phần đã giữ,
+     * tránh đếm trùng khi chúng đã flush. Khóa giữ tới khi commit → transaction khác đọc được booking mới.
+     *
+     * @return số pin đã đặt trước lần giữ chỗ này nếu nhận, hoặc -(số đó) - 1 nếu vượt công suất
+     */
+    private int confirmInDb(SlotKey key, int count, int capacity) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            // Không có transaction thì khóa cũng không giữ được → chỉ kiểm 1 lần
+            int booked = bookedInDb(key);
+            return booked + count <= capacity ? booked : -booked - 1;
+        }
+
+        TxSlots tx = txSlots();
+        Integer baseline = tx.baseline().get(key);
+        if (baseline == null) {
+            jdbcTemplate.queryForList(SLOT_LOCK_SQL, key.stationId(), lockKey(key));
+            baseline = bookedInDb(key);
+            tx.baseline().put(key, baseline);
+        }
+        int booked = baseline + tx.reserved().getOrDefault(key, 0);
+        if (booked + count > capacity) {
+            return -booked - 1;
+        }
+        tx.reserved().merge(key, count, Integer::sum);
+        return booked;
+    }
+
+    private TxSlots txSlots() {
+        TxSlots tx = (TxSlots) TransactionSynchronizationManager.getResource(txResourceKey);
+        if (tx != null) return tx;
+
+        TxSlots created = new TxSlots(new HashMap<>(), new HashMap<>());
+        TransactionSynchronizationManager.bindResource(txResourceKey, created);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(txResourceKey);
+            }
+        });
+        return created;
+    }
+
+    private int bookedInDb(SlotKey key) {
+        Integer booked = bookingRepository.getBookedBatteryCountAtTimeSlotByStationId(key.stationId(), key.date(), key.timeSlot());
+        return booked != null ? booked : 0;
+    }
+
+    private static int lockKey(SlotKey key) {
+        return Math.toIntExact(key.date().toEpochDay() * 1440 + key.timeSlot().getHour() * 60L + key.timeSlot().getMinute());
+    }
+
+    /**
+     * Đánh dấu phần giữ chỗ là in-flight tới khi transaction kết thúc; rollback thì trả lại bộ đếm.
+     */
+    private static void hold(SlotCounter counter, int count) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+        counter.inFlight().addAndGet(count);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                counter.inFlight().addAndGet(-count);
+                if (status != STATUS_COMMITTED) counter.booked().addAndGet(-count);
+            }
+        });
+    }
+
+    private void decrementAfterCommit(SlotKey key, int count) {
+        runAfterCommit(() -> {
+            SlotCounter counter = bookedCounters.get(key);
+            if (counter != null) {
+                counter.booked().updateAndGet(v -> Math.max(0, v - count));
+            }
+        });
+    }
+
+    private static SlotKey keyOf(Booking booking) {
+        if (booking.getStation() == null || booking.getBookingDate() == null || booking.getTimeSlot() == null) {
+            return null;
+        }
+        return new SlotKey(booking.getStation().getStationId(), booking.getBookingDate(), booking.getTimeSlot());
+    }
+
+    private static int batteryCountOf(Booking booking) {
+        return booking.getBatteryCount() != null ? booking.getBatteryCount() : 0;
+    }
+
+    private static boolean isActive(Booking.BookingStatus status) {
+        return status == Booking.BookingStatus.PENDINGPAYMENT || status == Booking.BookingStatus.PENDINGSWAPPING;
+    }
+
+    private static void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private record SlotKey(Integer stationId, LocalDate date, LocalTime timeSlot) {}
+
+    /**
+     * booked: số pin đang giữ chỗ (đã commit + in-flight); inFlight: phần của transaction chưa kết thúc trên instance này.
+     */
+    private record SlotCounter(AtomicInteger booked, AtomicInteger inFlight) {
+        SlotCounter() {
+            this(new AtomicInteger(), new AtomicInteger());
+        }
+
+        void resync(int committedInDb) {
+            booked.set(committedInDb + inFlight.get());
+        }
+    }
+
+    // Trạng thái theo transaction: tổng DB lúc khóa khung giờ + số đã giữ thêm trong transaction
+    private record TxSlots(Map<SlotKey, Integer> baseline, Map<SlotKey, Integer> reserved) {}
+
+    /**
+     * Kết quả giữ chỗ: {@code bookedBefore} là số pin đã đặt trước khi giữ chỗ.
+     */
+    public record Reservation(boolean accepted, int bookedBefore, int capacity) {}
+}
@@ -25,6 +25,7 @@ public class StaffService {
     private final StaffAssignRepository staffAssignRepository;
     private final PasswordEncoder passwordEncoder;
     private final UserIdGenerator userIdGenerator;
+    private final CacheEvictionService cacheEvictionService;
 
     // ===========================================================
     // ✅ CREATE STAFF
@@ -162,6 +163,7 @@ public class StaffService {
             // ✅ Đồng bộ trạng thái user
             staff.setActive(true);
             userRepository.save(staff);
+            cacheEvictionService.evictAuthPrincipals(staff.getUserId());
 
             currentAssign = newAssign;
         }
@@ -200,6 +202,7 @@ public class StaffService {
                 .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy staff: " + staffId));
         staff.setActive(false);
         userRepository.save(staff);
+        cacheEvictionService.evictAuthPrincipals(staff.getUserId());
     }
 
     // ===========================================================
@@ -10,11 +10,13 @@ import BatterySwapStation.repository.BatteryRepository;
 import BatterySwapStation.repository.DockSlotRepository;
 import BatterySwapStation.repository.StationRepository;
 import BatterySwapStation.repository.BookingRepository;
-import BatterySwapStation.utils.GeoUtils;
+import BatterySwapStation.utils.StationGeoIndex;
 import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,87 +28,76 @@ public class StationService {
     private final BatteryRepository batteryRepository;
     private final DockSlotRepository DockSlotRepository;
     private final BookingRepository bookingRepository; // mới: dùng để đếm vehicle an toàn
-    // ⚡ Lấy toàn bộ trạm với tổng hợp nhanh
+    private final StationSummaryReadModel stationSummaryReadModel;
+
+    // 🗺️ Lưới tọa độ trạm cho /nearby, build lại định kỳ (bất biến → đọc không cần lock)
+    private volatile StationGeoIndex geoIndex;
+    // ⚡ Lấy toàn bộ trạm từ read model trong bộ nhớ (không aggregate SQL mỗi lần gọi, mỗi lần 1 list DTO mới)
     public List<StationResponseDTO> getAllStations() {
-        List<Object[]> main = stationRepository.getStationSummary();
-        Map<Integer, List<Object[]>> typeMap = stationRepository.getStationBatteryTypes()
-                .stream()
-                .collect(Collectors.groupingBy(o -> (Integer) o[0]));
-
-        List<StationResponseDTO> result = new ArrayList<>();
-
-        for (Object[] row : main) {
-            Integer id = (Integer) row[0];
-            String name = (String) row[1];
-            String address = (String) row[2];
-            var lat = (java.math.BigDecimal) row[3];
-            var lon = (java.math.BigDecimal) row[4];
-            boolean isActive = (boolean) row[5];
-            int available = ((Number) Optional.ofNullable(row[6]).orElse(0)).intValue();
-            int charging = ((Number) Optional.ofNullable(row[7]).orElse(0)).intValue();
-            int total = ((Number) Optional.ofNullable(row[8]).orElse(0)).intValue();
-
-            // nhóm theo loại pin
-            List<StationResponseDTO.BatteryTypeRow> batteryRows =
-                    typeMap.getOrDefault(id, List.of()).stream()
-                            .filter(o -> o[1] != null)
-                            .map(o -> new StationResponseDTO.BatteryTypeRow(
-                                    String.valueOf(o[1]),
-                                    ((Number) Optional.ofNullable(o[2]).orElse(0)).intValue(),
-                                    ((Number) Optional.ofNullable(o[3]).orElse(0)).intValue()
-                            ))
-                            .filter(bt -> bt.getTotal() > 0)
-                            .toList();
-
-            result.add(StationResponseDTO.builder()
-                    .stationId(id)
-                    .stationName(name)
-                    .address(address)
-                    .latitude(lat)
-                    .longitude(lon)
-                    .isActive(isActive)
-                    .availableCount(available)
-                    .chargingCount(charging)
-                    .totalBatteries(total)
-                    .batteries(batteryRows)
-                    .build());
-        }
-        return result;
+        return stationSummaryReadModel.getAll();
     }
 
-    // ⚡ Lấy chi tiết 1 trạm
+    // ⚡ Lấy chi tiết 1 trạm – O(1)
     public StationResponseDTO getStationDetail(int id) {
-        return getAllStations().stream()
-                .filter(s -> Objects.equals(s.getStationId(), id))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("Không tìm thấy trạm với mã: " + id));
+        StationResponseDTO station = stationSummaryReadModel.get(id);
+        if (station == null) {
+            throw new RuntimeException("Không tìm thấy trạm với mã: " + id);
+        }
+        return station;
     }
 
-    // ⚡ API /nearby – lọc trong bán kính, không sort theo khoảng cách
+    // ⚡ API /nearby – lọc trong bán kính, sort theo khoảng cách
     public List<StationResponseDTO> getNearbyStations(double lat, double lng, double radiusKm) {
+        return getNearbyStations(lat, lng, radiusKm, null, null);
+    }
+
+    /**
+     * Tra cứu trên lưới tọa độ trong bộ nhớ, không query DB.
+     * - {@code limit} != null → k trạm gần nhất trong bán kính
+     * - {@code batteryType} != null → chỉ lấy trạm còn pin đầy loại đó
+     */
+    public List<StationResponseDTO> getNearbyStations(double lat, double lng, double radiusKm,
+                                                      String batteryType, Integer limit) {
         final double radius = radiusKm <= 0 ? 50 : radiusKm;
-        return getAllStations().stream()
-                .filter(st -> {
-                    double distance = GeoUtils.haversineKm(
-                            lat, lng,
-                            st.getLatitude().doubleValue(),
-                            st.getLongitude().doubleValue()
-                    );
-                    return distance <= radius;
-                })
+        final int k = limit != null && limit > 0 ? limit : 0;
+
+        List<StationGeoIndex.Hit> hits = currentGeoIndex()
+                .withinRadius(lat, lng, radius, batteryTypeFilter(batteryType), k);
+
+        return hits.stream()
+                .map(hit -> hit.station().toBuilder()
+                        .distanceKm(Math.round(hit.distanceKm() * 100) / 100.0)
+                        .build())
                 .toList();
     }
 
+    // 🔁 Build lại lưới tọa độ mỗi 5s từ read model (không query DB)
+    @Scheduled(fixedDelay = 5000, initialDelay = 5000)
+    public void refreshGeoIndex() {
+        geoIndex = StationGeoIndex.build(getAllStations());
+    }
+
+    private StationGeoIndex currentGeoIndex() {
+        StationGeoIndex index = geoIndex;
+        if (index == null) {
+            index = StationGeoIndex.build(getAllStations());
+            geoIndex = index;
+        }
+        return index;
+    }
+
+    private static Predicate<StationResponseDTO> batteryTypeFilter(String batteryType) {
+        if (batteryType == null || batteryType.isBlank()) return null;
+        return st -> st.getBatteries() != null && st.getBatteries().stream()
+                .anyMatch(bt -> batteryType.equalsIgnoreCase(bt.getBatteryType()) && bt.getAvailable() > 0);
+    }
+
     // ⚡ API /stations/user – Ưu tiên trạm có loại pin trùng với xe user
     public List<StationResponseDTO> getAllStationsPrioritizedByUserBattery(String userId) {
         List<StationResponseDTO> stations = getAllStations();
 
         // 🔹 Lấy danh sách loại pin mà user đang sở hữu
-        Set<Vehicle.BatteryType> userBatteryTypes = vehicleService.getActiveUserVehicles(userId).stream()
-                .filter(Vehicle::isActive)
-                .map(Vehicle::getBatteryType)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+        Set<Vehicle.BatteryType> userBatteryTypes = vehicleService.getActiveBatteryTypes(userId);
 
         if (userBatteryTypes.isEmpty()) {
             // Nếu user chưa có xe, trả về danh sách gốc
@@ -0,0 +1,300 @@
+package BatterySwapStation.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 📈 Duy trì bảng StationHourlyStats (rollup theo trạm × giờ).
+ * - Invoice / Payment / Swap / Booking thay đổi → StationStatsEntityListener đánh dấu id "bẩn" (sau commit)
+ * - Mỗi FLUSH_INTERVAL: tìm các giờ bị ảnh hưởng rồi tính lại nguyên các giờ đó từ bảng gốc (idempotent, không cộng dồn delta)
+ * - Job catch-up: tính lại cửa sổ gần đây (dữ liệu đến trễ, UPDATE hàng loạt không qua JPA); lần đầu backfill toàn bộ lịch sử
+ * Thời gian luôn bind / đọc qua JDBC thô nên giữ đúng đồng hồ của cột gốc.
+ */
+@Service
+@Slf4j
+public class StationStatsRollupService {
+
+    private static final String LEASE_JOB = "rollup.station-hourly.catch-up";
+    private static final Duration CATCH_UP_BACK = Duration.ofHours(48);
+    // Booking có thể đặt trước nhiều ngày, hủy / FAILED rơi vào giờ trong tương lai
+    private static final Duration CATCH_UP_AHEAD = Duration.ofDays(7);
+    private static final int BACKFILL_SLICE_DAYS = 30;
+
+    private static volatile StationStatsRollupService instance;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final SchedulerLeaseService schedulerLeaseService;
+
+    private final Set<Long> dirtyInvoices = ConcurrentHashMap.newKeySet();
+    private final Set<Long> dirtySwaps = ConcurrentHashMap.newKeySet();
+    private final Set<Long> dirtyBookings = ConcurrentHashMap.newKeySet();
+
+    public StationStatsRollupService(JdbcTemplate jdbcTemplate,
+                                     PlatformTransactionManager transactionManager,
+                                     SchedulerLeaseService schedulerLeaseService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.schedulerLeaseService = schedulerLeaseService;
+    }
+
+    @PostConstruct
+    public void register() {
+        instance = this;
+    }
+
+    @PreDestroy
+    public void unregister() {
+        flushDirty();
+        instance = null;
+    }
+
+    // ==================== ĐÁNH DẤU (gọi từ entity listener / UPDATE hàng loạt) ====================
+
+    public static void markInvoiceDirty(Long invoiceId) {
+        StationStatsRollupService s = instance;
+        if (s != null && invoiceId != null) afterCommit(() -> s.dirtyInvoices.add(invoiceId));
+    }
+
+    public static void markSwapDirty(Long swapId) {
+        StationStatsRollupService s = instance;
+        if (s != null && swapId != null) afterCommit(() -> s.dirtySwaps.add(swapId));
+    }
+
+    public static void markBookingDirty(Long bookingId) {
+        StationStatsRollupService s = instance;
+        if (s != null && bookingId != null) afterCommit(() -> s.dirtyBookings.add(bookingId));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    // ==================== FLUSH (mỗi instance tự xử lý id bẩn của mình) ====================
+
+    @Scheduled(fixedDelay = 10000)
+    public void flushDirty() {
+        List<Long> invoices = drain(dirtyInvoices);
+        List<Long> swaps = drain(dirtySwaps);
+        List<Long> bookings = drain(dirtyBookings);
+        if (invoices.isEmpty() && swaps.isEmpty() && bookings.isEmpty()) return;
+
+        long start = System.nanoTime();
+        try {
+            List<LocalDateTime> hours = jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement("""
+                    SELECT date_trunc('hour', i.createddate) FROM invoice i
+                    WHERE i.invoiceid = ANY(?) AND i.createddate IS NOT NULL
+                    UNION
+                    SELECT date_trunc('hour', s.completedtime) FROM swap s
+                    WHERE s.swapid = ANY(?) AND s.completedtime IS NOT NULL
+                    UNION
+                    SELECT date_trunc('hour', b.bookingdate + b.timeslot) FROM booking b
+                    WHERE b.bookingid = ANY(?)
+                    """);
+                ps.setArray(1, con.createArrayOf("bigint", invoices.toArray()));
+                ps.setArray(2, con.createArrayOf("bigint", swaps.toArray()));
+                ps.setArray(3, con.createArrayOf("bigint", bookings.toArray()));
+                return ps;
+            }, (rs, i) -> rs.getObject(1, LocalDateTime.class));
+
+            int rows = recomputeHours(hours);
+            log.debug("📈 Rollup: {} invoice, {} swap, {} booking → {} giờ, {} dòng ({} ms)",
+                    invoices.size(), swaps.size(), bookings.size(), hours.size(), rows,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            // Giữ lại để lần sau thử lại; job catch-up cũng sẽ sửa các giờ gần đây
+            dirtyInvoices.addAll(invoices);
+            dirtySwaps.addAll(swaps);
+            dirtyBookings.addAll(bookings);
+            log.warn("⚠️ Rollup flush lỗi: {}", e.getMessage());
+        }
+    }
+
+    private static List<Long> drain(Set<Long> set) {
+        List<Long> ids = new ArrayList<>(set);
+        set.removeAll(ids);
+        return ids;
+    }
+
+    // ==================== CATCH-UP / BACKFILL ====================
+
+    @Scheduled(fixedDelay = 900000, initialDelay = 60000) // 15 phút
+    public void catchUp() {
+        schedulerLeaseService.runExclusive(LEASE_JOB, Duration.ofMinutes(30), token -> {
+            long start = System.nanoTime();
+            Boolean empty = jdbcTemplate.queryForObject(
+                    "SELECT NOT EXISTS (SELECT 1 FROM StationHourlyStats)", Boolean.class);
+            if (Boolean.TRUE.equals(empty)) {
+                backfill(token);
+            }
+
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS);
+            int rows = recomputeRange(now.minus(CATCH_UP_BACK), now.plus(CATCH_UP_AHEAD));
+            log.info("📈 Rollup catch-up: {} dòng trong cửa sổ -{}h/+{}d ({} ms)", rows,
+                    CATCH_UP_BACK.toHours(), CATCH_UP_AHEAD.toDays(), (System.nanoTime() - start) / 1_000_000);
+        });
+    }
+
+    private void backfill(long fencingToken) {
+        LocalDateTime first = jdbcTemplate.queryForObject("""
+                SELECT LEAST(
+                    (SELECT MIN(createddate) FROM invoice),
+                    (SELECT MIN(completedtime) FROM swap),
+                    (SELECT MIN(bookingdate + timeslot) FROM booking))
+                """, LocalDateTime.class);
+        if (first == null) return;
+
+        LocalDateTime end = LocalDateTime.now().plus(CATCH_UP_AHEAD).truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime from = first.truncatedTo(ChronoUnit.HOURS);
+        int total = 0;
+        while (from.isBefore(end)) {
+            if (!schedulerLeaseService.isHeld(LEASE_JOB, fencingToken)) {
+                log.warn("⚠️ Mất lease {} khi backfill, dừng tại {}", LEASE_JOB, from);
+                return;
+            }
+            LocalDateTime to = from.plusDays(BACKFILL_SLICE_DAYS);
+            if (to.isAfter(end)) to = end;
+            total += recomputeRange(from, to);
+            from = to;
+        }
+        log.info("📈 Rollup backfill từ {}: {} dòng", first, total);
+    }
+
+    // ==================== TÍNH LẠI ====================
+
+    /** Tính lại mọi giờ trong [from, to). */
+    public int recomputeRange(LocalDateTime from, LocalDateTime to) {
+        List<LocalDateTime> hours = new ArrayList<>();
+        for (LocalDateTime h = from.truncatedTo(ChronoUnit.HOURS); h.isBefore(to); h = h.plusHours(1)) {
+            hours.add(h);
+        }
+        return recomputeHours(hours);
+    }
+
+    /**
+     * Xóa rồi tính lại nguyên các giờ đã cho (mọi trạm) trong 1 transaction.
+     * Advisory lock: 2 instance cùng tính lại 1 giờ sẽ chạy lần lượt thay vì đụng khóa chính.
+     */
+    public int recomputeHours(Collection<LocalDateTime> hours) {
+        if (hours.isEmpty()) return 0;
+        TreeSet<LocalDateTime> sorted = new TreeSet<>(hours);
+        LocalDateTime from = sorted.first();
+        LocalDateTime to = sorted.last().plusHours(1);
+        Timestamp[] buckets = sorted.stream().map(Timestamp::valueOf).toArray(Timestamp[]::new);
+
+        Integer rows = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("SELECT pg_advisory_xact_lock(hashtext('StationHourlyStats'))");
+            jdbcTemplate.update(con -> {
+                PreparedStatement ps = con.prepareStatement("DELETE FROM StationHourlyStats WHERE BucketHour = ANY(?)");
+                ps.setArray(1, con.createArrayOf("timestamp", buckets));
+                return ps;
+            });
+            return jdbcTemplate.update(con -> bindRecompute(con, from, to, buckets));
+        });
+        return rows == null ? 0 : rows;
+    }
+
+    private static PreparedStatement bindRecompute(Connection con, LocalDateTime from, LocalDateTime to,
+                                                   Timestamp[] buckets) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(RECOMPUTE_SQL);
+        Array hourArray = con.createArrayOf("timestamp", buckets);
+        int i = 1;
+        // invoice
+        ps.setObject(i++, from);
+        ps.setObject(i++, to);
+        ps.setArray(i++, hourArray);
+        // swap
+        ps.setObject(i++, from);
+        ps.setObject(i++, to);
+        ps.setArray(i++, hourArray);
+        // booking (lọc theo ngày trước để dùng được index bookingdate)
+        ps.setObject(i++, from.toLocalDate());
+        ps.setObject(i++, to.toLocalDate());
+        ps.setArray(i, hourArray);
+        return ps;
+    }
+
+    // Invoice gắn vào trạm của booking (MIN nếu 1 invoice nhiều booking), không có booking → trạm 0
+    private static final String RECOMPUTE_SQL = """
+        WITH inv AS (
+            SELECT COALESCE((SELECT MIN(b.stationid) FROM booking b WHERE b.invoiceid = i.invoiceid), 0) AS stationid,
+                   date_trunc('hour', i.createddate) AS bucket,
+                   SUM(i.totalamount) AS revenue,
+                   COUNT(*) AS transactions
+            FROM invoice i
+            WHERE i.createddate >= ? AND i.createddate < ?
+              AND date_trunc('hour', i.createddate) = ANY(?)
+              AND EXISTS (SELECT 1 FROM payment p
+                          WHERE p.invoiceid = i.invoiceid AND p.paymentstatus = 'SUCCESS')
+            GROUP BY 1, 2
+        ),
+        sw AS (
+            SELECT COALESCE(b.stationid, 0) AS stationid,
+                   date_trunc('hour', s.completedtime) AS bucket,
+                   COUNT(*) AS swaps
+            FROM swap s
+            LEFT JOIN booking b ON b.bookingid = s.bookingid
+            WHERE s.completedtime >= ? AND s.completedtime < ?
+              AND date_trunc('hour', s.completedtime) = ANY(?)
+            GROUP BY 1, 2
+        ),
+        bk AS (
+            SELECT COALESCE(b.stationid, 0) AS stationid,
+                   date_trunc('hour', b.bookingdate + b.timeslot) AS bucket,
+                   COUNT(*) FILTER (WHERE b.bookingstatus = 'FAILED') AS failed,
+                   COUNT(*) FILTER (WHERE b.bookingstatus = 'CANCELLED') AS cancelled
+            FROM booking b
+            WHERE b.bookingdate BETWEEN ? AND ?
+              AND date_trunc('hour', b.bookingdate + b.timeslot) = ANY(?)
+              AND b.bookingstatus IN ('FAILED', 'CANCELLED')
+            GROUP BY 1, 2
+        ),
+        k AS (
+            SELECT stationid, bucket FROM inv
+            UNION SELECT stationid, bucket FROM sw
+            UNION SELECT stationid, bucket FROM bk
+        )
+        INSERT INTO StationHourlyStats (StationId, BucketHour, Revenue, Transactions, Swaps,
+                                        FailedBookings, CancelledBookings, UpdatedAt)
+        SELECT k.stationid, k.bucket,
+               COALESCE(inv.revenue, 0), COALESCE(inv.transactions, 0), COALESCE(sw.swaps, 0),
+               COALESCE(bk.failed, 0), COALESCE(bk.cancelled, 0), LOCALTIMESTAMP
+        FROM k
+        LEFT JOIN inv ON inv.stationid = k.stationid AND inv.bucket = k.bucket
+        LEFT JOIN sw ON sw.stationid = k.stationid AND sw.bucket = k.bucket
+        LEFT JOIN bk ON bk.stationid = k.stationid AND bk.bucket = k.bucket
+        """;
+}
@@ -0,0 +1,213 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.BatteryRealtimeEvent;
+import BatterySwapStation.dto.StationResponseDTO;
+import BatterySwapStation.entity.Battery;
+import BatterySwapStation.repository.StationRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 📊 Read model tổng hợp pin theo trạm (available / charging / total + theo loại pin) giữ trong bộ nhớ.
+ * - Cập nhật tăng dần từ event realtime đã commit (swap, sạc đầy, rút pin, cắm pin, đổi trạng thái)
+ * - Tra cứu 1 trạm O(1), không query DB
+ * - Đối soát định kỳ với DB (cùng điều kiện với getStationSummary: dock + slot đang hoạt động)
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StationSummaryReadModel {
+
+    private static final Battery.BatteryType[] TYPES = Battery.BatteryType.values();
+
+    private final StationRepository stationRepository;
+
+    private volatile Map<Integer, StationEntry> stations = new ConcurrentHashMap<>();
+
+    // slotId → trạm chứa slot (để áp event vào đúng trạm kể cả khi event thiếu stationId)
+    private volatile Map<Integer, Integer> stationOfSlot = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+
+    @PostConstruct
+    public void warmUp() {
+        try {
+            reload();
+            log.info("✅ StationSummaryReadModel khởi tạo: {} trạm", stations.size());
+        } catch (Exception e) {
+            log.warn("⚠️ Không thể khởi tạo StationSummaryReadModel: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 🔁 Đối soát với DB mỗi 5 phút
+     */
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    public void reconcile() {
+        try {
+            reload();
+        } catch (Exception e) {
+            log.warn("⚠️ Lỗi khi đối soát StationSummaryReadModel: {}", e.getMessage());
+        }
+    }
+
+    public List<StationResponseDTO> getAll() {
+        ensureLoaded();
+        List<StationResponseDTO> result = new ArrayList<>(stations.size());
+        for (StationEntry entry : stations.values()) {
+            result.add(entry.toDto());
+        }
+        result.sort(Comparator.comparing(StationResponseDTO::getStationId));
+        return result;
+    }
+
+    public StationResponseDTO get(int stationId) {
+        ensureLoaded();
+        StationEntry entry = stations.get(stationId);
+        return entry != null ? entry.toDto() : null;
+    }
+
+    /**
+     * Áp dụng event đã commit: trừ trạng thái cũ của slot, cộng trạng thái mới.
+     */
+    public void apply(BatteryRealtimeEvent event) {
+        if (event == null || event.getDockId() == null) return;
+        Integer stationId = event.getStationId() != null ? event.getStationId() : stationOfSlot.get(event.getDockId());
+        StationEntry entry = stationId != null ? stations.get(stationId) : null;
+        if (entry == null) return; // trạm không hoạt động / chưa nạp → lần đối soát sau sẽ bổ sung
+
+        String action = event.getAction() != null ? event.getAction() : "";
+        boolean empty = "EJECTED".equals(action) || "REMOVED".equals(action) || event.getBatteryId() == null;
+
+        entry.setSlot(event.getDockId(),
+                empty ? null : parseType(event.getBatteryType()),
+                empty ? null : parseStatus(event.getBatteryStatus()));
+        stationOfSlot.putIfAbsent(event.getDockId(), stationId);
+    }
+
+    // ==================== HELPERS ====================
+
+    private void ensureLoaded() {
+        if (!loaded) reload();
+    }
+
+    private synchronized void reload() {
+        Map<Integer, StationEntry> fresh = new ConcurrentHashMap<>();
+        for (Object[] row : stationRepository.findActiveStationInfo()) {
+            StationEntry entry = new StationEntry((Integer) row[0], (String) row[1], (String) row[2],
+                    (BigDecimal) row[3], (BigDecimal) row[4], (boolean) row[5]);
+            fresh.put(entry.stationId, entry);
+        }
+
+        Map<Integer, Integer> slotOwners = new ConcurrentHashMap<>();
+        for (Object[] row : stationRepository.findActiveSlotBatteryStates()) {
+            Integer stationId = (Integer) row[0];
+            Integer slotId = (Integer) row[1];
+            StationEntry entry = fresh.get(stationId);
+            if (entry == null) continue;
+            entry.setSlot(slotId, (Battery.BatteryType) row[2], (Battery.BatteryStatus) row[3]);
+            slotOwners.put(slotId, stationId);
+        }
+
+        // Thay cả map 1 lần: event đến trong lúc reload áp vào map cũ và sẽ có trong lần đối soát sau
+        stations = fresh;
+        stationOfSlot = slotOwners;
+        loaded = true;
+    }
+
+    private static Battery.BatteryType parseType(String value) {
+        if (value == null) return null;
+        try {
+            return Battery.BatteryType.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Battery.BatteryStatus parseStatus(String value) {
+        if (value == null) return null;
+        try {
+            return Battery.BatteryStatus.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            return null; // EMPTY, ...
+        }
+    }
+
+    private static final class StationEntry {
+        private final Integer stationId;
+        private final String stationName;
+        private final String address;
+        private final BigDecimal latitude;
+        private final BigDecimal longitude;
+        private final boolean isActive;
+
+        // Đếm theo loại pin (index = ordinal của BatteryType)
+        private final int[] available = new int[TYPES.length];
+        private final int[] charging = new int[TYPES.length];
+
+        // Trạng thái hiện tại của từng slot: [type ordinal, status ordinal], -1 nếu không có
+        private final Map<Integer, int[]> slots = new HashMap<>();
+
+        StationEntry(Integer stationId, String stationName, String address,
+                     BigDecimal latitude, BigDecimal longitude, boolean isActive) {
+            this.stationId = stationId;
+            this.stationName = stationName;
+            this.address = address;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.isActive = isActive;
+        }
+
+        synchronized void setSlot(Integer slotId, Battery.BatteryType type, Battery.BatteryStatus status) {
+            int[] previous = slots.get(slotId);
+            if (previous != null) count(previous[0], previous[1], -1);
+
+            int[] next = {type != null ? type.ordinal() : -1, status != null ? status.ordinal() : -1};
+            slots.put(slotId, next);
+            count(next[0], next[1], 1);
+        }
+
+        private void count(int type, int status, int delta) {
+            if (type < 0) return;
+            if (status == Battery.BatteryStatus.AVAILABLE.ordinal()) available[type] += delta;
+            else if (status == Battery.BatteryStatus.CHARGING.ordinal()) charging[type] += delta;
+        }
+
+        synchronized StationResponseDTO toDto() {
+            int totalAvailable = 0;
+            int totalCharging = 0;
+            List<StationResponseDTO.BatteryTypeRow> rows = new ArrayList<>();
+            for (int t = 0; t < TYPES.length; t++) {
+                totalAvailable += available[t];
+                totalCharging += charging[t];
+                if (available[t] + charging[t] > 0) {
+                    rows.add(new StationResponseDTO.BatteryTypeRow(TYPES[t].name(), available[t], charging[t]));
+                }
+            }
+
+            return StationResponseDTO.builder()
+                    .stationId(stationId)
+                    .stationName(stationName)
+                    .address(address)
+                    .latitude(latitude)
+                    .longitude(longitude)
+                    .isActive(isActive)
+                    .availableCount(totalAvailable)
+                    .chargingCount(totalCharging)
+                    .totalBatteries(totalAvailable + totalCharging)
+                    .batteries(rows)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.entity.SubscriptionPlan;
+import BatterySwapStation.entity.UserSubscription;
+import BatterySwapStation.utils.DbTime;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 🎫 Hạn mức lượt đổi pin của gói cước.
+ * - Trừ lượt bằng 1 câu UPDATE có điều kiện (UsedSwaps + n <= SwapLimit) → nhiều booking song song
+ *   của cùng 1 user không vượt hạn mức, không ghi lại cả entity UserSubscription
+ * - Mỗi gói ACTIVE có 1 "xô lượt" trong bộ nhớ (số lượt còn lại lần cuối đọc từ DB) để từ chối nhanh
+ *   khi chắc chắn không đủ lượt, không cần chạm DB
+ * - Xô hết hạn theo EndDate của gói hoặc sau BUCKET_TTL (lượt có thể được trả ở instance khác)
+ * - DB là nguồn sự thật: xô chỉ dùng để TỪ CHỐI, mọi lần chấp nhận đều đi qua SQL
+ */
+@Service
+@Slf4j
+public class SubscriptionQuotaService {
+
+    private static final Duration BUCKET_TTL = Duration.ofSeconds(30);
+
+    private static final String CONSUME_SQL = """
+            UPDATE UserSubscription us SET UsedSwaps = us.UsedSwaps + ?
+            FROM SubscriptionPlan p
+            WHERE us.id = ? AND p.id = us.PlanId
+              AND us.Status = 'ACTIVE' AND us.EndDate >= ?
+              AND (p.SwapLimit IS NULL OR p.SwapLimit < 0 OR us.UsedSwaps + ? <= p.SwapLimit)
+            RETURNING us.UsedSwaps
+            """;
+
+    private static final String RELEASE_SQL = """
+            UPDATE UserSubscription SET UsedSwaps = GREATEST(0, UsedSwaps - ?)
+            WHERE id = ?
+            RETURNING UsedSwaps
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // 🎫 subscriptionId → số lượt còn lại (chỉ gói có giới hạn)
+    private final Map<Long, Bucket> buckets = new ConcurrentHashMap<>();
+
+    private final Counter consumedCounter;
+    private final Counter rejectedCounter;
+    private final Counter fastRejectedCounter;
+    private final Counter releasedCounter;
+
+    public SubscriptionQuotaService(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.consumedCounter = quotaCounter(meterRegistry, "consumed");
+        this.rejectedCounter = quotaCounter(meterRegistry, "rejected");
+        this.fastRejectedCounter = quotaCounter(meterRegistry, "fast_rejected");
+        this.releasedCounter = quotaCounter(meterRegistry, "released");
+        meterRegistry.gauge("subscription.quota.buckets", buckets, Map::size);
+    }
+
+    /**
+     * Trừ {@code count} lượt nếu gói còn ACTIVE và còn đủ lượt.
+     * Nếu transaction hiện tại rollback, DB tự hoàn lượt; xô trong bộ nhớ bị bỏ để lần sau đọc lại.
+     *
+     * @return số lượt đã dùng sau khi trừ, -1 nếu bị từ chối
+     */
+    public int tryConsume(UserSubscription sub, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Số lượt cần trừ phải lớn hơn 0");
+        }
+        Long subId = sub.getId();
+        int limit = limitOf(sub);
+
+        Bucket bucket = buckets.get(subId);
+        if (bucket != null && bucket.isFresh() && bucket.remaining() < count) {
+            fastRejectedCounter.increment(count);
+            return -1;
+        }
+
+        // EndDate do Hibernate ghi theo UTC → so với thời điểm bind từ Java, không dùng now() của session DB
+        List<Integer> rows = jdbcTemplate.query(CONSUME_SQL, DbTime.args(count, subId, DbTime.now(), count),
+                (rs, i) -> rs.getInt(1));
+        if (rows.isEmpty()) {
+            rejectedCounter.increment(count);
+            refreshBucket(sub, limit);
+            return -1;
+        }
+
+        int used = rows.get(0);
+        consumedCounter.increment(count);
+        if (limit >= 0) {
+            buckets.put(subId, new Bucket(limit - used, sub.getEndDate(),
+                    LocalDateTime.now().plus(BUCKET_TTL)));
+            runOnRollback(() -> buckets.remove(subId));
+        }
+        return used;
+    }
+
+    /**
+     * Trả lại {@code count} lượt (hủy / hoàn booking). Không bao giờ xuống dưới 0.
+     *
+     * @return số lượt đã dùng sau khi trả, -1 nếu không tìm thấy gói
+     */
+    public int release(UserSubscription sub, int count) {
+        if (count <= 0) return sub.getUsedSwaps() != null ? sub.getUsedSwaps() : 0;
+        List<Integer> rows = jdbcTemplate.query(RELEASE_SQL, (rs, i) -> rs.getInt(1), count, sub.getId());
+        // Lượt còn lại tăng → bỏ xô ngay, tránh từ chối nhầm
+        buckets.remove(sub.getId());
+        if (rows.isEmpty()) return -1;
+        releasedCounter.increment(count);
+        return rows.get(0);
+    }
+
+    /**
+     * Reset lượt về 0 khi gia hạn gói (sang chu kỳ mới).
+     */
+    public void reset(Long subscriptionId) {
+        jdbcTemplate.update("UPDATE UserSubscription SET UsedSwaps = 0 WHERE id = ?", subscriptionId);
+        buckets.remove(subscriptionId);
+    }
+
+    /**
+     * Bỏ xô của gói (hủy gói, đổi trạng thái bằng tay...).
+     */
+    public void evict(Long subscriptionId) {
+        if (subscriptionId != null) buckets.remove(subscriptionId);
+    }
+
+    /**
+     * 🧹 Dọn xô của gói đã hết hạn hoặc quá TTL mỗi phút
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void evictExpired() {
+        LocalDateTime now = LocalDateTime.now();
+        int before = buckets.size();
+        buckets.values().removeIf(b -> !b.endDate().isAfter(now) || !b.refreshBefore().isAfter(now));
+        int removed = before - buckets.size();
+        if (removed > 0) {
+            log.debug("🎫 Đã dọn {} xô lượt hết hạn, còn {}", removed, buckets.size());
+        }
+    }
+
+    // ==================== HELPERS ====================
+
+    private void refreshBucket(UserSubscription sub, int limit) {
+        if (limit < 0) return;
+        List<QuotaRow> rows = jdbcTemplate.query(
+                "SELECT UsedSwaps, EndDate, Status FROM UserSubscription WHERE id = ?",
+                (rs, i) -> new QuotaRow(rs.getInt("UsedSwaps"), DbTime.read(rs, "EndDate"), rs.getString("Status")),
+                sub.getId());
+        if (rows.isEmpty()) return;
+        QuotaRow row = rows.get(0);
+        LocalDateTime now = LocalDateTime.now();
+        int remaining = "ACTIVE".equals(row.status()) && row.endDate().isAfter(now)
+                ? Math.max(0, limit - row.usedSwaps())
+                : 0;
+        buckets.put(sub.getId(), new Bucket(remaining, row.endDate(), now.plus(BUCKET_TTL)));
+    }
+
+    private static int limitOf(UserSubscription sub) {
+        SubscriptionPlan plan = sub.getPlan();
+        if (plan == null || plan.getSwapLimit() == null || plan.getSwapLimit() < 0) return -1;
+        return plan.getSwapLimit();
+    }
+
+    private static Counter quotaCounter(MeterRegistry registry, String result) {
+        return Counter.builder("subscription.quota.swaps")
+                .description("Lượt đổi pin theo gói cước")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static void runOnRollback(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) action.run();
+            }
+        });
+    }
+
+    private record QuotaRow(int usedSwaps, LocalDateTime endDate, String status) {}
+
+    private record Bucket(int remaining, LocalDateTime endDate, LocalDateTime refreshBefore) {
+        boolean isFresh() {
+            LocalDateTime now = LocalDateTime.now();
+            return endDate.isAfter(now) && refreshBefore.isAfter(now);
+        }
+    }
+}
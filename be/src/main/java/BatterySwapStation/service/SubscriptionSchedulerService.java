@@ -7,6 +7,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -20,6 +21,12 @@ public class SubscriptionSchedulerService {
     @Autowired
     private SubscriptionService subscriptionService;
 
+    @Autowired
+    private SchedulerLeaseService schedulerLeaseService;
+
+    // Lease giữ 1 tiếng: instance khác chạy cùng cron trong khoảng đó sẽ bỏ qua
+    private static final String LEASE_JOB = "subscription.auto-renewal";
+
     // Số ngày báo trước để tạo invoice gia hạn
     private static final int RENEWAL_NOTICE_DAYS = 3;
     /**
@@ -28,6 +35,10 @@ public class SubscriptionSchedulerService {
      */
     @Scheduled(cron = "0 5 1 * * ?") // (Giây Phút Giờ Ngày Tháng NgàyTrongTuần)
     public void processAutoRenewals() {
+        schedulerLeaseService.runExclusive(LEASE_JOB, Duration.ofHours(1), this::createRenewalInvoices);
+    }
+
+    private void createRenewalInvoices(long fencingToken) {
         log.info("--- [Scheduler] Bắt đầu quét gia hạn gói cước ---");
 
         LocalDateTime now = LocalDateTime.now();
@@ -41,6 +52,11 @@ public class SubscriptionSchedulerService {
                 subscriptionsToRenew.size());
 
         for (UserSubscription sub : subscriptionsToRenew) {
+            // Fencing: instance khác đã nhận lease (ví dụ instance này bị treo quá lâu) → dừng, tránh invoice trùng
+            if (!schedulerLeaseService.isHeld(LEASE_JOB, fencingToken)) {
+                log.warn("[Scheduler] Mất lease {}, dừng tạo invoice gia hạn", LEASE_JOB);
+                break;
+            }
             try {
                 // Gọi service để tạo invoice PENDING
                 subscriptionService.createRenewalInvoice(sub);
@@ -1,10 +1,12 @@
 package BatterySwapStation.service;
 
+import BatterySwapStation.config.CacheConfig;
 import BatterySwapStation.dto.SubscriptionRequest;
 import BatterySwapStation.dto.UseSwapRequest;
 import BatterySwapStation.entity.*;
 import BatterySwapStation.repository.*;
 import lombok.RequiredArgsConstructor;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -19,6 +21,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalDouble;
 import java.util.stream.Collectors;
 
 @Service
@@ -35,6 +38,9 @@ public class SubscriptionService {
     private final BookingRepository bookingRepository;
     private final ApplicationEventPublisher eventPublisher;
     private final PaymentRepository paymentRepository;
+    private final CacheEvictionService cacheEvictionService;
+    private final WalletService walletService;
+    private final SubscriptionQuotaService subscriptionQuotaService;
 
 
 
@@ -101,19 +107,23 @@ public class SubscriptionService {
                 ));
             }
 
-            // Trừ tiền ví
-            double newBalance = balance - planPrice;
-            if (newBalance < 0) {
+            // Lưu invoice trước để bút toán ví có InvoiceId (trừ ví thất bại → rollback cả invoice)
+            invoice.setInvoiceStatus(Invoice.InvoiceStatus.PENDING);
+            invoice.setTotalAmount(planPrice);
+            Invoice savedInvoice = invoiceRepository.save(invoice);
+
+            // Trừ tiền ví: UPDATE có điều kiện → 2 request mua gói song song không trừ quá số dư
+            OptionalDouble newBalance = walletService.tryDebit(user.getUserId(), planPrice,
+                    WalletLedgerEntry.EntryType.SUBSCRIPTION_PAYMENT, "INVOICE", savedInvoice.getInvoiceId(),
+                    "Mua gói " + plan.getPlanName());
+            if (newBalance.isEmpty()) {
                 throw new IllegalStateException("Số dư ví sau giao dịch không thể âm");
             }
-
-            user.setWalletBalance(newBalance);
-            userRepository.save(user);
+            user.setWalletBalance(newBalance.getAsDouble());
 
             // Đánh dấu invoice đã thanh toán
-            invoice.setInvoiceStatus(Invoice.InvoiceStatus.PAID);
-            invoice.setTotalAmount(planPrice);
-            Invoice savedInvoice = invoiceRepository.save(invoice);
+            savedInvoice.setInvoiceStatus(Invoice.InvoiceStatus.PAID);
+            savedInvoice = invoiceRepository.save(savedInvoice);
 
             // Ghi lại payment thành công (WALLET)
             Payment payment = Payment.builder()
@@ -189,10 +199,12 @@ public class SubscriptionService {
             LocalDateTime newEndDate = currentEndDate.plusDays(plan.getDurationInDays());
 
             existingSub.setEndDate(newEndDate);
-            existingSub.setUsedSwaps(0);
             existingSub.setStatus(UserSubscription.SubscriptionStatus.ACTIVE);
 
             UserSubscription savedSubscription = userSubscriptionRepository.save(existingSub);
+            subscriptionQuotaService.reset(existingSub.getId());
+            savedSubscription.setUsedSwaps(0);
+            cacheEvictionService.evictActiveSubscription(user.getUserId());
             log.info("Đã GIA HẠN thành công Gói {} cho User {}. Hạn mới: {}",
                     plan.getPlanName(), user.getUserId(), newEndDate);
             return savedSubscription;
@@ -215,6 +227,7 @@ public class SubscriptionService {
                     .build();
 
             UserSubscription savedSubscription = userSubscriptionRepository.save(newSubscription);
+            cacheEvictionService.evictActiveSubscription(user.getUserId());
             log.info("Đã kích hoạt MỚI thành công Gói {} cho User {}",
                     plan.getPlanName(), user.getUserId());
             return savedSubscription;
@@ -282,6 +295,7 @@ public class SubscriptionService {
 
         activeSub.setAutoRenew(false);
         UserSubscription savedSub = userSubscriptionRepository.save(activeSub);
+        cacheEvictionService.evictActiveSubscription(userId);
         log.info("User {} đã TẮT AUTO-RENEW cho Gói {}", userId, savedSub.getPlan().getPlanName());
         return savedSub;
     }
@@ -292,6 +306,7 @@ public class SubscriptionService {
      * (Giữ nguyên)
      */
     @Transactional(readOnly = true)
+    @Cacheable(value = CacheConfig.ACTIVE_SUBSCRIPTIONS, key = "#userId")
     public Map<String, Object> getActiveSubscription(String userId) {
         // ✅ Tối ưu: gọi query nhẹ, không cần fetch user entity
         List<Map<String, Object>> result = userSubscriptionRepository.findActiveSubscriptionSimple(userId);
@@ -394,6 +409,7 @@ public class SubscriptionService {
      * (Giữ nguyên, phiên bản này đã đúng)
      */
     @Transactional(readOnly = true)
+    @Cacheable(CacheConfig.SUBSCRIPTION_PLANS)
     public List<Map<String, Object>> getAllSubscriptionPlans() {
         List<Map<String, Object>> rows = subscriptionPlanRepository.findAllSimplePlans();
 
@@ -454,21 +470,21 @@ public class SubscriptionService {
                 ? invoice.getNumberOfSwaps()
                 : 1;
 
-        // d. Kiểm tra lượt đổi pin (Swap Limit)
+        // --- 4. THỰC THI (EXECUTION) ---
+
+        // a. Kiểm tra + trừ đúng số lượt theo số pin trong 1 câu UPDATE có điều kiện (Swap Limit)
         int limit = activeSub.getPlan().getSwapLimit();
-        int used = activeSub.getUsedSwaps();
-        if (limit != -1 && (used + swapsNeeded) > limit) {
+        int usedAfter = subscriptionQuotaService.tryConsume(activeSub, swapsNeeded);
+        if (usedAfter < 0) {
+            int used = activeSub.getUsedSwaps();
             throw new IllegalStateException(String.format(
                     "Gói của bạn không đủ số lần đổi, cần %d lượt, bạn hiện còn lại %d/%d lượt. Vui lòng thử lại phương thức thanh toán khác.",
-                    swapsNeeded, (limit - used), limit
+                    swapsNeeded, Math.max(0, limit - used), limit
             ));
         }
-
-        // --- 4. THỰC THI (EXECUTION) ---
-
-        // a. Trừ đúng số lượt theo số pin: Tăng 'usedSwaps'
-        activeSub.setUsedSwaps(activeSub.getUsedSwaps() + swapsNeeded);
-        UserSubscription updatedSub = userSubscriptionRepository.save(activeSub);
+        activeSub.setUsedSwaps(usedAfter);
+        UserSubscription updatedSub = activeSub;
+        cacheEvictionService.evictActiveSubscription(request.getUserId());
         log.info("User {} đã dùng {} lượt. (Đã dùng: {}/{}).",
                 request.getUserId(), swapsNeeded, updatedSub.getUsedSwaps(), limit);
 
@@ -538,6 +554,7 @@ public class SubscriptionService {
         activeSub.setStatus(UserSubscription.SubscriptionStatus.CANCELLED);
         activeSub.setAutoRenew(false);
         userSubscriptionRepository.save(activeSub);
+        subscriptionQuotaService.evict(activeSub.getId());
 
         User user = activeSub.getUser();
 
@@ -552,8 +569,9 @@ public class SubscriptionService {
         }
 
         // 5. Cộng tiền ví user
-        user.setWalletBalance(user.getWalletBalance() + refundAmount);
-        userRepository.save(user);
+        user.setWalletBalance(walletService.credit(user.getUserId(), refundAmount,
+                WalletLedgerEntry.EntryType.REFUND, "INVOICE", originalInvoice.getInvoiceId(),
+                "Hoàn tiền hủy gói cước"));
 
         // 6. Tạo invoice REFUND mới
         Invoice refundInvoice = new Invoice();
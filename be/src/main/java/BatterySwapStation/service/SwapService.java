@@ -3,15 +3,11 @@ package BatterySwapStation.service;
 import BatterySwapStation.dto.*;
 import BatterySwapStation.entity.*;
 import BatterySwapStation.repository.*;
-import BatterySwapStation.websocket.BatterySocketController;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import BatterySwapStation.websocket.StationEventBroadcaster;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationContext;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
@@ -22,15 +18,13 @@ import java.util.*;
 @RequiredArgsConstructor
 public class SwapService {
 
-    @Autowired
-    private ApplicationContext context;
     private final SwapRepository swapRepository;
     private final BookingRepository bookingRepository;
     private final BatteryRepository batteryRepository;
     private final DockSlotRepository dockSlotRepository;
     private final StaffAssignRepository staffAssignRepository;
-    private final BatterySocketController batterySocketController;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StationEventBroadcaster stationEventBroadcaster;
+    private final SlotCapacityLedger slotCapacityLedger;
 
     // ====================== CANCEL SWAP ======================
     @Transactional
@@ -42,6 +36,7 @@ public class SwapService {
                 .orElse(null);
 
         if (swap == null) {
+            slotCapacityLedger.release(booking);
             booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
             booking.setCancellationReason("Staff hủy booking (chưa phát sinh swap).");
             bookingRepository.save(booking);
@@ -52,6 +47,7 @@ public class SwapService {
         String batteryOutId = swap.getBatteryOutId();
         String batteryInId = swap.getBatteryInId();
         if (batteryOutId == null || batteryInId == null) {
+            slotCapacityLedger.release(booking);
             booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
             booking.setCancellationReason("Thiếu thông tin pin.");
             swap.setStatus(Swap.SwapStatus.CANCELLED);
@@ -105,6 +101,7 @@ public class SwapService {
         dockSlotRepository.saveAll(List.of(slotForOut, slotForIn));
         batteryRepository.saveAll(List.of(batteryOut, batteryIn));
 
+        slotCapacityLedger.release(booking);
         booking.setBookingStatus(Booking.BookingStatus.CANCELLED);
         booking.setCancellationReason("Hủy swap thành công.");
         swap.setStatus(Swap.SwapStatus.CANCELLED);
@@ -124,8 +121,16 @@ public class SwapService {
     }
 
     // ====================== COMMIT SWAP ======================
+    /**
+     * Swap nhiều pin trong 1 transaction duy nhất:
+     * khóa booking → nạp toàn bộ pin khách đưa 1 lần → khóa đủ N slot pin đầy cùng model
+     * (FOR UPDATE SKIP LOCKED, theo thứ tự dock/slot) → ghép cặp trong bộ nhớ → ghi tất cả trong 1 lần flush.
+     */
     @Transactional
     public Object commitSwap(SwapRequest request) {
+        // 🔒 Khóa booking trước khi đọc: 2 lần commit song song cho cùng booking sẽ chạy tuần tự
+        bookingRepository.lockById(request.getBookingId())
+                .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy booking ID: " + request.getBookingId()));
         Booking booking = bookingRepository.findById(request.getBookingId())
                 .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy booking ID: " + request.getBookingId()));
 
@@ -142,170 +147,156 @@ public class SwapService {
         if (batteryInIds.size() != requiredCount)
             throw new IllegalArgumentException("Số lượng pin nhập không khớp với booking yêu cầu (" + requiredCount + ").");
 
-        Integer vehicleId = booking.getVehicle().getVehicleId();
-
-        for (String batteryInId : batteryInIds) {
-            Battery battery = batteryRepository.findById(batteryInId)
-                    .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy pin #" + batteryInId));
-
-            if (battery.getBatteryType() == null)
-                throw new IllegalStateException("Pin " + batteryInId + " chưa xác định loại model.");
+        if (new HashSet<>(batteryInIds).size() != batteryInIds.size())
+            throw new IllegalArgumentException("Danh sách pin khách đưa bị trùng.");
 
-            if (!battery.getBatteryType().name().equalsIgnoreCase(booking.getBatteryType()))
-                throw new IllegalStateException("Pin " + batteryInId + " khác model (" +
-                        battery.getBatteryType().name() + " ≠ " + booking.getBatteryType() + ").");
+        Integer stationId = booking.getStation().getStationId();
+        Integer vehicleId = booking.getVehicle().getVehicleId();
 
-            // 🔥 CHECK PIN PHẢI THUỘC XE
-            if (battery.getVehicle() == null || battery.getVehicle().getVehicleId() != vehicleId)
-                throw new IllegalStateException("Pin " + batteryInId + " không thuộc xe #" + vehicleId);
+        // 1 query cho toàn bộ pin khách đưa
+        Map<String, Battery> batteriesIn = new HashMap<>();
+        for (Battery b : batteryRepository.findAllById(batteryInIds)) {
+            batteriesIn.put(b.getBatteryId(), b);
         }
 
-        long availableCount = dockSlotRepository
-                .countByDock_Station_StationIdAndBattery_BatteryStatus(
-                        booking.getStation().getStationId(), Battery.BatteryStatus.AVAILABLE);
-
-        if (availableCount < requiredCount)
-            throw new IllegalStateException("Không đủ pin đầy khả dụng để swap.");
+        List<Battery> orderedIn = new ArrayList<>(batteryInIds.size());
+        for (String batteryInId : batteryInIds) {
+            Battery battery = batteriesIn.get(batteryInId);
+            if (battery == null)
+                throw new IllegalArgumentException("Không tìm thấy pin #" + batteryInId);
+            validateBatteryIn(battery, booking, stationId, vehicleId);
+            orderedIn.add(battery);
+        }
 
         String currentStaffUserId = resolveStaffUserId(request);
-        boolean staffInStation = staffAssignRepository.existsActiveAssign(
-                booking.getStation().getStationId(), currentStaffUserId);
+        boolean staffInStation = staffAssignRepository.existsActiveAssign(stationId, currentStaffUserId);
 
         if (!staffInStation)
             throw new IllegalStateException("Nhân viên không thuộc trạm này, không thể thực hiện swap.");
 
-        Set<String> usedDockSlots = new HashSet<>();
-        List<SwapResponseDTO> results = new ArrayList<>();
+        // 🔒 Khóa đủ N slot pin đầy cùng model; slot đang bị swap khác giữ sẽ bị bỏ qua (không chờ)
+        List<Integer> lockedSlotIds = dockSlotRepository.lockAvailableSlotIds(
+                stationId, orderedIn.get(0).getBatteryType().name(), requiredCount);
+        if (lockedSlotIds.size() < requiredCount)
+            throw new IllegalStateException("Không đủ pin đầy khả dụng để swap.");
 
-        for (String batteryInId : batteryInIds) {
-            SwapService self = context.getBean(SwapService.class);
-            SwapResponseDTO res = self.handleSingleSwap(booking, batteryInId, currentStaffUserId, usedDockSlots);
-            usedDockSlots.add(res.getDockOutSlot());
-            results.add(res);
+        Map<Integer, DockSlot> slotsById = new HashMap<>();
+        for (DockSlot slot : dockSlotRepository.findAllWithBatteryByIdIn(lockedSlotIds)) {
+            slotsById.put(slot.getDockSlotId(), slot);
+        }
+
+        // Ghép cặp trong bộ nhớ: pin khách thứ i ↔ slot thứ i (theo thứ tự dock/slot)
+        LocalDateTime now = LocalDateTime.now();
+        List<Battery> changedBatteries = new ArrayList<>(requiredCount * 2);
+        List<DockSlot> changedSlots = new ArrayList<>(requiredCount);
+        List<Swap> swaps = new ArrayList<>(requiredCount);
+
+        for (int i = 0; i < requiredCount; i++) {
+            DockSlot dockOutSlot = slotsById.get(lockedSlotIds.get(i));
+            Battery batteryIn = orderedIn.get(i);
+            Battery batteryOut = dockOutSlot.getBattery();
+            String dockCode = dockOutSlot.getDock().getDockName() + dockOutSlot.getSlotNumber();
+
+            // 🟦 Pin OUT -> giao khách, gắn vào đúng xe
+            batteryOut.setBatteryStatus(Battery.BatteryStatus.IN_USE);
+            batteryOut.setStationId(null);
+            batteryOut.setDockSlot(null);
+            batteryOut.setVehicle(booking.getVehicle());
+
+            dockOutSlot.setBattery(null);
+            dockOutSlot.setSlotStatus(DockSlot.SlotStatus.EMPTY);
+            sendRealtimeUpdate(dockOutSlot, "REMOVED");
+
+            // 🟩 Pin IN -> WAITING, gỡ khỏi xe, vào slot vừa trống
+            batteryIn.setBatteryStatus(Battery.BatteryStatus.WAITING);
+            batteryIn.setStationId(stationId);
+            batteryIn.setVehicle(null);
+            batteryIn.setDockSlot(dockOutSlot);
+
+            if (batteryIn.getCurrentCapacity() == null || batteryIn.getCurrentCapacity() <= 0.0)
+                batteryIn.setCurrentCapacity(10.0);
+
+            dockOutSlot.setBattery(batteryIn);
+            dockOutSlot.setSlotStatus(DockSlot.SlotStatus.OCCUPIED);
+
+            sendRealtimeUpdate(dockOutSlot, "INSERTED");
+            sendRealtimeUpdate(dockOutSlot, "STATUS_CHANGED");
+
+            changedBatteries.add(batteryOut);
+            changedBatteries.add(batteryIn);
+            changedSlots.add(dockOutSlot);
+            swaps.add(Swap.builder()
+                    .booking(booking)
+                    .dockId(dockOutSlot.getDock().getDockId())
+                    .userId(booking.getUser().getUserId())
+                    .batteryOutId(batteryOut.getBatteryId())
+                    .batteryInId(batteryIn.getBatteryId())
+                    .staffUserId(currentStaffUserId)
+                    .status(Swap.SwapStatus.SUCCESS)
+                    .dockOutSlot(dockCode)
+                    .dockInSlot(dockCode)
+                    .completedTime(now)
+                    .description("Swap xong: giao " + batteryOut.getBatteryId() +
+                            ", nhận " + batteryIn.getBatteryId() + " (chờ kiểm tra/sạc)")
+                    .build());
         }
 
+        slotCapacityLedger.release(booking);
         booking.setBookingStatus(Booking.BookingStatus.COMPLETED);
         booking.setCompletedTime(LocalDate.now());
+
+        // Ghi tất cả pin / slot / swap / booking trong 1 lần flush (UPDATE gom theo hibernate.jdbc.batch_size)
+        batteryRepository.saveAll(changedBatteries);
+        dockSlotRepository.saveAll(changedSlots);
+        swapRepository.saveAll(swaps);
         bookingRepository.save(booking);
+        swapRepository.flush();
+
+        List<SwapResponseDTO> results = new ArrayList<>(swaps.size());
+        for (Swap swap : swaps) {
+            results.add(SwapResponseDTO.builder()
+                    .swapId(swap.getSwapId())
+                    .status("SUCCESS")
+                    .message("Swap thành công: giao " + swap.getBatteryOutId() +
+                            ", nhận " + swap.getBatteryInId() + " (chờ kiểm tra/sạc)")
+                    .bookingId(booking.getBookingId())
+                    .batteryOutId(swap.getBatteryOutId())
+                    .batteryInId(swap.getBatteryInId())
+                    .dockOutSlot(swap.getDockOutSlot())
+                    .dockInSlot(swap.getDockInSlot())
+                    .build());
+        }
         return results;
     }
 
-    // ====================== HANDLE SINGLE SWAP ======================
-    // ====================== HANDLE SINGLE SWAP ======================
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    protected SwapResponseDTO handleSingleSwap(
-            Booking booking, String batteryInId, String staffUserId, Set<String> usedDockSlots) {
+    private void validateBatteryIn(Battery battery, Booking booking, Integer stationId, Integer vehicleId) {
+        String batteryInId = battery.getBatteryId();
 
-        // ===== FIX SESSION: TRÁNH LỖI proxy với 2 open sessions =====
-        booking = bookingRepository.findById(booking.getBookingId())
-                .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy booking trong session mới"));
-        // =============================================================
+        if (battery.getBatteryType() == null)
+            throw new IllegalStateException("Pin " + batteryInId + " chưa xác định loại model.");
 
-        Integer stationId = booking.getStation().getStationId();
+        if (!battery.getBatteryType().name().equalsIgnoreCase(booking.getBatteryType()))
+            throw new IllegalStateException("Pin " + batteryInId + " khác model (" +
+                    battery.getBatteryType().name() + " ≠ " + booking.getBatteryType() + ").");
 
-        Battery batteryIn = batteryRepository.findById(batteryInId)
-                .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy pin khách đưa: " + batteryInId));
+        // 🔥 CHECK PIN PHẢI THUỘC XE
+        if (battery.getVehicle() == null || !Objects.equals(battery.getVehicle().getVehicleId(), vehicleId))
+            throw new IllegalStateException("Pin " + batteryInId + " không thuộc xe #" + vehicleId);
 
-        if (!batteryIn.isActive())
+        if (!battery.isActive())
             throw new IllegalStateException("Pin " + batteryInId + " bị vô hiệu hoá.");
 
-        if (batteryIn.getBatteryStatus() == Battery.BatteryStatus.MAINTENANCE)
+        if (battery.getBatteryStatus() == Battery.BatteryStatus.MAINTENANCE)
             throw new IllegalStateException("Pin " + batteryInId + " đang bảo trì.");
 
-        if (batteryIn.getStationId() != null && !batteryIn.getStationId().equals(stationId))
-            throw new IllegalStateException("Pin nhập thuộc trạm khác (#" + batteryIn.getStationId() + ").");
+        if (battery.getStationId() != null && !battery.getStationId().equals(stationId))
+            throw new IllegalStateException("Pin nhập thuộc trạm khác (#" + battery.getStationId() + ").");
 
-        if (batteryIn.getDockSlot() != null) {
-            DockSlot s = batteryIn.getDockSlot();
-            throw new IllegalStateException("Pin " + batteryIn.getBatteryId() +
+        if (battery.getDockSlot() != null) {
+            DockSlot s = battery.getDockSlot();
+            throw new IllegalStateException("Pin " + batteryInId +
                     " đang nằm ở dock " + s.getDock().getDockName() + s.getSlotNumber());
         }
-
-        List<DockSlot> candidateSlots = dockSlotRepository
-                .findAllByDock_Station_StationIdAndBattery_BatteryTypeAndBattery_BatteryStatusAndSlotStatusOrderByDock_DockNameAscSlotNumberAsc(
-                        stationId,
-                        batteryIn.getBatteryType(),
-                        Battery.BatteryStatus.AVAILABLE,
-                        DockSlot.SlotStatus.OCCUPIED
-                );
-
-        candidateSlots.removeIf(slot ->
-                slot.getBattery() == null ||
-                        slot.getBattery().getBatteryStatus() != Battery.BatteryStatus.AVAILABLE ||
-                        usedDockSlots.contains(slot.getDock().getDockName() + slot.getSlotNumber())
-        );
-
-        DockSlot dockOutSlot = candidateSlots.stream()
-                .findFirst()
-                .orElseThrow(() -> new IllegalStateException("Không còn pin đầy sẵn sàng để swap."));
-
-        Battery batteryOut = dockOutSlot.getBattery();
-        String dockCode = dockOutSlot.getDock().getDockName() + dockOutSlot.getSlotNumber();
-
-        // 🟦 Pin OUT -> giao khách
-        batteryOut.setBatteryStatus(Battery.BatteryStatus.IN_USE);
-        batteryOut.setStationId(null);
-        batteryOut.setDockSlot(null);
-
-        // 🔥 Pin OUT gắn vào đúng xe
-        batteryOut.setVehicle(booking.getVehicle());
-
-        batteryRepository.save(batteryOut);
-
-        dockOutSlot.setBattery(null);
-        dockOutSlot.setSlotStatus(DockSlot.SlotStatus.EMPTY);
-        dockSlotRepository.save(dockOutSlot);
-        sendRealtimeUpdate(dockOutSlot, "REMOVED");
-
-        // 🟩 Pin IN -> WAITING
-        batteryIn.setBatteryStatus(Battery.BatteryStatus.WAITING);
-        batteryIn.setStationId(stationId);
-
-        // 🔥 Xoá pin IN khỏi xe nếu trước đó gắn vào xe khác
-        batteryIn.setVehicle(null);
-
-        batteryIn.setDockSlot(dockOutSlot);
-
-        if (batteryIn.getCurrentCapacity() == null || batteryIn.getCurrentCapacity() <= 0.0)
-            batteryIn.setCurrentCapacity(10.0);
-
-        dockOutSlot.setBattery(batteryIn);
-        dockOutSlot.setSlotStatus(DockSlot.SlotStatus.OCCUPIED);
-
-        batteryRepository.save(batteryIn);
-        dockSlotRepository.save(dockOutSlot);
-
-        sendRealtimeUpdate(dockOutSlot, "INSERTED");
-        sendRealtimeUpdate(dockOutSlot, "STATUS_CHANGED");
-
-        Swap swap = Swap.builder()
-                .booking(booking)
-                .dockId(dockOutSlot.getDock().getDockId())
-                .userId(booking.getUser().getUserId())
-                .batteryOutId(batteryOut.getBatteryId())
-                .batteryInId(batteryIn.getBatteryId())
-                .staffUserId(staffUserId)
-                .status(Swap.SwapStatus.SUCCESS)
-                .dockOutSlot(dockCode)
-                .dockInSlot(dockCode)
-                .completedTime(LocalDateTime.now())
-                .description("Swap xong: giao " + batteryOut.getBatteryId() +
-                        ", nhận " + batteryIn.getBatteryId() + " (chờ kiểm tra/sạc)")
-                .build();
-
-        swapRepository.save(swap);
-
-        return SwapResponseDTO.builder()
-                .swapId(swap.getSwapId())
-                .status("SUCCESS")
-                .message("Swap thành công: giao " + batteryOut.getBatteryId() +
-                        ", nhận " + batteryIn.getBatteryId() + " (chờ kiểm tra/sạc)")
-                .bookingId(booking.getBookingId())
-                .batteryOutId(batteryOut.getBatteryId())
-                .batteryInId(batteryIn.getBatteryId())
-                .dockOutSlot(dockCode)
-                .dockInSlot(dockCode)
-                .build();
     }
 
 
@@ -331,8 +322,7 @@ public class SwapService {
                     .timestamp(LocalDateTime.now().toString())
                     .build();
 
-            String json = objectMapper.writeValueAsString(event);
-            batterySocketController.broadcastToStation(event.getStationId(), json);
+            stationEventBroadcaster.publish(event);
         } catch (Exception e) {
             e.printStackTrace();
         }
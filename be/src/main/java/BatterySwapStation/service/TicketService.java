@@ -16,6 +16,7 @@ import org.springframework.transaction.annotation.Transactional;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalDouble;
 
 @Service
 @RequiredArgsConstructor
@@ -31,6 +32,9 @@ public class TicketService {
     private final UserService userService;
     private final SystemPriceService systemPriceService;
     private final UserSubscriptionRepository userSubscriptionRepository;
+    private final CacheEvictionService cacheEvictionService;
+    private final WalletService walletService;
+    private final SubscriptionQuotaService subscriptionQuotaService;
 
 
     // ----------------------------------------------------------------------
@@ -288,11 +292,12 @@ public class TicketService {
 
     private TicketResponse handleWalletPenalty(DisputeTicket ticket, User user,
                                                Invoice invoice, Double amount, TicketResolveRequest req) {
-        if (user.getWalletBalance() < amount)
+        OptionalDouble balance = walletService.tryDebit(user.getUserId(), amount,
+                WalletLedgerEntry.EntryType.PENALTY_PAYMENT, "INVOICE", invoice.getInvoiceId(),
+                "Thanh toán phạt ticket #" + ticket.getId());
+        if (balance.isEmpty())
             throw new IllegalStateException("Ví không đủ tiền để thanh toán phạt");
-
-        user.setWalletBalance(user.getWalletBalance() - amount);
-        userRepository.save(user);
+        user.setWalletBalance(balance.getAsDouble());
 
         log.info("💰 [TICKET:{}] Penalty WALLET | Level={} | Amount={}",
                 ticket.getId(), req.getPenaltyLevel(), amount);
@@ -421,10 +426,10 @@ public class TicketService {
                 UserSubscription sub = subOpt.get();
 
                 before = sub.getUsedSwaps();
-                after = Math.max(0, before - swapsUsed);
+                after = subscriptionQuotaService.release(sub, swapsUsed);
 
                 sub.setUsedSwaps(after);
-                userSubscriptionRepository.save(sub);
+                cacheEvictionService.evictActiveSubscription(user.getUserId());
 
                 log.info("🔄 Hoàn {} lượt swap ({} → {}) cho user {}.",
                         swapsUsed, before, after, user.getUserId());
@@ -469,9 +474,9 @@ public class TicketService {
         // 2️⃣ — TRƯỜNG HỢP HOÀN TIỀN (booking đã thanh toán)
         // ======================================================================================
 
-        double currentBalance = Optional.ofNullable(user.getWalletBalance()).orElse(0.0);
-        user.setWalletBalance(currentBalance + refundAmount);
-        userRepository.save(user);
+        user.setWalletBalance(walletService.credit(user.getUserId(), refundAmount,
+                WalletLedgerEntry.EntryType.REFUND, "TICKET", ticket.getId(),
+                "Hoàn tiền booking #" + booking.getBookingId() + " theo ticket #" + ticket.getId()));
 
         // Tạo invoice refund mới
         Invoice refundInvoice = new Invoice();
@@ -32,6 +32,7 @@ public class UserService {
     private final StaffAssignRepository staffAssignRepository;
     private final UserSubscriptionRepository userSubscriptionRepository;
     private final UserIdGenerator userIdGenerator;
+    private final CacheEvictionService cacheEvictionService;
 
 
     public User registerUser(RegisterRequest req) {
@@ -101,6 +102,7 @@ public class UserService {
         // 4. Mã hóa và lưu mật khẩu mới
         user.setPassword(passwordEncoder.encode(request.getNewPassword()));
         userRepository.save(user);
+        cacheEvictionService.evictAuthPrincipals(user.getUserId());
 
         log.info("User {} đã đổi mật khẩu thành công.", user.getUserId());
     }
@@ -125,6 +127,7 @@ public class UserService {
         log.info("User {} đang đổi SĐT từ {} sang {}", user.getUserId(), user.getPhone(), newPhone);
         user.setPhone(newPhone); // (Giả sử hàm set SĐT là setPhone)
         userRepository.save(user);
+        cacheEvictionService.evictAuthPrincipals(user.getUserId());
     }
 
     /**
@@ -154,6 +157,7 @@ public class UserService {
 
         // Xoá user — orphanRemoval = true sẽ tự xoá vehicle + booking
         userRepository.delete(user);
+        cacheEvictionService.evictAuthPrincipals(userId);
     }
 
 }
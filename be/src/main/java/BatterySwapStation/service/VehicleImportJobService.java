@@ -0,0 +1,464 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.VehicleImportErrorDTO;
+import BatterySwapStation.dto.VehicleImportJobResponse;
+import BatterySwapStation.entity.VehicleImportJob;
+import BatterySwapStation.repository.VehicleImportJobErrorRepository;
+import BatterySwapStation.repository.VehicleImportJobRepository;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 🚚 Import xe CSV chạy nền:
+ * - Upload được spool ra file tạm (vừa copy vừa băm SHA-256), request trả về jobId ngay
+ * - Job chạy VehicleImportService theo lô; mỗi lô commit kèm checkpoint + lỗi của lô → chỉ giữ connection trong 1 lô
+ * - Tiến độ lưu ở VehicleImportJob + đẩy qua STOMP /topic/vehicle-import-jobs/{jobId}
+ * - Cùng file (cùng hash) tải lại: job đang chạy / đã xong → trả job cũ; job FAILED → chạy tiếp từ checkpoint
+ */
+@Service
+@Slf4j
+public class VehicleImportJobService {
+
+    private static final int WORKERS = 2;
+    private static final int QUEUE_CAPACITY = 10;
+
+    // RUNNING mà không có lô nào commit trong khoảng này → coi như instance đã dừng
+    private static final Duration RUNNING_STALE_AFTER = Duration.ofMinutes(10);
+    // QUEUED có thể phải chờ job khác trên cùng instance → nới rộng hơn
+    private static final Duration QUEUED_STALE_AFTER = Duration.ofHours(2);
+    // Giữ file spool của job FAILED để tự chạy tiếp / tải lại
+    private static final Duration FAILED_SPOOL_TTL = Duration.ofDays(3);
+
+    private static final String INSERT_ERROR_SQL = """
+            INSERT INTO VehicleImportJobError (JobId, RowNumber, VIN, LicensePlate, Errors)
+            VALUES (?, ?, ?, ?, ?)
+            """;
+
+    private final VehicleImportJobRepository jobRepository;
+    private final VehicleImportJobErrorRepository errorRepository;
+    private final VehicleImportService vehicleImportService;
+    private final SchedulerLeaseService schedulerLeaseService;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final Path spoolDir;
+
+    private final ThreadPoolExecutor executor;
+
+    // jobId đang chờ / chạy trên instance này
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Object submitLock = new Object();
+
+    public VehicleImportJobService(VehicleImportJobRepository jobRepository,
+                                   VehicleImportJobErrorRepository errorRepository,
+                                   VehicleImportService vehicleImportService,
+                                   SchedulerLeaseService schedulerLeaseService,
+                                   SimpMessagingTemplate messagingTemplate,
+                                   JdbcTemplate jdbcTemplate,
+                                   @Value("${app.vehicle-import.spool-dir:}") String spoolDir) {
+        this.jobRepository = jobRepository;
+        this.errorRepository = errorRepository;
+        this.vehicleImportService = vehicleImportService;
+        this.schedulerLeaseService = schedulerLeaseService;
+        this.messagingTemplate = messagingTemplate;
+        this.jdbcTemplate = jdbcTemplate;
+        this.spoolDir = spoolDir == null || spoolDir.isBlank()
+                ? Path.of(System.getProperty("java.io.tmpdir"), "vehicle-import")
+                : Path.of(spoolDir);
+
+        AtomicInteger threadNo = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+                r -> {
+                    Thread t = new Thread(r, "vehicle-import-" + threadNo.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // ==================== SUBMIT ====================
+
+    public VehicleImportJobResponse submit(MultipartFile file, String requestedBy) throws IOException {
+        vehicleImportService.validateUpload(file);
+
+        Files.createDirectories(spoolDir);
+        Path tmp = Files.createTempFile(spoolDir, "upload-", ".part");
+        String hash;
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(file.getInputStream(), sha)) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            hash = HexFormat.of().formatHex(sha.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Files.deleteIfExists(tmp);
+            if (e instanceof IOException io) throw io;
+            throw new IllegalStateException("SHA-256 không khả dụng", e);
+        }
+
+        VehicleImportJob job;
+        boolean resumed;
+        synchronized (submitLock) {
+            Optional<VehicleImportJob> existing = jobRepository.findByFileHash(hash);
+            if (existing.isPresent() && existing.get().getStatus() != VehicleImportJob.JobStatus.FAILED) {
+                Files.deleteIfExists(tmp);
+                log.info("🚚 File import {} trùng với job {} ({})", hash, existing.get().getJobId(), existing.get().getStatus());
+                return toResponse(existing.get(), true);
+            }
+
+            resumed = existing.isPresent();
+            job = existing.orElseGet(() -> VehicleImportJob.builder()
+                    .jobId(UUID.randomUUID().toString())
+                    .fileHash(hash)
+                    .fileName(truncate(file.getOriginalFilename(), 255))
+                    .requestedBy(requestedBy)
+                    .createdAt(LocalDateTime.now())
+                    .build());
+
+            Path target = spoolDir.resolve(job.getJobId() + ".csv");
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+
+            job.setFileSize(Files.size(target));
+            job.setSpoolPath(target.toString());
+            job.setStatus(VehicleImportJob.JobStatus.QUEUED);
+            job.setMessage(resumed ? "Chờ chạy tiếp sau dòng " + job.getCheckpointLine() : "Đang chờ xử lý");
+            job.setError(null);
+            job.setFinishedAt(null);
+            job.setUpdatedAt(LocalDateTime.now());
+
+            try {
+                job = jobRepository.saveAndFlush(job);
+            } catch (DataIntegrityViolationException e) {
+                // Instance khác vừa nhận cùng file
+                Files.deleteIfExists(target);
+                return jobRepository.findByFileHash(hash)
+                        .map(j -> toResponse(j, true))
+                        .orElseThrow(() -> e);
+            }
+        }
+
+        enqueue(job.getJobId());
+        publish(job);
+        log.info("🚚 Đã nhận import job {} ({} byte){} - hàng đợi {}/{}", job.getJobId(), job.getFileSize(),
+                resumed ? ", chạy tiếp sau dòng " + job.getCheckpointLine() : "",
+                executor.getQueue().size(), QUEUE_CAPACITY);
+        return toResponse(job, resumed);
+    }
+
+    private void enqueue(String jobId) {
+        inFlight.add(jobId);
+        try {
+            executor.execute(() -> run(jobId));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(jobId);
+            update(jobId, j -> {
+                j.setStatus(VehicleImportJob.JobStatus.FAILED);
+                j.setError("Hàng đợi import đã đầy");
+                j.setMessage("Tải lại cùng file để chạy tiếp");
+                j.setFinishedAt(LocalDateTime.now());
+            });
+            throw new IllegalStateException("Hàng đợi import đang đầy, vui lòng thử lại sau");
+        }
+    }
+
+    // ==================== RUN ====================
+
+    private void run(String jobId) {
+        long start = System.nanoTime();
+        try {
+            VehicleImportJob job = jobRepository.findById(jobId).orElse(null);
+            if (job == null || job.getStatus() != VehicleImportJob.JobStatus.QUEUED || job.getSpoolPath() == null) {
+                return;
+            }
+
+            Path spool = Path.of(job.getSpoolPath());
+            long size = Math.max(1, Files.size(spool));
+            int resumeAfter = job.getCheckpointLine();
+
+            update(jobId, j -> {
+                j.setStatus(VehicleImportJob.JobStatus.RUNNING);
+                if (j.getStartedAt() == null) j.setStartedAt(LocalDateTime.now());
+                j.setMessage(resumeAfter > 0 ? "Chạy tiếp sau dòng " + resumeAfter : "Đang import");
+            });
+
+            try (CountingInputStream in = new CountingInputStream(
+                    new BufferedInputStream(Files.newInputStream(spool), 64 * 1024))) {
+                vehicleImportService.importVehicles(in, resumeAfter, errors -> { },
+                        chunk -> checkpoint(jobId, chunk, in.count * 100 / size));
+            }
+
+            VehicleImportJob done = update(jobId, j -> {
+                j.setStatus(VehicleImportJob.JobStatus.SUCCEEDED);
+                j.setProgress(100);
+                j.setMessage("Hoàn tất: " + j.getSuccessCount() + " thành công, " + j.getFailureCount() + " lỗi");
+                j.setSpoolPath(null);
+                j.setFinishedAt(LocalDateTime.now());
+            });
+            Files.deleteIfExists(spool);
+            log.info("✅ Import job {} xong: {} dòng, {} thành công, {} lỗi, {} ms", jobId, done.getTotalRows(),
+                    done.getSuccessCount(), done.getFailureCount(), (System.nanoTime() - start) / 1_000_000);
+
+        } catch (Exception e) {
+            log.error("❌ Import job {} lỗi: {}", jobId, e.getMessage(), e);
+            try {
+                update(jobId, j -> {
+                    j.setStatus(VehicleImportJob.JobStatus.FAILED);
+                    j.setError(truncate(e.getMessage(), 1000));
+                    j.setMessage("Dừng sau dòng " + j.getCheckpointLine() + " - tải lại cùng file để chạy tiếp");
+                    j.setFinishedAt(LocalDateTime.now());
+                });
+            } catch (Exception ex) {
+                log.warn("Không cập nhật được trạng thái FAILED cho import job {}: {}", jobId, ex.getMessage());
+            }
+        } finally {
+            inFlight.remove(jobId);
+        }
+    }
+
+    /**
+     * Chạy TRONG transaction của lô: checkpoint + lỗi của lô commit cùng dữ liệu xe,
+     * chạy lại từ CheckpointLine không ghi trùng.
+     */
+    private void checkpoint(String jobId, VehicleImportService.ChunkResult chunk, long percent) {
+        VehicleImportJob job = jobRepository.findById(jobId)
+                .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy import job: " + jobId));
+        job.setCheckpointLine(chunk.lastLine());
+        job.setChunksDone(job.getChunksDone() + 1);
+        job.setTotalRows(job.getTotalRows() + chunk.rows());
+        job.setSuccessCount(job.getSuccessCount() + chunk.successCount());
+        job.setFailureCount(job.getFailureCount() + chunk.failureCount());
+        job.setProgress((int) Math.min(99, Math.max(job.getProgress(), percent)));
+        job.setMessage("Đã xử lý " + job.getTotalRows() + " dòng");
+        job.setUpdatedAt(LocalDateTime.now());
+        VehicleImportJob saved = jobRepository.save(job);
+
+        List<VehicleImportErrorDTO> errors = chunk.errors();
+        if (!errors.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_ERROR_SQL, errors, errors.size(), (ps, e) -> {
+                ps.setString(1, jobId);
+                ps.setInt(2, e.getRow());
+                ps.setString(3, truncate(e.getVIN(), 100));
+                ps.setString(4, truncate(e.getLicensePlate(), 100));
+                ps.setString(5, truncate(String.join("; ", e.getErrors()), 2000));
+            });
+        }
+
+        VehicleImportJobResponse snapshot = toResponse(saved, false);
+        runAfterCommit(() -> send(jobId, snapshot));
+    }
+
+    private VehicleImportJob update(String jobId, Consumer<VehicleImportJob> change) {
+        VehicleImportJob job = jobRepository.findById(jobId)
+                .orElseThrow(() -> new EntityNotFoundException("Không tìm thấy import job: " + jobId));
+        change.accept(job);
+        job.setUpdatedAt(LocalDateTime.now());
+        VehicleImportJob saved = jobRepository.save(job);
+        publish(saved);
+        return saved;
+    }
+
+    private void publish(VehicleImportJob job) {
+        send(job.getJobId(), toResponse(job, false));
+    }
+
+    private void send(String jobId, VehicleImportJobResponse payload) {
+        try {
+            messagingTemplate.convertAndSend("/topic/vehicle-import-jobs/" + jobId, payload);
+        } catch (Exception e) {
+            log.debug("Không gửi được tiến độ import job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    // ==================== READ ====================
+
+    public Optional<VehicleImportJobResponse> findJob(String jobId) {
+        return jobRepository.findById(jobId).map(j -> toResponse(j, false));
+    }
+
+    /**
+     * Lỗi theo từng dòng, tối đa 500 dòng / lần, sau dòng afterRow.
+     */
+    public List<VehicleImportErrorDTO> findErrors(String jobId, int afterRow) {
+        return errorRepository.findTop500ByJobIdAndRowNumberGreaterThanOrderByRowNumberAsc(jobId, afterRow)
+                .stream()
+                .map(e -> VehicleImportErrorDTO.builder()
+                        .row(e.getRowNumber())
+                        .VIN(e.getVin())
+                        .licensePlate(e.getLicensePlate())
+                        .errors(Arrays.asList(e.getErrors().split("; ")))
+                        .build())
+                .toList();
+    }
+
+    public VehicleImportJobResponse toResponse(VehicleImportJob job, boolean deduplicated) {
+        return VehicleImportJobResponse.builder()
+                .jobId(job.getJobId())
+                .fileName(job.getFileName())
+                .fileSize(job.getFileSize())
+                .status(job.getStatus())
+                .progress(job.getProgress())
+                .message(job.getMessage())
+                .checkpointLine(job.getCheckpointLine())
+                .totalRows(job.getTotalRows())
+                .successCount(job.getSuccessCount())
+                .failureCount(job.getFailureCount())
+                .createdAt(job.getCreatedAt())
+                .startedAt(job.getStartedAt())
+                .finishedAt(job.getFinishedAt())
+                .error(job.getError())
+                .deduplicated(deduplicated)
+                .errorsUrl(job.getFailureCount() > 0
+                        ? "/api/admin/vehicles/import/jobs/" + job.getJobId() + "/errors"
+                        : null)
+                .build();
+    }
+
+    // ==================== KHÔI PHỤC / DỌN DẸP ====================
+
+    @Scheduled(fixedDelay = 300000) // 5 phút
+    public void recoverJobs() {
+        schedulerLeaseService.runExclusive("vehicle-import.recover", Duration.ofMinutes(5), token -> recover());
+    }
+
+    private void recover() {
+        LocalDateTime now = LocalDateTime.now();
+
+        // 1. Job bị bỏ dở: còn file spool trên instance này → chạy tiếp từ checkpoint, không thì FAILED (chờ tải lại)
+        List<VehicleImportJob> stale = new ArrayList<>(jobRepository.findTop50ByStatusInAndUpdatedAtBefore(
+                List.of(VehicleImportJob.JobStatus.RUNNING), now.minus(RUNNING_STALE_AFTER)));
+        stale.addAll(jobRepository.findTop50ByStatusInAndUpdatedAtBefore(
+                List.of(VehicleImportJob.JobStatus.QUEUED), now.minus(QUEUED_STALE_AFTER)));
+        stale.removeIf(j -> inFlight.contains(j.getJobId()));
+
+        int requeued = 0;
+        for (VehicleImportJob j : stale) {
+            boolean hasSpool = j.getSpoolPath() != null && Files.exists(Path.of(j.getSpoolPath()));
+            if (hasSpool) {
+                update(j.getJobId(), job -> {
+                    job.setStatus(VehicleImportJob.JobStatus.QUEUED);
+                    job.setMessage("Chờ chạy tiếp sau dòng " + job.getCheckpointLine());
+                });
+                try {
+                    enqueue(j.getJobId());
+                    requeued++;
+                } catch (IllegalStateException e) {
+                    log.warn("Không xếp lại được import job {}: {}", j.getJobId(), e.getMessage());
+                }
+            } else {
+                update(j.getJobId(), job -> {
+                    job.setStatus(VehicleImportJob.JobStatus.FAILED);
+                    job.setError("Job bị gián đoạn (instance dừng)");
+                    job.setMessage("Dừng sau dòng " + job.getCheckpointLine() + " - tải lại cùng file để chạy tiếp");
+                    job.setFinishedAt(now);
+                });
+            }
+        }
+
+        // 2. Xóa file spool của job FAILED quá lâu (tải lại cùng file vẫn chạy tiếp được từ checkpoint)
+        List<VehicleImportJob> expired = jobRepository.findTop200ByStatusAndSpoolPathIsNotNullAndUpdatedAtBefore(
+                VehicleImportJob.JobStatus.FAILED, now.minus(FAILED_SPOOL_TTL));
+        for (VehicleImportJob j : expired) {
+            try {
+                Files.deleteIfExists(Path.of(j.getSpoolPath()));
+            } catch (IOException e) {
+                log.debug("Không xóa được file spool {}: {}", j.getSpoolPath(), e.getMessage());
+            }
+            j.setSpoolPath(null);
+        }
+        jobRepository.saveAll(expired);
+
+        if (!stale.isEmpty() || !expired.isEmpty()) {
+            log.info("🧹 Import job: {} job bỏ dở ({} chạy tiếp), dọn {} file spool", stale.size(), requeued, expired.size());
+        }
+    }
+
+    private static void runAfterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private static String truncate(String s, int max) {
+        if (s == null) return null;
+        return s.length() <= max ? s : s.substring(0, max);
+    }
+
+    /** Đếm byte đã đọc từ file spool → ước lượng % tiến độ. */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -5,44 +5,125 @@ import BatterySwapStation.dto.VehicleImportErrorDTO;
 import BatterySwapStation.dto.VehicleImportResultDTO;
 import BatterySwapStation.entity.Battery;
 import BatterySwapStation.entity.Vehicle;
-import BatterySwapStation.entity.VehicleBattery;
 import BatterySwapStation.repository.BatteryRepository;
-import BatterySwapStation.repository.VehicleBatteryRepository;
 import BatterySwapStation.repository.VehicleRepository;
-import lombok.RequiredArgsConstructor;
+import BatterySwapStation.utils.CsvTokenizer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
+/**
+ * 🚗 Import xe từ CSV theo kiểu streaming.
+ * - Đọc từng record bằng CsvTokenizer (RFC 4180), gom thành lô CHUNK_SIZE dòng
+ * - Mỗi lô: parse + kiểm định dạng song song → kiểm trùng trong file → kiểm tồn tại DB theo lô (IN (...))
+ *   → INSERT batch bằng JDBC trong 1 transaction riêng
+ * - Lỗi của mỗi lô đẩy ra errorSink thành 1 danh sách ngay khi xử lý xong lô (controller stream thẳng về client)
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class VehicleImportService {
 
-    private static final String CSV_SPLIT_REGEX = ",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)";
+    static final int CHUNK_SIZE = 1000;
+    private static final int IN_LIST_CHUNK = 1000;
+    // Lô nhỏ hơn ngưỡng này parse tuần tự: chi phí chia việc cho ForkJoin lớn hơn lợi ích
+    private static final int PARALLEL_THRESHOLD = 256;
 
-    private final VehicleRepository vehicleRepository;
-    private final BatteryRepository batteryRepository;
-    private final VehicleBatteryRepository vehicleBatteryRepository;
+    // expected header order (fallback positions)
+    private static final String[] EXPECTED_HEADERS = {
+            "vin", "vehicletype", "batterytype", "ownername", "licenseplate", "color", "batterycount", "manufacturedate", "purchasedate", "battery_ids"
+    };
 
     // VIN must be 17 chars: allowed A-Z (except I O Q) and 0-9
     private static final Pattern VIN_PATTERN = Pattern.compile("^[A-HJ-NPR-Z0-9]{17}$");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^A-Z0-9]");
+    private static final Pattern BATTERY_ID_SPLIT = Pattern.compile("[,;]");
+
+    // Danh sách các format ngày được chấp nhận
+    private static final DateTimeFormatter[] DATE_FORMATS = {
+            DateTimeFormatter.ofPattern("yyyy-MM-dd"),     // 2023-05-15
+            DateTimeFormatter.ofPattern("yyyy/MM/dd"),     // 2023/05/15
+            DateTimeFormatter.ofPattern("dd/MM/yyyy"),     // 15/05/2023 (Excel mặc định)
+            DateTimeFormatter.ofPattern("dd-MM-yyyy"),     // 15-05-2023
+            DateTimeFormatter.ofPattern("d/M/yyyy"),       // 5/5/2023 (không có leading zero)
+            DateTimeFormatter.ofPattern("d-M-yyyy")        // 5-5-2023
+    };
+
+    // ON CONFLICT: VIN vừa được tạo bởi request khác giữa lúc kiểm và lúc ghi → update count = 0, báo lỗi dòng đó
+    private static final String INSERT_VEHICLE_SQL = """
+            INSERT INTO vehicle (vin, vehicletype, batterytype, isactive, manufacturedate, purchasedate,
+                                 licenseplate, color, batterycount, ownername)
+            VALUES (?, ?, ?, false, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (vin) DO NOTHING
+            """;
+
+    private static final String INSERT_VEHICLE_BATTERY_SQL = """
+            INSERT INTO vehiclebattery (vehicleid, batteryid, attachtime, isactive, isprimary)
+            VALUES (?, ?, ?, true, ?)
+            """;
+
+    // Pin gắn theo xe khi import → IN_USE, rời khỏi trạm
+    private static final String ATTACH_BATTERY_SQL = """
+            UPDATE battery SET vehicleid = ?, batterystatus = ?, stationid = NULL
+            WHERE batteryid = ?
+            """;
+
+    // Hibernate ghi LocalDateTime với jdbc.time_zone=UTC → JDBC thuần phải dùng cùng calendar
+    private static final TimeZone DB_TIME_ZONE = TimeZone.getTimeZone("UTC");
+
+    private final VehicleRepository vehicleRepository;
+    private final BatteryRepository batteryRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BatteryStatisticsService batteryStatisticsService;
+
+    public VehicleImportService(VehicleRepository vehicleRepository,
+                                BatteryRepository batteryRepository,
+                                JdbcTemplate jdbcTemplate,
+                                PlatformTransactionManager transactionManager,
+                                BatteryStatisticsService batteryStatisticsService) {
+        this.vehicleRepository = vehicleRepository;
+        this.batteryRepository = batteryRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.batteryStatisticsService = batteryStatisticsService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
 
-    @Transactional
+    /**
+     * Import và gom toàn bộ lỗi vào kết quả (API cũ).
+     */
     public VehicleImportResultDTO importVehiclesFromCSV(MultipartFile file) throws IOException {
+        validateUpload(file);
+
+        List<VehicleImportErrorDTO> errors = new ArrayList<>();
+        try (InputStream in = file.getInputStream()) {
+            VehicleImportResultDTO result = importVehicles(in, errors::addAll);
+            result.setErrors(errors);
+            return result;
+        }
+    }
 
+    public void validateUpload(MultipartFile file) {
         if (file.isEmpty()) {
             throw new IllegalArgumentException("File CSV không được để trống");
         }
@@ -50,109 +131,178 @@ public class VehicleImportService {
         if (!isCSVFile(file)) {
             throw new IllegalArgumentException("File phải có định dạng .csv");
         }
-
-        List<VehicleImportDTO> parsedVehicles = parseCSV(file);
-        return processImport(parsedVehicles);
     }
 
-    private List<VehicleImportDTO> parseCSV(MultipartFile file) throws IOException {
-        List<VehicleImportDTO> vehicles = new ArrayList<>();
-
-        // expected header order (fallback positions)
-        final String[] expectedHeaders = new String[]{
-                "vin", "vehicletype", "batterytype", "ownername", "licenseplate", "color", "batterycount", "manufacturedate", "purchasedate", "battery_ids"
-        };
-
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
-
-            String headerLine = reader.readLine();
+    /**
+     * Import streaming: lỗi của mỗi lô được đẩy ra errorSink 1 lần (theo thứ tự dòng), ngay sau khi lô xử lý xong.
+     * Kết quả trả về chỉ có số liệu tổng (errors rỗng).
+     */
+    public VehicleImportResultDTO importVehicles(InputStream in, Consumer<List<VehicleImportErrorDTO>> errorSink) throws IOException {
+        return importVehicles(in, 0, errorSink, null);
+    }
 
-            if (headerLine == null) {
+    /**
+     * Import có checkpoint (dùng cho import job chạy nền).
+     *
+     * @param resumeAfterLine các dòng ≤ giá trị này đã được commit ở lần chạy trước: chỉ đọc lại để
+     *                        dựng trạng thái kiểm trùng trong file, không kiểm DB / không ghi lại
+     * @param listener        gọi TRONG transaction của mỗi lô → checkpoint được commit cùng dữ liệu của lô
+     */
+    public VehicleImportResultDTO importVehicles(InputStream in,
+                                                 int resumeAfterLine,
+                                                 Consumer<List<VehicleImportErrorDTO>> errorSink,
+                                                 ChunkListener listener) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        ImportState state = new ImportState(resumeAfterLine, errorSink, listener);
+
+        try (CsvTokenizer csv = new CsvTokenizer(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            List<String> first = csv.next();
+            if (first == null) {
                 throw new IllegalArgumentException("File CSV rỗng");
             }
 
-            // normalize header line (remove BOM if present) and split
-            headerLine = headerLine.replace("\uFEFF", "");
-            log.debug("CSV header raw: [{}]", headerLine);
-            String[] headers = headerLine.split(CSV_SPLIT_REGEX, -1);
-            Map<String, Integer> headerIndex = new HashMap<>();
-            for (int i = 0; i < headers.length; i++) {
-                String key = headers[i].trim().toLowerCase();
-                // remove surrounding quotes if any
-                if (key.startsWith("\"") && key.endsWith("\"")) key = key.substring(1, key.length() - 1).trim();
-                headerIndex.put(key, i);
-            }
-
-            log.debug("Detected CSV headers: {}", headerIndex.keySet());
+            List<CsvRow> chunk = new ArrayList<>(CHUNK_SIZE);
 
             // If first line doesn't look like a header (no known column names),
             // treat it as data and parse it as the first row.
-            boolean looksLikeHeader = false;
-            for (String h : headerIndex.keySet()) {
-                if (h.contains("vin") || h.contains("vehicletype") || h.contains("batterytype") || h.contains("licenseplate")) {
-                    looksLikeHeader = true;
-                    break;
-                }
+            Map<String, Integer> headerIndex = buildHeaderIndex(first);
+            if (headerIndex == null) {
+                headerIndex = defaultHeaderIndex();
+                chunk.add(new CsvRow(csv.getRecordLine(), first, csv.isUnterminated()));
             }
+            log.debug("Detected CSV headers: {}", headerIndex.keySet());
 
-            int rowNumber = 1;
-
-            if (!looksLikeHeader) {
-                // headerLine is actually data -> build a default headerIndex based on expected headers
-                headerIndex.clear();
-                for (int i = 0; i < expectedHeaders.length; i++) {
-                    headerIndex.put(expectedHeaders[i], i);
-                }
+            List<String> fields;
+            while ((fields = csv.next()) != null) {
+                if (isBlankRecord(fields)) continue;
 
-                try {
-                    VehicleImportDTO dto = parseCSVLine(headerLine, headerIndex);
-                    log.debug("Parsed row {} (treated as data): {}", rowNumber + 1, dto.getVIN());
-                    vehicles.add(dto);
-                } catch (Exception e) {
-                    log.error("Lỗi parse dòng {}: {}", rowNumber + 1, e.getMessage());
-                    VehicleImportDTO errorDto = VehicleImportDTO.builder()
-                            .errors(List.of("Lỗi parse dòng: " + e.getMessage()))
-                            .build();
-                    vehicles.add(errorDto);
+                chunk.add(new CsvRow(csv.getRecordLine(), fields, csv.isUnterminated()));
+                if (chunk.size() >= CHUNK_SIZE) {
+                    processChunk(chunk, headerIndex, state);
+                    chunk.clear();
                 }
             }
+            if (!chunk.isEmpty()) {
+                processChunk(chunk, headerIndex, state);
+            }
+        }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                rowNumber++;
+        log.info("📥 Import CSV xong: {} dòng, {} thành công, {} lỗi trong {} ms{}",
+                state.totalRows, state.successCount, state.failureCount, System.currentTimeMillis() - startedAt,
+                resumeAfterLine > 0 ? " (tiếp tục sau dòng " + resumeAfterLine + ")" : "");
 
-                if (line.trim().isEmpty()) {
-                    log.debug("Skipping empty CSV line {}", rowNumber);
-                    continue;
-                }
+        return VehicleImportResultDTO.builder()
+                .totalRows(state.totalRows)
+                .successCount(state.successCount)
+                .failureCount(state.failureCount)
+                .errors(new ArrayList<>())
+                .build();
+    }
+
+    // =========================================================
+    // XỬ LÝ 1 LÔ
+    // =========================================================
+
+    private void processChunk(List<CsvRow> chunk, Map<String, Integer> headerIndex, ImportState state) {
+
+        // 1) parse + kiểm định dạng: thuần CPU, không đụng DB → chạy song song, toList() giữ nguyên thứ tự dòng
+        List<ImportRow> parsed = (chunk.size() >= PARALLEL_THRESHOLD ? chunk.parallelStream() : chunk.stream())
+                .map(r -> parseRow(r, headerIndex))
+                .toList();
+
+        // 2) trùng lặp trong chính file (phải tuần tự: dòng xuất hiện trước được giữ)
+        checkDuplicatesInFile(parsed, state);
 
-                try {
-                    log.debug("Parsing CSV line {}: {}", rowNumber, line);
-                    VehicleImportDTO dto = parseCSVLine(line, headerIndex);
-                    log.debug("Parsed DTO VIN={} license={} errors={}", dto.getVIN(), dto.getLicensePlate(), dto.getErrors());
-                    vehicles.add(dto);
-                } catch (Exception e) {
-                    log.error("Lỗi parse dòng {}: {}", rowNumber, e.getMessage());
-                    VehicleImportDTO errorDto = VehicleImportDTO.builder()
-                            .errors(List.of("Lỗi parse dòng: " + e.getMessage()))
-                            .build();
-                    vehicles.add(errorDto);
+        // Dòng đã commit ở lần chạy trước: chỉ cần đăng ký vào trạng thái kiểm trùng ở bước 2
+        List<ImportRow> rows = state.resumeAfterLine > 0
+                ? parsed.stream().filter(r -> r.line > state.resumeAfterLine).toList()
+                : parsed;
+        if (rows.isEmpty()) return;
+
+        // 3) tồn tại trong DB: vài query IN (...) cho cả lô thay vì 3 query / dòng
+        checkAgainstDatabase(rows);
+
+        // 4) ghi các dòng hợp lệ (+ checkpoint) trong 1 transaction
+        List<ImportRow> valid = rows.stream().filter(ImportRow::isValid).toList();
+        List<VehicleImportErrorDTO> errors;
+        if (valid.isEmpty() && state.listener == null) {
+            errors = collectErrors(rows);
+        } else {
+            try {
+                errors = transactionTemplate.execute(status -> {
+                    if (!valid.isEmpty()) {
+                        insertRows(valid).forEach(r -> r.dto.getErrors().add("VIN đã tồn tại"));
+                    }
+                    List<VehicleImportErrorDTO> chunkErrors = collectErrors(rows);
+                    notifyListener(state, rows, chunkErrors);
+                    return chunkErrors;
+                });
+                // Pin được gắn vào xe → đổi trạng thái / rời trạm
+                if (!valid.isEmpty()) batteryStatisticsService.markDirty();
+            } catch (Exception e) {
+                log.error("Lỗi lưu lô import (dòng {} - {}): {}",
+                        rows.get(0).line, rows.get(rows.size() - 1).line, e.getMessage(), e);
+                String message = "Lỗi lưu dữ liệu: " + e.getMessage();
+                valid.forEach(r -> r.dto.getErrors().add(message));
+
+                List<VehicleImportErrorDTO> chunkErrors = collectErrors(rows);
+                if (state.listener != null) {
+                    // Lô không ghi được gì nhưng vẫn phải checkpoint để lần chạy sau không lặp lại
+                    transactionTemplate.executeWithoutResult(status -> notifyListener(state, rows, chunkErrors));
                 }
+                errors = chunkErrors;
             }
         }
 
-        long validCount = vehicles.stream().filter(v -> v != null && v.isValid()).count();
-        log.info("Parsed {} rows from CSV (including header-treated-if-needed). Valid vehicles: {}", vehicles.size(), validCount);
-        // debug list of vins
-        vehicles.stream().filter(Objects::nonNull).forEach(v -> log.debug("Row VIN={} valid={} errors={}", v.getVIN(), v.isValid(), v.getErrors()));
+        // 5) tổng kết + đẩy lỗi theo thứ tự dòng
+        state.totalRows += rows.size();
+        state.failureCount += errors.size();
+        state.successCount += rows.size() - errors.size();
+        if (!errors.isEmpty()) state.errorSink.accept(errors);
+    }
+
+    private static List<VehicleImportErrorDTO> collectErrors(List<ImportRow> rows) {
+        List<VehicleImportErrorDTO> errors = new ArrayList<>();
+        for (ImportRow row : rows) {
+            if (row.isValid()) continue;
+            errors.add(VehicleImportErrorDTO.builder()
+                    .row(row.line)
+                    .VIN(row.dto.getVIN())
+                    .licensePlate(row.dto.getLicensePlate())
+                    .errors(row.dto.getErrors())
+                    .build());
+        }
+        return errors;
+    }
+
+    private static void notifyListener(ImportState state, List<ImportRow> rows, List<VehicleImportErrorDTO> errors) {
+        if (state.listener == null) return;
+        state.listener.onChunk(new ChunkResult(
+                rows.get(rows.size() - 1).line,
+                rows.size(),
+                rows.size() - errors.size(),
+                errors.size(),
+                errors));
+    }
 
-        return vehicles;
+    private ImportRow parseRow(CsvRow csvRow, Map<String, Integer> headerIndex) {
+        try {
+            ImportRow row = parseCSVLine(csvRow, headerIndex);
+            if (csvRow.unterminated()) {
+                row.dto.getErrors().add("Dấu ngoặc kép chưa đóng");
+            }
+            return row;
+        } catch (Exception e) {
+            log.error("Lỗi parse dòng {}: {}", csvRow.line(), e.getMessage());
+            VehicleImportDTO errorDto = VehicleImportDTO.builder()
+                    .errors(new ArrayList<>(List.of("Lỗi parse dòng: " + e.getMessage())))
+                    .build();
+            return new ImportRow(csvRow.line(), errorDto);
+        }
     }
 
-    private VehicleImportDTO parseCSVLine(String line, Map<String, Integer> headerIndex) {
-        // split preserving quoted commas
-        String[] columns = line.split(CSV_SPLIT_REGEX, -1);
+    private ImportRow parseCSVLine(CsvRow csvRow, Map<String, Integer> headerIndex) {
+        List<String> columns = csvRow.fields();
 
         // compatible with previous format: VIN,vehicleType,batteryType,ownerName,licensePlate,color,batteryCount,manufactureDate,purchaseDate, battery_ids(optional)
         String vin = getColumn(columns, headerIndex, "vin", 0);
@@ -180,48 +330,36 @@ public class VehicleImportService {
                 .isActive(false)
                 .build();
 
-        // ensure batteryIds list is initialized (defensive)
-        if (dto.getBatteryIds() == null) {
-            dto.setBatteryIds(new ArrayList<>());
-        }
-
         // parse battery ids list
         if (batteryIdsRaw != null && !batteryIdsRaw.isBlank()) {
-            String[] parts = batteryIdsRaw.split("[,;]");
-            List<String> ids = Arrays.stream(parts)
+            Arrays.stream(BATTERY_ID_SPLIT.split(batteryIdsRaw))
                     .map(String::trim)
                     .filter(s -> !s.isEmpty())
-                    .toList();
-            dto.getBatteryIds().addAll(ids);
+                    .forEach(dto.getBatteryIds()::add);
         }
 
-        validateDTO(dto);
-        return dto;
+        ImportRow row = new ImportRow(csvRow.line(), dto);
+        validateFormat(row);
+        return row;
     }
 
-    private String getColumn(String[] columns, Map<String, Integer> headerIndex, String name, int fallbackIdx) {
-        Integer idx = headerIndex.get(name.toLowerCase());
-        if (idx != null && idx < columns.length) return unquote(columns[idx]);
-        if (fallbackIdx >= 0 && fallbackIdx < columns.length) return unquote(columns[fallbackIdx]);
+    private String getColumn(List<String> columns, Map<String, Integer> headerIndex, String name, int fallbackIdx) {
+        Integer idx = headerIndex.get(name);
+        if (idx != null && idx < columns.size()) return columns.get(idx).trim();
+        if (fallbackIdx >= 0 && fallbackIdx < columns.size()) return columns.get(fallbackIdx).trim();
         return null;
     }
 
-    // small helper unquote
-    private static String unquote(String s) {
-        if (s == null) return null;
-        s = s.trim();
-        if (s.startsWith("\"") && s.endsWith("\"") && s.length() >= 2) {
-            return s.substring(1, s.length() - 1);
-        }
-        return s;
-    }
-
-    private void validateDTO(VehicleImportDTO dto) {
-        List<String> errors = new ArrayList<>();
+    /**
+     * Kiểm tra chỉ dựa trên nội dung dòng (an toàn khi chạy song song).
+     */
+    private void validateFormat(ImportRow row) {
+        VehicleImportDTO dto = row.dto;
+        List<String> errors = dto.getErrors();
 
         // normalize VIN: uppercase, remove non-alphanumeric characters
         String rawVin = dto.getVIN();
-        if (rawVin != null) rawVin = rawVin.trim().toUpperCase().replaceAll("[^A-Z0-9]", "");
+        if (rawVin != null) rawVin = NON_ALNUM.matcher(rawVin.trim().toUpperCase()).replaceAll("");
 
         if (rawVin == null || rawVin.isEmpty()) {
             errors.add("VIN không được để trống");
@@ -229,38 +367,32 @@ public class VehicleImportService {
             // enforce 17-char VIN format
             if (!VIN_PATTERN.matcher(rawVin).matches()) {
                 errors.add("VIN không hợp lệ: phải là 17 ký tự chữ in hoa và số (không chứa I,O,Q). Ví dụ: LFVTH1A10N0000337");
-            } else if (vehicleRepository.existsByVIN(rawVin)) {
-                errors.add("VIN đã tồn tại");
+            } else {
+                row.vinValid = true;
             }
             // set normalized VIN back to dto so saved entity uses canonical form
             dto.setVIN(rawVin);
         }
 
         try {
-            Vehicle.VehicleType.valueOf(dto.getVehicleType());
+            row.vehicleType = Vehicle.VehicleType.valueOf(dto.getVehicleType());
         } catch (Exception e) {
             errors.add("Loại xe không hợp lệ");
         }
 
         try {
-            Vehicle.BatteryType.valueOf(dto.getBatteryType());
+            row.batteryType = Vehicle.BatteryType.valueOf(dto.getBatteryType());
         } catch (Exception e) {
             errors.add("Loại pin không hợp lệ");
         }
 
-        if (dto.getLicensePlate() != null && !dto.getLicensePlate().isEmpty()) {
-            if (vehicleRepository.existsByLicensePlate(dto.getLicensePlate())) {
-                errors.add("Biển số xe đã tồn tại");
-            }
-        }
-
         if (dto.getBatteryCount() == null || dto.getBatteryCount() < 1) {
             errors.add("Số lượng pin phải >= 1");
         }
 
         if (dto.getManufactureDate() != null && !dto.getManufactureDate().isEmpty()) {
             try {
-                parseFlexibleDate(dto.getManufactureDate());
+                row.manufactureDate = parseFlexibleDate(dto.getManufactureDate());
             } catch (DateTimeParseException e) {
                 errors.add("Ngày sản xuất không hợp lệ. Chấp nhận: YYYY-MM-DD, DD/MM/YYYY, DD-MM-YYYY");
             }
@@ -268,171 +400,211 @@ public class VehicleImportService {
 
         if (dto.getPurchaseDate() != null && !dto.getPurchaseDate().isEmpty()) {
             try {
-                parseFlexibleDate(dto.getPurchaseDate());
+                row.purchaseDate = parseFlexibleDate(dto.getPurchaseDate());
             } catch (DateTimeParseException e) {
                 errors.add("Ngày mua không hợp lệ. Chấp nhận: YYYY-MM-DD, DD/MM/YYYY, DD-MM-YYYY");
             }
         }
 
-        // validate battery ids existence if provided
-        if (dto.getBatteryIds() != null && !dto.getBatteryIds().isEmpty()) {
-            for (String bid : dto.getBatteryIds()) {
-                if (batteryRepository.findById(bid).isEmpty()) {
-                    errors.add("BatteryId not found: " + bid);
-                }
-            }
+        List<String> batteryIds = dto.getBatteryIds();
+        if (!batteryIds.isEmpty()) {
             // if battery count provided, ensure length matches
-            if (dto.getBatteryCount() != null && dto.getBatteryCount() != dto.getBatteryIds().size()) {
+            if (dto.getBatteryCount() != null && dto.getBatteryCount() != batteryIds.size()) {
                 errors.add("batteryCount không khớp với số battery_ids cung cấp");
             }
+            if (new HashSet<>(batteryIds).size() != batteryIds.size()) {
+                errors.add("battery_ids bị lặp trong cùng một dòng");
+            }
         }
-
-        dto.setErrors(errors);
     }
 
-    private VehicleImportResultDTO processImport(List<VehicleImportDTO> dtos) {
-        int successCount = 0;
-        int failureCount = 0;
-        List<VehicleImportErrorDTO> errors = new ArrayList<>();
+    /**
+     * VIN / biển số / pin đã xuất hiện ở dòng trước trong file → lỗi (dòng đầu tiên được giữ).
+     */
+    private void checkDuplicatesInFile(List<ImportRow> rows, ImportState state) {
+        for (ImportRow row : rows) {
+            VehicleImportDTO dto = row.dto;
+
+            if (row.vinValid) {
+                Integer firstLine = state.seenVins.putIfAbsent(dto.getVIN(), row.line);
+                if (firstLine != null) {
+                    dto.getErrors().add("VIN trùng với dòng " + firstLine + " trong file");
+                }
+            }
 
-        List<Vehicle> vehiclesToSave = new ArrayList<>();
-        List<Runnable> postSaveActions = new ArrayList<>();
+            String plate = dto.getLicensePlate();
+            if (plate != null && !plate.isEmpty()) {
+                Integer firstLine = state.seenPlates.putIfAbsent(plate, row.line);
+                if (firstLine != null) {
+                    dto.getErrors().add("Biển số xe trùng với dòng " + firstLine + " trong file");
+                }
+            }
+
+            for (String bid : dto.getBatteryIds()) {
+                Integer firstLine = state.seenBatteryIds.putIfAbsent(bid, row.line);
+                if (firstLine != null && firstLine != row.line) {
+                    dto.getErrors().add("BatteryId " + bid + " đã được gán ở dòng " + firstLine);
+                }
+            }
+        }
+    }
 
-        for (int i = 0; i < dtos.size(); i++) {
-            VehicleImportDTO dto = dtos.get(i);
-            int rowNumber = i + 2;
+    private void checkAgainstDatabase(List<ImportRow> rows) {
+        Set<String> vins = new HashSet<>();
+        Set<String> plates = new HashSet<>();
+        Set<String> batteryIds = new HashSet<>();
+        for (ImportRow row : rows) {
+            if (row.vinValid) vins.add(row.dto.getVIN());
+            String plate = row.dto.getLicensePlate();
+            if (plate != null && !plate.isEmpty()) plates.add(plate);
+            batteryIds.addAll(row.dto.getBatteryIds());
+        }
+
+        Set<String> existingVins = findExisting(vins, vehicleRepository::findExistingVINs);
+        Set<String> existingPlates = findExisting(plates, vehicleRepository::findExistingLicensePlates);
+        Set<String> knownBatteries = findExisting(batteryIds, batteryRepository::findExistingIds);
 
-            if (dto == null) {
-                failureCount++;
-                errors.add(VehicleImportErrorDTO.builder().row(rowNumber).errors(List.of("Empty row parsed")).build());
-                continue;
+        for (ImportRow row : rows) {
+            VehicleImportDTO dto = row.dto;
+            if (row.vinValid && existingVins.contains(dto.getVIN())) {
+                dto.getErrors().add("VIN đã tồn tại");
+            }
+            if (dto.getLicensePlate() != null && existingPlates.contains(dto.getLicensePlate())) {
+                dto.getErrors().add("Biển số xe đã tồn tại");
+            }
+            for (String bid : dto.getBatteryIds()) {
+                if (!knownBatteries.contains(bid)) {
+                    dto.getErrors().add("BatteryId not found: " + bid);
+                }
             }
+        }
+    }
 
-            if (!dto.isValid()) {
-                failureCount++;
-                errors.add(VehicleImportErrorDTO.builder()
-                        .row(rowNumber)
-                        .VIN(dto.getVIN())
-                        .licensePlate(dto.getLicensePlate())
-                        .errors(dto.getErrors())
-                        .build());
-                continue;
+    private static Set<String> findExisting(Set<String> values, Function<Collection<String>, List<String>> query) {
+        if (values.isEmpty()) return Set.of();
+
+        List<String> list = new ArrayList<>(values);
+        Set<String> found = new HashSet<>();
+        for (int from = 0; from < list.size(); from += IN_LIST_CHUNK) {
+            found.addAll(query.apply(list.subList(from, Math.min(from + IN_LIST_CHUNK, list.size()))));
+        }
+        return found;
+    }
+
+    /**
+     * Chạy trong transaction của lô. Trả về các dòng bị ON CONFLICT bỏ qua.
+     */
+    private List<ImportRow> insertRows(List<ImportRow> rows) {
+        int[][] counts = jdbcTemplate.batchUpdate(INSERT_VEHICLE_SQL, rows, rows.size(), (ps, row) -> {
+            VehicleImportDTO dto = row.dto;
+            ps.setString(1, dto.getVIN());
+            ps.setString(2, row.vehicleType.name());
+            ps.setString(3, row.batteryType.name());
+            setDate(ps, 4, row.manufactureDate);
+            setDate(ps, 5, row.purchaseDate);
+            ps.setString(6, emptyToNull(dto.getLicensePlate()));
+            ps.setString(7, emptyToNull(dto.getColor()));
+            ps.setInt(8, dto.getBatteryCount());
+            ps.setString(9, emptyToNull(dto.getOwnerName()));
+        });
+
+        List<ImportRow> inserted = new ArrayList<>(rows.size());
+        List<ImportRow> conflicted = new ArrayList<>();
+        int i = 0;
+        for (int[] batch : counts) {
+            for (int count : batch) {
+                ImportRow row = rows.get(i++);
+                if (count == 0) conflicted.add(row);
+                else inserted.add(row);
             }
+        }
 
-            try {
-                log.debug("Preparing to save vehicle from row {}: VIN={}, license={}, type={}, batteryCount={}", rowNumber, dto.getVIN(), dto.getLicensePlate(), dto.getVehicleType(), dto.getBatteryCount());
-                 Vehicle vehicle = new Vehicle();
-                 vehicle.setVIN(dto.getVIN());
-                 vehicle.setVehicleType(Vehicle.VehicleType.valueOf(dto.getVehicleType()));
-                 vehicle.setBatteryType(Vehicle.BatteryType.valueOf(dto.getBatteryType()));
-                 vehicle.setUser(null); // Xe chưa liên kết với user nào
-                 vehicle.setOwnerName(dto.getOwnerName());
-                 vehicle.setLicensePlate(dto.getLicensePlate());
-                 vehicle.setColor(dto.getColor());
-                 vehicle.setBatteryCount(dto.getBatteryCount());
-
-                 if (dto.getManufactureDate() != null && !dto.getManufactureDate().isEmpty()) {
-                     vehicle.setManufactureDate(parseFlexibleDate(dto.getManufactureDate()));
-                 }
-
-                 if (dto.getPurchaseDate() != null && !dto.getPurchaseDate().isEmpty()) {
-                     vehicle.setPurchaseDate(parseFlexibleDate(dto.getPurchaseDate()));
-                 }
-
-                 vehicle.setActive(false); // Mặc định false - xe chưa được kích hoạt
-
-                 vehiclesToSave.add(vehicle);
-
-                 // prepare post-save action to create VehicleBattery entries with saved vehicle id
-                 if (dto.getBatteryIds() != null && !dto.getBatteryIds().isEmpty()) {
-                     List<String> batteryIds = new ArrayList<>(dto.getBatteryIds());
-                     postSaveActions.add(() -> {
-                         // find saved vehicle by VIN (should exist now)
-                         vehicleRepository.findByVIN(dto.getVIN()).ifPresent(saved -> {
-                             // attach batteries
-                             for (int idx = 0; idx < batteryIds.size(); idx++) {
-                                 String bid = batteryIds.get(idx);
-                                 Optional<Battery> optB = batteryRepository.findById(bid);
-                                 if (optB.isPresent()) {
-                                     Battery b = optB.get();
-                                     VehicleBattery vb = new VehicleBattery();
-                                     vb.setVehicle(saved);
-                                     vb.setBattery(b);
-                                     vb.setAttachTime(LocalDateTime.now());
-                                     vb.setActive(true);
-                                     vb.setPrimary(idx == 0);
-                                     vehicleBatteryRepository.save(vb);
-
-                                     // also set battery.vehicle field for consistency
-                                     b.setVehicle(saved);
-                                     // According to requirement: when battery id is provided with vehicle import,
-                                    // set battery status to IN_USE and clear station/dockSlot to reflect it's attached to a vehicle
-                                    try {
-                                        b.setBatteryStatus(Battery.BatteryStatus.IN_USE);
-                                    } catch (Exception ex) {
-                                        // fallback: if enum not present or other issue, ignore to avoid breaking import
-                                        log.warn("Could not set battery status IN_USE for {}: {}", bid, ex.getMessage());
-                                    }
-                                    b.setStationId(null);
-                                    b.setDockSlot(null);
-                                    batteryRepository.save(b);
-                                 } else {
-                                     log.warn("Battery id {} not found when attaching to vehicle VIN={}", bid, dto.getVIN());
-                                 }
-                             }
-                         });
-                     });
-                 }
-
-                 successCount++;
+        attachBatteries(inserted);
+        return conflicted;
+    }
 
-            } catch (Exception e) {
-                failureCount++;
-                errors.add(VehicleImportErrorDTO.builder()
-                        .row(rowNumber)
-                        .VIN(dto.getVIN())
-                        .licensePlate(dto.getLicensePlate())
-                        .errors(List.of(e.getMessage()))
-                        .build());
+    private void attachBatteries(List<ImportRow> inserted) {
+        List<ImportRow> withBatteries = inserted.stream()
+                .filter(r -> !r.dto.getBatteryIds().isEmpty())
+                .toList();
+        if (withBatteries.isEmpty()) return;
+
+        Map<String, Integer> vehicleIds = new HashMap<>();
+        List<String> vins = withBatteries.stream().map(r -> r.dto.getVIN()).toList();
+        for (int from = 0; from < vins.size(); from += IN_LIST_CHUNK) {
+            for (Object[] r : vehicleRepository.findIdsByVINs(vins.subList(from, Math.min(from + IN_LIST_CHUNK, vins.size())))) {
+                vehicleIds.put((String) r[1], ((Number) r[0]).intValue());
             }
         }
 
-        // save vehicles in batch
-        if (!vehiclesToSave.isEmpty()) {
-            log.info("Saving {} vehicles (VINs: {})", vehiclesToSave.size(), vehiclesToSave.stream().map(Vehicle::getVIN).toList());
-            try {
-                vehicleRepository.saveAll(vehiclesToSave);
-                log.info("Saved vehicles to DB");
-                // verify save by fetching VINs
-                List<String> vins = vehiclesToSave.stream().map(Vehicle::getVIN).toList();
-                List<Vehicle> fromDb = vehicleRepository.findAllByVINs(vins);
-                log.info("After save, found {} vehicles in DB for VINs provided", fromDb.size());
-            } catch (Exception e) {
-                log.error("Error saving vehicles: {}", e.getMessage(), e);
-                // convert error to failures
-                for (Vehicle v : vehiclesToSave) {
-                    failureCount++;
-                    errors.add(VehicleImportErrorDTO.builder()
-                            .row(-1)
-                            .VIN(v.getVIN())
-                            .licensePlate(v.getLicensePlate())
-                            .errors(List.of("Save error: " + e.getMessage()))
-                            .build());
-                }
+        List<BatteryLink> links = new ArrayList<>();
+        for (ImportRow row : withBatteries) {
+            Integer vehicleId = vehicleIds.get(row.dto.getVIN());
+            List<String> batteryIds = row.dto.getBatteryIds();
+            for (int idx = 0; idx < batteryIds.size(); idx++) {
+                links.add(new BatteryLink(vehicleId, batteryIds.get(idx), idx == 0));
             }
         }
 
-        // execute post-save actions (create vehicle-battery links)
-        for (Runnable r : postSaveActions) {
-            try { r.run(); } catch (Exception ex) { log.warn("Error creating vehicleBattery: {}", ex.getMessage()); }
+        Timestamp attachTime = Timestamp.valueOf(LocalDateTime.now());
+        Calendar utc = Calendar.getInstance(DB_TIME_ZONE);
+
+        jdbcTemplate.batchUpdate(INSERT_VEHICLE_BATTERY_SQL, links, links.size(), (ps, link) -> {
+            ps.setInt(1, link.vehicleId());
+            ps.setString(2, link.batteryId());
+            ps.setTimestamp(3, attachTime, utc);
+            ps.setBoolean(4, link.primary());
+        });
+
+        jdbcTemplate.batchUpdate(ATTACH_BATTERY_SQL, links, links.size(), (ps, link) -> {
+            ps.setInt(1, link.vehicleId());
+            ps.setString(2, Battery.BatteryStatus.IN_USE.name());
+            ps.setString(3, link.batteryId());
+        });
+
+        log.debug("Đã gắn {} pin cho {} xe import", links.size(), withBatteries.size());
+    }
+
+    // =========================================================
+    // HELPERS
+    // =========================================================
+
+    private static Map<String, Integer> buildHeaderIndex(List<String> first) {
+        Map<String, Integer> headerIndex = new HashMap<>();
+        for (int i = 0; i < first.size(); i++) {
+            headerIndex.put(first.get(i).trim().toLowerCase(), i);
         }
 
-        return VehicleImportResultDTO.builder()
-                .totalRows(dtos.size())
-                .successCount(successCount)
-                .failureCount(failureCount)
-                .errors(errors)
-                .build();
+        for (String h : headerIndex.keySet()) {
+            if (h.contains("vin") || h.contains("vehicletype") || h.contains("batterytype") || h.contains("licenseplate")) {
+                return headerIndex;
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Integer> defaultHeaderIndex() {
+        Map<String, Integer> headerIndex = new HashMap<>();
+        for (int i = 0; i < EXPECTED_HEADERS.length; i++) {
+            headerIndex.put(EXPECTED_HEADERS[i], i);
+        }
+        return headerIndex;
+    }
+
+    private static boolean isBlankRecord(List<String> fields) {
+        for (String f : fields) {
+            if (!f.isBlank()) return false;
+        }
+        return true;
+    }
+
+    private static void setDate(PreparedStatement ps, int idx, LocalDate date) throws SQLException {
+        if (date == null) ps.setNull(idx, Types.DATE);
+        else ps.setDate(idx, Date.valueOf(date));
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.isEmpty() ? null : s;
     }
 
     private boolean isCSVFile(MultipartFile file) {
@@ -452,7 +624,6 @@ public class VehicleImportService {
         }
     }
 
-
     private LocalDate parseFlexibleDate(String dateStr) {
         if (dateStr == null || dateStr.trim().isEmpty()) {
             return null;
@@ -460,17 +631,7 @@ public class VehicleImportService {
 
         dateStr = dateStr.trim();
 
-        // Danh sách các format ngày được chấp nhận
-        DateTimeFormatter[] formatters = {
-                DateTimeFormatter.ofPattern("yyyy-MM-dd"),     // 2023-05-15
-                DateTimeFormatter.ofPattern("yyyy/MM/dd"),     // 2023/05/15
-                DateTimeFormatter.ofPattern("dd/MM/yyyy"),     // 15/05/2023 (Excel mặc định)
-                DateTimeFormatter.ofPattern("dd-MM-yyyy"),     // 15-05-2023
-                DateTimeFormatter.ofPattern("d/M/yyyy"),       // 5/5/2023 (không có leading zero)
-                DateTimeFormatter.ofPattern("d-M-yyyy")        // 5-5-2023
-        };
-
-        for (DateTimeFormatter formatter : formatters) {
+        for (DateTimeFormatter formatter : DATE_FORMATS) {
             try {
                 return LocalDate.parse(dateStr, formatter);
             } catch (DateTimeParseException e) {
@@ -480,4 +641,56 @@ public class VehicleImportService {
 
         throw new DateTimeParseException("Không thể parse ngày: " + dateStr, dateStr, 0);
     }
+
+    private record CsvRow(int line, List<String> fields, boolean unterminated) {}
+
+    private record BatteryLink(int vehicleId, String batteryId, boolean primary) {}
+
+    /** 1 dòng CSV sau khi parse, kèm giá trị đã chuyển kiểu để khỏi parse lại lúc ghi. */
+    private static class ImportRow {
+        final int line;
+        final VehicleImportDTO dto;
+        boolean vinValid;
+        Vehicle.VehicleType vehicleType;
+        Vehicle.BatteryType batteryType;
+        LocalDate manufactureDate;
+        LocalDate purchaseDate;
+
+        ImportRow(int line, VehicleImportDTO dto) {
+            this.line = line;
+            this.dto = dto;
+        }
+
+        boolean isValid() {
+            return dto.isValid();
+        }
+    }
+
+    /** Kết quả 1 lô đã xử lý; lastLine = checkpoint để chạy tiếp. */
+    public record ChunkResult(int lastLine, int rows, int successCount, int failureCount,
+                              List<VehicleImportErrorDTO> errors) {}
+
+    @FunctionalInterface
+    public interface ChunkListener {
+        void onChunk(ChunkResult result);
+    }
+
+    /** Trạng thái xuyên suốt các lô của 1 lần import. */
+    private static class ImportState {
+        final int resumeAfterLine;
+        final Consumer<List<VehicleImportErrorDTO>> errorSink;
+        final ChunkListener listener;
+        int totalRows;
+        int successCount;
+        int failureCount;
+        final Map<String, Integer> seenVins = new HashMap<>();
+        final Map<String, Integer> seenPlates = new HashMap<>();
+        final Map<String, Integer> seenBatteryIds = new HashMap<>();
+
+        ImportState(int resumeAfterLine, Consumer<List<VehicleImportErrorDTO>> errorSink, ChunkListener listener) {
+            this.resumeAfterLine = resumeAfterLine;
+            this.errorSink = errorSink;
+            this.listener = listener;
+        }
+    }
 }
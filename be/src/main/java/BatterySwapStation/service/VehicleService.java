@@ -1,5 +1,6 @@
 package BatterySwapStation.service;
 
+import BatterySwapStation.config.CacheConfig;
 import BatterySwapStation.dto.VehicleMyResponse;
 import BatterySwapStation.dto.VehicleRegistrationRequest;
 import BatterySwapStation.dto.VehicleInfoResponse;
@@ -12,10 +13,14 @@ import BatterySwapStation.repository.UserRepository;
 import BatterySwapStation.repository.VehicleRepository;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -24,6 +29,7 @@ public class VehicleService {
     private final VehicleRepository vehicleRepository;
     private final UserRepository userRepository;
     private final BatteryRepository batteryRepository;
+    private final CacheEvictionService cacheEvictionService;
 
 
     private boolean validateVIN(String vin) {
@@ -88,6 +94,7 @@ public class VehicleService {
 
         vehicle.setUser(user);
         vehicle.setActive(true);
+        cacheEvictionService.evictUserVehicles(userId);
         return vehicleRepository.save(vehicle);
     }
 
@@ -111,6 +118,7 @@ public class VehicleService {
         int batteryCount = calculateBatteryCountByVehicleType(request.getVehicleType());
         newVehicle.setBatteryCount(batteryCount);
 
+        cacheEvictionService.evictUserVehicles(userId);
         return vehicleRepository.save(newVehicle);
     }
 
@@ -145,6 +153,20 @@ public class VehicleService {
         }
     }
 
+    /**
+     * Loại pin của các xe đang active của user. Cache giữ Set enum bất biến,
+     * không giữ entity Vehicle (entity detached + association lazy → LazyInitializationException khi đọc lại).
+     */
+    @Transactional(readOnly = true)
+    @Cacheable(value = CacheConfig.USER_VEHICLES, key = "#userId")
+    public Set<Vehicle.BatteryType> getActiveBatteryTypes(String userId) {
+        return getActiveUserVehicles(userId).stream()
+                .filter(Vehicle::isActive)
+                .map(Vehicle::getBatteryType)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
     @Transactional(readOnly = true)
     public List<Vehicle> getActiveUserVehicles(String userId) {
         User user = userRepository.findById(userId)
@@ -166,6 +188,7 @@ public class VehicleService {
         vehicle.setActive(false);
         vehicle.setUser(null);
         vehicleRepository.save(vehicle);
+        cacheEvictionService.evictUserVehicles(userId);
     }
 
     public List<VehicleSimpleResponse> getUnassignedVehiclesSimple() {
@@ -0,0 +1,207 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.dto.CursorPage;
+import BatterySwapStation.entity.WalletLedgerEntry;
+import BatterySwapStation.repository.WalletLedgerRepository;
+import BatterySwapStation.utils.DbTime;
+import BatterySwapStation.utils.KeysetPaging;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+
+/**
+ * 💰 Ví người dùng.
+ * - Mọi thay đổi số dư đi qua đây: 1 câu lệnh vừa UPDATE có điều kiện Users.WalletBalance vừa ghi sổ cái
+ *   → không mất cập nhật khi nhiều giao dịch chạy song song, không nạp / ghi lại cả entity User
+ * - Users.WalletBalance là số dư hiện tại (đọc O(1)); entity User không bao giờ ghi cột này
+ * - Job định kỳ gom sổ cái vào WalletSnapshot và đối soát chuỗi BalanceAfter
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class WalletService {
+
+    public static final double MAX_BALANCE = 1_000_000_000.0;
+
+    private static final String SNAPSHOT_LEASE_JOB = "wallet.snapshot";
+    // Bỏ qua các dòng quá mới: transaction chậm có thể commit EntryId nhỏ hơn sau EntryId lớn hơn
+    private static final Duration SNAPSHOT_SETTLE = Duration.ofMinutes(1);
+    private static final double DRIFT_TOLERANCE = 0.5;
+
+    private static final String DEBIT_SQL = """
+            WITH upd AS (
+                UPDATE Users SET WalletBalance = WalletBalance - ?
+                WHERE UserId = ? AND WalletBalance >= ?
+                RETURNING UserId, WalletBalance
+            )
+            INSERT INTO WalletLedger (UserId, Amount, BalanceAfter, EntryType, RefType, RefId, Note, CreatedAt)
+            SELECT UserId, ?, WalletBalance, ?, ?, ?, ?, ? FROM upd
+            RETURNING BalanceAfter
+            """;
+
+    private static final String CREDIT_SQL = """
+            WITH upd AS (
+                UPDATE Users SET WalletBalance = WalletBalance + ?
+                WHERE UserId = ? AND WalletBalance + ? <= ?
+                RETURNING UserId, WalletBalance
+            )
+            INSERT INTO WalletLedger (UserId, Amount, BalanceAfter, EntryType, RefType, RefId, Note, CreatedAt)
+            SELECT UserId, ?, WalletBalance, ?, ?, ?, ?, ? FROM upd
+            RETURNING BalanceAfter
+            """;
+
+    // Đuôi sổ cái chưa gom của từng user (trong khoảng EntryId (from, to]) + BalanceAfter của dòng cuối
+    private static final String TAIL_CTE = """
+            WITH tail AS (
+                SELECT l.UserId, SUM(l.Amount) AS Delta, MAX(l.EntryId) AS LastEntryId
+                FROM WalletLedger l
+                LEFT JOIN WalletSnapshot s ON s.UserId = l.UserId
+                WHERE l.EntryId > ? AND l.EntryId <= ?
+                  AND l.EntryId > COALESCE(s.LastEntryId, 0)
+                GROUP BY l.UserId
+            ), latest AS (
+                SELECT t.UserId, t.Delta, t.LastEntryId, l.BalanceAfter
+                FROM tail t JOIN WalletLedger l ON l.EntryId = t.LastEntryId
+            )
+            """;
+
+    private static final String DRIFT_SQL = TAIL_CTE + """
+            SELECT x.UserId, s.Balance, x.Delta, x.BalanceAfter
+            FROM latest x JOIN WalletSnapshot s ON s.UserId = x.UserId
+            WHERE ABS(s.Balance + x.Delta - x.BalanceAfter) > ?
+            """;
+
+    private static final String COMPACT_SQL = TAIL_CTE + """
+            INSERT INTO WalletSnapshot (UserId, Balance, LastEntryId, SnapshotAt)
+            SELECT UserId, BalanceAfter, LastEntryId, ? FROM latest
+            ON CONFLICT (UserId) DO UPDATE
+            SET Balance = EXCLUDED.Balance, LastEntryId = EXCLUDED.LastEntryId, SnapshotAt = EXCLUDED.SnapshotAt
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final WalletLedgerRepository walletLedgerRepository;
+    private final SchedulerLeaseService schedulerLeaseService;
+
+    // ==================== GHI VÍ ====================
+
+    /**
+     * Trừ ví nếu đủ tiền.
+     *
+     * @return số dư sau khi trừ
+     * @throws IllegalStateException nếu không đủ số dư
+     */
+    public double debit(String userId, double amount, WalletLedgerEntry.EntryType type,
+                        String refType, Object refId, String note) {
+        OptionalDouble balance = tryDebit(userId, amount, type, refType, refId, note);
+        if (balance.isEmpty()) {
+            throw new IllegalStateException(String.format(
+                    "Số dư ví không đủ. Cần %.0f, hiện có %.0f", amount, getBalance(userId)));
+        }
+        return balance.getAsDouble();
+    }
+
+    /**
+     * @return số dư sau khi trừ, rỗng nếu không đủ tiền
+     */
+    public OptionalDouble tryDebit(String userId, double amount, WalletLedgerEntry.EntryType type,
+                                   String refType, Object refId, String note) {
+        requirePositive(amount);
+        List<Double> rows = jdbcTemplate.query(DEBIT_SQL, DbTime.args(
+                amount, userId, amount,
+                -amount, type.name(), refType, refId != null ? String.valueOf(refId) : null, note, DbTime.now()
+        ), (rs, i) -> rs.getDouble(1));
+        return rows.isEmpty() ? emptyIfUserExists(userId) : OptionalDouble.of(rows.get(0));
+    }
+
+    /**
+     * Cộng ví (nạp tiền, hoàn tiền).
+     *
+     * @return số dư sau khi cộng
+     * @throws IllegalStateException nếu vượt giới hạn ví
+     */
+    public double credit(String userId, double amount, WalletLedgerEntry.EntryType type,
+                         String refType, Object refId, String note) {
+        OptionalDouble balance = tryCredit(userId, amount, type, refType, refId, note);
+        if (balance.isEmpty()) {
+            throw new IllegalStateException("Ví đã đạt giới hạn, không thể cộng thêm tiền.");
+        }
+        return balance.getAsDouble();
+    }
+
+    /**
+     * @return số dư sau khi cộng, rỗng nếu vượt MAX_BALANCE
+     */
+    public OptionalDouble tryCredit(String userId, double amount, WalletLedgerEntry.EntryType type,
+                                    String refType, Object refId, String note) {
+        requirePositive(amount);
+        List<Double> rows = jdbcTemplate.query(CREDIT_SQL, DbTime.args(
+                amount, userId, amount, MAX_BALANCE,
+                amount, type.name(), refType, refId != null ? String.valueOf(refId) : null, note, DbTime.now()
+        ), (rs, i) -> rs.getDouble(1));
+        return rows.isEmpty() ? emptyIfUserExists(userId) : OptionalDouble.of(rows.get(0));
+    }
+
+    // ==================== ĐỌC ====================
+
+    public double getBalance(String userId) {
+        List<Double> rows = jdbcTemplate.query("SELECT WalletBalance FROM Users WHERE UserId = ?",
+                (rs, i) -> rs.getDouble(1), userId);
+        if (rows.isEmpty()) {
+            throw new IllegalArgumentException("Không tìm thấy user: " + userId);
+        }
+        return rows.get(0);
+    }
+
+    @Transactional(readOnly = true)
+    public CursorPage<WalletLedgerEntry> getLedger(String userId, String cursor, Integer limit) {
+        int size = KeysetPaging.clampLimit(limit);
+        List<WalletLedgerEntry> rows = walletLedgerRepository.findPage(
+                userId, KeysetPaging.decodeCursor(cursor), KeysetPaging.probe(size));
+        return KeysetPaging.toPage(rows, size, WalletLedgerEntry::getEntryId);
+    }
+
+    // ==================== GOM SỔ CÁI ====================
+
+    @Scheduled(fixedDelay = 600000, initialDelay = 120000) // 10 phút
+    public void compactSnapshots() {
+        schedulerLeaseService.runExclusive(SNAPSHOT_LEASE_JOB, Duration.ofMinutes(5), token -> {
+            Long from = jdbcTemplate.queryForObject(
+                    "SELECT COALESCE(MAX(LastEntryId), 0) FROM WalletSnapshot", Long.class);
+            Long to = jdbcTemplate.query(
+                    "SELECT COALESCE(MAX(EntryId), 0) FROM WalletLedger WHERE CreatedAt < ?",
+                    DbTime.args(DbTime.of(LocalDateTime.now().minus(SNAPSHOT_SETTLE))),
+                    (rs, i) -> rs.getLong(1)).get(0);
+            if (from == null || to == null || to <= from) return;
+
+            // Chuỗi BalanceAfter phải khớp: snapshot cũ + tổng phát sinh = số dư dòng cuối
+            List<Map<String, Object>> drifts = jdbcTemplate.queryForList(DRIFT_SQL, from, to, DRIFT_TOLERANCE);
+            for (Map<String, Object> d : drifts) {
+                log.error("🚨 [WALLET DRIFT] user={} snapshot={} + phát sinh={} ≠ số dư sổ cái={}",
+                        d.get("userid"), d.get("balance"), d.get("delta"), d.get("balanceafter"));
+            }
+
+            int users = jdbcTemplate.update(COMPACT_SQL, DbTime.args(from, to, DbTime.now()));
+            log.info("💰 Gom sổ cái ví: {} user, EntryId ({}, {}]", users, from, to);
+        });
+    }
+
+    private OptionalDouble emptyIfUserExists(String userId) {
+        getBalance(userId);
+        return OptionalDouble.empty();
+    }
+
+    private static void requirePositive(double amount) {
+        if (!(amount > 0)) {
+            throw new IllegalArgumentException("Số tiền giao dịch ví phải lớn hơn 0");
+        }
+    }
+}
@@ -34,11 +34,12 @@ public class InvoicePaidListener {
             // ===== HTML TEMPLATE =====
             String html = buildInvoiceEmailHtml(user, invoice);
 
-            emailService.sendEmail(toEmail, subject, html);
-            log.info("✅ Đã gửi email xác nhận thanh toán tới {}", toEmail);
+            // Ghi outbox trong transaction thanh toán → không gọi SendGrid trên luồng IPN / ví
+            emailService.sendEmail(toEmail, subject, html, "invoice-paid:" + invoice.getInvoiceId());
+            log.info("✅ Đã xếp email xác nhận thanh toán tới {} vào hàng đợi", toEmail);
 
         } catch (Exception e) {
-            log.error("❌ Lỗi khi gửi email cho Invoice #{}: {}", invoice.getInvoiceId(), e.getMessage(), e);
+            log.error("❌ Lỗi khi xếp email cho Invoice #{}: {}", invoice.getInvoiceId(), e.getMessage(), e);
         }
     }
 
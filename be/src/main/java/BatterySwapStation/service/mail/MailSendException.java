@@ -0,0 +1,20 @@
+package BatterySwapStation.service.mail;
+
+import lombok.Getter;
+
+@Getter
+public class MailSendException extends RuntimeException {
+
+    // false: lỗi cố định (địa chỉ sai, request bị từ chối) → không thử lại
+    private final boolean retryable;
+
+    public MailSendException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public MailSendException(String message, boolean retryable, Throwable cause) {
+        super(message, cause);
+        this.retryable = retryable;
+    }
+}
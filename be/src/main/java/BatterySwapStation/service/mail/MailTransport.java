@@ -0,0 +1,14 @@
+package BatterySwapStation.service.mail;
+
+/**
+ * Kênh gửi email thật sự. Chọn bằng app.mail.transport: sendgrid (mặc định) | stub.
+ */
+public interface MailTransport {
+
+    /**
+     * Gửi 1 email HTML.
+     *
+     * @throws MailSendException khi gửi thất bại (retryable = có nên thử lại không)
+     */
+    void send(String to, String subject, String html);
+}
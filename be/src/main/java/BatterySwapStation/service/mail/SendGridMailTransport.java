@@ -0,0 +1,57 @@
+package BatterySwapStation.service.mail;
+
+import com.sendgrid.Method;
+import com.sendgrid.Request;
+import com.sendgrid.Response;
+import com.sendgrid.SendGrid;
+import com.sendgrid.helpers.mail.Mail;
+import com.sendgrid.helpers.mail.objects.Content;
+import com.sendgrid.helpers.mail.objects.Email;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * 📧 Gửi qua SendGrid. 1 client dùng chung cho mọi email (giữ connection pool HTTP).
+ */
+@Component
+@ConditionalOnProperty(name = "app.mail.transport", havingValue = "sendgrid", matchIfMissing = true)
+@Slf4j
+public class SendGridMailTransport implements MailTransport {
+
+    private final SendGrid client;
+    private final String fromEmail;
+
+    public SendGridMailTransport(@Value("${SENDGRID_API_KEY}") String apiKey,
+                                 @Value("${SPRING_MAIL_FROM}") String fromEmail) {
+        this.client = new SendGrid(apiKey);
+        this.fromEmail = fromEmail;
+    }
+
+    @Override
+    public void send(String to, String subject, String html) {
+        Mail mail = new Mail(new Email(fromEmail), subject, new Email(to), new Content("text/html", html));
+
+        Response response;
+        try {
+            Request request = new Request();
+            request.setMethod(Method.POST);
+            request.setEndpoint("mail/send");
+            request.setBody(mail.build());
+            response = client.api(request);
+        } catch (IOException e) {
+            throw new MailSendException("Lỗi kết nối SendGrid: " + e.getMessage(), true, e);
+        }
+
+        int status = response.getStatusCode();
+        log.debug("📧 SendGrid {} → {}", to, status);
+        if (status >= 200 && status < 300) return;
+
+        // 429 / 5xx: SendGrid quá tải hoặc lỗi tạm thời → thử lại; 4xx khác: request sai → dừng
+        boolean retryable = status == 429 || status >= 500;
+        throw new MailSendException("SendGrid trả về " + status + ": " + response.getBody(), retryable);
+    }
+}
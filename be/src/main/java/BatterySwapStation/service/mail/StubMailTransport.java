@@ -0,0 +1,58 @@
+package BatterySwapStation.service.mail;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * 🧪 Transport giả cho môi trường local / test (app.mail.transport=stub):
+ * không gọi mạng, chỉ log và giữ lại các email gần nhất để kiểm tra.
+ */
+@Component
+@ConditionalOnProperty(name = "app.mail.transport", havingValue = "stub")
+@Slf4j
+public class StubMailTransport implements MailTransport {
+
+    private static final int MAX_KEPT = 500;
+
+    private final ConcurrentLinkedDeque<SentMail> sent = new ConcurrentLinkedDeque<>();
+
+    // Lỗi giả lập cho mọi lần gửi tiếp theo (null = gửi bình thường)
+    private volatile MailSendException failure;
+
+    @Override
+    public void send(String to, String subject, String html) {
+        MailSendException error = failure;
+        if (error != null) {
+            throw error;
+        }
+        sent.addLast(new SentMail(to, subject, html));
+        while (sent.size() > MAX_KEPT) {
+            sent.pollFirst();
+        }
+        log.info("📧 [STUB] {} | {}", to, subject);
+    }
+
+    public List<SentMail> getSent() {
+        return new ArrayList<>(sent);
+    }
+
+    /**
+     * Giả lập nhà cung cấp lỗi: mọi lần gửi sau đó ném {@code error} cho tới khi gọi lại với null / clear().
+     */
+    public void failWith(MailSendException error) {
+        this.failure = error;
+    }
+
+    public void clear() {
+        sent.clear();
+        failure = null;
+    }
+
+    public record SentMail(String to, String subject, String html) {
+    }
+}
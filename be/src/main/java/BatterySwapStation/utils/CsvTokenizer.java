@@ -0,0 +1,144 @@
+package BatterySwapStation.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Đọc CSV theo RFC 4180, từng record một (không nạp cả file vào bộ nhớ).
+ * - Field trong ngoặc kép được chứa dấu phẩy, xuống dòng; "" bên trong = 1 dấu "
+ * - Kết thúc record: \n, \r\n hoặc \r
+ * - Bỏ BOM UTF-8 ở đầu file
+ * - Dễ dãi với file Excel xuất ra: ký tự sau dấu " đóng vẫn được nối vào field thay vì báo lỗi
+ */
+public class CsvTokenizer implements Closeable {
+
+    private static final int EOF = -1;
+
+    private final Reader reader;
+    private final char[] buf = new char[16 * 1024];
+    private int pos;
+    private int limit;
+    private boolean started;
+
+    private int line = 1;          // dòng vật lý đang đọc
+    private int recordLine;        // dòng bắt đầu của record vừa trả về
+    private boolean unterminated;  // record vừa trả về có ngoặc kép chưa đóng (chạm EOF)
+
+    public CsvTokenizer(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return danh sách field của record tiếp theo, null nếu hết file.
+     * Dòng trống trả về 1 field rỗng.
+     */
+    public List<String> next() throws IOException {
+        if (!started) {
+            started = true;
+            if (peek() == '\uFEFF') pos++;
+        }
+        if (peek() == EOF) return null;
+
+        recordLine = line;
+        unterminated = false;
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean fieldStart = true;
+
+        while (true) {
+            int c = read();
+            if (c == EOF) {
+                if (quoted) unterminated = true;
+                fields.add(field.toString());
+                return fields;
+            }
+
+            if (quoted) {
+                if (c == '"') {
+                    if (peek() == '"') {
+                        pos++;
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n' || (c == '\r' && peek() != '\n')) line++;
+                    field.append((char) c);
+                }
+                continue;
+            }
+
+            switch (c) {
+                case ',' -> {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    fieldStart = true;
+                }
+                case '\r' -> {
+                    if (peek() == '\n') pos++;
+                    line++;
+                    fields.add(field.toString());
+                    return fields;
+                }
+                case '\n' -> {
+                    line++;
+                    fields.add(field.toString());
+                    return fields;
+                }
+                case '"' -> {
+                    if (fieldStart) {
+                        quoted = true;
+                        fieldStart = false;
+                    } else {
+                        field.append('"');
+                    }
+                }
+                default -> {
+                    field.append((char) c);
+                    fieldStart = false;
+                }
+            }
+        }
+    }
+
+    /** Dòng (1-based) nơi record vừa trả về bắt đầu. */
+    public int getRecordLine() {
+        return recordLine;
+    }
+
+    /** Record vừa trả về mở ngoặc kép nhưng tới cuối file vẫn chưa đóng. */
+    public boolean isUnterminated() {
+        return unterminated;
+    }
+
+    private int read() throws IOException {
+        if (pos >= limit && !fill()) return EOF;
+        return buf[pos++];
+    }
+
+    private int peek() throws IOException {
+        if (pos >= limit && !fill()) return EOF;
+        return buf[pos];
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = reader.read(buf, 0, buf.length);
+        } while (n == 0);
+        if (n < 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,56 @@
+package BatterySwapStation.utils;
+
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Thời gian cho JDBC thuần, khớp với cột do Hibernate ghi.
+ * Hibernate ghi / đọc LocalDateTime với hibernate.jdbc.time_zone=UTC, còn session DB chạy giờ Asia/Ho_Chi_Minh
+ * → now() trong SQL lệch 7 tiếng so với cột entity. SQL tự viết phải bind / đọc thời gian qua calendar UTC ở đây.
+ */
+public final class DbTime {
+
+    private static final TimeZone DB_TIME_ZONE = TimeZone.getTimeZone("UTC");
+
+    private DbTime() {
+    }
+
+    /** Thời điểm hiện tại để bind vào SQL (thay cho now()). */
+    public static Timestamp now() {
+        return Timestamp.valueOf(LocalDateTime.now());
+    }
+
+    public static Timestamp of(LocalDateTime time) {
+        return time != null ? Timestamp.valueOf(time) : null;
+    }
+
+    /**
+     * Bind tham số theo thứ tự; Timestamp được ghi với calendar UTC, còn lại như JdbcTemplate mặc định.
+     */
+    public static PreparedStatementSetter args(Object... args) {
+        return ps -> {
+            Calendar utc = Calendar.getInstance(DB_TIME_ZONE);
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] instanceof Timestamp ts) {
+                    ps.setTimestamp(i + 1, ts, utc);
+                } else {
+                    StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, args[i]);
+                }
+            }
+        };
+    }
+
+    /** Đọc cột thời gian do Hibernate ghi. */
+    public static LocalDateTime read(ResultSet rs, String column) throws SQLException {
+        Timestamp ts = rs.getTimestamp(column, Calendar.getInstance(DB_TIME_ZONE));
+        return ts != null ? ts.toLocalDateTime() : null;
+    }
+}
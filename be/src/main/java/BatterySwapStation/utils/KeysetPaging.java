@@ -0,0 +1,78 @@
+package BatterySwapStation.utils;
+
+import BatterySwapStation.dto.CursorPage;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Phân trang keyset cho các màn danh sách admin.
+ * - Khóa sắp xếp: id giảm dần (duy nhất, không đổi, đi thẳng trên primary key)
+ * - Cursor = id cuối của trang trước, mã hóa base64url để client coi là chuỗi mờ
+ * - Query lấy limit + 1 dòng: có dòng dư → còn trang sau
+ */
+public final class KeysetPaging {
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 200;
+
+    private static final String PREFIX = "id:";
+
+    private KeysetPaging() {
+    }
+
+    public static int clampLimit(Integer limit) {
+        if (limit == null) return DEFAULT_LIMIT;
+        return Math.max(1, Math.min(MAX_LIMIT, limit));
+    }
+
+    /** Pageable cho query: luôn trang 0, lấy dư 1 dòng. */
+    public static Pageable probe(int limit) {
+        return PageRequest.of(0, limit + 1);
+    }
+
+    /** @return id cuối của trang trước, null nếu là trang đầu */
+    public static Long decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            if (!raw.startsWith(PREFIX)) throw new IllegalArgumentException();
+            return Long.parseLong(raw.substring(PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor không hợp lệ: " + cursor);
+        }
+    }
+
+    public static String encodeCursor(long id) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static <T> CursorPage<T> toPage(List<T> rows, int limit, ToLongFunction<T> idOf) {
+        boolean hasMore = rows.size() > limit;
+        List<T> items = hasMore ? rows.subList(0, limit) : rows;
+        String next = hasMore ? encodeCursor(idOf.applyAsLong(items.get(items.size() - 1))) : null;
+        return new CursorPage<>(items, next, hasMore, limit);
+    }
+
+    public static void checkRange(LocalDate from, LocalDate to) {
+        if (from != null && to != null && to.isBefore(from)) {
+            throw new IllegalArgumentException("Ngày kết thúc phải sau ngày bắt đầu");
+        }
+    }
+
+    // Lọc theo ngày trên cột LocalDateTime: [from 00:00, to + 1 ngày 00:00)
+    public static LocalDateTime startOf(LocalDate from) {
+        return from == null ? null : from.atStartOfDay();
+    }
+
+    public static LocalDateTime endExclusive(LocalDate to) {
+        return to == null ? null : to.plusDays(1).atStartOfDay();
+    }
+}
@@ -0,0 +1,252 @@
+package BatterySwapStation.utils;
+
+import BatterySwapStation.dto.StationResponseDTO;
+import org.ojalgo.optimisation.Expression;
+import org.ojalgo.optimisation.ExpressionsBasedModel;
+import org.ojalgo.optimisation.Optimisation;
+import org.ojalgo.optimisation.Variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bài toán vận chuyển pin giữa các trạm, chỉ trên phần chênh lệch (delta):
+ * - Trạm dư (current > target) gửi tối đa phần dư, trạm thiếu nhận tối đa phần thiếu
+ * - Chỉ tạo cạnh dư → thiếu giữa k láng giềng gần nhất (haversine, qua StationGeoIndex) thay vì n×n
+ * - Ma trận ràng buộc của bài toán vận chuyển là unimodular hoàn toàn → giải LP liên tục đã cho nghiệm nguyên
+ * - Quá ngân sách thời gian / quá nhiều cạnh / LP lỗi → heuristic tham lam (cạnh rẻ nhất trước)
+ */
+public final class RebalanceSolver {
+
+    // Phạt mỗi pin thiếu không được bù: lớn hơn mọi quãng đường vận chuyển (km) thực tế
+    public static final double SHORTAGE_PENALTY = 10_000.0;
+
+    private static final int MAX_LP_EDGES = 50_000;
+
+    private RebalanceSolver() {}
+
+    /**
+     * @param stations    các trạm (index i tương ứng current[i], target[i])
+     * @param k           số láng giềng gần nhất giữ lại cho mỗi trạm dư / thiếu
+     * @param timeBudgetMs thời gian tối đa cho LP
+     */
+    public static Plan solve(List<StationResponseDTO> stations, int[] current, int[] target,
+                             int k, long timeBudgetMs) {
+        long start = System.nanoTime();
+        int n = stations.size();
+
+        int[] surplus = new int[n];
+        int[] deficit = new int[n];
+        List<StationResponseDTO> surplusStations = new ArrayList<>();
+        List<StationResponseDTO> deficitStations = new ArrayList<>();
+        Map<Integer, Integer> indexOf = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            indexOf.put(stations.get(i).getStationId(), i);
+            surplus[i] = Math.max(0, current[i] - target[i]);
+            deficit[i] = Math.max(0, target[i] - current[i]);
+            if (surplus[i] > 0) surplusStations.add(stations.get(i));
+            if (deficit[i] > 0) deficitStations.add(stations.get(i));
+        }
+
+        Edges edges = buildEdges(stations, surplusStations, deficitStations, indexOf, k);
+        if (edges.size == 0) {
+            return finish(List.of(), "NONE", shortageOnly(deficit), 0.0, edges.size, start);
+        }
+
+        if (edges.size <= MAX_LP_EDGES) {
+            Plan lp = solveLp(edges, surplus, deficit, timeBudgetMs, start);
+            if (lp != null) return lp;
+        }
+        return solveGreedy(edges, surplus, deficit, start);
+    }
+
+    // ==================== CẠNH (kNN) ====================
+
+    private static Edges buildEdges(List<StationResponseDTO> stations, List<StationResponseDTO> surplusStations,
+                                    List<StationResponseDTO> deficitStations, Map<Integer, Integer> indexOf, int k) {
+        Edges edges = new Edges();
+        if (surplusStations.isEmpty() || deficitStations.isEmpty()) return edges;
+
+        StationGeoIndex deficitIndex = StationGeoIndex.build(deficitStations);
+        StationGeoIndex surplusIndex = StationGeoIndex.build(surplusStations);
+        Set<Long> seen = new HashSet<>();
+
+        // Mỗi trạm dư → k trạm thiếu gần nhất, mỗi trạm thiếu ← k trạm dư gần nhất
+        for (StationResponseDTO s : surplusStations) {
+            if (s.getLatitude() == null || s.getLongitude() == null) continue;
+            int from = indexOf.get(s.getStationId());
+            for (StationGeoIndex.Hit hit : deficitIndex.nearest(
+                    s.getLatitude().doubleValue(), s.getLongitude().doubleValue(), k, null)) {
+                edges.add(from, indexOf.get(hit.station().getStationId()), hit.distanceKm(), seen);
+            }
+        }
+        for (StationResponseDTO d : deficitStations) {
+            if (d.getLatitude() == null || d.getLongitude() == null) continue;
+            int to = indexOf.get(d.getStationId());
+            for (StationGeoIndex.Hit hit : surplusIndex.nearest(
+                    d.getLatitude().doubleValue(), d.getLongitude().doubleValue(), k, null)) {
+                edges.add(indexOf.get(hit.station().getStationId()), to, hit.distanceKm(), seen);
+            }
+        }
+        return edges;
+    }
+
+    // ==================== LP (ojAlgo) ====================
+
+    private static Plan solveLp(Edges edges, int[] surplus, int[] deficit, long timeBudgetMs, long start) {
+        int n = surplus.length;
+        ExpressionsBasedModel model = new ExpressionsBasedModel();
+        model.options.time_abort = Math.max(1, timeBudgetMs);
+
+        Variable[] x = new Variable[edges.size];
+        for (int e = 0; e < edges.size; e++) {
+            x[e] = model.addVariable("x_" + edges.from[e] + "_" + edges.to[e])
+                    .lower(0)
+                    .weight(edges.cost[e]);
+        }
+
+        Expression[] out = new Expression[n];
+        Expression[] in = new Expression[n];
+        for (int i = 0; i < n; i++) {
+            if (surplus[i] > 0) {
+                out[i] = model.addExpression("send_limit_" + i).upper(surplus[i]);
+            }
+            if (deficit[i] > 0) {
+                Variable shortage = model.addVariable("shortage_" + i).lower(0).weight(SHORTAGE_PENALTY);
+                in[i] = model.addExpression("balance_" + i).lower(deficit[i]);
+                in[i].set(shortage, 1);
+            }
+        }
+        for (int e = 0; e < edges.size; e++) {
+            out[edges.from[e]].set(x[e], 1);
+            in[edges.to[e]].set(x[e], 1);
+        }
+
+        Optimisation.Result result;
+        try {
+            result = model.minimise();
+        } catch (RuntimeException ex) {
+            return null;
+        }
+        if (result.getState().isFailure() || !result.getState().isFeasible()) return null;
+
+        // Làm tròn + chặn theo phần dư / thiếu còn lại (phòng nghiệm không phải đỉnh khi bị dừng giữa chừng)
+        int[] quantity = new int[edges.size];
+        for (int e = 0; e < edges.size; e++) {
+            int idx = model.indexOf(x[e]);
+            if (idx < 0) continue;
+            quantity[e] = (int) Math.round(result.doubleValue(idx));
+        }
+        List<Flow> flows = clampFlows(edges, quantity, surplus, deficit);
+        double objective = objectiveOf(flows, deficit);
+
+        double bound = result.getState().isOptimal() ? result.getValue() : lowerBound(edges, deficit);
+        return finish(flows, result.getState().isOptimal() ? "LP" : "LP_TIME_LIMIT", objective,
+                gapOf(objective, bound), edges.size, start);
+    }
+
+    // ==================== GREEDY ====================
+
+    private static Plan solveGreedy(Edges edges, int[] surplus, int[] deficit, long start) {
+        int[] quantity = new int[edges.size];
+        Arrays.fill(quantity, Integer.MAX_VALUE);
+        List<Flow> flows = clampFlows(edges, quantity, surplus, deficit);
+        double objective = objectiveOf(flows, deficit);
+        return finish(flows, "GREEDY", objective, gapOf(objective, lowerBound(edges, deficit)), edges.size, start);
+    }
+
+    /**
+     * Duyệt cạnh theo chi phí tăng dần, mỗi cạnh chở min(đề xuất, dư còn lại, thiếu còn lại).
+     * quantity = MAX_VALUE ⇒ chính là heuristic tham lam.
+     */
+    private static List<Flow> clampFlows(Edges edges, int[] quantity, int[] surplus, int[] deficit) {
+        int[] remainingSurplus = surplus.clone();
+        int[] remainingDeficit = deficit.clone();
+        Integer[] order = new Integer[edges.size];
+        for (int e = 0; e < edges.size; e++) order[e] = e;
+        Arrays.sort(order, Comparator.comparingDouble(e -> edges.cost[e]));
+
+        List<Flow> flows = new ArrayList<>();
+        for (int e : order) {
+            if (quantity[e] <= 0) continue;
+            int from = edges.from[e];
+            int to = edges.to[e];
+            int q = Math.min(quantity[e], Math.min(remainingSurplus[from], remainingDeficit[to]));
+            if (q <= 0) continue;
+            remainingSurplus[from] -= q;
+            remainingDeficit[to] -= q;
+            flows.add(new Flow(from, to, q, edges.cost[e]));
+        }
+        return flows;
+    }
+
+    // Mỗi pin thiếu ở trạm j tốn ít nhất min(cạnh rẻ nhất vào j, phạt thiếu) → cận dưới hợp lệ của bài toán đã tỉa cạnh
+    private static double lowerBound(Edges edges, int[] deficit) {
+        double[] cheapestIn = new double[deficit.length];
+        Arrays.fill(cheapestIn, SHORTAGE_PENALTY);
+        for (int e = 0; e < edges.size; e++) {
+            cheapestIn[edges.to[e]] = Math.min(cheapestIn[edges.to[e]], edges.cost[e]);
+        }
+        double bound = 0;
+        for (int j = 0; j < deficit.length; j++) bound += deficit[j] * cheapestIn[j];
+        return bound;
+    }
+
+    private static double objectiveOf(List<Flow> flows, int[] deficit) {
+        double objective = 0;
+        long shipped = 0;
+        for (Flow f : flows) {
+            objective += f.quantity() * f.distanceKm();
+            shipped += f.quantity();
+        }
+        long totalDeficit = 0;
+        for (int d : deficit) totalDeficit += d;
+        return objective + SHORTAGE_PENALTY * (totalDeficit - shipped);
+    }
+
+    private static double shortageOnly(int[] deficit) {
+        return objectiveOf(List.of(), deficit);
+    }
+
+    private static double gapOf(double objective, double bound) {
+        if (objective <= 0) return 0.0;
+        return Math.max(0.0, (objective - bound) / objective);
+    }
+
+    private static Plan finish(List<Flow> flows, String method, double objective, double gap, int edgeCount, long start) {
+        return new Plan(flows, method, objective, gap, edgeCount, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Danh sách cạnh dạng mảng song song (from, to, cost), tự nới kích thước
+    private static final class Edges {
+        int[] from = new int[64];
+        int[] to = new int[64];
+        double[] cost = new double[64];
+        int size;
+
+        void add(int f, int t, double distanceKm, Set<Long> seen) {
+            if (f == t || !seen.add(((long) f << 32) | (t & 0xffffffffL))) return;
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                cost = Arrays.copyOf(cost, size * 2);
+            }
+            from[size] = f;
+            to[size] = t;
+            cost[size] = Math.max(distanceKm, 0.01); // 2 trạm trùng tọa độ vẫn có chi phí > 0
+            size++;
+        }
+    }
+
+    /** from / to là index trong danh sách trạm truyền vào. */
+    public record Flow(int from, int to, int quantity, double distanceKm) {}
+
+    /** gap = (objective - cận dưới) / objective; 0 khi LP tối ưu. */
+    public record Plan(List<Flow> flows, String method, double objective, double gap, int edgeCount, long solveTimeMs) {}
+}
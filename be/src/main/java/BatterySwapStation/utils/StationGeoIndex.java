@@ -0,0 +1,127 @@
+package BatterySwapStation.utils;
+
+import BatterySwapStation.dto.StationResponseDTO;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Lưới tọa độ (grid) bất biến trên danh sách trạm: mỗi ô 0.05° (~5.5km) giữ index các trạm nằm trong ô.
+ * Truy vấn bán kính chỉ duyệt các ô giao với khung bao của vòng tròn, rồi mới tính haversine.
+ * Build lại toàn bộ khi dữ liệu trạm thay đổi (không sửa tại chỗ → đọc không cần lock).
+ */
+public final class StationGeoIndex {
+
+    private static final double CELL_DEG = 0.05;
+    private static final double KM_PER_DEG_LAT = 111.32;
+    private static final double MAX_RADIUS_KM = 20038.0; // nửa chu vi Trái Đất
+
+    private final StationResponseDTO[] stations;
+    private final double[] lats;
+    private final double[] lngs;
+    private final Map<Long, int[]> cells;
+
+    private StationGeoIndex(StationResponseDTO[] stations, double[] lats, double[] lngs, Map<Long, int[]> cells) {
+        this.stations = stations;
+        this.lats = lats;
+        this.lngs = lngs;
+        this.cells = cells;
+    }
+
+    public static StationGeoIndex build(List<StationResponseDTO> source) {
+        List<StationResponseDTO> valid = source.stream()
+                .filter(s -> s.getLatitude() != null && s.getLongitude() != null)
+                .toList();
+
+        int n = valid.size();
+        StationResponseDTO[] stations = new StationResponseDTO[n];
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+
+        for (int i = 0; i < n; i++) {
+            StationResponseDTO st = valid.get(i);
+            stations[i] = st;
+            lats[i] = st.getLatitude().doubleValue();
+            lngs[i] = st.getLongitude().doubleValue();
+            buckets.computeIfAbsent(cellKey(row(lats[i]), col(lngs[i])), k -> new ArrayList<>()).add(i);
+        }
+
+        Map<Long, int[]> cells = new HashMap<>(buckets.size() * 2);
+        buckets.forEach((key, list) -> cells.put(key, list.stream().mapToInt(Integer::intValue).toArray()));
+        return new StationGeoIndex(stations, lats, lngs, cells);
+    }
+
+    public int size() {
+        return stations.length;
+    }
+
+    /**
+     * Các trạm trong bán kính {@code radiusKm}, sắp xếp theo khoảng cách tăng dần.
+     * {@code limit <= 0} nghĩa là không giới hạn.
+     */
+    public List<Hit> withinRadius(double lat, double lng, double radiusKm, Predicate<StationResponseDTO> filter, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        double dLat = radiusKm / KM_PER_DEG_LAT;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double dLng = cosLat > 0.01 ? radiusKm / (KM_PER_DEG_LAT * cosLat) : 360;
+
+        long rowFrom = row(lat - dLat), rowTo = row(lat + dLat);
+        long colFrom = col(lng - dLng), colTo = col(lng + dLng);
+        long cellsInBox = (rowTo - rowFrom + 1) * (colTo - colFrom + 1);
+
+        if (dLng >= 180 || cellsInBox > cells.size()) {
+            // Bán kính quá lớn so với số ô có trạm → duyệt thẳng các trạm
+            for (int i = 0; i < stations.length; i++) collect(i, lat, lng, radiusKm, filter, hits);
+        } else {
+            for (long r = rowFrom; r <= rowTo; r++) {
+                for (long c = colFrom; c <= colTo; c++) {
+                    int[] idx = cells.get(cellKey(r, c));
+                    if (idx == null) continue;
+                    for (int i : idx) collect(i, lat, lng, radiusKm, filter, hits);
+                }
+            }
+        }
+
+        hits.sort(Comparator.comparingDouble(Hit::distanceKm));
+        return limit > 0 && hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * k trạm gần nhất: mở rộng bán kính gấp đôi cho tới khi đủ k trạm.
+     * Mọi trạm ngoài bán kính R đều xa hơn các trạm trong R nên top-k là chính xác.
+     */
+    public List<Hit> nearest(double lat, double lng, int k, Predicate<StationResponseDTO> filter) {
+        double radius = 5;
+        while (true) {
+            List<Hit> hits = withinRadius(lat, lng, radius, filter, k);
+            if (hits.size() >= k || radius >= MAX_RADIUS_KM) return hits;
+            radius = Math.min(radius * 2, MAX_RADIUS_KM);
+        }
+    }
+
+    private void collect(int i, double lat, double lng, double radiusKm,
+                         Predicate<StationResponseDTO> filter, List<Hit> hits) {
+        if (filter != null && !filter.test(stations[i])) return;
+        double distance = GeoUtils.haversineKm(lat, lng, lats[i], lngs[i]);
+        if (distance <= radiusKm) hits.add(new Hit(stations[i], distance));
+    }
+
+    private static long row(double lat) {
+        return (long) Math.floor(lat / CELL_DEG);
+    }
+
+    private static long col(double lng) {
+        return (long) Math.floor(lng / CELL_DEG);
+    }
+
+    private static long cellKey(long row, long col) {
+        return (row << 32) ^ (col & 0xffffffffL);
+    }
+
+    public record Hit(StationResponseDTO station, double distanceKm) {}
+}
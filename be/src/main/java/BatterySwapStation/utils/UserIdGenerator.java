@@ -1,23 +1,51 @@
 package BatterySwapStation.utils;
 
 import BatterySwapStation.entity.Role;
-import BatterySwapStation.entity.User;
 import BatterySwapStation.repository.UserRepository;
-import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 🔹 Sinh userId dạng DR001 / ST001 / AD001 / GU001 từ sequence Postgres riêng cho từng prefix.
+ * - nextval không bao giờ trả trùng, kể cả nhiều request / nhiều instance cùng lúc
+ * - Mỗi lần sinh chỉ 1 round-trip, không phụ thuộc số user hiện có
+ * - Sequence được tạo + đồng bộ với MAX(UserId) cũ ở lần dùng đầu tiên
+ */
 @Component
-@RequiredArgsConstructor
+@Slf4j
 public class UserIdGenerator {
 
+    // Trùng với user tạo ngoài sequence (instance bản cũ, insert tay) → đồng bộ lại rồi thử tiếp
+    private static final int MAX_ATTEMPTS = 3;
+
     private final UserRepository userRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // prefix đã kiểm sequence trên instance này
+    private final Set<String> ready = ConcurrentHashMap.newKeySet();
+
+    public UserIdGenerator(UserRepository userRepository,
+                           JdbcTemplate jdbcTemplate,
+                           PlatformTransactionManager transactionManager) {
+        this.userRepository = userRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        // Transaction riêng: không bị rollback theo transaction nghiệp vụ của caller,
+        // advisory lock cũng chỉ giữ trong lúc tạo / đồng bộ sequence
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
 
     /**
      * 🔹 Sinh userId mới dạng DR001 / ST001 / AD001, ...
-     *   Dựa vào MAX(UserId) hiện có (không trùng, không reset)
+     *   Lấy từ sequence của prefix (không trùng, không reset)
      */
     public String generateUserId(Role role) {
         if (role == null || role.getRoleName() == null) {
@@ -31,20 +59,66 @@ public class UserIdGenerator {
             default -> "GU";
         };
 
-        // 🔹 Lọc tất cả user có cùng role
-        List<User> all = userRepository.findAll().stream()
-                .filter(u -> u.getRole() != null && u.getRole().getRoleId() == role.getRoleId())
-                .collect(Collectors.toList());
-
-        // 🔹 Lấy số lớn nhất hiện có
-        int max = all.stream()
-                .map(User::getUserId)
-                .filter(id -> id.startsWith(prefix))
-                .map(id -> id.substring(2))
-                .mapToInt(Integer::parseInt)
-                .max()
-                .orElse(0);
-
-        return String.format("%s%03d", prefix, max + 1);
+        String sequence = sequenceName(prefix);
+        if (!ready.contains(prefix)) {
+            // ensureSequence trả về sau khi transaction riêng đã commit → sequence chắc chắn tồn tại
+            ensureSequence(prefix, sequence);
+            ready.add(prefix);
+        }
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Long next = jdbcTemplate.queryForObject("SELECT nextval('" + sequence + "')", Long.class);
+            String userId = String.format("%s%03d", prefix, next);
+            if (!userRepository.existsById(userId)) {
+                return userId;
+            }
+            log.warn("⚠️ UserId {} đã tồn tại (tạo ngoài sequence) → đồng bộ lại {}", userId, sequence);
+            syncWithExisting(prefix, sequence);
+        }
+
+        throw new IllegalStateException("Không sinh được User ID cho prefix " + prefix);
+    }
+
+    /**
+     * Tạo sequence nếu chưa có. Sequence mới tạo (chưa cấp số nào) → nâng lên MAX(UserId) hiện có.
+     * Advisory lock: nhiều instance khởi động cùng lúc không tạo / seed chồng nhau.
+     */
+    private void ensureSequence(String prefix, String sequence) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("SELECT pg_advisory_xact_lock(hashtext('UserIdSequence'))");
+            jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + sequence + " START WITH 1 MINVALUE 1");
+
+            Boolean used = jdbcTemplate.queryForObject("SELECT is_called FROM " + sequence, Boolean.class);
+            if (!Boolean.TRUE.equals(used)) {
+                // Chỉ quét bảng Users 1 lần khi chuyển từ cách sinh cũ sang sequence
+                long seeded = seed(prefix, sequence);
+                if (seeded > 0) log.info("🔢 Khởi tạo {} từ UserId lớn nhất hiện có: {}{}", sequence, prefix, seeded);
+            }
+        });
+    }
+
+    private void syncWithExisting(String prefix, String sequence) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.execute("SELECT pg_advisory_xact_lock(hashtext('UserIdSequence'))");
+            seed(prefix, sequence);
+        });
+    }
+
+    // Đưa sequence lên ít nhất bằng số lớn nhất đang dùng (không bao giờ lùi)
+    private long seed(String prefix, String sequence) {
+        Long max = jdbcTemplate.queryForObject(
+                "SELECT COALESCE(MAX(CAST(SUBSTRING(UserId FROM 3) AS bigint)), 0) FROM Users WHERE UserId ~ ?",
+                Long.class, "^" + prefix + "[0-9]+$");
+        if (max == null || max == 0) return 0;
+
+        jdbcTemplate.queryForObject(
+                "SELECT setval('" + sequence + "', GREATEST(?, (SELECT CASE WHEN is_called THEN last_value ELSE 0 END FROM " + sequence + ")))",
+                Long.class, max);
+        return max;
+    }
+
+    // prefix chỉ đến từ switch cố định ở trên → ghép vào SQL an toàn
+    private static String sequenceName(String prefix) {
+        return "userid_" + prefix.toLowerCase() + "_seq";
     }
 }
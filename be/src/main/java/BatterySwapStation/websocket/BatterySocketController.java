@@ -1,34 +1,43 @@
 package BatterySwapStation.websocket;
 
-import BatterySwapStation.dto.DockBatteryGroupDTO;
-import BatterySwapStation.service.StationService;
+import BatterySwapStation.dto.StationSlotViewDTO;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
-import java.util.List;
 import java.util.Map;
 
 @Controller
 @RequiredArgsConstructor
+@Slf4j
 public class BatterySocketController {
 
     private final SimpMessagingTemplate messagingTemplate;
-    private final StationService stationService;
+    private final StationSlotView stationSlotView;
 
     @MessageMapping("/joinStation")
-    public void handleJoinStation(Map<String, Object> payload) {
+    public void handleJoinStation(Map<String, Object> payload, SimpMessageHeaderAccessor headerAccessor) {
         Integer stationId = extractStationId(payload);
         if (stationId == null) return;
 
-        System.out.println("Client joined station " + stationId);
+        String sessionId = headerAccessor.getSessionId();
+        log.debug("Client joined station {} (session {})", stationId, sessionId);
 
-        // Gửi snapshot grouped pin theo dock
-        List<DockBatteryGroupDTO> data = stationService.getGroupedBatteriesOnly(stationId);
-        messagingTemplate.convertAndSend("/topic/station-" + stationId + "/grouped", data);
+        // Client gửi kèm version đã biết → chỉ nhận delta; không có hoặc quá cũ → snapshot đầy đủ
+        StationSlotViewDTO view = stationSlotView.viewSince(stationId, extractVersion(payload));
+
+        // Chỉ gửi cho đúng session vừa join: /user/queue/station-X/grouped
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(sessionId, "/queue/station-" + stationId + "/grouped",
+                view, headers.getMessageHeaders());
     }
 
 
@@ -43,6 +52,17 @@ public class BatterySocketController {
     }
 
 
+    private Long extractVersion(Map<String, Object> payload) {
+        if (payload == null || payload.get("version") == null) return null;
+        Object v = payload.get("version");
+        if (v instanceof Number n) return n.longValue();
+        try {
+            return Long.parseLong(v.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private Integer extractStationId(Map<String, Object> payload) {
         if (payload == null || !payload.containsKey("stationId")) return null;
         Object idObj = payload.get("stationId");
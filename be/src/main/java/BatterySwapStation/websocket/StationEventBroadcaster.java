@@ -0,0 +1,132 @@
+package BatterySwapStation.websocket;
+
+import BatterySwapStation.dto.BatteryRealtimeEvent;
+import BatterySwapStation.dto.StationBatteryBatchEvent;
+import BatterySwapStation.service.BatteryStatisticsService;
+import BatterySwapStation.service.StationSummaryReadModel;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 📡 Gom event realtime theo trạm trước khi gửi STOMP.
+ * - Chỉ đưa vào hàng đợi SAU khi transaction commit (rollback thì không gửi gì)
+ * - Nhiều event cho cùng 1 slot trong 1 cửa sổ flush → chỉ giữ trạng thái cuối
+ * - Mỗi lần flush gửi 1 frame / trạm, JSON được serialize ngoài transaction
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StationEventBroadcaster {
+
+    // Giới hạn số slot chờ gửi của 1 trạm; vượt quá thì bỏ event cũ nhất
+    private static final int MAX_PENDING_PER_STATION = 512;
+
+    private final BatterySocketController batterySocketController;
+    private final StationSlotView stationSlotView;
+    private final StationSummaryReadModel stationSummaryReadModel;
+    private final BatteryStatisticsService batteryStatisticsService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<Integer, StationQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Đăng ký event để gửi. Nếu đang trong transaction thì chờ commit xong mới vào hàng đợi.
+     */
+    public void publish(BatteryRealtimeEvent event) {
+        if (event == null || event.getStationId() == null) return;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(event);
+                }
+            });
+        } else {
+            enqueue(event);
+        }
+    }
+
+    /**
+     * ⏱ Flush mỗi 200ms: mỗi trạm có event chờ → 1 frame duy nhất
+     */
+    @Scheduled(fixedDelay = 200)
+    public void flush() {
+        String now = LocalDateTime.now().toString();
+        for (Map.Entry<Integer, StationQueue> entry : queues.entrySet()) {
+            // Lấy version TRƯỚC khi drain: client có thể nhận lại delta trùng, nhưng không bao giờ bị thiếu
+            Long version = stationSlotView.currentVersion(entry.getKey());
+            List<BatteryRealtimeEvent> events = entry.getValue().drain();
+            if (events.isEmpty()) continue;
+
+            try {
+                String json = objectMapper.writeValueAsString(StationBatteryBatchEvent.builder()
+                        .stationId(entry.getKey())
+                        .action("BATCH")
+                        .version(version)
+                        .events(events)
+                        .timestamp(now)
+                        .build());
+                batterySocketController.broadcastToStation(entry.getKey(), json);
+            } catch (Exception e) {
+                log.warn("⚠️ Không gửi được {} event cho trạm {}: {}", events.size(), entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private void enqueue(BatteryRealtimeEvent event) {
+        stationSlotView.apply(event);
+        stationSummaryReadModel.apply(event);
+        batteryStatisticsService.markDirty();
+        queues.computeIfAbsent(event.getStationId(), k -> new StationQueue()).offer(event);
+    }
+
+    private static String slotKey(BatteryRealtimeEvent event) {
+        if (event.getDockId() != null) return "S" + event.getDockId();
+        return event.getDockName() + "#" + event.getSlotNumber();
+    }
+
+    /**
+     * Hàng đợi có giới hạn của 1 trạm, key theo slot (giữ thứ tự xuất hiện đầu tiên).
+     */
+    private static final class StationQueue {
+        private final LinkedHashMap<String, BatteryRealtimeEvent> pending = new LinkedHashMap<>();
+        private int dropped;
+
+        synchronized void offer(BatteryRealtimeEvent event) {
+            // Event mới của cùng slot thay thế event cũ: mỗi event đã mang đủ trạng thái slot
+            pending.put(slotKey(event), event);
+            if (pending.size() > MAX_PENDING_PER_STATION) {
+                Iterator<String> it = pending.keySet().iterator();
+                it.next();
+                it.remove();
+                dropped++;
+            }
+        }
+
+        synchronized List<BatteryRealtimeEvent> drain() {
+            if (pending.isEmpty()) return List.of();
+            if (dropped > 0) {
+                log.warn("⚠️ Hàng đợi realtime trạm {} bị đầy, đã bỏ {} event",
+                        pending.values().iterator().next().getStationId(), dropped);
+                dropped = 0;
+            }
+            List<BatteryRealtimeEvent> events = new ArrayList<>(pending.values());
+            pending.clear();
+            return events;
+        }
+    }
+}
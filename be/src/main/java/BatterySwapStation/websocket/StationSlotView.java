@@ -0,0 +1,278 @@
+package BatterySwapStation.websocket;
+
+import BatterySwapStation.dto.BatteryRealtimeEvent;
+import BatterySwapStation.dto.DockBatteryGroupDTO;
+import BatterySwapStation.dto.SlotBatteryDTO;
+import BatterySwapStation.dto.StationSlotViewDTO;
+import BatterySwapStation.service.StationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 🧩 View dock/slot của từng trạm giữ trong bộ nhớ, có version tăng dần.
+ * - Lần join đầu tiên của trạm mới đọc DB (getGroupedBatteriesOnly), sau đó cập nhật bằng event realtime đã commit
+ * - Mỗi thay đổi slot được ghi vào ring buffer → client reconnect với version cũ chỉ nhận phần chênh lệch
+ * - Trạm không có ai join trong 10 phút sẽ bị bỏ khỏi bộ nhớ (lần join sau đọc lại DB)
+ * - Đối soát: view nạp quá 2 phút được đọc lại từ DB, slot lệch (do ghi không qua broadcaster)
+ *   được sửa và tăng version như 1 thay đổi bình thường → client nhận qua delta / snapshot kế tiếp
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class StationSlotView {
+
+    private static final int RING_SIZE = 256;
+    private static final long IDLE_EVICT_MS = 10 * 60 * 1000L;
+    private static final long MAX_AGE_MS = 2 * 60 * 1000L;
+
+    private final StationService stationService;
+
+    private final Map<Integer, StationState> stations = new ConcurrentHashMap<>();
+
+    /**
+     * Trả về delta nếu {@code knownVersion} còn nằm trong ring buffer, ngược lại trả snapshot đầy đủ.
+     */
+    public StationSlotViewDTO viewSince(Integer stationId, Long knownVersion) {
+        StationState state = stations.computeIfAbsent(stationId, StationState::new);
+        if (!state.isLoaded()) {
+            // Đọc DB ngoài lock; event đến trong lúc đọc được giữ lại và phát lại sau khi nạp
+            List<DockBatteryGroupDTO> grouped = stationService.getGroupedBatteriesOnly(stationId);
+            state.load(grouped);
+        }
+        return state.viewSince(knownVersion);
+    }
+
+    /**
+     * Áp dụng event đã commit. Trạm chưa có ai join thì bỏ qua.
+     */
+    public void apply(BatteryRealtimeEvent event) {
+        if (event == null || event.getStationId() == null) return;
+        StationState state = stations.get(event.getStationId());
+        if (state != null) state.apply(event);
+    }
+
+    /**
+     * Version hiện tại của trạm, null nếu trạm chưa được nạp.
+     */
+    public Long currentVersion(Integer stationId) {
+        StationState state = stations.get(stationId);
+        return state != null && state.isLoaded() ? state.version() : null;
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdle() {
+        long cutoff = System.currentTimeMillis() - IDLE_EVICT_MS;
+        stations.values().removeIf(state -> state.lastAccess < cutoff);
+    }
+
+    /**
+     * 🔁 Đối soát view đã nạp quá MAX_AGE_MS với DB (trạm được join liên tục thì không bao giờ bị evict)
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void reconcile() {
+        long cutoff = System.currentTimeMillis() - MAX_AGE_MS;
+        for (StationState state : stations.values()) {
+            if (!state.isStale(cutoff)) continue;
+            try {
+                state.beginResync();
+                int fixed = state.resync(stationService.getGroupedBatteriesOnly(state.stationId));
+                if (fixed > 0) {
+                    log.info("🔁 StationSlotView trạm {}: sửa {} slot lệch với DB", state.stationId, fixed);
+                }
+            } catch (Exception e) {
+                state.abortResync();
+                log.warn("⚠️ Lỗi khi đối soát StationSlotView trạm {}: {}", state.stationId, e.getMessage());
+            }
+        }
+    }
+
+    private static final class StationState {
+        private final Integer stationId;
+        private final TreeMap<String, TreeMap<Integer, SlotBatteryDTO>> docks = new TreeMap<>();
+        private final Map<Integer, String> dockOfSlot = new ConcurrentHashMap<>();
+        private final StationSlotViewDTO.SlotChange[] ring = new StationSlotViewDTO.SlotChange[RING_SIZE];
+        private final List<BatteryRealtimeEvent> pendingBeforeLoad = new ArrayList<>();
+        // Event đến trong lúc đọc DB để đối soát → phát lại sau khi sửa theo DB
+        private List<BatteryRealtimeEvent> duringResync;
+        private long baseVersion;
+        private long version;
+        private boolean loaded;
+        private long loadedAt;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        StationState(Integer stationId) {
+            this.stationId = stationId;
+        }
+
+        synchronized boolean isLoaded() {
+            return loaded;
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized void load(List<DockBatteryGroupDTO> grouped) {
+            if (loaded) return;
+            // Version bắt đầu theo thời gian nạp → không trùng dải version của lần nạp trước (sau khi bị evict)
+            baseVersion = System.currentTimeMillis() * 1000;
+            version = baseVersion;
+            for (DockBatteryGroupDTO dock : grouped) {
+                TreeMap<Integer, SlotBatteryDTO> slots = docks.computeIfAbsent(dock.getDockName(), k -> new TreeMap<>());
+                for (SlotBatteryDTO slot : dock.getSlots()) {
+                    slots.put(slot.getSlotNumber(), slot);
+                    if (slot.getSlotId() != null) dockOfSlot.put(slot.getSlotId(), dock.getDockName());
+                }
+            }
+            loaded = true;
+            loadedAt = System.currentTimeMillis();
+            for (BatteryRealtimeEvent event : pendingBeforeLoad) applyLoaded(event);
+            pendingBeforeLoad.clear();
+        }
+
+        synchronized void apply(BatteryRealtimeEvent event) {
+            if (!loaded) {
+                pendingBeforeLoad.add(event);
+                return;
+            }
+            if (duringResync != null) duringResync.add(event);
+            applyLoaded(event);
+        }
+
+        synchronized boolean isStale(long cutoff) {
+            return loaded && loadedAt < cutoff;
+        }
+
+        synchronized void beginResync() {
+            duringResync = new ArrayList<>();
+        }
+
+        synchronized void abortResync() {
+            duringResync = null;
+        }
+
+        /**
+         * Sửa view theo DB. Cùng bố cục dock/slot → mỗi slot lệch là 1 thay đổi trong ring;
+         * bố cục khác (thêm / bớt slot) → thay toàn bộ, client cũ nhận snapshot.
+         *
+         * @return số slot đã sửa
+         */
+        synchronized int resync(List<DockBatteryGroupDTO> grouped) {
+            List<BatteryRealtimeEvent> replay = duringResync != null ? duringResync : List.of();
+            duringResync = null;
+            if (!loaded) return 0;
+
+            TreeMap<String, TreeMap<Integer, SlotBatteryDTO>> fresh = new TreeMap<>();
+            for (DockBatteryGroupDTO dock : grouped) {
+                TreeMap<Integer, SlotBatteryDTO> slots = fresh.computeIfAbsent(dock.getDockName(), k -> new TreeMap<>());
+                for (SlotBatteryDTO slot : dock.getSlots()) slots.put(slot.getSlotNumber(), slot);
+            }
+
+            int fixed = 0;
+            boolean sameLayout = fresh.keySet().equals(docks.keySet())
+                    && fresh.entrySet().stream().allMatch(e -> e.getValue().keySet().equals(docks.get(e.getKey()).keySet()));
+            if (sameLayout) {
+                for (var dock : fresh.entrySet()) {
+                    TreeMap<Integer, SlotBatteryDTO> slots = docks.get(dock.getKey());
+                    for (SlotBatteryDTO slot : dock.getValue().values()) {
+                        if (slot.equals(slots.get(slot.getSlotNumber()))) continue;
+                        slots.put(slot.getSlotNumber(), slot);
+                        version++;
+                        ring[(int) (version % RING_SIZE)] = new StationSlotViewDTO.SlotChange(version, dock.getKey(), slot);
+                        fixed++;
+                    }
+                }
+            } else {
+                docks.clear();
+                dockOfSlot.clear();
+                docks.putAll(fresh);
+                fresh.forEach((dockName, slots) -> slots.values().forEach(slot -> {
+                    if (slot.getSlotId() != null) dockOfSlot.put(slot.getSlotId(), dockName);
+                }));
+                version++;
+                baseVersion = version;
+                fixed = -1;
+            }
+
+            for (BatteryRealtimeEvent event : replay) applyLoaded(event);
+            loadedAt = System.currentTimeMillis();
+            return fixed < 0 ? grouped.stream().mapToInt(d -> d.getSlots().size()).sum() : fixed;
+        }
+
+        synchronized StationSlotViewDTO viewSince(Long knownVersion) {
+            lastAccess = System.currentTimeMillis();
+            long oldest = Math.max(baseVersion, version - RING_SIZE);
+            if (knownVersion != null && knownVersion <= version && knownVersion >= oldest) {
+                List<StationSlotViewDTO.SlotChange> changes = new ArrayList<>();
+                for (long v = knownVersion + 1; v <= version; v++) {
+                    changes.add(ring[(int) (v % RING_SIZE)]);
+                }
+                return StationSlotViewDTO.builder()
+                        .stationId(stationId)
+                        .type("DELTA")
+                        .fromVersion(knownVersion)
+                        .version(version)
+                        .changes(changes)
+                        .build();
+            }
+            return StationSlotViewDTO.builder()
+                    .stationId(stationId)
+                    .type("SNAPSHOT")
+                    .version(version)
+                    .docks(snapshot())
+                    .build();
+        }
+
+        private void applyLoaded(BatteryRealtimeEvent event) {
+            String dockName = event.getDockId() != null ? dockOfSlot.get(event.getDockId()) : null;
+            if (dockName == null) dockName = event.getDockName();
+            if (dockName == null || event.getSlotNumber() == null) return;
+
+            TreeMap<Integer, SlotBatteryDTO> slots = docks.computeIfAbsent(dockName, k -> new TreeMap<>());
+            SlotBatteryDTO current = slots.get(event.getSlotNumber());
+
+            // Copy-on-write: snapshot đã gửi đi không bị sửa ngầm
+            SlotBatteryDTO next = new SlotBatteryDTO();
+            next.setSlotId(current != null ? current.getSlotId() : event.getDockId());
+            next.setSlotNumber(event.getSlotNumber());
+            next.setSlotCode(dockName + event.getSlotNumber());
+
+            String action = event.getAction() != null ? event.getAction() : "";
+            if ("EJECTED".equals(action) || "REMOVED".equals(action) || event.getBatteryId() == null) {
+                next.setBatteryStatus("EMPTY");
+                next.setCurrentCapacity(0.0);
+            } else {
+                next.setBatteryId(event.getBatteryId());
+                next.setBatteryType(event.getBatteryType());
+                next.setBatteryStatus(event.getBatteryStatus());
+                next.setCurrentCapacity(event.getCurrentCapacity());
+                next.setStateOfHealth(event.getStateOfHealth());
+            }
+
+            slots.put(event.getSlotNumber(), next);
+            if (next.getSlotId() != null) dockOfSlot.put(next.getSlotId(), dockName);
+
+            version++;
+            ring[(int) (version % RING_SIZE)] = new StationSlotViewDTO.SlotChange(version, dockName, next);
+        }
+
+        private List<DockBatteryGroupDTO> snapshot() {
+            List<DockBatteryGroupDTO> result = new ArrayList<>(docks.size());
+            for (var entry : docks.entrySet()) {
+                DockBatteryGroupDTO dockDto = new DockBatteryGroupDTO();
+                dockDto.setDockName(entry.getKey());
+                dockDto.setSlots(new ArrayList<>(entry.getValue().values()));
+                result.add(dockDto);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.service.mail.MailSendException;
+import BatterySwapStation.service.mail.StubMailTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Chạy EmailOutboxService với StubMailTransport và 1 bảng EmailOutbox giả trong bộ nhớ
+ * (JdbcTemplate giả mô phỏng các câu SQL của outbox, đồng hồ do test điều khiển).
+ */
+class EmailOutboxServiceTest {
+
+    private FakeOutboxJdbcTemplate jdbc;
+    private StubMailTransport transport;
+    private EmailOutboxService service;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new FakeOutboxJdbcTemplate();
+        transport = new StubMailTransport();
+        service = new EmailOutboxService(jdbc, transport, mock(SchedulerLeaseService.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    @DisplayName("enqueue bỏ qua email trùng (Recipient, DedupKey)")
+    void enqueueSkipsDuplicateRecipientAndDedupKey() {
+        assertTrue(service.enqueue("a@test.vn", "Hóa đơn", "<p>1</p>", "invoice-paid:1"));
+        assertFalse(service.enqueue("a@test.vn", "Hóa đơn", "<p>1</p>", "invoice-paid:1"));
+        assertFalse(service.enqueue(" a@test.vn ", "Hóa đơn", "<p>1</p>", "invoice-paid:1"));
+
+        // Khác người nhận hoặc không có khóa → không chống trùng
+        assertTrue(service.enqueue("b@test.vn", "Hóa đơn", "<p>1</p>", "invoice-paid:1"));
+        assertTrue(service.enqueue("a@test.vn", "OTP", "<p>2</p>", null));
+        assertTrue(service.enqueue("a@test.vn", "OTP", "<p>2</p>", null));
+
+        assertEquals(4, jdbc.rows.size());
+        assertTrue(jdbc.rows.stream().allMatch(r -> r.status.equals("PENDING") && r.attempts == 0));
+    }
+
+    @Test
+    @DisplayName("enqueue từ chối người nhận rỗng")
+    void enqueueRejectsBlankRecipient() {
+        assertThrows(IllegalArgumentException.class, () -> service.enqueue(" ", "s", "b", null));
+        assertTrue(jdbc.rows.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Mail đến hạn được nhận, gửi qua transport rồi chuyển SENT")
+    void claimedMailIsSentAndMarkedSent() {
+        service.enqueue("a@test.vn", "Xin chào", "<p>hi</p>", "welcome:a");
+        service.enqueue("b@test.vn", "Xin chào", "<p>hi</p>", "welcome:b");
+
+        service.drain();
+
+        assertEquals(List.of("a@test.vn", "b@test.vn"),
+                transport.getSent().stream().map(StubMailTransport.SentMail::to).sorted().toList());
+        for (OutboxRow row : jdbc.rows) {
+            assertEquals("SENT", row.status);
+            assertEquals(1, row.attempts);
+            assertNotNull(row.sentAt);
+            assertNull(row.lastError);
+        }
+
+        // Đã SENT → lần quét sau không gửi lại
+        transport.clear();
+        jdbc.advance(Duration.ofHours(2));
+        service.drain();
+        assertTrue(transport.getSent().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Lỗi tạm thời → giữ PENDING, lùi lịch theo backoff rồi gửi lại")
+    void retryableFailureBacksOffAndStaysPending() {
+        service.enqueue("a@test.vn", "OTP", "<p>123</p>", null);
+        transport.failWith(new MailSendException("SendGrid 503", true));
+
+        service.drain();
+
+        OutboxRow row = jdbc.rows.get(0);
+        assertEquals("PENDING", row.status);
+        assertEquals(1, row.attempts);
+        assertEquals("SendGrid 503", row.lastError);
+        assertEquals(jdbc.now.plus(Duration.ofSeconds(30)), row.nextAttemptAt);
+
+        // Chưa tới hạn → không nhận lại
+        transport.clear();
+        jdbc.advance(Duration.ofSeconds(29));
+        service.drain();
+        assertEquals(1, row.attempts);
+        assertTrue(transport.getSent().isEmpty());
+
+        // Tới hạn → gửi lại thành công
+        jdbc.advance(Duration.ofSeconds(1));
+        service.drain();
+        assertEquals("SENT", row.status);
+        assertEquals(2, row.attempts);
+        assertEquals(1, transport.getSent().size());
+    }
+
+    @Test
+    @DisplayName("Backoff tăng gấp đôi sau mỗi lần lỗi")
+    void backoffDoublesOnEachFailure() {
+        service.enqueue("a@test.vn", "OTP", "<p>123</p>", null);
+        transport.failWith(new MailSendException("timeout", true));
+        OutboxRow row = jdbc.rows.get(0);
+
+        Duration[] expected = {Duration.ofSeconds(30), Duration.ofMinutes(1), Duration.ofMinutes(2)};
+        for (Duration delay : expected) {
+            service.drain();
+            assertEquals(jdbc.now.plus(delay), row.nextAttemptAt);
+            jdbc.advance(delay);
+        }
+        assertEquals(3, row.attempts);
+    }
+
+    @Test
+    @DisplayName("Lỗi cố định → FAILED ngay, không thử lại")
+    void nonRetryableFailureMarksFailed() {
+        service.enqueue("sai-dia-chi", "OTP", "<p>123</p>", null);
+        transport.failWith(new MailSendException("SendGrid 400: invalid email", false));
+
+        service.drain();
+
+        OutboxRow row = jdbc.rows.get(0);
+        assertEquals("FAILED", row.status);
+        assertEquals(1, row.attempts);
+        assertEquals("SendGrid 400: invalid email", row.lastError);
+
+        transport.clear();
+        jdbc.advance(Duration.ofHours(2));
+        service.drain();
+        assertEquals(1, row.attempts);
+        assertTrue(transport.getSent().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Hết MAX_ATTEMPTS lần thử → FAILED")
+    void stopsRetryingAfterMaxAttempts() {
+        service.enqueue("a@test.vn", "OTP", "<p>123</p>", null);
+        transport.failWith(new MailSendException("SendGrid 503", true));
+        OutboxRow row = jdbc.rows.get(0);
+
+        for (int i = 0; i < EmailOutboxService.MAX_ATTEMPTS + 3; i++) {
+            service.drain();
+            jdbc.advance(Duration.ofHours(2)); // vượt backoff tối đa (1h)
+        }
+
+        assertEquals("FAILED", row.status);
+        assertEquals(EmailOutboxService.MAX_ATTEMPTS, row.attempts);
+        assertEquals("SendGrid 503", row.lastError);
+    }
+
+    // ==================== BẢNG OUTBOX GIẢ ====================
+
+    private static final class OutboxRow {
+        final long id;
+        final String recipient;
+        final String subject;
+        final String body;
+        final String dedupKey;
+        String status = "PENDING";
+        int attempts;
+        Instant nextAttemptAt;
+        String lastError;
+        Instant sentAt;
+
+        OutboxRow(long id, String recipient, String subject, String body, String dedupKey, Instant now) {
+            this.id = id;
+            this.recipient = recipient;
+            this.subject = subject;
+            this.body = body;
+            this.dedupKey = dedupKey;
+            this.nextAttemptAt = now;
+        }
+    }
+
+    /**
+     * Mô phỏng các câu lệnh EmailOutboxService dùng, nhận diện theo nội dung SQL.
+     */
+    private static final class FakeOutboxJdbcTemplate extends JdbcTemplate {
+
+        final List<OutboxRow> rows = new ArrayList<>();
+        Instant now = Instant.parse("2026-01-01T00:00:00Z");
+        private long nextId = 1;
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public synchronized int update(String sql, Object... args) {
+            if (!sql.contains("INSERT INTO EmailOutbox")) {
+                throw new UnsupportedOperationException(sql);
+            }
+            String recipient = (String) args[0];
+            String dedupKey = (String) args[3];
+            // UNIQUE (Recipient, DedupKey): NULL không bao giờ trùng
+            boolean conflict = dedupKey != null && rows.stream()
+                    .anyMatch(r -> r.recipient.equals(recipient) && dedupKey.equals(r.dedupKey));
+            if (conflict) return 0;
+            rows.add(new OutboxRow(nextId++, recipient, (String) args[1], (String) args[2], dedupKey, now));
+            return 1;
+        }
+
+        @Override
+        public synchronized <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+            if (!sql.contains("SET Attempts = o.Attempts + 1")) {
+                throw new UnsupportedOperationException(sql);
+            }
+            long claimMillis = ((Number) args[0]).longValue();
+            int limit = ((Number) args[1]).intValue();
+
+            List<OutboxRow> due = rows.stream()
+                    .filter(r -> r.status.equals("PENDING") && !r.nextAttemptAt.isAfter(now))
+                    .sorted(Comparator.comparing((OutboxRow r) -> r.nextAttemptAt))
+                    .limit(limit)
+                    .toList();
+
+            List<T> result = new ArrayList<>();
+            for (int i = 0; i < due.size(); i++) {
+                OutboxRow row = due.get(i);
+                row.attempts++;
+                row.nextAttemptAt = now.plusMillis(claimMillis);
+                result.add(mapRow(rowMapper, row, i));
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            int[] counts = new int[batchArgs.size()];
+            for (int i = 0; i < batchArgs.size(); i++) {
+                Object[] args = batchArgs.get(i);
+                if (sql.contains("Status = 'SENT'")) {
+                    OutboxRow row = find(args[0]);
+                    row.status = "SENT";
+                    row.sentAt = now;
+                    row.lastError = null;
+                } else if (sql.contains("Status = 'FAILED'")) {
+                    OutboxRow row = find(args[1]);
+                    row.status = "FAILED";
+                    row.lastError = (String) args[0];
+                } else if (sql.contains("SET NextAttemptAt")) {
+                    OutboxRow row = find(args[2]);
+                    row.nextAttemptAt = now.plusMillis(((Number) args[0]).longValue());
+                    row.lastError = (String) args[1];
+                } else {
+                    throw new UnsupportedOperationException(sql);
+                }
+                counts[i] = 1;
+            }
+            return counts;
+        }
+
+        private OutboxRow find(Object id) {
+            long emailId = ((Number) id).longValue();
+            return rows.stream()
+                    .filter(r -> r.id == emailId)
+                    .findFirst()
+                    .orElseThrow();
+        }
+
+        private static <T> T mapRow(RowMapper<T> rowMapper, OutboxRow row, int rowNum) {
+            try {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getLong(1)).thenReturn(row.id);
+                when(rs.getString(2)).thenReturn(row.recipient);
+                when(rs.getString(3)).thenReturn(row.subject);
+                when(rs.getString(4)).thenReturn(row.body);
+                when(rs.getInt(5)).thenReturn(row.attempts);
+                return Objects.requireNonNull(rowMapper.mapRow(rs, rowNum));
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package BatterySwapStation.service;
+
+import BatterySwapStation.service.mail.MailSendException;
+import BatterySwapStation.service.mail.StubMailTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Chạy đúng các câu SQL của EmailOutboxService (ON CONFLICT, CLAIM_SQL + SKIP LOCKED, RETRY_SQL, dọn dẹp)
+ * trên Postgres thật. Mỗi test dùng 1 schema tạm riêng, xóa khi xong.
+ * Cần biến môi trường TEST_DB_URL (+ TEST_DB_USER, TEST_DB_PASSWORD); không có thì bỏ qua.
+ */
+class EmailOutboxSqlTest {
+
+    private static final String DDL = """
+            CREATE TABLE EmailOutbox (
+                EmailId BIGSERIAL PRIMARY KEY,
+                Recipient VARCHAR(320) NOT NULL,
+                Subject VARCHAR(255) NOT NULL,
+                Body TEXT NOT NULL,
+                DedupKey VARCHAR(150),
+                Status VARCHAR(20) NOT NULL,
+                Attempts INT NOT NULL,
+                NextAttemptAt TIMESTAMP NOT NULL,
+                LastError VARCHAR(1000),
+                CreatedAt TIMESTAMP NOT NULL,
+                SentAt TIMESTAMP,
+                CONSTRAINT uk_emailoutbox_dedup UNIQUE (Recipient, DedupKey)
+            )
+            """;
+
+    private final List<SingleConnectionDataSource> dataSources = new ArrayList<>();
+    private String schema;
+    private JdbcTemplate jdbc;
+    private StubMailTransport transport;
+    private EmailOutboxService service;
+
+    @BeforeEach
+    void setUp() {
+        String url = System.getenv("TEST_DB_URL");
+        assumeTrue(url != null && !url.isBlank(), "TEST_DB_URL chưa đặt → bỏ qua test SQL outbox");
+
+        schema = "outbox_test_" + Long.toHexString(System.nanoTime());
+        jdbc = connect();
+        jdbc.execute("CREATE SCHEMA " + schema);
+        jdbc.execute("SET search_path TO " + schema);
+        jdbc.execute(DDL);
+
+        SchedulerLeaseService lease = mock(SchedulerLeaseService.class);
+        when(lease.runExclusive(anyString(), any(Duration.class), any(LongConsumer.class))).thenAnswer(inv -> {
+            inv.getArgument(2, LongConsumer.class).accept(1L);
+            return true;
+        });
+        transport = new StubMailTransport();
+        service = new EmailOutboxService(jdbc, transport, lease);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) service.shutdown();
+        if (jdbc != null) jdbc.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+        dataSources.forEach(SingleConnectionDataSource::destroy);
+    }
+
+    @Test
+    @DisplayName("ON CONFLICT (Recipient, DedupKey) bỏ qua mail trùng, DedupKey NULL không bao giờ trùng")
+    void enqueueOnConflictSkipsDuplicates() {
+        assertTrue(service.enqueue("a@test.vn", "Hóa đơn", "<p>1</p>", "invoice-paid:1"));
+        assertFalse(service.enqueue("a@test.vn", "Hóa đơn", "<p>1</p>", "invoice-paid:1"));
+        assertTrue(service.enqueue("a@test.vn", "OTP", "<p>2</p>", null));
+        assertTrue(service.enqueue("a@test.vn", "OTP", "<p>2</p>", null));
+
+        assertEquals(3, count("Status = 'PENDING' AND Attempts = 0"));
+    }
+
+    @Test
+    @DisplayName("CLAIM_SQL chỉ nhận mail PENDING đến hạn, tăng Attempts và giữ chỗ tới hết CLAIM_TTL")
+    void claimTakesOnlyDuePendingRows() {
+        insert("due@test.vn", "PENDING", "now() - interval '1 minute'");
+        insert("later@test.vn", "PENDING", "now() + interval '1 hour'");
+        insert("sent@test.vn", "SENT", "now() - interval '1 minute'");
+        insert("failed@test.vn", "FAILED", "now() - interval '1 minute'");
+
+        List<String> claimed = claim(jdbc, 10);
+        assertEquals(List.of("due@test.vn"), claimed);
+        assertEquals(1, count("Recipient = 'due@test.vn' AND Attempts = 1 AND NextAttemptAt > now() + interval '4 minutes'"));
+
+        // Đang giữ chỗ → lần nhận sau bỏ qua
+        assertTrue(claim(jdbc, 10).isEmpty());
+    }
+
+    @Test
+    @DisplayName("2 dispatcher nhận cùng lúc không lấy trùng mail (FOR UPDATE SKIP LOCKED)")
+    void concurrentClaimsSkipLockedRows() {
+        for (int i = 0; i < 4; i++) {
+            insert("u" + i + "@test.vn", "PENDING", "now() - interval '1 minute'");
+        }
+        JdbcTemplate other = connect();
+        other.execute("SET search_path TO " + schema);
+
+        SingleConnectionDataSource firstDs = dataSources.get(0);
+        TransactionTemplate firstTx = new TransactionTemplate(new DataSourceTransactionManager(firstDs));
+        Set<String> all = new HashSet<>();
+        firstTx.executeWithoutResult(status -> {
+            // Transaction thứ nhất giữ khóa 2 dòng chưa commit → connection thứ 2 phải bỏ qua chúng
+            List<String> first = claim(jdbc, 2);
+            List<String> second = claim(other, 10);
+            assertEquals(2, first.size());
+            assertEquals(2, second.size());
+            all.addAll(first);
+            all.addAll(second);
+        });
+        assertEquals(4, all.size());
+    }
+
+    @Test
+    @DisplayName("Lỗi tạm thời → RETRY_SQL lùi NextAttemptAt theo backoff, giữ PENDING")
+    void retryBacksOffInDatabase() {
+        service.enqueue("a@test.vn", "OTP", "<p>123</p>", null);
+        transport.failWith(new MailSendException("SendGrid 503", true));
+
+        service.drain();
+
+        assertEquals(1, count("Status = 'PENDING' AND Attempts = 1 AND LastError = 'SendGrid 503'"
+                + " AND NextAttemptAt BETWEEN now() + interval '25 seconds' AND now() + interval '35 seconds'"));
+        assertTrue(claim(jdbc, 10).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Dọn dẹp xóa SENT / FAILED quá 30 ngày, giữ mail mới và mail PENDING")
+    void purgeDeletesOldSentAndFailed() {
+        insert("old-sent@test.vn", "SENT", "now()");
+        insert("old-failed@test.vn", "FAILED", "now()");
+        insert("old-pending@test.vn", "PENDING", "now()");
+        insert("new-sent@test.vn", "SENT", "now()");
+        insert("new-failed@test.vn", "FAILED", "now()");
+        jdbc.update("UPDATE EmailOutbox SET CreatedAt = now() - interval '31 days' WHERE Recipient LIKE 'old-%'");
+        jdbc.update("UPDATE EmailOutbox SET SentAt = CreatedAt WHERE Status = 'SENT'");
+
+        service.purgeFinished();
+
+        assertEquals(List.of("new-failed@test.vn", "new-sent@test.vn", "old-pending@test.vn"),
+                jdbc.queryForList("SELECT Recipient FROM EmailOutbox ORDER BY Recipient", String.class));
+    }
+
+    // ==================== HELPERS ====================
+
+    private JdbcTemplate connect() {
+        SingleConnectionDataSource ds = new SingleConnectionDataSource(
+                System.getenv("TEST_DB_URL"), System.getenv("TEST_DB_USER"), System.getenv("TEST_DB_PASSWORD"), true);
+        dataSources.add(ds);
+        return new JdbcTemplate(ds);
+    }
+
+    private void insert(String recipient, String status, String nextAttemptAt) {
+        jdbc.update("INSERT INTO EmailOutbox (Recipient, Subject, Body, Status, Attempts, NextAttemptAt, CreatedAt)"
+                + " VALUES (?, 's', 'b', ?, 0, " + nextAttemptAt + ", now())", recipient, status);
+    }
+
+    private static List<String> claim(JdbcTemplate template, int limit) {
+        return template.query(EmailOutboxService.CLAIM_SQL, (rs, i) -> rs.getString(2),
+                Duration.ofMinutes(5).toMillis(), limit);
+    }
+
+    private int count(String where) {
+        Integer n = jdbc.queryForObject("SELECT COUNT(*) FROM EmailOutbox WHERE " + where, Integer.class);
+        return n != null ? n : 0;
+    }
+}
@@ -70,7 +70,8 @@ export const useStompBattery = () => {
   const subscribeStationGrouped = useCallback((stationId, handler) => {
     const c = clientRef.current;
     if (!c || !c.connected) return () => {};
-    const dest = `/topic/station-${stationId}/grouped`;
+    // Snapshot / delta chỉ gửi riêng cho session vừa join
+    const dest = `/user/queue/station-${stationId}/grouped`;
     const sub = c.subscribe(dest, (frame) => {
       const raw = frame.body;
       try { handler(JSON.parse(raw)); } catch { handler({ raw }); }
@@ -78,10 +79,12 @@ export const useStompBattery = () => {
     return () => sub?.unsubscribe?.();
   }, []);
 
-  const sendJoinStation = useCallback((stationId) => {
+  const sendJoinStation = useCallback((stationId, version) => {
     const c = clientRef.current;
     if (!c || !c.connected) return;
-    c.publish({ destination: "/app/joinStation", body: JSON.stringify({ stationId }) });
+    // Có version đã biết → BE chỉ trả delta từ version đó
+    const body = version != null ? { stationId, version } : { stationId };
+    c.publish({ destination: "/app/joinStation", body: JSON.stringify(body) });
   }, []);
 
   return {
@@ -23,6 +23,7 @@ const BatteryDispatch = () => {
   const [isNewDispatchOpen, setIsNewDispatchOpen] = useState(false);
   const [rebalances, setRebalances] = useState([]);
   const [aiSuggestions, setAISuggestions] = useState([]);
+  const [aiPlanInfo, setAIPlanInfo] = useState(null);
   const [stations, setStations] = useState([]);
   const { toast } = useToast();
 
@@ -36,8 +37,10 @@ const BatteryDispatch = () => {
   };
 
   const loadAISuggestions = async () => {
-    const suggestions = await getAIRebalanceSuggestion();
-    setAISuggestions(suggestions);
+    const plan = await getAIRebalanceSuggestion();
+    // BE trả về { suggestions, method, solveTimeMs, gap, ... }
+    setAISuggestions(Array.isArray(plan) ? plan : plan?.suggestions || []);
+    setAIPlanInfo(Array.isArray(plan) ? null : plan);
   }
 
   const loadStations = async () => {
@@ -497,6 +500,12 @@ const BatteryDispatch = () => {
           </CardTitle>
           <CardDescription>
             Hệ thống AI phân tích và đưa ra các gợi ý điều phối pin tối ưu
+            {aiPlanInfo?.method && aiPlanInfo.method !== "NONE" && (
+              <span className="block text-xs mt-1">
+                {aiPlanInfo.method} · {aiPlanInfo.solveTimeMs} ms · gap {((aiPlanInfo.gap || 0) * 100).toFixed(2)}%
+                {aiPlanInfo.cached ? " · cache" : ""}
+              </span>
+            )}
           </CardDescription>
         </CardHeader>
         <CardContent>
@@ -96,16 +96,46 @@ const BatteryInventory = () => {
   // ====================
 
   // Áp dụng snapshot ban đầu
-  const applySnapshot = (grouped) => {
-    // grouped: [{ dockName: "A"|"B"|"C", slots: [{ slotId, slotNumber, slotCode, batteryId, batteryType, batteryStatus, currentCapacity, stateOfHealth }]}]
-    if (!Array.isArray(grouped)) return;
-    setDocksData(grouped);
+  // Version view của trạm đã áp dụng, gửi lại khi reconnect để chỉ nhận delta
+  const viewVersionRef = useRef(null);
+
+  const applySnapshot = (view) => {
+    // view: { type: "SNAPSHOT", version, docks: [{ dockName, slots: [...] }] }
+    //    | { type: "DELTA", version, changes: [{ version, dockName, slot }] }
+    if (!view) return;
+    if (view.type === "DELTA" && Array.isArray(view.changes)) {
+      setDocksData((prev) => {
+        const next = structuredClone(prev || []);
+        view.changes.forEach(({ dockName, slot }) => {
+          let dock = next.find(d => String(d.dockName) === String(dockName));
+          if (!dock) {
+            dock = { dockName, slots: [] };
+            next.push(dock);
+          }
+          const idx = (dock.slots || []).findIndex(s => Number(s.slotNumber) === Number(slot.slotNumber));
+          if (idx === -1) dock.slots.push(slot);
+          else dock.slots[idx] = slot;
+        });
+        return next;
+      });
+    } else if (Array.isArray(view.docks)) {
+      setDocksData(view.docks);
+    } else if (Array.isArray(view)) {
+      setDocksData(view);
+    }
+    if (view.version != null) viewVersionRef.current = view.version;
   };
   console.log("Docks data:", docksData);
 
   // Xử lý event realtime
   const applyRealtimeEvent = (evt) => {
     console.log("Received battery event:", evt);
+    // BE gộp nhiều event của cùng trạm vào 1 frame: { stationId, action, events: [...] }
+    if (Array.isArray(evt?.events)) {
+      evt.events.forEach(applyRealtimeEvent);
+      if (evt.version != null) viewVersionRef.current = evt.version;
+      return;
+    }
     if (!evt || Number(evt.stationId) !== Number(STATION_ID)) return;
 
     setDocksData((prev) => {
@@ -184,7 +214,7 @@ const BatteryInventory = () => {
     eventsUnsubRef.current = subscribeStation(STATION_ID, applyRealtimeEvent);
 
     // Gửi yêu cầu tham gia trạm → BE sẽ broadcast snapshot vào kênh `/grouped`
-    sendJoinStation(STATION_ID);
+    sendJoinStation(STATION_ID, viewVersionRef.current);
 
     return () => {
       groupedUnsubRef.current?.();